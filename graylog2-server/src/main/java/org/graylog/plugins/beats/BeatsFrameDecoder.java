@@ -19,26 +19,27 @@ package org.graylog.plugins.beats;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.io.ByteStreams;
 import com.google.common.primitives.Ints;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.DecoderException;
 import io.netty.handler.codec.ReplayingDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
+import javax.annotation.Nullable;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.zip.InflaterInputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * FrameDecoder for the Beats/Lumberjack protocol.
@@ -64,11 +65,31 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
         FRAME_WINDOW_SIZE
     }
 
+    // compressed windows smaller than this are cheaper to decode on the event loop than to hand over
+    private static final int OFFLOAD_MIN_COMPRESSED_SIZE = 64 * 1024;
+    private static final InflaterPool INFLATER_POOL = new InflaterPool(2 * Runtime.getRuntime().availableProcessors());
+
+    @Nullable
+    private final Executor decodingExecutor;
+    // only accessed on the event loop
+    private CompletableFuture<Void> offloadedFrames = CompletableFuture.completedFuture(null);
+    private int pendingFrames = 0;
+
+    // only accessed by the thread currently decoding a frame, which is the event loop or the offloaded frame chain
     private long windowSize;
     private long sequenceNum;
 
     public BeatsFrameDecoder() {
+        this(null);
+    }
+
+    /**
+     * @param decodingExecutor the executor to decode large compressed windows on or {@code null} to decode all frames
+     *                         on the event loop
+     */
+    public BeatsFrameDecoder(@Nullable Executor decodingExecutor) {
         super(DecodingState.PROTOCOL_VERSION);
+        this.decodingExecutor = decodingExecutor;
     }
 
     @Override
@@ -98,16 +119,18 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
                 }
                 return;
             case FRAME_WINDOW_SIZE:
-                processWindowSizeFrame(buffer);
+                processFrame(channelHandlerContext, FRAME_WINDOW_SIZE, buffer.readRetainedSlice(4), list);
                 break;
             case FRAME_DATA:
-                list.addAll(parseDataFrame(channelHandlerContext.channel(), buffer));
+                processFrame(channelHandlerContext, FRAME_DATA, readDataFrame(buffer), list);
                 break;
             case FRAME_COMPRESSED:
-                list.addAll(processCompressedFrame(channelHandlerContext.channel(), buffer));
+                final int compressedLength = Ints.saturatedCast(buffer.getUnsignedInt(buffer.readerIndex()));
+                processFrame(channelHandlerContext, FRAME_COMPRESSED, buffer.readRetainedSlice(4 + compressedLength), list);
                 break;
             case FRAME_JSON:
-                list.addAll(parseJsonFrame(channelHandlerContext.channel(), buffer));
+                final int jsonLength = Ints.saturatedCast(buffer.getUnsignedInt(buffer.readerIndex() + 4));
+                processFrame(channelHandlerContext, FRAME_JSON, buffer.readRetainedSlice(8 + jsonLength), list);
                 break;
             default:
                 throw new Exception("Unknown decoding state: " + state());
@@ -116,6 +139,106 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
         checkpoint(DecodingState.PROTOCOL_VERSION);
     }
 
+    /**
+     * Reads a complete data frame, so it can be decoded independently of the replaying buffer.
+     */
+    private ByteBuf readDataFrame(ByteBuf buffer) {
+        final int start = buffer.readerIndex();
+        // sequence number
+        buffer.skipBytes(4);
+        final long pairs = buffer.readUnsignedInt();
+        for (long i = 0; i < 2 * pairs; i++) {
+            buffer.skipBytes(Ints.saturatedCast(buffer.readUnsignedInt()));
+        }
+        final int length = buffer.readerIndex() - start;
+        buffer.readerIndex(start);
+        return buffer.readRetainedSlice(length);
+    }
+
+    /**
+     * Decodes a complete frame on the event loop or hands it over to the decoding executor. Frames following an
+     * offloaded frame are offloaded as well until it has been decoded, to keep the order of events and ACKs.
+     */
+    private void processFrame(ChannelHandlerContext ctx, byte frameType, ByteBuf frame, List<Object> out) throws Exception {
+        final boolean offload = decodingExecutor != null
+                && (pendingFrames > 0 || (frameType == FRAME_COMPRESSED && frame.readableBytes() >= OFFLOAD_MIN_COMPRESSED_SIZE));
+        if (!offload) {
+            try {
+                out.addAll(decodeFrame(ctx.channel(), frameType, frame));
+            } finally {
+                frame.release();
+            }
+            return;
+        }
+
+        pendingFrames++;
+        offloadedFrames = offloadedFrames
+                .thenRunAsync(() -> decodeOffloadedFrame(ctx, frameType, frame), decodingExecutor)
+                .exceptionally(e -> {
+                    // The decoding executor rejected the frame, so it has never been decoded. Later frames can't
+                    // be decoded in order anymore either, recover the chain so they are released as well.
+                    frame.release();
+                    ctx.channel().close();
+                    onEventLoop(ctx, Collections.emptyList(), e);
+                    return null;
+                });
+    }
+
+    /**
+     * Runs on the decoding executor and must not throw, otherwise the following frames would never be decoded.
+     */
+    private void decodeOffloadedFrame(ChannelHandlerContext ctx, byte frameType, ByteBuf frame) {
+        Collection<ByteBuf> events = Collections.emptyList();
+        Exception failure = null;
+        try {
+            events = decodeFrame(ctx.channel(), frameType, frame);
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            frame.release();
+        }
+        onEventLoop(ctx, events, failure);
+    }
+
+    private void onEventLoop(ChannelHandlerContext ctx, Collection<ByteBuf> events, @Nullable Throwable failure) {
+        try {
+            ctx.executor().execute(() -> completeOffloadedFrame(ctx, events, failure));
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Event loop has been shut down, discarding decoded Beats events", e);
+            events.forEach(ByteBuf::release);
+            ctx.channel().close();
+        }
+    }
+
+    private void completeOffloadedFrame(ChannelHandlerContext ctx, Collection<ByteBuf> events, @Nullable Throwable failure) {
+        pendingFrames--;
+        if (ctx.isRemoved()) {
+            events.forEach(ByteBuf::release);
+            return;
+        }
+        events.forEach(ctx::fireChannelRead);
+        ctx.fireChannelReadComplete();
+        if (failure != null) {
+            ctx.fireExceptionCaught(new DecoderException(failure));
+        }
+    }
+
+    private Collection<ByteBuf> decodeFrame(Channel channel, byte frameType, ByteBuf frame) throws Exception {
+        switch (frameType) {
+            case FRAME_WINDOW_SIZE:
+                processWindowSizeFrame(frame);
+                return Collections.emptyList();
+            case FRAME_DATA:
+                return parseDataFrame(channel, frame);
+            case FRAME_COMPRESSED:
+                return processCompressedFrame(channel, frame);
+            case FRAME_JSON:
+                return parseJsonFrame(channel, frame);
+            default:
+                throw new Exception("Unknown frame type: " + frameType);
+        }
+    }
+
     private Collection<ByteBuf> processUncompressedBuffer(Channel channel, ByteBuf buffer) throws Exception {
         checkVersion(buffer);
         byte frameType = buffer.readByte();
@@ -176,13 +299,13 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
      * @see <a href="https://github.com/logstash-plugins/logstash-input-beats/blob/master/PROTOCOL.md#compressed-frame-type">'compressed' frame type</a>
      */
     private Collection<ByteBuf> processCompressedFrame(Channel channel, ByteBuf channelBuffer) throws Exception {
-        final long payloadLength = channelBuffer.readUnsignedInt();
-        final byte[] data = new byte[(int) payloadLength];
-        channelBuffer.readBytes(data);
-        try (final ByteArrayInputStream dataStream = new ByteArrayInputStream(data);
-             final InputStream in = new InflaterInputStream(dataStream)) {
-            final ByteBuf buffer = Unpooled.wrappedBuffer(ByteStreams.toByteArray(in));
+        final int payloadLength = Ints.saturatedCast(channelBuffer.readUnsignedInt());
+        final ByteBuf payload = channelBuffer.readSlice(payloadLength);
+        final ByteBuf buffer = INFLATER_POOL.inflate(channel.alloc(), payload);
+        try {
             return processCompressedDataFrames(channel, buffer);
+        } finally {
+            buffer.release();
         }
     }
 
@@ -16,6 +16,8 @@
  */
 package org.graylog.plugins.beats;
 
+import com.codahale.metrics.InstrumentedExecutorService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.assistedinject.Assisted;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.EventLoopGroup;
@@ -25,7 +27,10 @@ import org.graylog2.inputs.transports.netty.EventLoopGroupFactory;
 import org.graylog2.plugin.LocalMetricRegistry;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
+import org.graylog2.plugin.configuration.fields.ConfigurationField;
+import org.graylog2.plugin.configuration.fields.NumberField;
 import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.inputs.MisfireException;
 import org.graylog2.plugin.inputs.annotations.ConfigClass;
 import org.graylog2.plugin.inputs.annotations.FactoryClass;
 import org.graylog2.plugin.inputs.transports.AbstractTcpTransport;
@@ -36,8 +41,16 @@ import org.graylog2.plugin.inputs.util.ThroughputCounter;
 import javax.inject.Inject;
 import java.util.LinkedHashMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class BeatsTransport extends AbstractTcpTransport {
+    static final String CK_DECODING_THREADS = "decoding_threads";
+
+    private final int decodingThreads;
+    private volatile ExecutorService decodingExecutor;
+
     @Inject
     public BeatsTransport(@Assisted Configuration configuration,
                           EventLoopGroup eventLoopGroup,
@@ -47,12 +60,37 @@ public class BeatsTransport extends AbstractTcpTransport {
                           LocalMetricRegistry localRegistry,
                           TLSProtocolsConfiguration tlsConfiguration) {
         super(configuration, throughputCounter, localRegistry, eventLoopGroup, eventLoopGroupFactory, nettyTransportConfiguration, tlsConfiguration);
+        this.decodingThreads = Math.max(0, configuration.getInt(CK_DECODING_THREADS, 0));
+    }
+
+    @Override
+    public void launch(MessageInput input) throws MisfireException {
+        if (decodingThreads > 0) {
+            final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                    .setNameFormat("beats-decoder-" + input.getId() + "-%d")
+                    .setDaemon(true)
+                    .build();
+            decodingExecutor = new InstrumentedExecutorService(
+                    Executors.newFixedThreadPool(decodingThreads, threadFactory),
+                    localRegistry,
+                    "decoding-executor");
+        }
+        super.launch(input);
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        if (decodingExecutor != null) {
+            decodingExecutor.shutdown();
+            decodingExecutor = null;
+        }
     }
 
     @Override
     protected LinkedHashMap<String, Callable<? extends ChannelHandler>> getCustomChildChannelHandlers(MessageInput input) {
         final LinkedHashMap<String, Callable<? extends ChannelHandler>> handlers = new LinkedHashMap<>(super.getCustomChildChannelHandlers(input));
-        handlers.put("beats", BeatsFrameDecoder::new);
+        handlers.put("beats", () -> new BeatsFrameDecoder(decodingExecutor));
 
         return handlers;
     }
@@ -74,6 +112,14 @@ public class BeatsTransport extends AbstractTcpTransport {
             if (cr.containsField(NettyTransport.CK_PORT)) {
                 cr.getField(NettyTransport.CK_PORT).setDefaultValue(5044);
             }
+            cr.addField(new NumberField(
+                    CK_DECODING_THREADS,
+                    "Decoding threads",
+                    0,
+                    "Number of threads decoding large compressed windows instead of the network threads. Events and ACKs " +
+                            "of a connection keep their order. Set to 0 to decode all windows on the network threads.",
+                    ConfigurationField.Optional.OPTIONAL,
+                    NumberField.Attribute.ONLY_POSITIVE));
             return cr;
         }
     }
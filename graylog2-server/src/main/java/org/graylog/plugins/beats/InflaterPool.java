@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.beats;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Bounded pool of {@link Inflater} instances which decompresses zlib data directly into pooled buffers.
+ * <p>
+ * Creating an {@link Inflater} allocates native memory which is only freed by {@link Inflater#end()} or finalization,
+ * so reusing them avoids both the allocation and the finalizer pressure for every compressed frame.
+ */
+final class InflaterPool {
+    private static final int MIN_OUTPUT_SIZE = 1024;
+
+    private final BlockingQueue<Inflater> inflaters;
+
+    InflaterPool(int capacity) {
+        this.inflaters = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Decompresses the readable bytes of the given buffer without changing its reader index.
+     *
+     * @param alloc      the allocator for the decompressed buffer
+     * @param compressed the zlib compressed data
+     * @return a new buffer with the decompressed data, which has to be released by the caller
+     * @throws DataFormatException if the data is not valid zlib data or truncated
+     */
+    ByteBuf inflate(ByteBufAllocator alloc, ByteBuf compressed) throws DataFormatException {
+        final int length = compressed.readableBytes();
+        // the JDK inflater only works on arrays
+        final ByteBuf input = compressed.hasArray() ? compressed.retainedDuplicate() : alloc.heapBuffer(length).writeBytes(compressed, compressed.readerIndex(), length);
+        final ByteBuf output = alloc.heapBuffer(Math.max(MIN_OUTPUT_SIZE, length * 2));
+        final Inflater inflater = acquire();
+        try {
+            inflater.setInput(input.array(), input.arrayOffset() + input.readerIndex(), length);
+            while (!inflater.finished()) {
+                if (!output.isWritable()) {
+                    output.ensureWritable(output.capacity());
+                }
+                final int inflated = inflater.inflate(output.array(), output.arrayOffset() + output.writerIndex(), output.writableBytes());
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Unexpected end of compressed data");
+                }
+                output.writerIndex(output.writerIndex() + inflated);
+            }
+            return output.retain();
+        } finally {
+            output.release();
+            input.release();
+            release(inflater);
+        }
+    }
+
+    private Inflater acquire() {
+        final Inflater inflater = inflaters.poll();
+        return inflater == null ? new Inflater() : inflater;
+    }
+
+    private void release(Inflater inflater) {
+        inflater.reset();
+        if (!inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+}
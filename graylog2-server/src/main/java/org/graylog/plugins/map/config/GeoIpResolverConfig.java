@@ -22,11 +22,16 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nullable;
+import java.util.List;
 
 @JsonAutoDetect
 @JsonIgnoreProperties(ignoreUnknown = true)
 @AutoValue
 public abstract class GeoIpResolverConfig {
+    private static final long DEFAULT_CACHE_SIZE = 10_000;
 
     @JsonProperty("enabled")
     public abstract boolean enabled();
@@ -37,14 +42,30 @@ public abstract class GeoIpResolverConfig {
     @JsonProperty("db_path")
     public abstract String dbPath();
 
+    /**
+     * The message fields to resolve. If empty, all message fields are checked for IP addresses.
+     */
+    @JsonProperty("fields")
+    public abstract List<String> fields();
+
+    /**
+     * The maximum number of IP addresses for which the location is cached. Zero disables the cache.
+     */
+    @JsonProperty("cache_size")
+    public abstract long cacheSize();
+
     @JsonCreator
     public static GeoIpResolverConfig create(@JsonProperty("enabled") boolean enabled,
                                              @JsonProperty("db_type") DatabaseType dbType,
-                                             @JsonProperty("db_path") String dbPath) {
+                                             @JsonProperty("db_path") String dbPath,
+                                             @JsonProperty("fields") @Nullable List<String> fields,
+                                             @JsonProperty("cache_size") @Nullable Long cacheSize) {
         return builder()
                 .enabled(enabled)
                 .dbType(dbType)
                 .dbPath(dbPath)
+                .fields(fields == null ? ImmutableList.of() : fields)
+                .cacheSize(cacheSize == null ? DEFAULT_CACHE_SIZE : cacheSize)
                 .build();
     }
 
@@ -53,6 +74,8 @@ public abstract class GeoIpResolverConfig {
                .enabled(false)
                .dbType(DatabaseType.MAXMIND_CITY)
                .dbPath("/etc/graylog/server/GeoLite2-City.mmdb")
+               .fields(ImmutableList.of())
+               .cacheSize(DEFAULT_CACHE_SIZE)
                .build();
     }
 
@@ -67,6 +90,8 @@ public abstract class GeoIpResolverConfig {
         public abstract Builder enabled(boolean enabled);
         public abstract Builder dbType(DatabaseType dbType);
         public abstract Builder dbPath(String dbPath);
+        public abstract Builder fields(List<String> fields);
+        public abstract Builder cacheSize(long cacheSize);
 
         public abstract GeoIpResolverConfig build();
     }
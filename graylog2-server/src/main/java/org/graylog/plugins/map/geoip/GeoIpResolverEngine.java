@@ -19,8 +19,12 @@ package org.graylog.plugins.map.geoip;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.auto.value.AutoValue;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.net.InetAddresses;
+import com.maxmind.db.Reader;
 import com.maxmind.geoip2.DatabaseReader;
 import com.maxmind.geoip2.model.CityResponse;
 import com.maxmind.geoip2.record.City;
@@ -36,7 +40,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.file.Files;
-import java.util.Map;
+import java.util.List;
 import java.util.Optional;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -45,17 +49,26 @@ public class GeoIpResolverEngine {
     private static final Logger LOG = LoggerFactory.getLogger(GeoIpResolverEngine.class);
 
     private final Timer resolveTime;
+    private final List<String> fields;
+    // Also caches addresses without location, e. g. private ones, because a failed lookup is as expensive as a hit
+    @Nullable
+    private final Cache<InetAddress, Optional<GeoLocationInformation>> locationCache;
     private DatabaseReader databaseReader;
     private boolean enabled;
 
 
     public GeoIpResolverEngine(GeoIpResolverConfig config, MetricRegistry metricRegistry) {
         this.resolveTime = metricRegistry.timer(name(GeoIpResolverEngine.class, "resolveTime"));
+        this.fields = config.fields();
+        this.locationCache = config.cacheSize() > 0 ? Caffeine.newBuilder().maximumSize(config.cacheSize()).build() : null;
 
         try {
             final File database = new File(config.dbPath());
             if (Files.exists(database.toPath())) {
-                this.databaseReader = new DatabaseReader.Builder(database).build();
+                // The lookups only touch a few pages of the database, so map it instead of reading it onto the heap
+                this.databaseReader = new DatabaseReader.Builder(database)
+                        .fileMode(Reader.FileMode.MEMORY_MAPPED)
+                        .build();
                 this.enabled = config.enabled();
             } else {
                 LOG.warn("GeoIP database file does not exist: {}", config.dbPath());
@@ -72,22 +85,36 @@ public class GeoIpResolverEngine {
             return false;
         }
 
-        for (Map.Entry<String, Object> field : message.getFields().entrySet()) {
-            final String key = field.getKey();
-            if (!key.startsWith(Message.INTERNAL_FIELD_PREFIX)) {
-                final Optional<GeoLocationInformation> geoLocationInformation = extractGeoLocationInformation(field.getValue());
-                geoLocationInformation.ifPresent(locationInformation -> {
-                    // We will store the coordinates as a "lat,long" string
-                    message.addField(key + "_geolocation", locationInformation.latitude() + "," + locationInformation.longitude());
-                    message.addField(key + "_country_code", locationInformation.countryIsoCode());
-                    message.addField(key + "_city_name", locationInformation.cityName());
-                });
+        if (fields.isEmpty()) {
+            // Copy the field names, because adding the location fields modifies the message fields
+            for (String key : ImmutableList.copyOf(message.getFieldNames())) {
+                if (!key.startsWith(Message.INTERNAL_FIELD_PREFIX)) {
+                    resolveField(message, key);
+                }
+            }
+        } else {
+            for (String key : fields) {
+                resolveField(message, key);
             }
         }
 
         return false;
     }
 
+    private void resolveField(Message message, String key) {
+        final Object fieldValue = message.getField(key);
+        if (fieldValue == null) {
+            return;
+        }
+        final Optional<GeoLocationInformation> geoLocationInformation = extractGeoLocationInformation(fieldValue);
+        geoLocationInformation.ifPresent(locationInformation -> {
+            // We will store the coordinates as a "lat,long" string
+            message.addField(key + "_geolocation", locationInformation.latitude() + "," + locationInformation.longitude());
+            message.addField(key + "_country_code", locationInformation.countryIsoCode());
+            message.addField(key + "_city_name", locationInformation.cityName());
+        });
+    }
+
     @VisibleForTesting
     Optional<GeoLocationInformation> extractGeoLocationInformation(Object fieldValue) {
         final InetAddress ipAddress;
@@ -99,22 +126,30 @@ public class GeoIpResolverEngine {
             ipAddress = null;
         }
 
+        if (ipAddress == null) {
+            return Optional.empty();
+        }
+        if (locationCache != null) {
+            return locationCache.get(ipAddress, this::lookupGeoLocationInformation);
+        }
+        return lookupGeoLocationInformation(ipAddress);
+    }
+
+    private Optional<GeoLocationInformation> lookupGeoLocationInformation(InetAddress ipAddress) {
         GeoLocationInformation geoLocationInformation = null;
-        if (ipAddress != null) {
-            try (Timer.Context ignored = resolveTime.time()) {
-                final CityResponse response = databaseReader.city(ipAddress);
-                final Location location = response.getLocation();
-                final Country country = response.getCountry();
-                final City city = response.getCity();
-
-                geoLocationInformation = GeoLocationInformation.create(
-                        location.getLatitude(), location.getLongitude(),
-                        country.getGeoNameId() != null ? country.getIsoCode() : "N/A",
-                        city.getGeoNameId() != null ? city.getName() : "N/A" // calling to .getName() may throw a NPE
-                );
-            } catch (Exception e) {
-                LOG.debug("Could not get location from IP {}", ipAddress.getHostAddress(), e);
-            }
+        try (Timer.Context ignored = resolveTime.time()) {
+            final CityResponse response = databaseReader.city(ipAddress);
+            final Location location = response.getLocation();
+            final Country country = response.getCountry();
+            final City city = response.getCity();
+
+            geoLocationInformation = GeoLocationInformation.create(
+                    location.getLatitude(), location.getLongitude(),
+                    country.getGeoNameId() != null ? country.getIsoCode() : "N/A",
+                    city.getGeoNameId() != null ? city.getName() : "N/A" // calling to .getName() may throw a NPE
+            );
+        } catch (Exception e) {
+            LOG.debug("Could not get location from IP {}", ipAddress.getHostAddress(), e);
         }
 
         return Optional.ofNullable(geoLocationInformation);
@@ -123,6 +158,9 @@ public class GeoIpResolverEngine {
     @Nullable
     @VisibleForTesting
     InetAddress getIpFromFieldValue(String fieldValue) {
+        if (!mightBeIpAddress(fieldValue)) {
+            return null;
+        }
         try {
             return InetAddresses.forString(fieldValue.trim());
         } catch (IllegalArgumentException e) {
@@ -132,6 +170,22 @@ public class GeoIpResolverEngine {
         return null;
     }
 
+    /**
+     * Cheap check to skip most values which can't be an IP address, because a failed parse throws an exception.
+     */
+    private static boolean mightBeIpAddress(String fieldValue) {
+        int start = 0;
+        while (start < fieldValue.length() && Character.isWhitespace(fieldValue.charAt(start))) {
+            start++;
+        }
+        if (start == fieldValue.length()) {
+            return false;
+        }
+        final char first = fieldValue.charAt(start);
+        final boolean validFirst = (first >= '0' && first <= '9') || (first >= 'a' && first <= 'f') || (first >= 'A' && first <= 'F') || first == ':';
+        return validFirst && (fieldValue.indexOf('.', start) >= 0 || fieldValue.indexOf(':', start) >= 0);
+    }
+
     @AutoValue
     static abstract class GeoLocationInformation {
         public abstract double latitude();
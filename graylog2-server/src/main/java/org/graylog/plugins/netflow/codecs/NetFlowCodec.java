@@ -16,9 +16,12 @@
  */
 package org.graylog.plugins.netflow.codecs;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Maps;
 import com.google.inject.assistedinject.Assisted;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
@@ -78,9 +81,17 @@ public class NetFlowCodec extends AbstractCodec implements MultiMessageCodec {
     @VisibleForTesting
     static final String CK_NETFLOW9_DEFINITION_PATH = "netflow9_definitions_Path";
     private static final Logger LOG = LoggerFactory.getLogger(NetFlowCodec.class);
+    // Offset of the source ID in the NetFlow V9 header
+    private static final int V9_SOURCE_ID_OFFSET = 16;
     private final NetFlowV9FieldTypeRegistry typeRegistry;
     private final NetflowV9CodecAggregator netflowV9CodecAggregator;
 
+    // Every journal entry contains the templates of its packets, cache the parsed templates with their compiled
+    // record decoders, so they are only parsed again if the exporter sends a different template with the same id.
+    private final Cache<TemplateKey, CompiledTemplate> compiledTemplates = Caffeine.newBuilder()
+            .maximumSize(5000)
+            .build();
+
     @Inject
     protected NetFlowCodec(@Assisted Configuration configuration, NetflowV9CodecAggregator netflowV9CodecAggregator) throws IOException {
         super(configuration);
@@ -154,7 +165,7 @@ public class NetFlowCodec extends AbstractCodec implements MultiMessageCodec {
 
     @VisibleForTesting
     Collection<Message> decodeV9(InetSocketAddress sender, ByteBuf buffer) throws InvalidProtocolBufferException {
-        final List<NetFlowV9Packet> netFlowV9Packets = decodeV9Packets(buffer);
+        final List<NetFlowV9Packet> netFlowV9Packets = decodeV9Packets(sender, buffer);
 
         return netFlowV9Packets.stream().map(netFlowV9Packet -> netFlowV9Packet.records().stream()
                 .filter(record -> record instanceof NetFlowV9Record)
@@ -166,15 +177,33 @@ public class NetFlowCodec extends AbstractCodec implements MultiMessageCodec {
 
     @VisibleForTesting
     List<NetFlowV9Packet> decodeV9Packets(ByteBuf buffer) throws InvalidProtocolBufferException {
+        return decodeV9Packets(null, buffer);
+    }
+
+    @VisibleForTesting
+    List<NetFlowV9Packet> decodeV9Packets(@Nullable InetSocketAddress sender, ByteBuf buffer) throws InvalidProtocolBufferException {
         byte[] v9JournalEntry = new byte[buffer.readableBytes()];
         buffer.readBytes(v9JournalEntry);
         final NetFlowV9Journal.RawNetflowV9 rawNetflowV9 = NetFlowV9Journal.RawNetflowV9.parseFrom(v9JournalEntry);
 
+        // All packets of a journal entry have been sent by the same exporter, see NetflowV9CodecAggregator
+        final long sourceId = rawNetflowV9.getPacketsCount() > 0 && rawNetflowV9.getPackets(0).size() >= V9_SOURCE_ID_OFFSET + 4
+                ? Unpooled.wrappedBuffer(rawNetflowV9.getPackets(0).asReadOnlyByteBuffer()).getUnsignedInt(V9_SOURCE_ID_OFFSET)
+                : -1;
+
         // parse all templates used in the packet
         final Map<Integer, NetFlowV9Template> templateMap = Maps.newHashMap();
         rawNetflowV9.getTemplatesMap().forEach((templateId, byteString) -> {
-            final NetFlowV9Template netFlowV9Template = NetFlowV9Parser.parseTemplate(
-                    Unpooled.wrappedBuffer(byteString.toByteArray()), typeRegistry);
+            final TemplateKey templateKey = new TemplateKey(sender, sourceId, templateId);
+            final CompiledTemplate compiledTemplate = compiledTemplates.getIfPresent(templateKey);
+            final NetFlowV9Template netFlowV9Template;
+            if (compiledTemplate != null && compiledTemplate.bytes.equals(byteString)) {
+                netFlowV9Template = compiledTemplate.template;
+            } else {
+                netFlowV9Template = NetFlowV9Parser.parseTemplate(
+                        Unpooled.wrappedBuffer(byteString.toByteArray()), typeRegistry);
+                compiledTemplates.put(templateKey, new CompiledTemplate(byteString, netFlowV9Template));
+            }
             templateMap.put(templateId, netFlowV9Template);
         });
         final NetFlowV9OptionTemplate[] optionTemplate = {null};
@@ -188,6 +217,16 @@ public class NetFlowCodec extends AbstractCodec implements MultiMessageCodec {
                 .collect(Collectors.toList());
     }
 
+    private static class CompiledTemplate {
+        private final ByteString bytes;
+        private final NetFlowV9Template template;
+
+        CompiledTemplate(ByteString bytes, NetFlowV9Template template) {
+            this.bytes = bytes;
+            this.template = template;
+        }
+    }
+
     @FactoryClass
     public interface Factory extends AbstractCodec.Factory<NetFlowCodec> {
         @Override
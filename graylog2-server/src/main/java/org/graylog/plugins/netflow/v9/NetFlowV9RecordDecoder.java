@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.netflow.v9;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+import static com.google.common.base.Strings.emptyToNull;
+
+/**
+ * Decodes the data records of a template. The template is compiled once into the offset, field name and value reader
+ * of every field, so decoding a record doesn't have to look at the field definitions again.
+ * <p>
+ * The decoded values are the same as the ones of {@link NetFlowV9FieldDef#parse(ByteBuf)}.
+ */
+public class NetFlowV9RecordDecoder {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final String[] names;
+    private final int[] offsets;
+    private final FieldReader[] readers;
+    private final int[] scopeTypes;
+    private final int[] scopeOffsets;
+    private final int[] scopeLengths;
+    private final int recordLength;
+    private final boolean optionRecords;
+
+    private NetFlowV9RecordDecoder(List<NetFlowV9FieldDef> definitions, @Nullable List<NetFlowV9ScopeDef> scopeDefs) {
+        final int fieldCount = definitions.size();
+        this.names = new String[fieldCount];
+        this.offsets = new int[fieldCount];
+        this.readers = new FieldReader[fieldCount];
+
+        int offset = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            final NetFlowV9FieldDef def = definitions.get(i);
+            final int length = def.length() != 0 ? def.length() : def.type().valueType().getDefaultLength();
+            names[i] = def.type().name().toLowerCase(Locale.ROOT);
+            offsets[i] = offset;
+            readers[i] = compileReader(def.type().valueType(), length);
+            offset += length;
+        }
+
+        // Scope fields follow the option fields, like in NetFlowV9Parser
+        this.optionRecords = scopeDefs != null;
+        final int scopeCount = scopeDefs == null ? 0 : scopeDefs.size();
+        this.scopeTypes = new int[scopeCount];
+        this.scopeOffsets = new int[scopeCount];
+        this.scopeLengths = new int[scopeCount];
+        for (int i = 0; i < scopeCount; i++) {
+            final NetFlowV9ScopeDef scopeDef = scopeDefs.get(i);
+            scopeTypes[i] = scopeDef.type();
+            scopeOffsets[i] = offset;
+            scopeLengths[i] = scopeDef.length();
+            offset += scopeDef.length();
+        }
+
+        this.recordLength = offset;
+    }
+
+    public static NetFlowV9RecordDecoder forTemplate(NetFlowV9Template template) {
+        return new NetFlowV9RecordDecoder(template.definitions(), null);
+    }
+
+    public static NetFlowV9RecordDecoder forOptionTemplate(NetFlowV9OptionTemplate optionTemplate) {
+        return new NetFlowV9RecordDecoder(optionTemplate.optionDefs(), optionTemplate.scopeDefs());
+    }
+
+    /**
+     * @return the length of a single record in bytes
+     */
+    public int recordLength() {
+        return recordLength;
+    }
+
+    /**
+     * Decodes all complete records between {@code start} and {@code end}. The remaining bytes are treated as padding.
+     * Uses absolute indexes, the reader index of the buffer isn't modified.
+     */
+    public List<NetFlowV9BaseRecord> decodeRecords(ByteBuf bb, int start, int end) {
+        if (recordLength == 0) {
+            return ImmutableList.of();
+        }
+
+        final int limit = Math.min(end, bb.writerIndex());
+        final ImmutableList.Builder<NetFlowV9BaseRecord> records = ImmutableList.builder();
+        for (int recordStart = start; recordStart + recordLength <= limit; recordStart += recordLength) {
+            records.add(decodeRecord(bb, recordStart));
+        }
+        return records.build();
+    }
+
+    private NetFlowV9BaseRecord decodeRecord(ByteBuf bb, int recordStart) {
+        final ImmutableMap.Builder<String, Object> fields = ImmutableMap.builderWithExpectedSize(names.length);
+        for (int i = 0; i < names.length; i++) {
+            final Object value = readers[i].read(bb, recordStart + offsets[i]);
+            if (value != null) {
+                fields.put(names[i], value);
+            }
+        }
+
+        if (!optionRecords) {
+            return NetFlowV9Record.create(fields.build());
+        }
+
+        final ImmutableMap.Builder<Integer, Object> scopes = ImmutableMap.builderWithExpectedSize(scopeTypes.length);
+        for (int i = 0; i < scopeTypes.length; i++) {
+            final int index = recordStart + scopeOffsets[i];
+            long l = 0;
+            for (int j = 0; j < scopeLengths[i]; j++) {
+                l <<= 8;
+                l |= bb.getUnsignedByte(index + j);
+            }
+            scopes.put(scopeTypes[i], l);
+        }
+        return NetFlowV9OptionRecord.create(fields.build(), scopes.build());
+    }
+
+    private static FieldReader compileReader(NetFlowV9FieldType.ValueType valueType, int length) {
+        switch (valueType) {
+            case UINT8:
+            case UINT16:
+            case UINT24:
+            case UINT32:
+            case UINT64:
+                return compileUnsignedNumberReader(length);
+            case INT8:
+                return ByteBuf::getByte;
+            case INT16:
+                return ByteBuf::getShort;
+            case INT24:
+                return ByteBuf::getMedium;
+            case INT32:
+                return ByteBuf::getInt;
+            case INT64:
+                return ByteBuf::getLong;
+            case IPV4:
+                return NetFlowV9RecordDecoder::readIPv4Address;
+            case IPV6:
+                return NetFlowV9RecordDecoder::readIPv6Address;
+            case MAC:
+                return NetFlowV9RecordDecoder::readMacAddress;
+            case STRING:
+                return (bb, index) -> emptyToNull(bb.toString(index, length, StandardCharsets.UTF_8).trim());
+            case SKIP:
+            default:
+                return (bb, index) -> null;
+        }
+    }
+
+    private static FieldReader compileUnsignedNumberReader(int length) {
+        switch (length) {
+            case 1:
+                return ByteBuf::getUnsignedByte;
+            case 2:
+                return ByteBuf::getUnsignedShort;
+            case 3:
+                return ByteBuf::getUnsignedMedium;
+            case 4:
+                return ByteBuf::getUnsignedInt;
+            case 8:
+                return ByteBuf::getLong;
+            default:
+                return (bb, index) -> {
+                    final byte[] bytes = new byte[length];
+                    bb.getBytes(index, bytes);
+                    return new BigInteger(bytes);
+                };
+        }
+    }
+
+    private static String readIPv4Address(ByteBuf bb, int index) {
+        // Same format as InetAddress#getHostAddress() without creating the address object
+        return new StringBuilder(15)
+                .append(bb.getUnsignedByte(index)).append('.')
+                .append(bb.getUnsignedByte(index + 1)).append('.')
+                .append(bb.getUnsignedByte(index + 2)).append('.')
+                .append(bb.getUnsignedByte(index + 3))
+                .toString();
+    }
+
+    @Nullable
+    private static String readIPv6Address(ByteBuf bb, int index) {
+        final byte[] bytes = new byte[16];
+        bb.getBytes(index, bytes);
+        try {
+            return InetAddress.getByAddress(bytes).getHostAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private static String readMacAddress(ByteBuf bb, int index) {
+        final char[] chars = new char[17];
+        for (int i = 0; i < 6; i++) {
+            final int b = bb.getUnsignedByte(index + i);
+            chars[i * 3] = HEX_DIGITS[b >>> 4];
+            chars[i * 3 + 1] = HEX_DIGITS[b & 0x0f];
+            if (i < 5) {
+                chars[i * 3 + 2] = ':';
+            }
+        }
+        return new String(chars);
+    }
+
+    @FunctionalInterface
+    private interface FieldReader {
+        @Nullable
+        Object read(ByteBuf bb, int index);
+    }
+}
@@ -20,6 +20,7 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
 import com.google.common.collect.ImmutableList;
 
 import java.util.List;
@@ -36,6 +37,11 @@ public abstract class NetFlowV9Template {
     @JsonProperty("definitions")
     public abstract ImmutableList<NetFlowV9FieldDef> definitions();
 
+    @Memoized
+    public NetFlowV9RecordDecoder decoder() {
+        return NetFlowV9RecordDecoder.forTemplate(this);
+    }
+
     @JsonCreator
     public static NetFlowV9Template create(@JsonProperty("template_id") int templateId,
                                            @JsonProperty("field_count") int fieldCount,
@@ -17,10 +17,20 @@
 package org.graylog.plugins.pipelineprocessor;
 
 import com.github.joschi.jadconfig.Parameter;
+import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
 import org.graylog2.plugin.PluginConfigBean;
 
 public class PipelineConfig implements PluginConfigBean {
 
     @Parameter("cached_stageiterators")
     private boolean cachedStageIterators = true;
+
+    @Parameter("parallel_stage_evaluation")
+    private boolean parallelStageEvaluation = false;
+
+    @Parameter(value = "parallel_stage_evaluation_min_message_size", validators = PositiveIntegerValidator.class)
+    private int parallelStageEvaluationMinMessageSize = 64 * 1024;
+
+    @Parameter(value = "parallel_stage_evaluation_threads", validators = PositiveIntegerValidator.class)
+    private int parallelStageEvaluationThreads = Runtime.getRuntime().availableProcessors();
 }
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
+import org.graylog.plugins.pipelineprocessor.ast.Stage;
+import org.graylog.plugins.pipelineprocessor.processors.listeners.InterpreterListener;
+import org.graylog.plugins.pipelineprocessor.processors.listeners.NoopInterpreterListener;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.shared.utilities.ExceptionUtils;
+import org.graylog2.system.shutdown.GracefulShutdownHook;
+import org.graylog2.system.shutdown.GracefulShutdownService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Evaluates the stages of a stage slice concurrently if the pipelines they belong to do not depend on each other.
+ *
+ * The first stage of a slice is evaluated on the calling thread against the original message, every other stage is
+ * evaluated on a copy of the message in a shared fork-join pool. Once all stages are done, the changes made to the
+ * copies are merged back into the original message in slice order, which is the same order the sequential
+ * evaluation uses. Because only stages with disjoint field footprints (see {@link StageFootprint}) run concurrently,
+ * the result is identical to the sequential evaluation.
+ *
+ * The fork-join pool is shut down once the message buffers have been drained on server shutdown.
+ */
+@Singleton
+public class ParallelStageEvaluator implements GracefulShutdownHook {
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelStageEvaluator.class);
+
+    /**
+     * Evaluates a single stage for the given message, collecting created messages and pipelines to skip.
+     */
+    public interface StageEvaluation {
+        void evaluate(Stage stage, Message message, List<Message> createdMessages, Set<Pipeline> pipelinesToSkip);
+    }
+
+    private final boolean enabled;
+    private final long minMessageSize;
+    private final ForkJoinPool pool;
+    // weak keys use identity comparison, stages are recreated whenever the pipeline state changes
+    private final Cache<Stage, StageFootprint> footprints = CacheBuilder.newBuilder().weakKeys().build();
+    private final Meter parallelSlices;
+    private final Meter dependentSlices;
+
+    @Inject
+    public ParallelStageEvaluator(@Named("parallel_stage_evaluation") boolean enabled,
+                                  @Named("parallel_stage_evaluation_min_message_size") int minMessageSize,
+                                  @Named("parallel_stage_evaluation_threads") int threads,
+                                  MetricRegistry metricRegistry,
+                                  GracefulShutdownService gracefulShutdownService) {
+        this(enabled, minMessageSize, threads, metricRegistry);
+        if (enabled) {
+            gracefulShutdownService.register(this);
+        }
+    }
+
+    private ParallelStageEvaluator(boolean enabled, int minMessageSize, int threads, MetricRegistry metricRegistry) {
+        this.enabled = enabled;
+        this.minMessageSize = minMessageSize;
+        this.pool = enabled ? new ForkJoinPool(threads, new WorkerThreadFactory(), null, false) : null;
+        this.parallelSlices = metricRegistry.meter(name(PipelineInterpreter.class, "parallelStageSlices"));
+        this.dependentSlices = metricRegistry.meter(name(PipelineInterpreter.class, "dependentStageSlices"));
+    }
+
+    /**
+     * @return an evaluator which always evaluates stages sequentially
+     */
+    public static ParallelStageEvaluator disabled() {
+        return new ParallelStageEvaluator(false, Integer.MAX_VALUE, 1, new MetricRegistry());
+    }
+
+    @Override
+    public void doGracefulShutdown() throws Exception {
+        if (pool == null) {
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+            LOG.warn("Timeout shutting down parallel stage evaluation pool after 10 seconds");
+        }
+    }
+
+    /**
+     * Decides whether the given stage slice can be evaluated concurrently for the message.
+     *
+     * Listeners are not required to be thread-safe, so only slices evaluated with the {@link NoopInterpreterListener}
+     * qualify. Messages below the configured size threshold are cheaper to evaluate sequentially than to copy.
+     *
+     * @param stages the runnable stages of the slice, in slice order
+     * @return {@code true} if {@link #evaluate} may be used for the slice
+     */
+    public boolean canEvaluateInParallel(Message message, List<Stage> stages, InterpreterListener interpreterListener) {
+        if (!enabled || stages.size() < 2 || message.getSize() < minMessageSize
+                || !(interpreterListener instanceof NoopInterpreterListener)) {
+            return false;
+        }
+        final List<StageFootprint> sliceFootprints = new ArrayList<>(stages.size());
+        for (Stage stage : stages) {
+            final StageFootprint footprint = footprint(stage);
+            for (StageFootprint previous : sliceFootprints) {
+                if (!footprint.isIndependentOf(previous)) {
+                    dependentSlices.mark();
+                    return false;
+                }
+            }
+            sliceFootprints.add(footprint);
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates the stages concurrently and merges their changes into the message in stage order.
+     *
+     * @param stages          the stages of one slice, which must have passed {@link #canEvaluateInParallel}
+     * @param message         the message to evaluate the stages for
+     * @param createdMessages the list to add messages created by the stages to
+     * @param pipelinesToSkip the set to add pipelines to which must not continue with their next stage
+     * @param evaluation      the evaluation of a single stage
+     */
+    public void evaluate(List<Stage> stages,
+                         Message message,
+                         List<Message> createdMessages,
+                         Set<Pipeline> pipelinesToSkip,
+                         StageEvaluation evaluation) {
+        parallelSlices.mark();
+
+        // copy the message before the first stage starts to change it
+        final List<Branch> branches = new ArrayList<>(stages.size() - 1);
+        for (Stage stage : stages.subList(1, stages.size())) {
+            branches.add(new Branch(stage, copyOf(message)));
+        }
+        for (Branch branch : branches) {
+            branch.task = pool.submit(() -> evaluation.evaluate(branch.stage, branch.message, branch.createdMessages, branch.pipelinesToSkip));
+        }
+
+        try {
+            evaluation.evaluate(stages.get(0), message, createdMessages, pipelinesToSkip);
+        } finally {
+            // always wait for the other stages, they must not run while the message is being used elsewhere
+            RuntimeException failure = null;
+            for (Branch branch : branches) {
+                try {
+                    branch.task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = new IllegalStateException("Interrupted while evaluating stage " + branch.stage, e);
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = propagate(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        for (Branch branch : branches) {
+            merge(message, branch.message, footprint(branch.stage));
+            createdMessages.addAll(branch.createdMessages);
+            pipelinesToSkip.addAll(branch.pipelinesToSkip);
+        }
+    }
+
+    private StageFootprint footprint(Stage stage) {
+        try {
+            return footprints.get(stage, () -> StageFootprint.of(stage));
+        } catch (ExecutionException e) {
+            LOG.warn("Unable to analyze stage {}: {}", stage, ExceptionUtils.getRootCauseMessage(e));
+            return StageFootprint.of(stage);
+        }
+    }
+
+    private static RuntimeException propagate(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    private static Message copyOf(Message message) {
+        final Message copy = new Message(message.getFields());
+        copy.addStreams(message.getStreams());
+        copy.setSourceInputId(message.getSourceInputId());
+        copy.setFilterOut(message.getFilterOut());
+        return copy;
+    }
+
+    private static void merge(Message target, Message branch, StageFootprint footprint) {
+        final Set<String> fields;
+        if (footprint.writesAll()) {
+            fields = new HashSet<>(target.getFieldNames());
+            fields.addAll(branch.getFieldNames());
+        } else {
+            fields = footprint.writes();
+        }
+        for (String field : fields) {
+            if (StageFootprint.STREAMS.equals(field) || StageFootprint.FILTER_OUT.equals(field)) {
+                continue;
+            }
+            final Object value = branch.getField(field);
+            if (value == null) {
+                target.removeField(field);
+            } else if (value != target.getField(field)) {
+                target.addField(field, value);
+            }
+        }
+        if (footprint.writesAll() || footprint.writes().contains(StageFootprint.STREAMS)) {
+            final Set<Stream> branchStreams = branch.getStreams();
+            for (Stream stream : target.getStreams()) {
+                if (!branchStreams.contains(stream)) {
+                    target.removeStream(stream);
+                }
+            }
+            target.addStreams(branchStreams);
+        }
+        if (branch.getFilterOut()) {
+            target.setFilterOut(true);
+        }
+        branch.processingErrors().forEach(target::addProcessingError);
+    }
+
+    private static class Branch {
+        private final Stage stage;
+        private final Message message;
+        private final List<Message> createdMessages = new ArrayList<>();
+        private final Set<Pipeline> pipelinesToSkip = new HashSet<>();
+        private ForkJoinTask<?> task;
+
+        Branch(Stage stage, Message message) {
+            this.stage = stage;
+            this.message = message;
+        }
+    }
+
+    private static class WorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("pipeline-stage-evaluator-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -78,17 +78,26 @@ public class PipelineInterpreter implements MessageProcessor {
     private final Timer executionTime;
     private final MetricRegistry metricRegistry;
     private final ConfigurationStateUpdater stateUpdater;
+    private final ParallelStageEvaluator parallelStageEvaluator;
 
-    @Inject
     public PipelineInterpreter(MessageQueueAcknowledger messageQueueAcknowledger,
                                MetricRegistry metricRegistry,
                                ConfigurationStateUpdater stateUpdater) {
+        this(messageQueueAcknowledger, metricRegistry, stateUpdater, ParallelStageEvaluator.disabled());
+    }
+
+    @Inject
+    public PipelineInterpreter(MessageQueueAcknowledger messageQueueAcknowledger,
+                               MetricRegistry metricRegistry,
+                               ConfigurationStateUpdater stateUpdater,
+                               ParallelStageEvaluator parallelStageEvaluator) {
 
         this.messageQueueAcknowledger = messageQueueAcknowledger;
         this.filteredOutMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "filteredOutMessages"));
         this.executionTime = metricRegistry.timer(name(PipelineInterpreter.class, "executionTime"));
         this.metricRegistry = metricRegistry;
         this.stateUpdater = stateUpdater;
+        this.parallelStageEvaluator = parallelStageEvaluator;
     }
 
     /**
@@ -267,8 +276,19 @@ public class PipelineInterpreter implements MessageProcessor {
         // pipeline execution ordering is not guaranteed
         while (stages.hasNext()) {
             final List<Stage> stageSet = stages.next();
-            for (final Stage stage : stageSet) {
-                evaluateStage(stage, message, msgId, result, pipelinesToSkip, interpreterListener);
+            final List<Stage> runnableStages = stageSet.stream()
+                    .filter(stage -> !pipelinesToSkip.contains(stage.getPipeline()))
+                    .collect(Collectors.toList());
+            if (parallelStageEvaluator.canEvaluateInParallel(message, runnableStages, interpreterListener)) {
+                // the stages of independent pipelines don't see each other's changes, they are merged in slice order
+                log.debug("[{}] evaluating {} independent stages in parallel", msgId, runnableStages.size());
+                parallelStageEvaluator.evaluate(runnableStages, message, result, pipelinesToSkip,
+                        (stage, stageMessage, createdMessages, skippedPipelines) ->
+                                evaluateStage(stage, stageMessage, msgId, createdMessages, skippedPipelines, interpreterListener));
+            } else {
+                for (final Stage stage : stageSet) {
+                    evaluateStage(stage, message, msgId, result, pipelinesToSkip, interpreterListener);
+                }
             }
         }
 
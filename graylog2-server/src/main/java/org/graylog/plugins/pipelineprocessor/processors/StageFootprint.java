@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.Stage;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.Expression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FunctionExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.MessageRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs;
+import org.graylog.plugins.pipelineprocessor.ast.statements.FunctionStatement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.VarAssignStatement;
+import org.graylog.plugins.pipelineprocessor.functions.FromInput;
+import org.graylog.plugins.pipelineprocessor.functions.messages.CloneMessage;
+import org.graylog.plugins.pipelineprocessor.functions.messages.CreateMessage;
+import org.graylog.plugins.pipelineprocessor.functions.messages.DropMessage;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.RemoveField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.RemoveFromStream;
+import org.graylog.plugins.pipelineprocessor.functions.messages.RenameField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.RouteToStream;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetFields;
+import org.graylog.plugins.pipelineprocessor.functions.messages.TrafficAccountingSize;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The set of message fields a pipeline stage reads and writes, derived statically from the rules of the stage.
+ *
+ * Only the message functions bundled with the pipeline processor are understood. Stages using any other function
+ * which might access the current message implicitly, or passing an explicit message to a message function, are
+ * reported as not {@link #isAnalyzable() analyzable} and must never be evaluated concurrently with other stages.
+ */
+class StageFootprint {
+    /**
+     * Pseudo field names for the parts of a message which are not stored as fields. They contain characters that
+     * are not valid in field names, so they cannot clash with real fields.
+     */
+    static final String STREAMS = "<streams>";
+    static final String FILTER_OUT = "<filter_out>";
+
+    private static final String BUNDLED_FUNCTIONS_PACKAGE = FromInput.class.getPackage().getName();
+    private static final String MESSAGE_ARG = "message";
+
+    private static final StageFootprint NOT_ANALYZABLE = new StageFootprint(false, ImmutableSet.of(), ImmutableSet.of(), true, true);
+
+    private final boolean analyzable;
+    private final ImmutableSet<String> reads;
+    private final ImmutableSet<String> writes;
+    private final boolean readsAll;
+    private final boolean writesAll;
+
+    private StageFootprint(boolean analyzable, ImmutableSet<String> reads, ImmutableSet<String> writes, boolean readsAll, boolean writesAll) {
+        this.analyzable = analyzable;
+        this.reads = reads;
+        this.writes = writes;
+        this.readsAll = readsAll;
+        this.writesAll = writesAll;
+    }
+
+    static StageFootprint of(Stage stage) {
+        final Collector collector = new Collector();
+        for (Rule rule : stage.getRules()) {
+            collector.visit(rule.when());
+            for (Statement statement : rule.then()) {
+                if (statement instanceof FunctionStatement) {
+                    collector.visit(((FunctionStatement) statement).getFunctionExpression());
+                } else if (statement instanceof VarAssignStatement) {
+                    collector.visit(((VarAssignStatement) statement).getValueExpression());
+                } else {
+                    return NOT_ANALYZABLE;
+                }
+            }
+            if (!collector.analyzable) {
+                return NOT_ANALYZABLE;
+            }
+        }
+        return new StageFootprint(true,
+                ImmutableSet.copyOf(collector.reads),
+                ImmutableSet.copyOf(collector.writes),
+                collector.readsAll,
+                collector.writesAll);
+    }
+
+    boolean isAnalyzable() {
+        return analyzable;
+    }
+
+    /**
+     * @return the fields (including the pseudo fields {@link #STREAMS} and {@link #FILTER_OUT}) the stage might
+     * change, only meaningful if {@link #writesAll()} is {@code false}
+     */
+    Set<String> writes() {
+        return writes;
+    }
+
+    boolean writesAll() {
+        return writesAll;
+    }
+
+    /**
+     * Two stages are independent if neither of them writes anything the other one reads or writes. Independent
+     * stages produce the same result regardless of the order they are evaluated in.
+     */
+    boolean isIndependentOf(StageFootprint other) {
+        return analyzable && other.analyzable && !interferesWith(other) && !other.interferesWith(this);
+    }
+
+    private boolean interferesWith(StageFootprint other) {
+        if (!writesAll && writes.isEmpty()) {
+            return false;
+        }
+        if (writesAll || other.readsAll || other.writesAll) {
+            return true;
+        }
+        for (String field : writes) {
+            if (other.reads.contains(field) || other.writes.contains(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Collector {
+        private final Set<String> reads = new HashSet<>();
+        private final Set<String> writes = new HashSet<>();
+        private boolean readsAll = false;
+        private boolean writesAll = false;
+        private boolean analyzable = true;
+
+        void visit(Expression expression) {
+            if (!analyzable) {
+                return;
+            }
+            if (expression instanceof MessageRefExpression) {
+                final String field = constantString(((MessageRefExpression) expression).getFieldExpr());
+                if (field == null) {
+                    readsAll = true;
+                } else {
+                    reads.add(field);
+                }
+            } else if (expression instanceof FunctionExpression) {
+                visitFunction((FunctionExpression) expression);
+            }
+            for (Expression child : expression.children()) {
+                visit(child);
+            }
+        }
+
+        private void visitFunction(FunctionExpression expression) {
+            final FunctionArgs args = expression.getArgs();
+            if (!expression.getFunction().getClass().getPackage().getName().startsWith(BUNDLED_FUNCTIONS_PACKAGE)
+                    || args.isPresent(MESSAGE_ARG)) {
+                analyzable = false;
+                return;
+            }
+            switch (expression.getFunction().descriptor().name()) {
+                case HasField.NAME:
+                    read(args, HasField.FIELD);
+                    break;
+                case SetField.NAME:
+                    if (args.isPresent("prefix") || args.isPresent("suffix")) {
+                        writesAll = true;
+                    } else {
+                        write(args, "field");
+                    }
+                    break;
+                case RemoveField.NAME:
+                    write(args, RemoveField.FIELD);
+                    break;
+                case RenameField.NAME:
+                    read(args, "old_field");
+                    write(args, "old_field");
+                    write(args, "new_field");
+                    break;
+                case SetFields.NAME:
+                    writesAll = true;
+                    break;
+                case RouteToStream.NAME:
+                case RemoveFromStream.NAME:
+                    reads.add(STREAMS);
+                    writes.add(STREAMS);
+                    break;
+                case DropMessage.NAME:
+                    writes.add(FILTER_OUT);
+                    break;
+                case CloneMessage.NAME:
+                case TrafficAccountingSize.NAME:
+                    readsAll = true;
+                    break;
+                case CreateMessage.NAME:
+                case FromInput.NAME:
+                default:
+                    // these functions do not touch the fields of the current message
+                    break;
+            }
+        }
+
+        private void read(FunctionArgs args, String argName) {
+            final String field = constantString(args.expression(argName));
+            if (field == null) {
+                readsAll = true;
+            } else {
+                reads.add(field);
+            }
+        }
+
+        private void write(FunctionArgs args, String argName) {
+            final String field = constantString(args.expression(argName));
+            if (field == null) {
+                writesAll = true;
+            } else {
+                writes.add(field);
+            }
+        }
+
+        private static String constantString(Expression expression) {
+            if (expression == null || !expression.isConstant()) {
+                return null;
+            }
+            final Object value = expression.evaluateUnsafe(EvaluationContext.emptyContext());
+            return value == null ? null : value.toString().trim();
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.graylog.plugins.views.search.errors.SearchTypeError;
 import org.graylog2.indexer.searches.SearchesClusterConfig;
 import org.graylog2.plugin.cluster.ClusterConfigService;
 import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
+import org.graylog2.rollups.RollupQueryRewriter;
 import org.joda.time.DateTime;
 import org.joda.time.Period;
 import org.slf4j.Logger;
@@ -62,15 +63,24 @@ public class QueryEngine {
     private final Executor queryPool = Executors.newFixedThreadPool(4, new ThreadFactoryBuilder().setNameFormat("query-engine-%d").build());
     private final QueryBackend<? extends GeneratedQueryContext> elasticsearchBackend;
     private final Provider<SearchConfig> searchConfig;
+    private final RollupQueryRewriter rollupQueryRewriter;
 
     @Inject
     public QueryEngine(QueryBackend<? extends GeneratedQueryContext> elasticsearchBackend,
                        Set<QueryMetadataDecorator> queryMetadataDecorators,
-                       QueryParser queryParser, Provider<SearchConfig> searchConfig) {
+                       QueryParser queryParser, Provider<SearchConfig> searchConfig,
+                       RollupQueryRewriter rollupQueryRewriter) {
         this.elasticsearchBackend = elasticsearchBackend;
         this.queryMetadataDecorators = queryMetadataDecorators;
         this.queryParser = queryParser;
         this.searchConfig = searchConfig;
+        this.rollupQueryRewriter = rollupQueryRewriter;
+    }
+
+    public QueryEngine(QueryBackend<? extends GeneratedQueryContext> elasticsearchBackend,
+                       Set<QueryMetadataDecorator> queryMetadataDecorators,
+                       QueryParser queryParser, Provider<SearchConfig> searchConfig) {
+        this(elasticsearchBackend, queryMetadataDecorators, queryParser, searchConfig, RollupQueryRewriter.disabled());
     }
 
     // TODO: Backwards-compatible constructor to avoid breakage. Remove at some point.
@@ -169,9 +179,11 @@ public class QueryEngine {
         // with all the results done, we can execute the current query and eventually complete our own result
         // if any of this throws an exception, the handle in #execute will convert it to an error and return a "failed" result instead
         // if the backend already returns a "failed result" then nothing special happens here
-        final GeneratedQueryContext generatedQueryContext = backend.generate(searchJob, query, results,  searchConfig.get());
+        // pivots which only need pre-aggregated counters are answered from the rollups instead of the messages
+        final Query effectiveQuery = rollupQueryRewriter.rewrite(query);
+        final GeneratedQueryContext generatedQueryContext = backend.generate(searchJob, effectiveQuery, results,  searchConfig.get());
         LOG.trace("[{}] Generated query {}, running it on backend {}", query.id(), generatedQueryContext, backend);
-        final QueryResult result = backend.run(searchJob, query, generatedQueryContext, results);
+        final QueryResult result = backend.run(searchJob, effectiveQuery, generatedQueryContext, results);
         LOG.debug("[{}] Query returned {}", query.id(), result);
         if (!generatedQueryContext.errors().isEmpty()) {
             generatedQueryContext.errors().forEach(searchJob::addError);
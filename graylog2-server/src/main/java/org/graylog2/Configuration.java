@@ -23,10 +23,12 @@ import com.github.joschi.jadconfig.ValidatorMethod;
 import com.github.joschi.jadconfig.converters.StringSetConverter;
 import com.github.joschi.jadconfig.converters.TrimmedStringSetConverter;
 import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
 import com.github.joschi.jadconfig.validators.PositiveDurationValidator;
 import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
 import com.github.joschi.jadconfig.validators.PositiveLongValidator;
 import com.github.joschi.jadconfig.validators.StringNotBlankValidator;
+import org.graylog2.grok.GrokPatternRegistry;
 import org.graylog2.plugin.BaseConfiguration;
 import org.graylog2.security.realm.RootAccountRealm;
 import org.graylog2.utilities.IPSubnetConverter;
@@ -174,6 +176,12 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "run_migrations")
     private boolean runMigrations = true;
 
+    @Parameter(value = "grok_engine")
+    private String grokEngine = GrokPatternRegistry.ENGINE_JAVA_GROK;
+
+    @Parameter(value = "gelf_chunk_reassembly_max_size")
+    private Size gelfChunkReassemblyMaxSize = Size.megabytes(64L);
+
     public boolean isMaster() {
         return isMaster;
     }
@@ -218,6 +226,14 @@ public class Configuration extends BaseConfiguration {
         return runMigrations;
     }
 
+    public String getGrokEngine() {
+        return grokEngine;
+    }
+
+    public Size getGelfChunkReassemblyMaxSize() {
+        return gelfChunkReassemblyMaxSize;
+    }
+
     @Override
     public String getNodeIdFile() {
         return nodeIdFile;
@@ -363,6 +379,23 @@ public class Configuration extends BaseConfiguration {
         }
     }
 
+    @ValidatorMethod
+    @SuppressWarnings("unused")
+    public void validateGrokEngine() throws ValidationException {
+        if (!GrokPatternRegistry.ENGINE_JAVA_GROK.equals(grokEngine) && !GrokPatternRegistry.ENGINE_COMPILED.equals(grokEngine)) {
+            throw new ValidationException("Invalid value for \"grok_engine\": " + grokEngine + " (valid values: "
+                    + GrokPatternRegistry.ENGINE_JAVA_GROK + ", " + GrokPatternRegistry.ENGINE_COMPILED + ")");
+        }
+    }
+
+    @ValidatorMethod
+    @SuppressWarnings("unused")
+    public void validateGelfChunkReassemblyMaxSize() throws ValidationException {
+        if (gelfChunkReassemblyMaxSize == null || gelfChunkReassemblyMaxSize.toBytes() <= 0L) {
+            throw new ValidationException("\"gelf_chunk_reassembly_max_size\" must be greater than 0");
+        }
+    }
+
     @ValidatorMethod
     @SuppressWarnings("unused")
     public void validateRootUser() throws ValidationException {
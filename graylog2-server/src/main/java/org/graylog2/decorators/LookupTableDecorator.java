@@ -32,8 +32,12 @@ import org.graylog2.rest.models.messages.responses.ResultMessageSummary;
 import org.graylog2.rest.resources.search.responses.SearchResponse;
 
 import javax.inject.Inject;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
@@ -133,6 +137,13 @@ public class LookupTableDecorator implements SearchResponseDecorator {
 
     @Override
     public SearchResponse apply(SearchResponse searchResponse) {
+        // Look up all distinct values of the page at once instead of one lookup per message.
+        final Set<Object> keys = searchResponse.messages().stream()
+                .map(summary -> summary.message().get(sourceField))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        final Map<Object, LookupResult> results = keys.isEmpty() ? Collections.emptyMap() : lookupTable.lookupAll(keys);
+
         final List<ResultMessageSummary> summaries = searchResponse.messages().stream()
                 .map(summary -> {
                     // Do not touch the message if the field does not exist.
@@ -140,7 +151,7 @@ public class LookupTableDecorator implements SearchResponseDecorator {
                         return summary;
                     }
 
-                    final LookupResult result = lookupTable.lookup(summary.message().get(sourceField));
+                    final LookupResult result = results.get(summary.message().get(sourceField));
 
                     // Do not touch the message if there is no result
                     if (result == null || result.isEmpty()) {
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.filters;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.inputs.Extractor;
+import org.graylog2.utilities.AhoCorasickMatcher;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates the literal parts of the conditions of all extractors of an input with a single scan per source field.
+ * <p>
+ * {@link Extractor.ConditionType#STRING STRING} conditions and {@link Extractor.ConditionType#REGEX REGEX} conditions
+ * starting with a literal are compiled into one {@link AhoCorasickMatcher} per source field. If the required literal
+ * of a condition does not occur in the source field, the extractor condition is known to miss without running
+ * {@link String#contains(CharSequence)} or the regular expression. Conditions which consist only of a literal are
+ * also known to hit if the literal occurs.
+ */
+class ExtractorConditionPrefilter {
+    private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+    private static final String REGEX_QUANTIFIERS = "?*+{";
+
+    private final List<Extractor> extractors;
+    private final Map<String, AhoCorasickMatcher> matchersBySourceField;
+
+    // Indexed by the position of the extractor in the list of extractors
+    private final String[] sourceFields;
+    private final int[] literalIndexes;
+    private final boolean[] exactConditions;
+
+    private ExtractorConditionPrefilter(List<Extractor> extractors,
+                                        Map<String, AhoCorasickMatcher> matchersBySourceField,
+                                        String[] sourceFields,
+                                        int[] literalIndexes,
+                                        boolean[] exactConditions) {
+        this.extractors = extractors;
+        this.matchersBySourceField = matchersBySourceField;
+        this.sourceFields = sourceFields;
+        this.literalIndexes = literalIndexes;
+        this.exactConditions = exactConditions;
+    }
+
+    /**
+     * @param extractors the extractors of an input, in execution order
+     */
+    static ExtractorConditionPrefilter create(List<Extractor> extractors) {
+        final int size = extractors.size();
+        final String[] sourceFields = new String[size];
+        final int[] literalIndexes = new int[size];
+        final boolean[] exactConditions = new boolean[size];
+        final Map<String, List<String>> literalsBySourceField = new LinkedHashMap<>();
+
+        for (int i = 0; i < size; i++) {
+            final Extractor extractor = extractors.get(i);
+            literalIndexes[i] = -1;
+
+            final String literal;
+            if (extractor.getConditionType() == Extractor.ConditionType.STRING) {
+                literal = extractor.getConditionValue();
+                exactConditions[i] = true;
+            } else if (extractor.getConditionType() == Extractor.ConditionType.REGEX) {
+                literal = requiredLiteral(extractor.getConditionValue());
+                exactConditions[i] = literal != null && literal.equals(extractor.getConditionValue());
+            } else {
+                literal = null;
+            }
+            if (literal == null || literal.isEmpty() || extractor.getSourceField() == null) {
+                continue;
+            }
+
+            final List<String> literals = literalsBySourceField.computeIfAbsent(extractor.getSourceField(), field -> new ArrayList<>());
+            int literalIndex = literals.indexOf(literal);
+            if (literalIndex == -1) {
+                literals.add(literal);
+                literalIndex = literals.size() - 1;
+            }
+            sourceFields[i] = extractor.getSourceField();
+            literalIndexes[i] = literalIndex;
+        }
+
+        final Map<String, AhoCorasickMatcher> matchers = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : literalsBySourceField.entrySet()) {
+            // A single literal is checked faster by String#contains or the regular expression itself
+            if (entry.getValue().size() > 1) {
+                matchers.put(entry.getKey(), new AhoCorasickMatcher(entry.getValue()));
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (sourceFields[i] != null && !matchers.containsKey(sourceFields[i])) {
+                sourceFields[i] = null;
+                literalIndexes[i] = -1;
+            }
+        }
+
+        return new ExtractorConditionPrefilter(ImmutableList.copyOf(extractors), matchers, sourceFields, literalIndexes, exactConditions);
+    }
+
+    /**
+     * Returns the literal which has to occur in a value for the given regular expression to be found in it, or
+     * {@code null} if there is no such literal at the beginning of the regular expression.
+     */
+    @Nullable
+    static String requiredLiteral(String regex) {
+        if (regex == null || regex.contains("\\Q") || hasTopLevelAlternation(regex)) {
+            return null;
+        }
+
+        final StringBuilder literal = new StringBuilder();
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            final int next;
+            final char literalChar;
+            if (c == '\\') {
+                // Escaped letters and digits are character classes, anchors or back references
+                if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    break;
+                }
+                literalChar = regex.charAt(i + 1);
+                next = i + 2;
+            } else if (REGEX_METACHARACTERS.indexOf(c) >= 0) {
+                break;
+            } else {
+                literalChar = c;
+                next = i + 1;
+            }
+
+            // A quantified character is not required
+            if (next < regex.length() && REGEX_QUANTIFIERS.indexOf(regex.charAt(next)) >= 0) {
+                break;
+            }
+            literal.append(literalChar);
+            i = next;
+        }
+
+        return literal.length() == 0 ? null : literal.toString();
+    }
+
+    private static boolean hasTopLevelAlternation(String regex) {
+        int groupDepth = 0;
+        int classDepth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                classDepth++;
+            } else if (c == ']' && classDepth > 0) {
+                classDepth--;
+            } else if (classDepth == 0) {
+                if (c == '(') {
+                    groupDepth++;
+                } else if (c == ')') {
+                    groupDepth--;
+                } else if (c == '|' && groupDepth == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    List<Extractor> extractors() {
+        return extractors;
+    }
+
+    /**
+     * Creates the per-message state of the prefilter. It scans each source field at most once, unless an extractor
+     * changes the value of a source field.
+     */
+    Evaluation evaluate(Message message) {
+        return new Evaluation(message);
+    }
+
+    class Evaluation {
+        private final Message message;
+        private final Map<String, Scan> scans = new HashMap<>();
+
+        private Evaluation(Message message) {
+            this.message = message;
+        }
+
+        /**
+         * Returns the result of the condition of the extractor at the given position for the current value of its
+         * source field, or {@code null} if the condition has to be evaluated by the extractor itself.
+         */
+        @Nullable
+        Boolean conditionMatched(int position) {
+            final String sourceField = sourceFields[position];
+            if (sourceField == null) {
+                return null;
+            }
+            final Object value = message.getField(sourceField);
+            if (!(value instanceof String)) {
+                return null;
+            }
+
+            Scan scan = scans.get(sourceField);
+            // Extractors with the CUT cursor strategy or writing to a source field of later extractors change the value
+            if (scan == null || scan.value != value) {
+                scan = new Scan((String) value, matchersBySourceField.get(sourceField).find((String) value));
+                scans.put(sourceField, scan);
+            }
+
+            if (!scan.found.get(literalIndexes[position])) {
+                return false;
+            }
+            return exactConditions[position] ? true : null;
+        }
+    }
+
+    private static class Scan {
+        private final String value;
+        private final BitSet found;
+
+        Scan(String value, BitSet found) {
+            this.value = value;
+            this.found = found;
+        }
+    }
+}
@@ -16,7 +16,6 @@
  */
 package org.graylog2.filters;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import org.graylog.failure.ProcessingFailureCause;
@@ -50,7 +49,9 @@ public class ExtractorFilter implements MessageFilter {
     private static final Logger LOG = LoggerFactory.getLogger(ExtractorFilter.class);
     private static final String NAME = "Extractor";
 
-    private final ConcurrentMap<String, List<Extractor>> extractors = new ConcurrentHashMap<>();
+    private static final ExtractorConditionPrefilter NO_EXTRACTORS = ExtractorConditionPrefilter.create(Collections.emptyList());
+
+    private final ConcurrentMap<String, ExtractorConditionPrefilter> extractors = new ConcurrentHashMap<>();
 
     private final InputService inputService;
     private final ScheduledExecutorService scheduler;
@@ -74,9 +75,18 @@ public class ExtractorFilter implements MessageFilter {
             return false;
         }
 
-        for (final Extractor extractor : extractors.getOrDefault(msg.getSourceInputId(), Collections.emptyList())) {
+        final ExtractorConditionPrefilter prefilter = extractors.getOrDefault(msg.getSourceInputId(), NO_EXTRACTORS);
+        final List<Extractor> inputExtractors = prefilter.extractors();
+        final ExtractorConditionPrefilter.Evaluation prefilterEvaluation = prefilter.evaluate(msg);
+        for (int i = 0; i < inputExtractors.size(); i++) {
+            final Extractor extractor = inputExtractors.get(i);
             try {
-                extractor.runExtractor(msg);
+                final Boolean conditionMatched = prefilterEvaluation.conditionMatched(i);
+                if (conditionMatched == null) {
+                    extractor.runExtractor(msg);
+                } else {
+                    extractor.runExtractor(msg, conditionMatched);
+                }
             } catch (Exception e) {
                 extractor.incrementExceptions();
                 final String error = "Could not apply extractor <" + extractor.getTitle() + "(" + extractor.getId() + ")>";
@@ -152,7 +162,7 @@ public class ExtractorFilter implements MessageFilter {
                     .sorted(Comparator.comparingLong(Extractor::getOrder))
                     .collect(Collectors.toList());
 
-            extractors.put(inputId, ImmutableList.copyOf(sortedExtractors));
+            extractors.put(inputId, ExtractorConditionPrefilter.create(sortedExtractors));
         } catch (NotFoundException e) {
             LOG.warn("Unable to load input <{}>: {}", inputId, e.getMessage());
         }
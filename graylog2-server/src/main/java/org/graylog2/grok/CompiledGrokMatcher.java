@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.grok;
+
+import io.krakens.grok.api.Converter;
+import io.krakens.grok.api.Grok;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * {@link GrokMatcher} which compiles the expanded pattern of a {@link Grok} instance once and extracts captures by
+ * group index into a reusable per-thread array.
+ * <p>
+ * The {@code java-grok} library resolves every named group through a map lookup, runs the regular expression a second
+ * time when collecting the named groups and builds several intermediate maps for every match. This implementation
+ * resolves group indexes, output field names and type converters when it is created, runs the regular expression
+ * exactly once per value and only builds a map if {@link #captureFlattened(String)} is used.
+ * <p>
+ * The captured values are identical to the ones returned by {@link io.krakens.grok.api.Match#captureFlattened()}.
+ */
+public class CompiledGrokMatcher implements GrokMatcher {
+    private static final String UNWANTED = "UNWANTED";
+    private static final String GROK_FAILURE_SUFFIX = "_grokfailure";
+
+    private final Pattern pattern;
+
+    // Indexed by capture, in the order of the named groups in the expanded pattern
+    private final int[] groupIndexes;
+    private final int[] slots;
+    private final boolean[] firstInSlot;
+    private final TypeConverter[] converters;
+    private final int[] failureSlots;
+
+    // Indexed by slot, in the order in which the field names show up in the expanded pattern
+    private final String[] fieldNames;
+    private final boolean[] failureFields;
+
+    private final ThreadLocal<Scratch> scratch;
+
+    private CompiledGrokMatcher(Pattern pattern,
+                                int[] groupIndexes,
+                                int[] slots,
+                                boolean[] firstInSlot,
+                                TypeConverter[] converters,
+                                int[] failureSlots,
+                                String[] fieldNames,
+                                boolean[] failureFields) {
+        this.pattern = pattern;
+        this.groupIndexes = groupIndexes;
+        this.slots = slots;
+        this.firstInSlot = firstInSlot;
+        this.converters = converters;
+        this.failureSlots = failureSlots;
+        this.fieldNames = fieldNames;
+        this.failureFields = failureFields;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(pattern.matcher(""), new Object[fieldNames.length]));
+    }
+
+    /**
+     * Compiles the expanded pattern of the given {@link Grok} instance.
+     *
+     * @param grok the Grok instance to compile
+     * @return the compiled matcher
+     */
+    public static CompiledGrokMatcher compile(Grok grok) {
+        final com.google.code.regexp.Pattern namedPattern = com.google.code.regexp.Pattern.compile(grok.getNamedRegex());
+        final List<String> groupNames = new ArrayList<>(new LinkedHashSet<>(namedPattern.groupNames()));
+
+        final int[] groupIndexes = new int[groupNames.size()];
+        final int[] slots = new int[groupNames.size()];
+        final boolean[] firstInSlot = new boolean[groupNames.size()];
+        final TypeConverter[] converters = new TypeConverter[groupNames.size()];
+        final int[] failureSlots = new int[groupNames.size()];
+        final List<String> fieldNames = new ArrayList<>();
+        final List<Boolean> failureFields = new ArrayList<>();
+        final Map<String, Integer> slotsByFieldName = new LinkedHashMap<>();
+        final Map<String, Integer> failureSlotsByFieldName = new LinkedHashMap<>();
+
+        int captures = 0;
+        for (final String groupName : groupNames) {
+            final String id = grok.getNamedRegexCollectionById(groupName);
+            String fieldName = id == null || id.isEmpty() ? groupName : id;
+            if (UNWANTED.equals(fieldName)) {
+                continue;
+            }
+
+            final TypeConverter converter = TypeConverter.of(grok, fieldName);
+            int failureSlot = -1;
+            if (converter != null) {
+                fieldName = Converter.extractKey(fieldName);
+                final String failureFieldName = fieldName + GROK_FAILURE_SUFFIX;
+                failureSlot = failureSlotsByFieldName.computeIfAbsent(failureFieldName, name -> {
+                    fieldNames.add(name);
+                    failureFields.add(true);
+                    return fieldNames.size() - 1;
+                });
+            }
+
+            Integer slot = slotsByFieldName.get(fieldName);
+            final boolean first = slot == null;
+            if (first) {
+                fieldNames.add(fieldName);
+                failureFields.add(false);
+                slot = fieldNames.size() - 1;
+                slotsByFieldName.put(fieldName, slot);
+            }
+
+            groupIndexes[captures] = namedPattern.indexOf(groupName) + 1;
+            slots[captures] = slot;
+            firstInSlot[captures] = first;
+            converters[captures] = converter;
+            failureSlots[captures] = failureSlot;
+            captures++;
+        }
+
+        final boolean[] failureFieldsArray = new boolean[failureFields.size()];
+        for (int i = 0; i < failureFieldsArray.length; i++) {
+            failureFieldsArray[i] = failureFields.get(i);
+        }
+
+        return new CompiledGrokMatcher(namedPattern.pattern(),
+                Arrays.copyOf(groupIndexes, captures),
+                Arrays.copyOf(slots, captures),
+                Arrays.copyOf(firstInSlot, captures),
+                Arrays.copyOf(converters, captures),
+                Arrays.copyOf(failureSlots, captures),
+                fieldNames.toArray(new String[0]),
+                failureFieldsArray);
+    }
+
+    @Override
+    public Map<String, Object> captureFlattened(String value) {
+        final Object[] values = match(value);
+        if (values == null) {
+            return Collections.emptyMap();
+        }
+
+        final Map<String, Object> captures = new LinkedHashMap<>(fieldNames.length * 2);
+        for (int slot = 0; slot < values.length; slot++) {
+            final Object capturedValue = values[slot];
+            if (capturedValue != null || !failureFields[slot]) {
+                captures.put(fieldNames[slot], flatten(capturedValue));
+            }
+        }
+        return Collections.unmodifiableMap(captures);
+    }
+
+    @Override
+    public void forEachCapture(String value, BiConsumer<String, Object> consumer) {
+        final Object[] values = match(value);
+        if (values == null) {
+            return;
+        }
+
+        for (int slot = 0; slot < values.length; slot++) {
+            final Object capturedValue = flatten(values[slot]);
+            if (capturedValue != null) {
+                consumer.accept(fieldNames[slot], capturedValue);
+            }
+        }
+    }
+
+    /**
+     * Runs the pattern against the value and collects the captured values.
+     *
+     * @return the per-thread array holding the captured value of each slot, or {@code null} if the pattern did not match
+     */
+    private Object[] match(String value) {
+        if (value == null || isBlank(value)) {
+            return null;
+        }
+
+        final Scratch s = scratch.get();
+        final Matcher matcher = s.matcher.reset(value);
+        if (!matcher.find()) {
+            return null;
+        }
+
+        final Object[] values = s.values;
+        Arrays.fill(values, null);
+        for (int i = 0; i < groupIndexes.length; i++) {
+            final String group = matcher.group(groupIndexes[i]);
+            Object capturedValue = group;
+            if (group != null) {
+                final TypeConverter converter = converters[i];
+                if (converter != null) {
+                    try {
+                        capturedValue = converter.convert(group);
+                    } catch (Exception e) {
+                        values[failureSlots[i]] = e.toString();
+                    }
+                    if (capturedValue instanceof String) {
+                        capturedValue = cleanString((String) capturedValue);
+                    }
+                } else {
+                    capturedValue = cleanString(group);
+                }
+            }
+
+            final int slot = slots[i];
+            if (firstInSlot[i]) {
+                values[slot] = capturedValue;
+            } else {
+                values[slot] = merge(values[slot], capturedValue);
+            }
+        }
+
+        // Don't hold on to the value until the next match on this thread
+        matcher.reset("");
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object merge(Object currentValue, Object capturedValue) {
+        if (currentValue instanceof MultiValue) {
+            final List<Object> list = (List<Object>) currentValue;
+            if (!list.contains(capturedValue)) {
+                list.add(capturedValue);
+            }
+            return currentValue;
+        } else if (capturedValue != null && !capturedValue.equals(currentValue)) {
+            final MultiValue list = new MultiValue();
+            list.add(currentValue);
+            list.add(capturedValue);
+            return list;
+        }
+        return currentValue;
+    }
+
+    private static Object flatten(Object value) {
+        if (value instanceof MultiValue) {
+            final List<Object> nonNullValues = ((MultiValue) value).stream()
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+            return nonNullValues.size() == 1 ? nonNullValues.get(0) : nonNullValues;
+        }
+        return value;
+    }
+
+    // Strips matching surrounding quotes, just like java-grok does
+    private static String cleanString(String value) {
+        if (value.isEmpty()) {
+            return value;
+        }
+        final char first = value.charAt(0);
+        final char last = value.charAt(value.length() - 1);
+        if (first == last && (first == '"' || first == '\'')) {
+            if (value.length() <= 2) {
+                return "";
+            }
+            for (int i = 1; i < value.length() - 1; i++) {
+                if (value.charAt(i) == first) {
+                    return value;
+                }
+            }
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    private static boolean isBlank(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isWhitespace(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Marks lists created while merging multiple captures for the same field, as opposed to values returned by converters
+    private static class MultiValue extends ArrayList<Object> {
+        MultiValue() {
+            super(2);
+        }
+    }
+
+    /**
+     * Converts captured values the same way as the converters of {@code java-grok}, whose interface isn't public.
+     */
+    @FunctionalInterface
+    private interface TypeConverter {
+        Pattern ID_SPLITTER = Pattern.compile("[:;]");
+
+        Object convert(String value);
+
+        /**
+         * Creates the converter for a named group like {@code field:type} or {@code field:datetime:pattern}.
+         *
+         * @return the converter, or {@code null} if the group has no type
+         */
+        static TypeConverter of(Grok grok, String id) {
+            if (!grok.converters.containsKey(id)) {
+                return null;
+            }
+            final String[] parts = ID_SPLITTER.split(id, 3);
+            final String typeName = parts[1].toLowerCase(Locale.ROOT);
+            final Converter.Type type = Arrays.stream(Converter.Type.values())
+                    .filter(t -> t.name().toLowerCase(Locale.ROOT).equals(typeName) || t.aliases.contains(typeName))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Invalid data type :" + typeName));
+
+            switch (type) {
+                case BYTE:
+                    return Byte::valueOf;
+                case BOOLEAN:
+                    return Boolean::valueOf;
+                case SHORT:
+                    return Short::valueOf;
+                case INT:
+                    return Integer::valueOf;
+                case LONG:
+                    return Long::valueOf;
+                case FLOAT:
+                    return Float::valueOf;
+                case DOUBLE:
+                    return Double::valueOf;
+                case DATETIME:
+                    // java-grok compiles custom date patterns for the system locale and time zone and ISO dates for UTC
+                    return parts.length == 3
+                            ? dateConverter(DateTimeFormatter.ofPattern(parts[2], Locale.getDefault()), ZoneId.systemDefault())
+                            : dateConverter(DateTimeFormatter.ISO_DATE_TIME, ZoneOffset.UTC);
+                case STRING:
+                default:
+                    return value -> value;
+            }
+        }
+
+        static TypeConverter dateConverter(DateTimeFormatter formatter, ZoneId timeZone) {
+            return value -> {
+                final TemporalAccessor dt = formatter.parseBest(value.trim(),
+                        ZonedDateTime::from, LocalDateTime::from, OffsetDateTime::from, Instant::from, LocalDate::from);
+                if (dt instanceof ZonedDateTime) {
+                    return ((ZonedDateTime) dt).toInstant();
+                } else if (dt instanceof LocalDateTime) {
+                    return ((LocalDateTime) dt).atZone(timeZone).toInstant();
+                } else if (dt instanceof OffsetDateTime) {
+                    return ((OffsetDateTime) dt).atZoneSameInstant(timeZone).toInstant();
+                } else if (dt instanceof Instant) {
+                    return dt;
+                } else if (dt instanceof LocalDate) {
+                    return ((LocalDate) dt).atStartOfDay(timeZone).toInstant();
+                }
+                return null;
+            };
+        }
+    }
+
+    private static class Scratch {
+        private final Matcher matcher;
+        private final Object[] values;
+
+        Scratch(Matcher matcher, Object[] values) {
+            this.matcher = matcher;
+            this.values = values;
+        }
+    }
+}
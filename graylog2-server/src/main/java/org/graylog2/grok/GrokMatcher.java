@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.grok;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Applies a compiled Grok pattern to values. Implementations are shared between processing threads and must be
+ * thread-safe.
+ */
+public interface GrokMatcher {
+    /**
+     * Returns the flattened captures of the first match of the pattern in the given value.
+     *
+     * @param value the value to match against
+     * @return the captures keyed by field name, or an empty map if the pattern does not match
+     */
+    Map<String, Object> captureFlattened(String value);
+
+    /**
+     * Calls the consumer for every non-null flattened capture of the first match of the pattern in the given value.
+     * This avoids building an intermediate map for callers which only iterate over the captures.
+     *
+     * @param value    the value to match against
+     * @param consumer the consumer receiving field name and captured value
+     */
+    void forEachCapture(String value, BiConsumer<String, Object> consumer);
+}
@@ -45,17 +45,31 @@ import static com.google.common.cache.CacheLoader.asyncReloading;
 public class GrokPatternRegistry {
     private static final Logger log = LoggerFactory.getLogger(GrokPatternRegistry.class);
 
+    public static final String ENGINE_JAVA_GROK = "java-grok";
+    public static final String ENGINE_COMPILED = "compiled";
+
     private final GrokPatternService grokPatternService;
+    private final String engine;
 
     private final AtomicReference<Set<GrokPattern>> patterns = new AtomicReference<>(Collections.emptySet());
     private final LoadingCache<String, Grok> grokCache;
     private final LoadingCache<String, Grok> grokCacheNamedOnly;
+    private final LoadingCache<String, GrokMatcher> matcherCache;
+    private final LoadingCache<String, GrokMatcher> matcherCacheNamedOnly;
+
+    public GrokPatternRegistry(EventBus serverEventBus,
+                               GrokPatternService grokPatternService,
+                               ScheduledExecutorService daemonExecutor) {
+        this(serverEventBus, grokPatternService, daemonExecutor, ENGINE_JAVA_GROK);
+    }
 
     @Inject
     public GrokPatternRegistry(EventBus serverEventBus,
                                GrokPatternService grokPatternService,
-                               @Named("daemonScheduler") ScheduledExecutorService daemonExecutor) {
+                               @Named("daemonScheduler") ScheduledExecutorService daemonExecutor,
+                               @Named("grok_engine") String engine) {
         this.grokPatternService = grokPatternService;
+        this.engine = engine;
 
         grokCache = CacheBuilder.newBuilder()
                 .expireAfterAccess(1, TimeUnit.MINUTES) // prevent from hanging on to memory forever
@@ -65,6 +79,14 @@ public class GrokPatternRegistry {
                 .expireAfterAccess(1, TimeUnit.MINUTES) // prevent from hanging on to memory forever
                 .build(asyncReloading(new GrokReloader(true), daemonExecutor));
 
+        matcherCache = CacheBuilder.newBuilder()
+                .expireAfterAccess(1, TimeUnit.MINUTES) // prevent from hanging on to memory forever
+                .build(asyncReloading(new GrokMatcherReloader(false), daemonExecutor));
+
+        matcherCacheNamedOnly = CacheBuilder.newBuilder()
+                .expireAfterAccess(1, TimeUnit.MINUTES) // prevent from hanging on to memory forever
+                .build(asyncReloading(new GrokMatcherReloader(true), daemonExecutor));
+
         // trigger initial loading
         reload();
 
@@ -105,11 +127,34 @@ public class GrokPatternRegistry {
         }
     }
 
+    /**
+     * Returns a {@link GrokMatcher} for the given pattern, using the Grok engine configured with {@code grok_engine}.
+     *
+     * @param pattern           the Grok pattern
+     * @param namedCapturesOnly whether to only capture explicitly named groups
+     * @return the cached matcher for the given pattern
+     */
+    public GrokMatcher cachedGrokMatcherForPattern(String pattern, boolean namedCapturesOnly) {
+        try {
+            if (namedCapturesOnly) {
+                return matcherCacheNamedOnly.get(pattern);
+            } else {
+                return matcherCache.get(pattern);
+            }
+        } catch (UncheckedExecutionException | ExecutionException e) {
+            final Throwable rootCause = Throwables.getRootCause(e);
+            log.error("Unable to load grok pattern {} into cache", pattern, rootCause);
+            throw new RuntimeException(rootCause);
+        }
+    }
+
     private void reload() {
         final Set<GrokPattern> grokPatterns = grokPatternService.loadAll();
         patterns.set(grokPatterns);
         grokCache.invalidateAll();
         grokCacheNamedOnly.invalidateAll();
+        matcherCache.invalidateAll();
+        matcherCacheNamedOnly.invalidateAll();
     }
 
     public Set<GrokPattern> patterns() {
@@ -132,4 +177,21 @@ public class GrokPatternRegistry {
             return grokCompiler.compile(pattern, namedCapturesOnly);
         }
     }
+
+    private class GrokMatcherReloader extends CacheLoader<String, GrokMatcher> {
+        private final boolean namedCapturesOnly;
+
+        GrokMatcherReloader(boolean namedCapturesOnly) {
+            this.namedCapturesOnly = namedCapturesOnly;
+        }
+
+        @Override
+        public GrokMatcher load(@Nonnull String pattern) throws Exception {
+            final Grok grok = namedCapturesOnly ? grokCacheNamedOnly.get(pattern) : grokCache.get(pattern);
+            if (ENGINE_COMPILED.equals(engine)) {
+                return CompiledGrokMatcher.compile(grok);
+            }
+            return new JavaGrokMatcher(grok);
+        }
+    }
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.grok;
+
+import io.krakens.grok.api.Grok;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link GrokMatcher} delegating to the {@code java-grok} library.
+ */
+public class JavaGrokMatcher implements GrokMatcher {
+    private final Grok grok;
+
+    public JavaGrokMatcher(Grok grok) {
+        this.grok = requireNonNull(grok);
+    }
+
+    @Override
+    public Map<String, Object> captureFlattened(String value) {
+        return grok.match(value).captureFlattened();
+    }
+
+    @Override
+    public void forEachCapture(String value, BiConsumer<String, Object> consumer) {
+        for (final Map.Entry<String, Object> entry : captureFlattened(value).entrySet()) {
+            if (entry.getValue() != null) {
+                consumer.accept(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
@@ -17,16 +17,18 @@
 package org.graylog2.inputs.codecs;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
-import com.google.common.collect.Maps;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import org.graylog2.inputs.codecs.gelf.GELFMessage;
 import org.graylog2.inputs.codecs.gelf.GELFMessageChunk;
 import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.inputs.codecs.CodecAggregator;
+import org.graylog2.shared.metrics.MetricUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,17 +36,13 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
-import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import static com.codahale.metrics.MetricRegistry.name;
-import static java.util.Objects.requireNonNull;
+import static com.google.common.base.Preconditions.checkArgument;
 
 public class GelfChunkAggregator implements CodecAggregator {
     private static final Logger log = LoggerFactory.getLogger(GelfChunkAggregator.class);
@@ -54,6 +52,10 @@ public class GelfChunkAggregator implements CodecAggregator {
     public static final Result INVALID_RESULT = new Result(null, false);
     public static final int VALIDITY_PERIOD = 5000; // millis
     private static final long CHECK_PERIOD = 1000;
+    public static final Size DEFAULT_MAX_BUFFERED_SIZE = Size.megabytes(64L);
+    // the aggregator is shared by all GELF inputs, each stripe has its own lock so that chunks of different messages
+    // can be handled concurrently by the event loop threads
+    private static final int STRIPES = 16;
 
     public static final String CHUNK_COUNTER = name(GelfChunkAggregator.class, "total-chunks");
     public static final String WAITING_MESSAGES = name(GelfChunkAggregator.class, "waiting-messages");
@@ -61,26 +63,68 @@ public class GelfChunkAggregator implements CodecAggregator {
     public static final String EXPIRED_MESSAGES = name(GelfChunkAggregator.class, "expired-messages");
     public static final String EXPIRED_CHUNKS = name(GelfChunkAggregator.class, "expired-chunks");
     public static final String DUPLICATE_CHUNKS = name(GelfChunkAggregator.class, "duplicate-chunks");
+    public static final String EVICTED_MESSAGES = name(GelfChunkAggregator.class, "evicted-messages");
+    public static final String BUFFERED_BYTES = name(GelfChunkAggregator.class, "buffered-bytes");
 
-    private final ConcurrentMap<String, ChunkEntry> chunks = Maps.newConcurrentMap();
-    private final ConcurrentSkipListSet<ChunkEntry> sortedEvictionSet = new ConcurrentSkipListSet<>();
+    private final GelfChunkStore[] stores;
+    private final int stripeMask;
     private final Counter chunkCounter;
     private final Counter waitingMessages;
     private final Counter expiredMessages;
     private final Counter expiredChunks;
     private final Counter duplicateChunks;
     private final Counter completeMessages;
+    private final Counter evictedMessages;
+    private final AtomicLongArray bufferedBytes;
+
+    @VisibleForTesting
+    GelfChunkAggregator(ScheduledExecutorService scheduler, MetricRegistry metricRegistry) {
+        this(scheduler, metricRegistry, DEFAULT_MAX_BUFFERED_SIZE);
+    }
 
     @Inject
-    public GelfChunkAggregator(@Named("daemonScheduler") ScheduledExecutorService scheduler, MetricRegistry metricRegistry) {
+    public GelfChunkAggregator(@Named("daemonScheduler") ScheduledExecutorService scheduler,
+                               MetricRegistry metricRegistry,
+                               @Named("gelf_chunk_reassembly_max_size") Size maxBufferedSize) {
+        this(scheduler, metricRegistry, maxBufferedSize, STRIPES);
+    }
+
+    @VisibleForTesting
+    GelfChunkAggregator(ScheduledExecutorService scheduler, MetricRegistry metricRegistry, Size maxBufferedSize, int stripes) {
+        checkArgument(Integer.bitCount(stripes) == 1, "The number of stripes must be a power of two");
+        // every stripe gets an equal share of the buffer
+        final long maxBytesPerStripe = Math.max(1L, maxBufferedSize.toBytes() / stripes);
+        final long now = Tools.nowUTC().getMillis();
+        stores = new GelfChunkStore[stripes];
+        for (int i = 0; i < stripes; i++) {
+            stores[i] = new GelfChunkStore(VALIDITY_PERIOD, CHECK_PERIOD, maxBytesPerStripe, now);
+        }
+        stripeMask = stripes - 1;
+        bufferedBytes = new AtomicLongArray(stripes);
         scheduler.scheduleAtFixedRate(new ChunkEvictionTask(), VALIDITY_PERIOD, CHECK_PERIOD, TimeUnit.MILLISECONDS);
         chunkCounter = metricRegistry.counter(CHUNK_COUNTER);
-        // this is a counter instead of a Gauge, because calling sortedEvictionSet.size() is expensive
+        // this is a counter instead of a Gauge, because the gauge would have to synchronize on the chunk store
         waitingMessages = metricRegistry.counter(WAITING_MESSAGES);
         completeMessages = metricRegistry.counter(COMPLETE_MESSAGES);
         expiredMessages = metricRegistry.counter(EXPIRED_MESSAGES);
         expiredChunks = metricRegistry.counter(EXPIRED_CHUNKS);
         duplicateChunks = metricRegistry.counter(DUPLICATE_CHUNKS);
+        evictedMessages = metricRegistry.counter(EVICTED_MESSAGES);
+        MetricUtils.safelyRegister(metricRegistry, BUFFERED_BYTES, (Gauge<Long>) this::bufferedBytes);
+    }
+
+    private long bufferedBytes() {
+        long sum = 0L;
+        for (int i = 0; i < bufferedBytes.length(); i++) {
+            sum += bufferedBytes.get(i);
+        }
+        return sum;
+    }
+
+    private int stripe(long messageId) {
+        // message ids are supposed to be random, but some clients use counters or timestamps
+        final int hash = Long.hashCode(messageId);
+        return (hash ^ (hash >>> 16)) & stripeMask;
     }
 
     @Nonnull
@@ -128,94 +172,104 @@ public class GelfChunkAggregator implements CodecAggregator {
      */
     @Nullable
     private ByteBuf checkForCompletion(GELFMessage gelfMessage) {
-        if (!chunks.isEmpty() && log.isDebugEnabled()) {
-            log.debug("Dumping GELF chunk map [chunks for {} messages]:\n{}", chunks.size(), humanReadableChunkMap());
-        }
         final GELFMessageChunk chunk = new GELFMessageChunk(gelfMessage, null); // TODO second parameter
         final int sequenceCount = chunk.getSequenceCount();
+        final long messageId = chunk.getMessageId();
+
+        final int stripe = stripe(messageId);
+        final GelfChunkStore store = stores[stripe];
+        final ChunkEntry entry;
+        synchronized (store) {
+            if (store.size() > 0 && log.isDebugEnabled()) {
+                log.debug("Dumping GELF chunk map [chunks for {} messages]:\n{}", store.size(), humanReadableChunkMap(store));
+            }
 
-        final String messageId = chunk.getId();
-
-        ChunkEntry entry = new ChunkEntry(sequenceCount, chunk.getArrival(), messageId);
-
-        final ChunkEntry existing = chunks.putIfAbsent(messageId, entry);
-        if (existing == null) {
-            // add this chunk entry to the eviction set
-            waitingMessages.inc();
-            sortedEvictionSet.add(entry);
-        } else {
-            // the entry is already in the eviction set and chunk map
-            entry = existing;
-        }
+            final ChunkEntry existing = store.get(messageId);
+            if (existing == null) {
+                entry = new ChunkEntry(sequenceCount, chunk.getArrival(), messageId);
+                store.add(entry);
+                waitingMessages.inc();
+            } else {
+                entry = existing;
+            }
 
-        final int sequenceNumber = chunk.getSequenceNumber();
-        if (!entry.payloadArray.compareAndSet(sequenceNumber, null, chunk)) {
-            log.error("Received duplicate chunk {} for message {} from {}", sequenceNumber, messageId, gelfMessage.getSourceAddress());
-            duplicateChunks.inc();
-            return null;
-        }
+            final int sequenceNumber = chunk.getSequenceNumber();
+            if (entry.payloadArray[sequenceNumber] != null) {
+                log.error("Received duplicate chunk {} for message {} from {}", sequenceNumber, chunk.getId(), gelfMessage.getSourceAddress());
+                duplicateChunks.inc();
+                return null;
+            }
+            entry.payloadArray[sequenceNumber] = chunk;
+            store.addBytes(entry, chunk.getData().length);
 
-        final int chunkWatermark = entry.chunkSlotsWritten.incrementAndGet();
+            final int chunkWatermark = ++entry.chunkSlotsWritten;
 
-        if (chunkWatermark > MAX_CHUNKS) {
-            getAndCleanupEntry(messageId);
-            throw new IllegalStateException("Maximum number of chunks reached, discarding message");
-        }
+            if (chunkWatermark > MAX_CHUNKS) {
+                cleanupEntry(stripe, messageId);
+                throw new IllegalStateException("Maximum number of chunks reached, discarding message");
+            }
 
-        if (chunkWatermark == sequenceCount) {
-            // message is complete by chunk count, assemble and return it.
-            // it might still be corrupt etc, but we've seen enough chunks
-            // remove before operating on it, to avoid racing too much with the clean up job, some race is inevitable, though.
-            entry = getAndCleanupEntry(messageId);
-
-            final byte[] allChunks[] = new byte[sequenceCount][];
-            for (int i = 0; i < entry.payloadArray.length(); i++) {
-                final GELFMessageChunk messageChunk = entry.payloadArray.get(i);
-                if (messageChunk == null) {
-                    log.debug("Couldn't read chunk {} of message {}, skipping this chunk.", i, messageId);
+            if (chunkWatermark == sequenceCount) {
+                // message is complete by chunk count, remove it from the store and assemble it outside of the lock.
+                // it might still be corrupt etc, but we've seen enough chunks
+                cleanupEntry(stripe, messageId);
+                completeMessages.inc();
+            } else {
+                // message isn't complete yet, check if we should remove the other parts as well
+                if (isOutdated(entry)) {
+                    // chunks are outdated, the oldest came in over 5 seconds ago, clean them all up
+                    log.debug("Not all chunks of <{}> arrived within {}ms. Dropping chunks.", chunk.getId(), VALIDITY_PERIOD);
+                    expireEntry(cleanupEntry(stripe, messageId));
                 } else {
-                    allChunks[i] = messageChunk.getData();
+                    store.evictOverflow(this::evictEntry);
                 }
+                bufferedBytes.set(stripe, store.bufferedBytes());
+                return null;
             }
-            completeMessages.inc();
-            return Unpooled.wrappedBuffer(allChunks);
         }
 
-        // message isn't complete yet, check if we should remove the other parts as well
-        if (isOutdated(entry)) {
-            // chunks are outdated, the oldest came in over 5 seconds ago, clean them all up
-            log.debug("Not all chunks of <{}> arrived within {}ms. Dropping chunks.", messageId, VALIDITY_PERIOD);
-            expireEntry(messageId);
+        final byte[] allChunks[] = new byte[sequenceCount][];
+        for (int i = 0; i < entry.payloadArray.length; i++) {
+            final GELFMessageChunk messageChunk = entry.payloadArray[i];
+            if (messageChunk == null) {
+                log.debug("Couldn't read chunk {} of message {}, skipping this chunk.", i, chunk.getId());
+            } else {
+                allChunks[i] = messageChunk.getData();
+            }
         }
-
-        return null;
+        return Unpooled.wrappedBuffer(allChunks);
     }
 
-    private void expireEntry(String messageId) {
-        final ChunkEntry cleanupEntry = getAndCleanupEntry(messageId);
+    private void expireEntry(ChunkEntry entry) {
         expiredMessages.inc();
-        expiredChunks.inc(cleanupEntry.chunkSlotsWritten.get());
+        expiredChunks.inc(entry.chunkSlotsWritten);
+    }
+
+    private void evictEntry(ChunkEntry entry) {
+        log.debug("Evicting chunks of message <{}>, the chunk buffer is full.", entry);
+        waitingMessages.dec();
+        evictedMessages.inc();
     }
 
     private boolean isOutdated(ChunkEntry entry) {
         return (Tools.nowUTC().getMillis() - entry.firstTimestamp) > VALIDITY_PERIOD;
     }
 
-    private ChunkEntry getAndCleanupEntry(String id) {
-        final ChunkEntry entry = chunks.remove(id);
-        sortedEvictionSet.remove(entry);
+    private ChunkEntry cleanupEntry(int stripe, long id) {
+        final GelfChunkStore store = stores[stripe];
+        final ChunkEntry entry = store.remove(id);
         waitingMessages.dec();
+        bufferedBytes.set(stripe, store.bufferedBytes());
         return entry;
     }
 
-    private String humanReadableChunkMap() {
+    private String humanReadableChunkMap(GelfChunkStore store) {
         final StringBuilder sb = new StringBuilder();
 
-        for (final Map.Entry<String, ChunkEntry> entry : chunks.entrySet()) {
-            sb.append("Message <").append(entry.getKey()).append("> ");
+        for (final ChunkEntry entry : store.entries()) {
+            sb.append("Message <").append(Long.toHexString(entry.id)).append("> ");
             sb.append("\tChunks:\n");
-            for (int i = 0; i < entry.getValue().payloadArray.length(); i++) {
-                final GELFMessageChunk chunk = entry.getValue().payloadArray.get(i);
+            for (final GELFMessageChunk chunk : entry.payloadArray) {
                 sb.append("\t\t").append(chunk == null ? "<not arrived yet>" : chunk).append("\n");
             }
         }
@@ -223,17 +277,27 @@ public class GelfChunkAggregator implements CodecAggregator {
         return sb.toString();
     }
 
+    /**
+     * Chunks of a message which hasn't been completed yet. Instances are guarded by the lock of their chunk store.
+     */
     @VisibleForTesting
-    static class ChunkEntry implements Comparable<ChunkEntry> {
-        protected final AtomicInteger chunkSlotsWritten = new AtomicInteger(0);
+    static class ChunkEntry {
+        protected int chunkSlotsWritten = 0;
         protected final long firstTimestamp;
-        protected final AtomicReferenceArray<GELFMessageChunk> payloadArray;
-        protected final String id;
-
-        public ChunkEntry(int chunkCount, long firstTimestamp, String id) {
-            this.payloadArray = new AtomicReferenceArray<>(chunkCount);
+        protected final GELFMessageChunk[] payloadArray;
+        protected final long id;
+
+        // maintained by GelfChunkStore
+        long deadline;
+        long bufferedBytes = 0L;
+        int bucket;
+        ChunkEntry prev;
+        ChunkEntry next;
+
+        public ChunkEntry(int chunkCount, long firstTimestamp, long id) {
+            this.payloadArray = new GELFMessageChunk[chunkCount];
             this.firstTimestamp = firstTimestamp;
-            this.id = requireNonNull(id);
+            this.id = id;
         }
 
         @Override
@@ -243,7 +307,7 @@ public class GelfChunkAggregator implements CodecAggregator {
 
             final ChunkEntry that = (ChunkEntry) o;
 
-            if (!id.equals(that.id)) return false;
+            if (id != that.id) return false;
             if (firstTimestamp != that.firstTimestamp) return false;
 
             //noinspection RedundantIfStatement
@@ -255,24 +319,10 @@ public class GelfChunkAggregator implements CodecAggregator {
             return Objects.hash(id, firstTimestamp);
         }
 
-        @Override
-        public int compareTo(@Nonnull ChunkEntry o) {
-            if (equals(o)) {
-                return 0;
-            }
-            // If two chunk entries have the same timestamp, we have to compare the IDs. Otherwise the removal from
-            // the eviction set might not work and leak memory.
-            // See: https://github.com/Graylog2/graylog2-server/issues/1462
-            if (firstTimestamp == o.firstTimestamp) {
-                return id.compareTo(o.id);
-            }
-            return firstTimestamp < o.firstTimestamp ? -1 : 1;
-        }
-
         @Override
         public String toString() {
             return MoreObjects.toStringHelper(this)
-                    .add("id", id)
+                    .add("id", Long.toHexString(id))
                     .add("firstTimestamp", firstTimestamp)
                     .add("chunkSlotsWritten", chunkSlotsWritten)
                     .toString();
@@ -284,19 +334,17 @@ public class GelfChunkAggregator implements CodecAggregator {
         @Override
         public void run() {
             try {
-                // loop until we've either evicted all outdated chunk entries, or the set is completely empty.
-                // this task will run every second by default (see constant in constructor)
-                while (true) {
-                    // Check if eviction set is empty to avoid a NoElementException when calling first().
-                    if (sortedEvictionSet.isEmpty()) {
-                        break;
-                    }
-                    final ChunkEntry oldestChunkEntry = sortedEvictionSet.first();
-                    if (isOutdated(oldestChunkEntry)) {
-                        expireEntry(oldestChunkEntry.id);
-                    } else {
-                        log.debug("No more outdated chunk entries found to evict, leaving cleanup loop.");
-                        break;
+                // expire all outdated chunk entries, the timing wheel only visits the buckets which became due since
+                // the last run. this task will run every second by default (see constant in constructor)
+                final long now = Tools.nowUTC().getMillis();
+                for (int stripe = 0; stripe < stores.length; stripe++) {
+                    final GelfChunkStore store = stores[stripe];
+                    synchronized (store) {
+                        store.expire(now, entry -> {
+                            waitingMessages.dec();
+                            expireEntry(entry);
+                        });
+                        bufferedBytes.set(stripe, store.bufferedBytes());
                     }
                 }
             } catch (Exception e) {
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs;
+
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.graylog2.inputs.codecs.GelfChunkAggregator.ChunkEntry;
+
+/**
+ * Reassembly store for incomplete chunked GELF messages.
+ * <p>
+ * Entries are keyed by the raw 8 byte message id and kept in a hashed timing wheel ordered by their expiry time,
+ * so expiring entries only touches the wheel buckets which became due since the last run instead of scanning all
+ * waiting messages. The store also keeps track of the number of buffered payload bytes and evicts the oldest
+ * entries once the configured limit has been exceeded.
+ * <p>
+ * This class is not thread-safe, callers have to synchronize access to it.
+ */
+class GelfChunkStore {
+    private final LongObjectMap<ChunkEntry> entries = new LongObjectHashMap<>();
+    private final ChunkEntry[] wheel;
+    private final int mask;
+    private final long tickMillis;
+    private final long validityMillis;
+    private final long maxBytes;
+
+    private long cursorTick;
+    private long bufferedBytes = 0L;
+
+    GelfChunkStore(long validityMillis, long tickMillis, long maxBytes, long now) {
+        checkArgument(validityMillis > 0, "validityMillis must be positive");
+        checkArgument(tickMillis > 0, "tickMillis must be positive");
+        checkArgument(maxBytes > 0, "maxBytes must be positive");
+        this.validityMillis = validityMillis;
+        this.tickMillis = tickMillis;
+        this.maxBytes = maxBytes;
+        // the wheel has to cover the whole validity period, so that entries never share a bucket with entries of
+        // a later round during regular operation
+        final int wheelSize = Integer.highestOneBit((int) Math.min(1 << 20, validityMillis / tickMillis + 2) * 2 - 1);
+        this.wheel = new ChunkEntry[wheelSize];
+        this.mask = wheelSize - 1;
+        this.cursorTick = now / tickMillis;
+    }
+
+    ChunkEntry get(long messageId) {
+        return entries.get(messageId);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long bufferedBytes() {
+        return bufferedBytes;
+    }
+
+    Collection<ChunkEntry> entries() {
+        return entries.values();
+    }
+
+    /**
+     * Adds a new entry and schedules its expiry in the timing wheel.
+     */
+    void add(ChunkEntry entry) {
+        entries.put(entry.id, entry);
+        entry.deadline = entry.firstTimestamp + validityMillis + 1;
+        link(entry, Math.max(entry.deadline / tickMillis, cursorTick));
+    }
+
+    /**
+     * Accounts the payload bytes of a chunk which has been added to the given entry.
+     */
+    void addBytes(ChunkEntry entry, int bytes) {
+        entry.bufferedBytes += bytes;
+        bufferedBytes += bytes;
+    }
+
+    /**
+     * Removes the entry with the given message id.
+     *
+     * @return the removed entry or {@code null} if there was no entry for the message id
+     */
+    ChunkEntry remove(long messageId) {
+        final ChunkEntry entry = entries.remove(messageId);
+        if (entry != null) {
+            unlink(entry);
+            bufferedBytes -= entry.bufferedBytes;
+        }
+        return entry;
+    }
+
+    /**
+     * Removes all entries which are outdated at the given time.
+     *
+     * @param now      the current time in milliseconds
+     * @param consumer consumer for the removed entries
+     */
+    void expire(long now, Consumer<ChunkEntry> consumer) {
+        final long nowTick = now / tickMillis;
+        final long ticks = Math.min(nowTick - cursorTick, mask);
+        for (long tick = nowTick - ticks; tick <= nowTick; tick++) {
+            ChunkEntry entry = wheel[(int) (tick & mask)];
+            while (entry != null) {
+                final ChunkEntry next = entry.next;
+                if (entry.deadline <= now) {
+                    consumer.accept(remove(entry.id));
+                }
+                entry = next;
+            }
+        }
+        cursorTick = Math.max(cursorTick, nowTick);
+    }
+
+    /**
+     * Evicts the oldest entries until the number of buffered bytes is within the configured limit again.
+     *
+     * @param consumer consumer for the evicted entries
+     */
+    void evictOverflow(Consumer<ChunkEntry> consumer) {
+        while (bufferedBytes > maxBytes && !entries.isEmpty()) {
+            // entries are appended to their buckets, so the oldest entry is the head with the earliest deadline
+            ChunkEntry oldest = null;
+            for (ChunkEntry head : wheel) {
+                if (head != null && (oldest == null || head.deadline < oldest.deadline)) {
+                    oldest = head;
+                }
+            }
+            consumer.accept(remove(oldest.id));
+        }
+    }
+
+    private void link(ChunkEntry entry, long tick) {
+        final int bucket = (int) (tick & mask);
+        final ChunkEntry head = wheel[bucket];
+        entry.bucket = bucket;
+        entry.next = null;
+        if (head == null) {
+            entry.prev = entry;
+            wheel[bucket] = entry;
+        } else {
+            // the head keeps a reference to the tail in its prev pointer to allow appending in constant time
+            final ChunkEntry tail = head.prev;
+            tail.next = entry;
+            entry.prev = tail;
+            head.prev = entry;
+        }
+    }
+
+    private void unlink(ChunkEntry entry) {
+        final ChunkEntry head = wheel[entry.bucket];
+        final ChunkEntry next = entry.next;
+        if (entry == head) {
+            wheel[entry.bucket] = next;
+            if (next != null) {
+                next.prev = entry.prev;
+            }
+        } else {
+            entry.prev.next = next;
+            if (next != null) {
+                next.prev = entry.prev;
+            } else {
+                head.prev = entry.prev;
+            }
+        }
+        entry.prev = null;
+        entry.next = null;
+    }
+}
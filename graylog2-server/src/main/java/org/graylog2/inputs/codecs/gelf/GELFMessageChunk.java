@@ -82,9 +82,19 @@ public final class GELFMessageChunk {
     }
 
     public String getId() {
+        extractId();
         return this.id;
     }
 
+    /**
+     * The raw 8 byte message id of this chunk.
+     *
+     * @return the message id
+     */
+    public long getMessageId() {
+        return payload.getLong(HEADER_PART_HASH_START);
+    }
+
     public byte[] getData() {
         return this.data;
     }
@@ -102,7 +112,6 @@ public final class GELFMessageChunk {
     }
 
     private void read() {
-        extractId();
         extractSequenceCount();
         extractSequenceNumber();
         extractData();
@@ -151,7 +160,7 @@ public final class GELFMessageChunk {
 
     @Override
     public String toString() {
-        return "ID: " + this.id +
+        return "ID: " + getId() +
                 "\tSequence: " + (this.sequenceNumber + 1) + // +1 for readability: 1/2 not 0/2
                 "/" + this.sequenceCount +
                 "\tArrival: " + this.arrival +
@@ -18,9 +18,8 @@ package org.graylog2.inputs.extractors;
 
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Strings;
-import io.krakens.grok.api.Grok;
-import io.krakens.grok.api.Match;
 import org.graylog2.ConfigurationException;
+import org.graylog2.grok.GrokMatcher;
 import org.graylog2.grok.GrokPatternRegistry;
 import org.graylog2.plugin.inputs.Converter;
 import org.graylog2.plugin.inputs.Extractor;
@@ -73,19 +72,12 @@ public class GrokExtractor extends Extractor {
 
     @Override
     protected Result[] run(String value) {
-        final Grok grok = grokPatternRegistry.cachedGrokForPattern(this.pattern, this.namedCapturesOnly);
+        final GrokMatcher grokMatcher = grokPatternRegistry.cachedGrokMatcherForPattern(this.pattern, this.namedCapturesOnly);
 
         // the extractor instance is rebuilt every second anyway
-        final Match match = grok.match(value);
-        final Map<String, Object> matches = match.captureFlattened();
-        final List<Result> results = new ArrayList<>(matches.size());
-
-        for (final Map.Entry<String, Object> entry : matches.entrySet()) {
-            // never add null values to the results, those don't make sense for us
-            if (entry.getValue() != null) {
-                results.add(new Result(entry.getValue(), entry.getKey(), -1, -1));
-            }
-        }
+        final List<Result> results = new ArrayList<>();
+        // never add null values to the results, those don't make sense for us, the matcher skips them already
+        grokMatcher.forEachCapture(value, (field, capturedValue) -> results.add(new Result(capturedValue, field, -1, -1)));
 
         return results.toArray(new Result[0]);
     }
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.transports;
+
+import com.codahale.metrics.Timer;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.journal.RawMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Consumes the deliveries of all queues on one AMQP channel.
+ * <p>
+ * Deliveries are handed to the input in batches. Batches may be written to the journal in any order, so they are
+ * kept in delivery order until they have been written. Every batch which has been written, together with all batches
+ * before it, is acknowledged with a single multi-ack. The journal writer only records the delivery tag which can be
+ * acknowledged, the ack itself is sent on the flush executor, because it blocks on the network. Delivery tags are
+ * scoped to the channel, so there must be exactly one instance per channel.
+ * </p>
+ */
+class AmqpChannelConsumer extends DefaultConsumer implements RecoveryListener {
+    private static final Logger LOG = LoggerFactory.getLogger(AmqpChannelConsumer.class);
+
+    private final MessageInput sourceInput;
+    private final AmqpTransport amqpTransport;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final boolean requeueInvalid;
+    private final ScheduledExecutorService flushExecutor;
+    private final LongConsumer bytesRead;
+    private final AtomicLong unackedDeliveries;
+    private final Timer ackLatency;
+
+    // guarded by this
+    private final List<RawMessage> batch = new ArrayList<>();
+    private final long[] batchDeliveryTags;
+    private long batchStartNanos;
+    private ScheduledFuture<?> scheduledFlush;
+
+    // batches which have been handed to the input but not acknowledged yet in delivery order, guarded by itself
+    private final Deque<PendingBatch> pendingBatches = new ArrayDeque<>();
+    // the batches up to the highest delivery tag which can be acknowledged, guarded by pendingBatches
+    private final List<PendingBatch> writtenBatches = new ArrayList<>();
+    private long writtenDeliveryTag = 0L;
+
+    // serializes the acks and nacks sent to the broker, a multi-ack must not be sent after one with a higher
+    // delivery tag and must not cover deliveries which are about to be rejected
+    private final Object ackLock = new Object();
+    // guarded by ackLock
+    private long acknowledgedDeliveryTag = 0L;
+
+    // delivery tags start over after the channel has been recovered, acks of older batches must not be sent
+    private volatile long generation = 0L;
+
+    AmqpChannelConsumer(Channel channel,
+                        MessageInput sourceInput,
+                        AmqpTransport amqpTransport,
+                        int batchSize,
+                        long lingerMillis,
+                        boolean requeueInvalid,
+                        ScheduledExecutorService flushExecutor,
+                        LongConsumer bytesRead,
+                        AtomicLong unackedDeliveries,
+                        Timer ackLatency) {
+        super(channel);
+        this.sourceInput = sourceInput;
+        this.amqpTransport = amqpTransport;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.requeueInvalid = requeueInvalid;
+        this.flushExecutor = flushExecutor;
+        this.bytesRead = bytesRead;
+        this.unackedDeliveries = unackedDeliveries;
+        this.ackLatency = ackLatency;
+        this.batchDeliveryTags = new long[batchSize];
+
+        if (channel instanceof Recoverable) {
+            ((Recoverable) channel).addRecoveryListener(this);
+        }
+    }
+
+    @Override
+    public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+        bytesRead.accept(body.length);
+        unackedDeliveries.incrementAndGet();
+
+        // TODO figure out if we want to unsubscribe after a certain time, or if simply blocking is enough here
+        if (amqpTransport.isThrottled()) {
+            // hand over what we have, so it can be acknowledged while we are blocked
+            flush();
+            amqpTransport.blockUntilUnthrottled();
+        }
+
+        synchronized (this) {
+            if (batch.isEmpty()) {
+                batchStartNanos = System.nanoTime();
+                scheduledFlush = flushExecutor.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+            batchDeliveryTags[batch.size()] = envelope.getDeliveryTag();
+            batch.add(new RawMessage(body));
+
+            if (batch.size() >= batchSize) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Hands the pending deliveries to the input. They are acknowledged as soon as they and all earlier batches have
+     * been journaled.
+     */
+    synchronized void flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final List<RawMessage> messages = new ArrayList<>(batch);
+        final PendingBatch pendingBatch = new PendingBatch(Arrays.copyOf(batchDeliveryTags, batch.size()), batchStartNanos, generation);
+        batch.clear();
+        synchronized (pendingBatches) {
+            pendingBatches.addLast(pendingBatch);
+        }
+        try {
+            sourceInput.processRawMessages(messages, () -> acknowledge(pendingBatch));
+        } catch (Exception e) {
+            LOG.error("Error while trying to process AMQP messages", e);
+            reject(pendingBatch);
+        }
+    }
+
+    // called by the journal writer, must neither throw nor block
+    private void acknowledge(PendingBatch written) {
+        synchronized (pendingBatches) {
+            if (written.generation != generation) {
+                LOG.debug("Channel has been recovered, not acknowledging stale delivery tag {}", written.lastDeliveryTag());
+                return;
+            }
+            unackedDeliveries.addAndGet(-written.deliveryTags.length);
+            written.settled = true;
+            if (!advanceWrittenDeliveryTag()) {
+                return;
+            }
+        }
+        try {
+            flushExecutor.execute(this::sendAcknowledgement);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Consumer has been stopped, messages up to delivery tag {} will be redelivered.", written.lastDeliveryTag());
+        }
+    }
+
+    /**
+     * Moves the delivery tag which can be acknowledged past the settled batches at the head of the queue. Acks must
+     * not overtake earlier batches which are still being written.
+     *
+     * @return {@code true} if there is a new delivery tag to acknowledge
+     */
+    private boolean advanceWrittenDeliveryTag() {
+        boolean advanced = false;
+        while (!pendingBatches.isEmpty() && pendingBatches.peekFirst().settled) {
+            final PendingBatch next = pendingBatches.removeFirst();
+            if (!next.rejected) {
+                writtenBatches.add(next);
+                writtenDeliveryTag = next.lastDeliveryTag();
+                advanced = true;
+            }
+        }
+        return advanced;
+    }
+
+    private void sendAcknowledgement() {
+        synchronized (ackLock) {
+            final long deliveryTag;
+            final List<PendingBatch> acknowledged;
+            synchronized (pendingBatches) {
+                if (writtenDeliveryTag <= acknowledgedDeliveryTag) {
+                    // already covered by an earlier multi-ack
+                    return;
+                }
+                deliveryTag = writtenDeliveryTag;
+                acknowledged = new ArrayList<>(writtenBatches);
+                writtenBatches.clear();
+            }
+
+            try {
+                getChannel().basicAck(deliveryTag, true);
+                acknowledgedDeliveryTag = deliveryTag;
+                final long nowNanos = System.nanoTime();
+                acknowledged.forEach(batch -> ackLatency.update(nowNanos - batch.startNanos, TimeUnit.NANOSECONDS));
+            } catch (IOException | ShutdownSignalException e) {
+                LOG.warn("Unable to acknowledge AMQP messages up to delivery tag {}, they will be redelivered.", deliveryTag, e);
+            }
+        }
+    }
+
+    private void reject(PendingBatch failed) {
+        synchronized (ackLock) {
+            if (failed.generation != generation) {
+                return;
+            }
+            // nacked before the batch is settled, no multi-ack covers its deliveries until then
+            boolean rejected = false;
+            if (getChannel().isOpen()) {
+                try {
+                    // a multi-nack would reject the earlier batches which are still being written as well
+                    for (long deliveryTag : failed.deliveryTags) {
+                        getChannel().basicNack(deliveryTag, false, requeueInvalid);
+                    }
+                    rejected = true;
+                } catch (IOException | ShutdownSignalException e) {
+                    LOG.warn("Unable to reject AMQP messages up to delivery tag {}", failed.lastDeliveryTag(), e);
+                }
+            }
+
+            final boolean advanced;
+            synchronized (pendingBatches) {
+                // the batch stays in the queue as a settled gap, so later batches can still be acknowledged
+                unackedDeliveries.addAndGet(-failed.deliveryTags.length);
+                failed.settled = true;
+                failed.rejected = true;
+                advanced = advanceWrittenDeliveryTag();
+            }
+            if (advanced) {
+                sendAcknowledgement();
+            }
+            if (!rejected) {
+                return;
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            if (requeueInvalid) {
+                LOG.debug("Re-queue messages up to delivery tag {}", failed.lastDeliveryTag());
+            } else {
+                LOG.debug("Messages up to delivery tag {} not re-queued", failed.lastDeliveryTag());
+            }
+        }
+    }
+
+    @Override
+    public void handleRecoveryStarted(Recoverable recoverable) {
+        // the broker redelivers everything which has not been acknowledged yet
+        synchronized (this) {
+            synchronized (ackLock) {
+                synchronized (pendingBatches) {
+                    generation++;
+                    pendingBatches.clear();
+                    writtenBatches.clear();
+                    writtenDeliveryTag = 0L;
+                }
+                acknowledgedDeliveryTag = 0L;
+            }
+            batch.clear();
+            unackedDeliveries.set(0L);
+        }
+    }
+
+    @Override
+    public void handleRecovery(Recoverable recoverable) {
+    }
+
+    private static class PendingBatch {
+        private final long[] deliveryTags;
+        private final long startNanos;
+        private final long generation;
+
+        // guarded by pendingBatches
+        private boolean settled = false;
+        private boolean rejected = false;
+
+        PendingBatch(long[] deliveryTags, long startNanos, long generation) {
+            this.deliveryTags = deliveryTags;
+            this.startNanos = startNanos;
+            this.generation = generation;
+        }
+
+        long lastDeliveryTag() {
+            return deliveryTags[deliveryTags.length - 1];
+        }
+    }
+}
@@ -16,31 +16,38 @@
  */
 package org.graylog2.inputs.transports;
 
-import com.rabbitmq.client.AMQP;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
-import com.rabbitmq.client.DefaultConsumer;
-import com.rabbitmq.client.Envelope;
 import org.graylog2.plugin.inputs.MessageInput;
-import org.graylog2.plugin.journal.RawMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static com.codahale.metrics.MetricRegistry.name;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 public class AmqpConsumer {
     private static final Logger LOG = LoggerFactory.getLogger(AmqpConsumer.class);
 
+    // partial batches are handed to the input after this time
+    private static final long BATCH_LINGER_MILLIS = 100;
+
     // Not threadsafe!
 
     private final String hostname;
@@ -55,9 +62,14 @@ public class AmqpConsumer {
     private final boolean exchangeBind;
     private final String routingKey;
     private final boolean requeueInvalid;
+    private final int channelCount;
+    private final int ackBatchSize;
 
     private Connection connection;
-    private Channel channel;
+    private final List<Channel> channels = new ArrayList<>();
+    private final AtomicLong[] unackedDeliveries;
+    private final Timer[] ackLatencies;
+    private final ScheduledExecutorService flushExecutor;
 
     private final int heartbeatTimeout;
     private final MessageInput sourceInput;
@@ -71,8 +83,9 @@ public class AmqpConsumer {
 
     public AmqpConsumer(String hostname, int port, String virtualHost, String username, String password,
                         int prefetchCount, String queue, String exchange, boolean exchangeBind, String routingKey,int parallelQueues,
+                        int channelCount, int ackBatchSize,
                         boolean tls, boolean requeueInvalid, int heartbeatTimeout, MessageInput sourceInput,
-                        ScheduledExecutorService scheduler, AmqpTransport amqpTransport) {
+                        ScheduledExecutorService scheduler, AmqpTransport amqpTransport, MetricRegistry metricRegistry) {
         this.hostname = hostname;
         this.port = port;
         this.virtualHost = virtualHost;
@@ -91,6 +104,25 @@ public class AmqpConsumer {
         this.tls = tls;
         this.requeueInvalid = requeueInvalid;
         this.amqpTransport = amqpTransport;
+        this.channelCount = Math.max(1, channelCount);
+        // the broker stops delivering once the prefetch count is reached, so a batch must never wait for more
+        this.ackBatchSize = Math.max(1, prefetchCount > 0 ? Math.min(ackBatchSize, prefetchCount) : ackBatchSize);
+
+        this.unackedDeliveries = new AtomicLong[this.channelCount];
+        this.ackLatencies = new Timer[this.channelCount];
+        for (int i = 0; i < this.channelCount; i++) {
+            final AtomicLong unacked = new AtomicLong(0L);
+            unackedDeliveries[i] = unacked;
+            final String unackedName = name("channel", String.valueOf(i), "unacked_deliveries");
+            // replace the gauge of a previous consumer of this input
+            metricRegistry.remove(unackedName);
+            metricRegistry.register(unackedName, (Gauge<Long>) unacked::get);
+            ackLatencies[i] = metricRegistry.timer(name("channel", String.valueOf(i), "ack_latency"));
+        }
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("amqp-batch-flush-" + sourceInput.getId() + "-%d")
+                .setDaemon(true)
+                .build());
 
         scheduler.scheduleAtFixedRate(() -> lastSecBytesRead.set(lastSecBytesReadTmp.getAndSet(0)), 1, 1, TimeUnit.SECONDS);
     }
@@ -100,45 +132,25 @@ public class AmqpConsumer {
             connect();
         }
 
-        for (int i = 0; i < parallelQueues; i++) {
-            final String queueName = String.format(Locale.ENGLISH, queue, i);
-            channel.queueDeclare(queueName, true, false, false, null);
-            if (exchangeBind) {
-                channel.queueBind(queueName, exchange, routingKey);
-            }
-            channel.basicConsume(queueName, false, new DefaultConsumer(channel) {
-                @Override
-                public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-                    long deliveryTag = envelope.getDeliveryTag();
-                    try {
-                        totalBytesRead.addAndGet(body.length);
-                        lastSecBytesReadTmp.addAndGet(body.length);
-
-                        final RawMessage rawMessage = new RawMessage(body);
-
-                        // TODO figure out if we want to unsubscribe after a certain time, or if simply blocking is enough here
-                        if (amqpTransport.isThrottled()) {
-                            amqpTransport.blockUntilUnthrottled();
-                        }
-
-                        sourceInput.processRawMessage(rawMessage);
-                        channel.basicAck(deliveryTag, false);
-                    } catch (Exception e) {
-                        LOG.error("Error while trying to process AMQP message", e);
-                        if (channel.isOpen()) {
-                            channel.basicNack(deliveryTag, false, requeueInvalid);
-
-                            if (LOG.isDebugEnabled()) {
-                                if (requeueInvalid) {
-                                    LOG.debug("Re-queue message with delivery tag {}", deliveryTag);
-                                } else {
-                                    LOG.debug("Message with delivery tag {} not re-queued", deliveryTag);
-                                }
-                            }
-                        }
-                    }
+        for (int c = 0; c < channels.size(); c++) {
+            final Channel channel = channels.get(c);
+            // a single consumer per channel, the deliveries of all queues share the channel's delivery tags
+            final AmqpChannelConsumer consumer = new AmqpChannelConsumer(channel, sourceInput, amqpTransport,
+                    ackBatchSize, BATCH_LINGER_MILLIS, requeueInvalid, flushExecutor,
+                    bytes -> {
+                        totalBytesRead.addAndGet(bytes);
+                        lastSecBytesReadTmp.addAndGet(bytes);
+                    },
+                    unackedDeliveries[c], ackLatencies[c]);
+
+            for (int i = 0; i < parallelQueues; i++) {
+                final String queueName = String.format(Locale.ENGLISH, queue, i);
+                channel.queueDeclare(queueName, true, false, false, null);
+                if (exchangeBind) {
+                    channel.queueBind(queueName, exchange, routingKey);
                 }
-            });
+                channel.basicConsume(queueName, false, consumer);
+            }
         }
     }
 
@@ -172,16 +184,24 @@ public class AmqpConsumer {
             throw new IOException("Timeout while opening new AMQP connection", e);
         }
 
-        channel = connection.createChannel();
+        channels.clear();
+        for (int i = 0; i < channelCount; i++) {
+            final Channel channel = connection.createChannel();
 
-        if (null == channel) {
-            LOG.error("No channel descriptor available!");
-        }
+            if (null == channel) {
+                throw new IOException("No channel descriptor available!");
+            }
 
-        if (null != channel && prefetchCount > 0) {
-            channel.basicQos(prefetchCount);
+            // the prefetch count is shared by all consumers of the channel
+            if (prefetchCount > 0) {
+                channel.basicQos(prefetchCount, true);
 
-            LOG.debug("AMQP prefetch count overriden to <{}>.", prefetchCount);
+                LOG.debug("AMQP prefetch count overriden to <{}>.", prefetchCount);
+            }
+            channels.add(channel);
+        }
+        for (AtomicLong unacked : unackedDeliveries) {
+            unacked.set(0L);
         }
 
         connection.addShutdownListener(cause -> {
@@ -195,12 +215,14 @@ public class AmqpConsumer {
 
 
     public void stop() throws IOException {
-        if (channel != null && channel.isOpen()) {
-            try {
-                channel.close();
-            } catch (TimeoutException e) {
-                LOG.error("Timeout when closing AMQP channel", e);
-                channel.abort();
+        for (Channel channel : channels) {
+            if (channel.isOpen()) {
+                try {
+                    channel.close();
+                } catch (TimeoutException e) {
+                    LOG.error("Timeout when closing AMQP channel", e);
+                    channel.abort();
+                }
             }
         }
 
@@ -212,8 +234,12 @@ public class AmqpConsumer {
     public boolean isConnected() {
         return connection != null
                 && connection.isOpen()
-                && channel != null
-                && channel.isOpen();
+                && !channels.isEmpty()
+                && channels.stream().allMatch(Channel::isOpen);
+    }
+
+    public void shutdown() {
+        flushExecutor.shutdownNow();
     }
 
     public AtomicLong getLastSecBytesRead() {
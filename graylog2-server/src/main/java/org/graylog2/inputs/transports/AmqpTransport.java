@@ -57,6 +57,8 @@ public class AmqpTransport extends ThrottleableTransport {
     public static final String CK_QUEUE = "queue";
     public static final String CK_ROUTING_KEY = "routing_key";
     public static final String CK_PARALLEL_QUEUES = "parallel_queues";
+    public static final String CK_CHANNELS = "channels";
+    public static final String CK_ACK_BATCH_SIZE = "ack_batch_size";
     public static final String CK_TLS = "tls";
     public static final String CK_REQUEUE_INVALID_MESSAGES = "requeue_invalid_messages";
     public static final String CK_HEARTBEAT_TIMEOUT = "heartbeat";
@@ -164,12 +166,15 @@ public class AmqpTransport extends ThrottleableTransport {
                 configuration.getBoolean(CK_EXCHANGE_BIND),
                 configuration.getString(CK_ROUTING_KEY),
                 configuration.getInt(CK_PARALLEL_QUEUES),
+                configuration.getInt(CK_CHANNELS, 1),
+                configuration.getInt(CK_ACK_BATCH_SIZE, 50),
                 configuration.getBoolean(CK_TLS),
                 configuration.getBoolean(CK_REQUEUE_INVALID_MESSAGES),
                 heartbeatTimeout,
                 input,
                 scheduler,
-                this
+                this,
+                localRegistry
         );
         eventBus.register(this);
         try {
@@ -188,6 +193,7 @@ public class AmqpTransport extends ThrottleableTransport {
             } catch (IOException e) {
                 LOG.error("Could not stop AMQP consumer.", e);
             }
+            consumer.shutdown();
         }
         eventBus.unregister(this);
     }
@@ -268,7 +274,7 @@ public class AmqpTransport extends ThrottleableTransport {
                             CK_PREFETCH,
                             "Prefetch count",
                             100,
-                            "For advanced usage: AMQP prefetch count. Default is 100.",
+                            "For advanced usage: AMQP prefetch count per channel. Default is 100.",
                             ConfigurationField.Optional.NOT_OPTIONAL
                     )
             );
@@ -322,6 +328,29 @@ public class AmqpTransport extends ThrottleableTransport {
                     )
             );
 
+            cr.addField(
+                    new NumberField(
+                            CK_CHANNELS,
+                            "Number of channels",
+                            1,
+                            "Number of channels on the broker connection which consume the queues in parallel.",
+                            ConfigurationField.Optional.OPTIONAL,
+                            NumberField.Attribute.ONLY_POSITIVE
+                    )
+            );
+
+            cr.addField(
+                    new NumberField(
+                            CK_ACK_BATCH_SIZE,
+                            "Acknowledgement batch size",
+                            50,
+                            "For advanced usage: Number of messages which are acknowledged at once after they have been written to the journal. " +
+                                    "Capped at the prefetch count. Default is 50.",
+                            ConfigurationField.Optional.OPTIONAL,
+                            NumberField.Attribute.ONLY_POSITIVE
+                    )
+            );
+
             cr.addField(
                     new NumberField(
                             CK_HEARTBEAT_TIMEOUT,
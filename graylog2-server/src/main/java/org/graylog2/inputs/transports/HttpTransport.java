@@ -27,6 +27,7 @@ import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.codec.http.HttpResponseEncoder;
 import io.netty.handler.timeout.ReadTimeoutHandler;
 import org.graylog2.configuration.TLSProtocolsConfiguration;
+import org.graylog2.inputs.transports.netty.BulkHttpHandler;
 import org.graylog2.inputs.transports.netty.EventLoopGroupFactory;
 import org.graylog2.inputs.transports.netty.HttpHandler;
 import org.graylog2.plugin.LocalMetricRegistry;
@@ -55,10 +56,12 @@ public class HttpTransport extends AbstractTcpTransport {
     static final String CK_ENABLE_CORS = "enable_cors";
     static final String CK_MAX_CHUNK_SIZE = "max_chunk_size";
     static final String CK_IDLE_WRITER_TIMEOUT = "idle_writer_timeout";
+    static final String CK_ENABLE_BULK_RECEIVING = "enable_bulk_receiving";
 
     private final boolean enableCors;
     private final int maxChunkSize;
     private final int idleWriterTimeout;
+    private final boolean enableBulkReceiving;
 
     @AssistedInject
     public HttpTransport(@Assisted Configuration configuration,
@@ -81,6 +84,7 @@ public class HttpTransport extends AbstractTcpTransport {
         int maxChunkSize = configuration.intIsSet(CK_MAX_CHUNK_SIZE) ? configuration.getInt(CK_MAX_CHUNK_SIZE) : DEFAULT_MAX_CHUNK_SIZE;
         this.maxChunkSize = maxChunkSize <= 0 ? DEFAULT_MAX_CHUNK_SIZE : maxChunkSize;
         this.idleWriterTimeout = configuration.intIsSet(CK_IDLE_WRITER_TIMEOUT) ? configuration.getInt(CK_IDLE_WRITER_TIMEOUT, DEFAULT_IDLE_WRITER_TIMEOUT) : DEFAULT_IDLE_WRITER_TIMEOUT;
+        this.enableBulkReceiving = configuration.getBoolean(CK_ENABLE_BULK_RECEIVING, false);
     }
 
     @Override
@@ -97,8 +101,13 @@ public class HttpTransport extends AbstractTcpTransport {
         handlers.put("decoder", () -> new HttpRequestDecoder(DEFAULT_MAX_INITIAL_LINE_LENGTH, DEFAULT_MAX_HEADER_SIZE, maxChunkSize));
         handlers.put("decompressor", HttpContentDecompressor::new);
         handlers.put("encoder", HttpResponseEncoder::new);
-        handlers.put("aggregator", () -> new HttpObjectAggregator(maxChunkSize));
-        handlers.put("http-handler", () -> new HttpHandler(enableCors));
+        if (enableBulkReceiving) {
+            // bulk requests are split into messages while they are received instead of being aggregated
+            handlers.put("http-bulk-handler", () -> new BulkHttpHandler(input, enableCors, maxChunkSize));
+        } else {
+            handlers.put("aggregator", () -> new HttpObjectAggregator(maxChunkSize));
+            handlers.put("http-handler", () -> new HttpHandler(enableCors));
+        }
         handlers.putAll(super.getCustomChildChannelHandlers(input));
 
         return handlers;
@@ -122,6 +131,12 @@ public class HttpTransport extends AbstractTcpTransport {
                                         "Enable CORS",
                                         true,
                                         "Input sends CORS headers to satisfy browser security policies"));
+            r.addField(new BooleanField(CK_ENABLE_BULK_RECEIVING,
+                                        "Enable Bulk Receiving",
+                                        false,
+                                        "Accept multiple newline-delimited messages (e. g. NDJSON) in one request. "
+                                                + "The maximum size applies to each message instead of the whole request. "
+                                                + "Compressed messages are only supported with HTTP Content-Encoding (e. g. gzip)."));
             r.addField(new NumberField(CK_MAX_CHUNK_SIZE,
                                         "Max. HTTP chunk size",
                                         DEFAULT_MAX_CHUNK_SIZE,
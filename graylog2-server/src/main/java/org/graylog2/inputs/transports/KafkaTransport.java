@@ -20,6 +20,7 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.InstrumentedExecutorService;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.MetricSet;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.EventBus;
@@ -28,11 +29,16 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.InvalidOffsetException;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.AuthorizationException;
 import org.apache.kafka.common.errors.WakeupException;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
@@ -63,6 +69,7 @@ import org.graylog2.plugin.inputs.transports.Transport;
 import org.graylog2.plugin.journal.RawMessage;
 import org.graylog2.plugin.lifecycles.Lifecycle;
 import org.graylog2.plugin.system.NodeId;
+import org.graylog2.shared.metrics.MetricUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -71,9 +78,17 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -97,6 +112,8 @@ public class KafkaTransport extends ThrottleableTransport {
     public static final String CK_OFFSET_RESET = "offset_reset";
     public static final String CK_GROUP_ID = "group_id";
     public static final String CK_CUSTOM_PROPERTIES = "custom_properties";
+    public static final String CK_MANUAL_OFFSET_COMMIT = "manual_offset_commit";
+    public static final String CK_MAX_POLL_RECORDS = "max_poll_records";
 
     // See https://kafka.apache.org/090/documentation.html for available values for "auto.offset.reset".
     private static final ImmutableMap<String, String> OFFSET_RESET_VALUES = ImmutableMap.of(
@@ -106,6 +123,9 @@ public class KafkaTransport extends ThrottleableTransport {
 
     private static final String DEFAULT_OFFSET_RESET = "largest";
     private static final String DEFAULT_GROUP_ID = "graylog2";
+    private static final int DEFAULT_MAX_POLL_RECORDS = 500;
+    private static final String RECORDS_LAG_METRIC = "records-lag";
+    private static final String FETCH_MANAGER_METRIC_GROUP = "consumer-fetch-manager-metrics";
 
     private static final Logger LOG = LoggerFactory.getLogger(KafkaTransport.class);
 
@@ -120,6 +140,7 @@ public class KafkaTransport extends ThrottleableTransport {
     private final AtomicLong lastSecBytesRead = new AtomicLong(0);
     private final AtomicLong lastSecBytesReadTmp = new AtomicLong(0);
     private final ExecutorService executor;
+    private final Map<TopicPartition, Long> partitionLags = new ConcurrentHashMap<>();
 
     private volatile boolean stopped = false;
     private volatile boolean paused = true;
@@ -231,38 +252,104 @@ public class KafkaTransport extends ThrottleableTransport {
         // Map largest -> latest, smallest -> earliest
         final String resetValue = configuration.getString(CK_OFFSET_RESET, DEFAULT_OFFSET_RESET);
         props.put("auto.offset.reset", resetValue.equals("largest") ? "latest" : "earliest");
-        // Default auto commit interval is 60 seconds. Reduce to 1 second to minimize message duplication
-        // if something breaks.
-        props.put("auto.commit.interval.ms", "1000");
+        final boolean manualOffsetCommit = configuration.getBoolean(CK_MANUAL_OFFSET_COMMIT, false);
+        if (manualOffsetCommit) {
+            // offsets are committed after the messages have been written to the journal
+            props.put("enable.auto.commit", "false");
+        } else {
+            // Default auto commit interval is 60 seconds. Reduce to 1 second to minimize message duplication
+            // if something breaks.
+            props.put("auto.commit.interval.ms", "1000");
+        }
+        final int maxPollRecords = configuration.intIsSet(CK_MAX_POLL_RECORDS) ? configuration.getInt(CK_MAX_POLL_RECORDS) : DEFAULT_MAX_POLL_RECORDS;
+        props.put("max.poll.records", String.valueOf(maxPollRecords > 0 ? maxPollRecords : DEFAULT_MAX_POLL_RECORDS));
         props.put(org.apache.kafka.clients.consumer.ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
         props.put(org.apache.kafka.clients.consumer.ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
 
         insertCustomProperties(props);
 
-        final int numThreads = configuration.getInt(CK_THREADS);
+        final ConsumerRunnable firstConsumer = new ConsumerRunnable(props, input, 0, manualOffsetCommit);
+        final int configuredThreads = configuration.getInt(CK_THREADS);
+        final int numThreads;
+        if (manualOffsetCommit) {
+            // consumers beyond the number of partitions would never get an assignment
+            numThreads = Math.max(1, Math.min(configuredThreads, firstConsumer.countMatchingPartitions()));
+            LOG.debug("Starting {} of {} configured consumer threads for input <{}>", numThreads, configuredThreads, input.getId());
+        } else {
+            numThreads = configuredThreads;
+        }
         // this is being used during shutdown to first stop all submitted jobs before committing the offsets back to zookeeper
         // and then shutting down the connection.
         // this is to avoid yanking away the connection from the consumer runnables
         stopLatch = new CountDownLatch(numThreads);
 
-        IntStream.range(0, numThreads).forEach(i -> executor.submit(new ConsumerRunnable(props, input, i)));
+        executor.submit(firstConsumer);
+        IntStream.range(1, numThreads).forEach(i -> executor.submit(new ConsumerRunnable(props, input, i, manualOffsetCommit)));
     }
 
-    private class ConsumerRunnable implements Runnable {
+    private class ConsumerRunnable implements Runnable, ConsumerRebalanceListener {
         private final MessageInput input;
         private final KafkaConsumer<byte[], byte[]> consumer;
+        private final Pattern topicFilter;
+        private final boolean manualOffsetCommit;
+        // offsets of records which have been written to the journal, in the order of the writes
+        private final Queue<Map<TopicPartition, OffsetAndMetadata>> writtenOffsets = new ConcurrentLinkedQueue<>();
+        private long lastLagUpdate = 0L;
 
-        public ConsumerRunnable(Properties props, MessageInput input, int threadId) {
+        public ConsumerRunnable(Properties props, MessageInput input, int threadId, boolean manualOffsetCommit) {
             this.input = input;
+            this.manualOffsetCommit = manualOffsetCommit;
             final Properties nprops = (Properties) props.clone();
             nprops.put("client.id", "gl2-" + nodeId.getShortNodeId() + "-" + input.getId() + "-" + threadId);
             consumer = new KafkaConsumer<>(nprops);
             //noinspection ConstantConditions
-            consumer.subscribe(Pattern.compile(configuration.getString(CK_TOPIC_FILTER)));
+            topicFilter = Pattern.compile(configuration.getString(CK_TOPIC_FILTER));
+            consumer.subscribe(topicFilter, this);
+        }
+
+        int countMatchingPartitions() {
+            try {
+                return consumer.listTopics(Duration.ofSeconds(10)).entrySet().stream()
+                        .filter(topic -> topicFilter.matcher(topic.getKey()).matches())
+                        .mapToInt(topic -> topic.getValue().size())
+                        .sum();
+            } catch (KafkaException e) {
+                LOG.warn("Couldn't determine number of partitions, starting all consumer threads.", e);
+                return Integer.MAX_VALUE;
+            }
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            for (TopicPartition partition : partitions) {
+                partitionLags.putIfAbsent(partition, 0L);
+                MetricUtils.safelyRegister(localRegistry, partitionLagMetricName(partition),
+                        (Gauge<Long>) () -> partitionLags.getOrDefault(partition, 0L));
+            }
+        }
+
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            // commit what has been written so far, the new owner continues from there
+            try {
+                commitWrittenOffsets(true);
+            } catch (KafkaException e) {
+                LOG.warn("Couldn't commit offsets of revoked partitions, messages might be consumed again.", e);
+            }
+            for (TopicPartition partition : partitions) {
+                partitionLags.remove(partition);
+                localRegistry.remove(partitionLagMetricName(partition));
+            }
         }
 
         private void consumeRecords(ConsumerRecords<byte[], byte[]> consumerRecords) {
+            final List<RawMessage> batch = new ArrayList<>(consumerRecords.count());
+            final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
             for (final ConsumerRecord<byte[], byte[]> record : consumerRecords) {
+                if (paused || isThrottled()) {
+                    // don't hold back the messages we already have while waiting
+                    processBatch(batch, offsets);
+                }
                 if (paused) {
                     // we try not to spin here, so we wait until the lifecycle goes back to running.
                     LOG.debug("Message processing is paused, blocking until message processing is turned back on.");
@@ -279,6 +366,7 @@ public class KafkaTransport extends ThrottleableTransport {
                 // process the message, this will immediately mark the message as having been processed. this gets tricky
                 // if we get an exception about processing it down below.
                 final byte[] bytes = record.value();
+                offsets.put(new TopicPartition(record.topic(), record.partition()), new OffsetAndMetadata(record.offset() + 1));
 
                 // it is possible that the message is null
                 if (bytes == null) {
@@ -287,8 +375,60 @@ public class KafkaTransport extends ThrottleableTransport {
                 totalBytesRead.addAndGet(bytes.length);
                 lastSecBytesReadTmp.addAndGet(bytes.length);
 
-                final RawMessage rawMessage = new RawMessage(bytes);
-                input.processRawMessage(rawMessage);
+                batch.add(new RawMessage(bytes));
+            }
+            // all records of a poll are inserted into the input buffer at once
+            processBatch(batch, offsets);
+        }
+
+        private void processBatch(List<RawMessage> batch, Map<TopicPartition, OffsetAndMetadata> offsets) {
+            if (manualOffsetCommit) {
+                if (!offsets.isEmpty()) {
+                    // the offsets are committed by the consumer thread, the journal only hands them over
+                    final Map<TopicPartition, OffsetAndMetadata> batchOffsets = new HashMap<>(offsets);
+                    input.processRawMessages(batch, () -> writtenOffsets.add(batchOffsets));
+                }
+            } else if (!batch.isEmpty()) {
+                input.processRawMessages(batch);
+            }
+            batch.clear();
+            offsets.clear();
+        }
+
+        private void commitWrittenOffsets(boolean sync) {
+            if (!manualOffsetCommit || writtenOffsets.isEmpty()) {
+                return;
+            }
+            final Set<TopicPartition> assignment = consumer.assignment();
+            final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            Map<TopicPartition, OffsetAndMetadata> written;
+            while ((written = writtenOffsets.poll()) != null) {
+                written.forEach((partition, offset) -> {
+                    // offsets of revoked partitions have been committed by the new owner already
+                    if (assignment.contains(partition)) {
+                        offsets.put(partition, offset);
+                    }
+                });
+            }
+            if (offsets.isEmpty()) {
+                return;
+            }
+            if (sync) {
+                consumer.commitSync(offsets);
+            } else {
+                consumer.commitAsync(offsets, (committed, e) -> {
+                    if (e != null) {
+                        LOG.warn("Couldn't commit offsets {}, messages might be consumed again.", committed, e);
+                    }
+                });
+            }
+        }
+
+        private void updatePartitionLags() {
+            final long now = System.currentTimeMillis();
+            if (now - lastLagUpdate >= 1000L) {
+                lastLagUpdate = now;
+                KafkaTransport.updatePartitionLags(consumer.metrics(), partitionLags);
             }
         }
 
@@ -310,6 +450,7 @@ public class KafkaTransport extends ThrottleableTransport {
             while (!stopped) {
                 final Optional<ConsumerRecords<byte[], byte[]>> consumerRecords;
                 try {
+                    commitWrittenOffsets(false);
                     consumerRecords = tryPoll();
                     if (! consumerRecords.isPresent()) {
                         LOG.error("Caught recoverable exception. Retrying");
@@ -322,6 +463,7 @@ public class KafkaTransport extends ThrottleableTransport {
                     break;
                 }
                 try {
+                    updatePartitionLags();
                     consumeRecords(consumerRecords.get());
                 } catch (Exception e) {
                     LOG.error("Exception in consumer thread. Stopping input", e);
@@ -331,7 +473,15 @@ public class KafkaTransport extends ThrottleableTransport {
             }
             // explicitly commit our offsets when stopping.
             // this might trigger a couple of times, but it won't hurt
-            consumer.commitAsync();
+            if (manualOffsetCommit) {
+                try {
+                    commitWrittenOffsets(true);
+                } catch (KafkaException e) {
+                    LOG.warn("Couldn't commit offsets when stopping, messages might be consumed again.", e);
+                }
+            } else {
+                consumer.commitAsync();
+            }
             stopLatch.countDown();
             consumer.close(Duration.ofSeconds(5));
         }
@@ -430,6 +580,28 @@ public class KafkaTransport extends ThrottleableTransport {
         }
     }
 
+    private static String partitionLagMetricName(TopicPartition partition) {
+        return name("partition", partition.toString(), "lag");
+    }
+
+    @VisibleForTesting
+    static void updatePartitionLags(Map<MetricName, ? extends Metric> metrics, Map<TopicPartition, Long> partitionLags) {
+        for (Map.Entry<MetricName, ? extends Metric> entry : metrics.entrySet()) {
+            final MetricName metricName = entry.getKey();
+            if (!RECORDS_LAG_METRIC.equals(metricName.name()) || !FETCH_MANAGER_METRIC_GROUP.equals(metricName.group())) {
+                continue;
+            }
+            final String topic = metricName.tags().get("topic");
+            final String partition = metricName.tags().get("partition");
+            final Object value = entry.getValue().metricValue();
+            if (topic == null || partition == null || !(value instanceof Double) || !Double.isFinite((Double) value)) {
+                continue;
+            }
+            // only update assigned partitions, the metrics of revoked ones are kept by the consumer for a while
+            partitionLags.replace(new TopicPartition(topic, Integer.parseInt(partition)), ((Double) value).longValue());
+        }
+    }
+
     private void insertCustomProperties(Properties props) {
         try {
             final Properties customProperties = new Properties();
@@ -567,6 +739,19 @@ public class KafkaTransport extends ThrottleableTransport {
                     DEFAULT_GROUP_ID,
                     "Name of the consumer group the Kafka input belongs to",
                     ConfigurationField.Optional.OPTIONAL));
+            cr.addField(new BooleanField(
+                    CK_MANUAL_OFFSET_COMMIT,
+                    "Commit offsets after journal write",
+                    false,
+                    "Commit consumer offsets only after the messages have been written to the journal instead of " +
+                            "committing them periodically, and start no more consumer threads than there are partitions. " +
+                            "Not used in legacy mode."));
+            cr.addField(new NumberField(
+                    CK_MAX_POLL_RECORDS,
+                    "Maximum records per poll",
+                    DEFAULT_MAX_POLL_RECORDS,
+                    "The maximum number of records a consumer thread receives and writes to the journal at once. Not used in legacy mode.",
+                    ConfigurationField.Optional.OPTIONAL));
             cr.addField(new TextField(
                     CK_CUSTOM_PROPERTIES,
                     "Custom Kafka properties",
@@ -16,6 +16,9 @@
  */
 package org.graylog2.inputs.transports;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
 import com.github.joschi.jadconfig.util.Size;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.primitives.Ints;
@@ -40,9 +43,12 @@ import org.graylog2.inputs.transports.netty.EnvelopeMessageAggregationHandler;
 import org.graylog2.inputs.transports.netty.EnvelopeMessageHandler;
 import org.graylog2.inputs.transports.netty.EventLoopGroupFactory;
 import org.graylog2.inputs.transports.netty.NettyTransportType;
+import org.graylog2.inputs.transports.netty.UdpSocketDropCounters;
 import org.graylog2.plugin.LocalMetricRegistry;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
+import org.graylog2.plugin.configuration.fields.ConfigurationField;
+import org.graylog2.plugin.configuration.fields.NumberField;
 import org.graylog2.plugin.inputs.MessageInput;
 import org.graylog2.plugin.inputs.MisfireException;
 import org.graylog2.plugin.inputs.annotations.ConfigClass;
@@ -56,14 +62,28 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.net.SocketAddress;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class UdpTransport extends NettyTransport {
     private static final Logger LOG = LoggerFactory.getLogger(UdpTransport.class);
 
+    public static final String CK_NUMBER_SOCKETS = "number_sockets";
+    public static final String SOCKET_METRIC_PREFIX = "socket";
+    public static final String RECEIVE_BUFFER_DROPS = "receive_buffer_drops";
+
     private final NettyTransportConfiguration nettyTransportConfiguration;
     private final ChannelGroup channels;
+    private final int numberOfSockets;
+    private final List<ThroughputCounter> socketThroughputCounters = new CopyOnWriteArrayList<>();
+    private final Set<String> socketMetricNames = ConcurrentHashMap.newKeySet();
+    private final UdpSocketDropCounters dropCounters = new UdpSocketDropCounters();
     private EventLoopGroup eventLoopGroup;
     private Bootstrap bootstrap;
 
@@ -76,6 +96,24 @@ public class UdpTransport extends NettyTransport {
         super(configuration, eventLoopGroupFactory, throughputCounter, localRegistry);
         this.nettyTransportConfiguration = nettyTransportConfiguration;
         this.channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+        this.numberOfSockets = configuration.getInt(CK_NUMBER_SOCKETS, 0);
+    }
+
+    /**
+     * The number of sockets bound for this input. Multiple sockets share the port with {@code SO_REUSEPORT} and
+     * are only supported by the native transports, the kernel then distributes the datagrams among them.
+     */
+    @VisibleForTesting
+    int getNumberOfSockets() {
+        final NettyTransportType transportType = nettyTransportConfiguration.getType();
+        if (transportType != NettyTransportType.EPOLL && transportType != NettyTransportType.KQUEUE) {
+            if (numberOfSockets > 1) {
+                LOG.warn("Multiple sockets per input require the \"epoll\" or \"kqueue\" transport, using a single socket with transport \"{}\".",
+                        transportType);
+            }
+            return 1;
+        }
+        return numberOfSockets > 0 ? numberOfSockets : workerThreads;
     }
 
     @VisibleForTesting
@@ -83,7 +121,8 @@ public class UdpTransport extends NettyTransport {
         LOG.debug("Setting UDP receive buffer size to {} bytes", getRecvBufferSize());
         final NettyTransportType transportType = nettyTransportConfiguration.getType();
 
-        eventLoopGroup = eventLoopGroupFactory.create(workerThreads, localRegistry, "workers");
+        // every socket gets its own event loop
+        eventLoopGroup = eventLoopGroupFactory.create(Math.max(workerThreads, getNumberOfSockets()), localRegistry, "workers");
 
         return new Bootstrap()
                 .group(eventLoopGroup)
@@ -124,19 +163,53 @@ public class UdpTransport extends NettyTransport {
         try {
             bootstrap = getBootstrap(input);
 
-            final NettyTransportType transportType = nettyTransportConfiguration.getType();
-            int numChannels = (transportType == NettyTransportType.EPOLL || transportType == NettyTransportType.KQUEUE) ? workerThreads : 1;
+            final int numChannels = getNumberOfSockets();
             for (int i = 0; i < numChannels; i++) {
-                LOG.debug("Starting channel on {}", socketAddress);
-                bootstrap.bind(socketAddress)
+                LOG.debug("Starting channel {} on {}", i, socketAddress);
+                final ThroughputCounter socketThroughputCounter = new ThroughputCounter(eventLoopGroup);
+                socketThroughputCounters.add(socketThroughputCounter);
+                final String metricPrefix = MetricRegistry.name(SOCKET_METRIC_PREFIX, String.valueOf(i));
+                registerSocketMetrics(metricPrefix, socketThroughputCounter.gauges());
+
+                final ChannelFuture future = bootstrap.clone(eventLoopGroup.next())
+                        .handler(getChannelInitializer(getSocketChannelHandlers(input, socketThroughputCounter)))
+                        .bind(socketAddress)
                         .addListener(new InputLaunchListener(channels, input, getRecvBufferSize()))
                         .syncUninterruptibly();
+
+                final Gauge<Long> drops = dropCounters.dropsGauge(future.channel());
+                if (drops != null) {
+                    registerSocketMetrics(metricPrefix, Collections.singletonMap(RECEIVE_BUFFER_DROPS, drops));
+                }
             }
         } catch (Exception e) {
             throw new MisfireException(e);
         }
     }
 
+    private LinkedHashMap<String, Callable<? extends ChannelHandler>> getSocketChannelHandlers(MessageInput input, ThroughputCounter socketThroughputCounter) {
+        final LinkedHashMap<String, Callable<? extends ChannelHandler>> handlers = new LinkedHashMap<>();
+        final LinkedHashMap<String, Callable<? extends ChannelHandler>> channelHandlers = getChannelHandlers(input);
+        if (!channelHandlers.containsKey("traffic-counter")) {
+            handlers.put("socket-traffic-counter", () -> socketThroughputCounter);
+        }
+        for (Map.Entry<String, Callable<? extends ChannelHandler>> entry : channelHandlers.entrySet()) {
+            handlers.put(entry.getKey(), entry.getValue());
+            if ("traffic-counter".equals(entry.getKey())) {
+                handlers.put("socket-traffic-counter", () -> socketThroughputCounter);
+            }
+        }
+        return handlers;
+    }
+
+    private void registerSocketMetrics(String prefix, Map<String, ? extends Metric> metrics) {
+        for (Map.Entry<String, ? extends Metric> entry : metrics.entrySet()) {
+            final String name = MetricRegistry.name(prefix, entry.getKey());
+            localRegistry.remove(name);
+            localRegistry.register(name, entry.getValue());
+            socketMetricNames.add(name);
+        }
+    }
 
     @Override
     public void stop() {
@@ -146,6 +219,10 @@ public class UdpTransport extends NettyTransport {
         if (eventLoopGroup != null) {
             eventLoopGroup.shutdownGracefully();
         }
+        socketThroughputCounters.forEach(ThroughputCounter::release);
+        socketThroughputCounters.clear();
+        socketMetricNames.forEach(localRegistry::remove);
+        socketMetricNames.clear();
         bootstrap = null;
     }
 
@@ -177,6 +254,14 @@ public class UdpTransport extends NettyTransport {
 
             final int recvBufferSize = Ints.saturatedCast(Size.kilobytes(256L).toBytes());
             r.addField(ConfigurationRequest.Templates.recvBufferSize(CK_RECV_BUFFER_SIZE, recvBufferSize));
+            r.addField(new NumberField(
+                    CK_NUMBER_SOCKETS,
+                    "No. of sockets",
+                    0,
+                    "Number of sockets bound to the port with SO_REUSEPORT, each served by its own event loop. "
+                            + "Requires the epoll or kqueue transport. (use 0 for one socket per worker thread)",
+                    ConfigurationField.Optional.OPTIONAL,
+                    NumberField.Attribute.ONLY_POSITIVE));
 
             return r;
         }
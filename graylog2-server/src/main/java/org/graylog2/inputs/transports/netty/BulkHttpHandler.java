@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.transports.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ByteProcessor;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.journal.RawMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.graylog2.inputs.transports.netty.HttpHandler.writeResponse;
+
+/**
+ * Receives newline-delimited messages (e. g. NDJSON) in the body of a HTTP request.
+ * <p>
+ * The body isn't aggregated: every chunk of the body is split into lines on the event loop and the complete lines of
+ * a chunk are published to the input as one batch. Only an incomplete last line is kept until the next chunk arrives.
+ * Compressed bodies ({@code Content-Encoding: gzip}) have to be decompressed by a preceding
+ * {@link io.netty.handler.codec.http.HttpContentDecompressor}.
+ */
+public class BulkHttpHandler extends SimpleChannelInboundHandler<HttpObject> {
+    private static final Logger LOG = LoggerFactory.getLogger(BulkHttpHandler.class);
+
+    private final MessageInput input;
+    private final boolean enableCors;
+    private final int maxLineLength;
+
+    private HttpRequest request;
+    private boolean receiving = false;
+    private boolean discardingLine = false;
+    private boolean lineTooLong = false;
+    private ByteBuf partialLine;
+
+    public BulkHttpHandler(MessageInput input, boolean enableCors, int maxLineLength) {
+        this.input = input;
+        this.enableCors = enableCors;
+        this.maxLineLength = maxLineLength;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+        if (msg instanceof HttpRequest) {
+            startRequest(ctx, (HttpRequest) msg);
+        }
+        if (msg instanceof HttpContent && receiving) {
+            final ByteBuf content = ((HttpContent) msg).content();
+            final SocketAddress socketAddress = ctx.channel().remoteAddress();
+            final InetSocketAddress remoteAddress = socketAddress instanceof InetSocketAddress ? (InetSocketAddress) socketAddress : null;
+            final List<RawMessage> batch = new ArrayList<>();
+            splitLines(content, batch, remoteAddress);
+            if (msg instanceof LastHttpContent) {
+                if (partialLine != null) {
+                    addLine(partialLine, batch, remoteAddress);
+                    partialLine = null;
+                }
+            }
+            if (!batch.isEmpty()) {
+                input.processRawMessages(batch);
+            }
+        }
+        if (msg instanceof LastHttpContent && request != null) {
+            finishRequest(ctx);
+        }
+    }
+
+    private void startRequest(ChannelHandlerContext ctx, HttpRequest httpRequest) {
+        request = httpRequest;
+        receiving = false;
+        discardingLine = false;
+        lineTooLong = false;
+        releasePartialLine();
+
+        final boolean keepAlive = HttpUtil.isKeepAlive(httpRequest);
+        final String origin = httpRequest.headers().get(HttpHeaderNames.ORIGIN);
+
+        // to allow for future changes, let's be at least a little strict in what we accept here.
+        if (HttpMethod.OPTIONS.equals(httpRequest.method())) {
+            writeResponse(ctx.channel(), keepAlive, httpRequest.protocolVersion(), HttpResponseStatus.OK, origin, enableCors);
+            request = null;
+        } else if (!HttpMethod.POST.equals(httpRequest.method())) {
+            writeResponse(ctx.channel(), keepAlive, httpRequest.protocolVersion(), HttpResponseStatus.METHOD_NOT_ALLOWED, origin, enableCors);
+            request = null;
+        } else if (!"/gelf".equals(httpRequest.uri())) {
+            writeResponse(ctx.channel(), keepAlive, httpRequest.protocolVersion(), HttpResponseStatus.NOT_FOUND, origin, enableCors);
+            request = null;
+        } else {
+            receiving = true;
+            if (HttpUtil.is100ContinueExpected(httpRequest)) {
+                ctx.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE));
+            }
+        }
+    }
+
+    private void finishRequest(ChannelHandlerContext ctx) {
+        final HttpResponseStatus status = lineTooLong ? HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE : HttpResponseStatus.ACCEPTED;
+        writeResponse(ctx.channel(), HttpUtil.isKeepAlive(request), request.protocolVersion(), status,
+                request.headers().get(HttpHeaderNames.ORIGIN), enableCors);
+        request = null;
+        receiving = false;
+    }
+
+    private void splitLines(ByteBuf content, List<RawMessage> batch, InetSocketAddress remoteAddress) {
+        while (content.isReadable()) {
+            final int lineFeed = content.forEachByte(ByteProcessor.FIND_LF);
+            if (lineFeed < 0) {
+                appendPartialLine(content, content.readableBytes());
+                return;
+            }
+
+            final int length = lineFeed - content.readerIndex();
+            if (discardingLine) {
+                discardingLine = false;
+                content.skipBytes(length);
+            } else if (partialLine != null) {
+                appendPartialLine(content, length);
+                if (partialLine != null) {
+                    addLine(partialLine, batch, remoteAddress);
+                    partialLine = null;
+                }
+                // a line which has been too long ends here
+                discardingLine = false;
+            } else if (length > maxLineLength) {
+                tooLong(length);
+                content.skipBytes(length);
+            } else {
+                addLine(content.readRetainedSlice(length), batch, remoteAddress);
+            }
+            // skip line feed
+            content.skipBytes(1);
+        }
+    }
+
+    private void appendPartialLine(ByteBuf content, int length) {
+        if (discardingLine) {
+            content.skipBytes(length);
+            return;
+        }
+        final int partialLength = partialLine == null ? 0 : partialLine.readableBytes();
+        if (partialLength + length > maxLineLength) {
+            tooLong(partialLength + length);
+            releasePartialLine();
+            content.skipBytes(length);
+            discardingLine = true;
+            return;
+        }
+        if (partialLine == null) {
+            partialLine = content.alloc().buffer(length);
+        }
+        partialLine.writeBytes(content, length);
+    }
+
+    private void addLine(ByteBuf line, List<RawMessage> batch, InetSocketAddress remoteAddress) {
+        // strip carriage return of CRLF line endings
+        if (line.isReadable() && line.getByte(line.writerIndex() - 1) == '\r') {
+            line.writerIndex(line.writerIndex() - 1);
+        }
+        if (!line.isReadable()) {
+            line.release();
+            return;
+        }
+        batch.add(new RawMessage(line, remoteAddress));
+    }
+
+    private void tooLong(int length) {
+        LOG.debug("Discarding line of {} bytes in bulk request for input {}, the maximum line length is {} bytes",
+                length, input, maxLineLength);
+        lineTooLong = true;
+    }
+
+    private void releasePartialLine() {
+        if (partialLine != null) {
+            partialLine.release();
+            partialLine = null;
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releasePartialLine();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        releasePartialLine();
+        super.handlerRemoved(ctx);
+    }
+}
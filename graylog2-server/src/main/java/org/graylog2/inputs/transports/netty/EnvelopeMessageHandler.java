@@ -27,11 +27,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 public class EnvelopeMessageHandler extends SimpleChannelInboundHandler<AddressedEnvelope<ByteBuf, InetSocketAddress>> {
     private static final Logger LOG = LoggerFactory.getLogger(NettyTransport.class);
 
     private final MessageInput input;
+    private final List<RawMessage> batch = new ArrayList<>();
 
     public EnvelopeMessageHandler(MessageInput input) {
         this.input = input;
@@ -40,10 +43,33 @@ public class EnvelopeMessageHandler extends SimpleChannelInboundHandler<Addresse
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, AddressedEnvelope<ByteBuf, InetSocketAddress> envelope) throws Exception {
         final ByteBuf msg = envelope.content();
-        final byte[] bytes = new byte[msg.readableBytes()];
-        msg.readBytes(bytes);
-        final RawMessage raw = new RawMessage(bytes, envelope.sender());
-        input.processRawMessage(raw);
+        // the raw message takes over the retained reference, the handler releases the original one
+        final RawMessage raw = new RawMessage(msg.retain(), envelope.sender());
+        batch.add(raw);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        // all messages decoded from one read are inserted into the input buffer at once
+        flushBatch();
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        flushBatch();
+        super.channelInactive(ctx);
+    }
+
+    private void flushBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            input.processRawMessages(batch);
+        } finally {
+            batch.clear();
+        }
     }
 
     @Override
@@ -74,6 +74,15 @@ public class HttpHandler extends SimpleChannelInboundHandler<HttpRequest> {
                                HttpVersion httpRequestVersion,
                                HttpResponseStatus status,
                                String origin) {
+        writeResponse(channel, keepAlive, httpRequestVersion, status, origin, enableCors);
+    }
+
+    static void writeResponse(Channel channel,
+                              boolean keepAlive,
+                              HttpVersion httpRequestVersion,
+                              HttpResponseStatus status,
+                              String origin,
+                              boolean enableCors) {
         final HttpResponse response = new DefaultFullHttpResponse(httpRequestVersion, status);
 
         response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
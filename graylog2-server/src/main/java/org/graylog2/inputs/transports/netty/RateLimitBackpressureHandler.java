@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.transports.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.graylog2.plugin.inputs.util.InputRateLimiter;
+
+import javax.annotation.Nullable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops reading from a connection while the input or the sender exceeds its rate limit. The messages have already
+ * been counted against the limits by the {@link org.graylog2.plugin.inputs.MessageInput}, this handler only decides
+ * when to read again.
+ */
+public class RateLimitBackpressureHandler extends ChannelInboundHandlerAdapter {
+    private final InputRateLimiter rateLimiter;
+    private boolean paused = false;
+
+    public RateLimitBackpressureHandler(InputRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        final long delay = rateLimiter.nanosUntilAvailable(remoteAddress(ctx));
+        if (delay > 0 && !paused) {
+            paused = true;
+            ctx.channel().config().setAutoRead(false);
+            ctx.executor().schedule(() -> resume(ctx), delay, TimeUnit.NANOSECONDS);
+        }
+        super.channelReadComplete(ctx);
+    }
+
+    private void resume(ChannelHandlerContext ctx) {
+        final long delay = rateLimiter.nanosUntilAvailable(remoteAddress(ctx));
+        if (delay > 0) {
+            // other connections of the sender kept the limit exceeded
+            ctx.executor().schedule(() -> resume(ctx), delay, TimeUnit.NANOSECONDS);
+            return;
+        }
+        paused = false;
+        ctx.channel().config().setAutoRead(true);
+    }
+
+    @Nullable
+    private static InetAddress remoteAddress(ChannelHandlerContext ctx) {
+        final SocketAddress address = ctx.channel().remoteAddress();
+        return address instanceof InetSocketAddress ? ((InetSocketAddress) address).getAddress() : null;
+    }
+}
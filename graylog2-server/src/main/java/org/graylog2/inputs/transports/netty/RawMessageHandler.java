@@ -26,11 +26,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 public class RawMessageHandler extends SimpleChannelInboundHandler<ByteBuf> {
     private static final Logger LOG = LoggerFactory.getLogger(NettyTransport.class);
 
     private final MessageInput input;
+    private final List<RawMessage> batch = new ArrayList<>();
 
     public RawMessageHandler(MessageInput input) {
         this.input = input;
@@ -38,10 +41,33 @@ public class RawMessageHandler extends SimpleChannelInboundHandler<ByteBuf> {
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
-        final byte[] bytes = new byte[msg.readableBytes()];
-        msg.readBytes(bytes);
-        final RawMessage raw = new RawMessage(bytes, (InetSocketAddress) ctx.channel().remoteAddress());
-        input.processRawMessage(raw);
+        // the raw message takes over the retained reference, the handler releases the original one
+        final RawMessage raw = new RawMessage(msg.retain(), (InetSocketAddress) ctx.channel().remoteAddress());
+        batch.add(raw);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        // all messages decoded from one read are inserted into the input buffer at once
+        flushBatch();
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        flushBatch();
+        super.channelInactive(ctx);
+    }
+
+    private void flushBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            input.processRawMessages(batch);
+        } finally {
+            batch.clear();
+        }
     }
 
     @Override
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.transports.netty;
+
+import com.codahale.metrics.Gauge;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.base.Suppliers;
+import io.netty.channel.Channel;
+import io.netty.channel.unix.UnixChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Exposes the number of datagrams the kernel dropped for individual UDP sockets, e. g. because their receive
+ * buffer was full.
+ * <p>
+ * The counters are read from {@code /proc/net/udp} and {@code /proc/net/udp6}, so they are only available on
+ * Linux and for channels backed by a native file descriptor (i. e. the {@code epoll} transport).
+ */
+public class UdpSocketDropCounters {
+    private static final Logger LOG = LoggerFactory.getLogger(UdpSocketDropCounters.class);
+
+    private static final Path PROC_NET_UDP = Paths.get("/proc/net/udp");
+    private static final Path PROC_NET_UDP6 = Paths.get("/proc/net/udp6");
+    private static final Path PROC_SELF_FD = Paths.get("/proc/self/fd");
+    private static final Pattern SOCKET_INODE = Pattern.compile("socket:\\[(\\d+)]");
+    private static final Splitter WHITESPACE = Splitter.on(Pattern.compile("\\s+")).omitEmptyStrings();
+    private static final int INODE_COLUMN = 9;
+    private static final int DROPS_COLUMN = 12;
+
+    private final Supplier<Map<Long, Long>> drops =
+            Suppliers.memoizeWithExpiration(UdpSocketDropCounters::readDrops, 1L, TimeUnit.SECONDS);
+
+    public static boolean isSupported() {
+        return Files.isReadable(PROC_NET_UDP);
+    }
+
+    /**
+     * Creates a gauge for the number of dropped datagrams of the given channel.
+     *
+     * @param channel a bound datagram channel
+     * @return the gauge or {@code null} if the counter isn't available for the channel
+     */
+    @Nullable
+    public Gauge<Long> dropsGauge(Channel channel) {
+        if (!isSupported() || !(channel instanceof UnixChannel)) {
+            return null;
+        }
+        final int fd = ((UnixChannel) channel).fd().intValue();
+        final long inode;
+        try {
+            final Matcher matcher = SOCKET_INODE.matcher(Files.readSymbolicLink(PROC_SELF_FD.resolve(String.valueOf(fd))).toString());
+            if (!matcher.matches()) {
+                return null;
+            }
+            inode = Long.parseLong(matcher.group(1));
+        } catch (IOException e) {
+            LOG.debug("Couldn't resolve socket inode of channel {}", channel, e);
+            return null;
+        }
+        return () -> drops.get().getOrDefault(inode, 0L);
+    }
+
+    private static Map<Long, Long> readDrops() {
+        final Map<Long, Long> result = new HashMap<>();
+        for (Path path : new Path[]{PROC_NET_UDP, PROC_NET_UDP6}) {
+            if (!Files.isReadable(path)) {
+                continue;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+                result.putAll(parseDrops(reader));
+            } catch (IOException e) {
+                LOG.debug("Couldn't read UDP socket statistics from {}", path, e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses the socket table in the format of {@code /proc/net/udp}.
+     *
+     * @return the number of dropped datagrams by socket inode
+     */
+    @VisibleForTesting
+    static Map<Long, Long> parseDrops(Reader reader) throws IOException {
+        final BufferedReader bufferedReader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        final Map<Long, Long> result = new HashMap<>();
+        // skip header line
+        String line = bufferedReader.readLine();
+        while ((line = bufferedReader.readLine()) != null) {
+            final List<String> columns = WHITESPACE.splitToList(line);
+            if (columns.size() <= DROPS_COLUMN) {
+                continue;
+            }
+            try {
+                result.put(Long.parseLong(columns.get(INODE_COLUMN)), Long.parseLong(columns.get(DROPS_COLUMN)));
+            } catch (NumberFormatException e) {
+                LOG.debug("Skipping invalid UDP socket statistics line: {}", line);
+            }
+        }
+        return result;
+    }
+}
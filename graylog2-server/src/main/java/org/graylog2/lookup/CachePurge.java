@@ -22,6 +22,7 @@ import org.graylog2.plugin.lookup.LookupCachePurge;
 import org.graylog2.plugin.lookup.LookupDataAdapter;
 
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 /**
@@ -50,6 +51,12 @@ public class CachePurge implements LookupCachePurge {
         caches().forEach(cache -> cache.purge(LookupCacheKey.create(adapter, key)));
     }
 
+    @Override
+    public void purgeKeys(Predicate<Object> keyMatcher) {
+        // Collect related caches on every call to improve the chance that we get all of them
+        caches().forEach(cache -> cache.purge(LookupCacheKey.prefix(adapter), keyMatcher));
+    }
+
     private Stream<LookupCache> caches() {
         return tables.values().stream()
                 .filter(table -> table.dataAdapter().id().equals(adapter.id()))
@@ -18,10 +18,12 @@ package org.graylog2.lookup;
 
 import com.google.inject.Scopes;
 import org.graylog2.Configuration;
+import org.graylog2.lookup.adapters.CIDRFileDataAdapter;
 import org.graylog2.lookup.adapters.CSVFileDataAdapter;
 import org.graylog2.lookup.adapters.DSVHTTPDataAdapter;
 import org.graylog2.lookup.adapters.DnsLookupDataAdapter;
 import org.graylog2.lookup.adapters.HTTPJSONPathDataAdapter;
+import org.graylog2.lookup.adapters.MappedCSVFileDataAdapter;
 import org.graylog2.lookup.caches.CaffeineLookupCache;
 import org.graylog2.lookup.caches.NullCache;
 import org.graylog2.lookup.db.DBLookupTableConfigService;
@@ -60,6 +62,16 @@ public class LookupModule extends Graylog2Module {
                 CSVFileDataAdapter.Factory.class,
                 CSVFileDataAdapter.Config.class);
 
+        installLookupDataAdapter(MappedCSVFileDataAdapter.NAME,
+                MappedCSVFileDataAdapter.class,
+                MappedCSVFileDataAdapter.Factory.class,
+                MappedCSVFileDataAdapter.Config.class);
+
+        installLookupDataAdapter(CIDRFileDataAdapter.NAME,
+                CIDRFileDataAdapter.class,
+                CIDRFileDataAdapter.Factory.class,
+                CIDRFileDataAdapter.Config.class);
+
         installLookupDataAdapter2(DnsLookupDataAdapter.NAME,
                 DnsLookupDataAdapter.class,
                 DnsLookupDataAdapter.Factory.class,
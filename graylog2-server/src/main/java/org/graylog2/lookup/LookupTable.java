@@ -26,7 +26,10 @@ import org.graylog2.plugin.lookup.LookupResult;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static com.google.common.collect.Streams.stream;
@@ -72,6 +75,34 @@ public abstract class LookupTable {
     public LookupResult lookup(@Nonnull Object key) {
         final LookupResult result = cache().get(LookupCacheKey.create(dataAdapter(), key), () -> dataAdapter().get(key));
 
+        return withDefaults(result);
+    }
+
+    /**
+     * Look up several keys at once. Keys missing from the cache are loaded from the data adapter with a single call.
+     *
+     * @param keys the keys to look up
+     * @return the results for all keys, in the iteration order of the given keys
+     */
+    public Map<Object, LookupResult> lookupAll(@Nonnull Collection<Object> keys) {
+        final List<LookupCacheKey> cacheKeys = keys.stream()
+                .map(key -> LookupCacheKey.create(dataAdapter(), key))
+                .collect(Collectors.toList());
+
+        final Map<LookupCacheKey, LookupResult> cached = cache().getAll(cacheKeys, missingKeys -> {
+            final List<Object> adapterKeys = missingKeys.stream().map(LookupCacheKey::key).collect(Collectors.toList());
+            final Map<Object, LookupResult> adapterResults = dataAdapter().getAll(adapterKeys);
+            final Map<LookupCacheKey, LookupResult> loaded = new LinkedHashMap<>(adapterResults.size());
+            adapterResults.forEach((key, result) -> loaded.put(LookupCacheKey.create(dataAdapter(), key), result));
+            return loaded;
+        });
+
+        final Map<Object, LookupResult> results = new LinkedHashMap<>(cached.size());
+        cached.forEach((cacheKey, result) -> results.put(cacheKey.key(), withDefaults(result)));
+        return results;
+    }
+
+    private LookupResult withDefaults(LookupResult result) {
         if (result.hasError()) {
             return result;
         }
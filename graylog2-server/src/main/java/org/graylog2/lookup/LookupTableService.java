@@ -47,6 +47,7 @@ import javax.inject.Named;
 import javax.inject.Singleton;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -610,8 +611,30 @@ public class LookupTableService extends AbstractIdleService {
                 return LookupResult.withError();
             }
 
-            final LookupResult result = lookupTable.lookup(key);
+            return normalize(lookupTable.lookup(key));
+        }
+
+        /**
+         * Look up several keys at once, loading all keys missing from the cache with a single data adapter call.
+         *
+         * @param keys the keys to look up
+         * @return the results for all keys, in the iteration order of the given keys
+         */
+        public Map<Object, LookupResult> lookupAll(@Nonnull Collection<Object> keys) {
+            final Map<Object, LookupResult> results = new LinkedHashMap<>(keys.size());
+
+            // See lookup() for why the table is resolved for every call.
+            final LookupTable lookupTable = lookupTableService.getTable(lookupTableName);
+            if (lookupTable == null) {
+                keys.forEach(key -> results.put(key, LookupResult.withError()));
+                return results;
+            }
+
+            lookupTable.lookupAll(keys).forEach((key, result) -> results.put(key, normalize(result)));
+            return results;
+        }
 
+        private LookupResult normalize(@Nullable LookupResult result) {
             if (result == null) {
                 return LookupResult.empty();
             }
@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters;
+
+import au.com.bytecode.opencsv.CSVReader;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.net.InetAddresses;
+import com.google.common.primitives.Ints;
+import com.google.inject.assistedinject.Assisted;
+import org.graylog.autovalue.WithBeanGetter;
+import org.graylog2.lookup.AllowedAuxiliaryPathChecker;
+import org.graylog2.lookup.adapters.cidr.CIDRTrie;
+import org.graylog2.plugin.lookup.LookupCachePurge;
+import org.graylog2.plugin.lookup.LookupDataAdapter;
+import org.graylog2.plugin.lookup.LookupDataAdapterConfiguration;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.graylog2.plugin.utilities.FileInfo;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * Looks up IP addresses in a CSV file of network ranges. The key column contains CIDR notations
+ * ({@code 10.0.0.0/8}), address ranges ({@code 10.0.0.1-10.0.0.50}) or single addresses. If an address is contained
+ * in multiple ranges, the value of the most specific one is returned.
+ */
+public class CIDRFileDataAdapter extends LookupDataAdapter {
+    private static final Logger LOG = LoggerFactory.getLogger(CIDRFileDataAdapter.class);
+
+    public static final String NAME = "cidr_csvfile";
+
+    private final Config config;
+    private final AllowedAuxiliaryPathChecker pathChecker;
+    private final AtomicReference<CIDRTrie<String>> lookupRef = new AtomicReference<>(new CIDRTrie<>());
+
+    private FileInfo fileInfo = FileInfo.empty();
+
+    @Inject
+    public CIDRFileDataAdapter(@Assisted("id") String id,
+                               @Assisted("name") String name,
+                               @Assisted LookupDataAdapterConfiguration config,
+                               MetricRegistry metricRegistry,
+                               AllowedAuxiliaryPathChecker pathChecker) {
+        super(id, name, config, metricRegistry);
+        this.config = (Config) config;
+        this.pathChecker = pathChecker;
+    }
+
+    @Override
+    public void doStart() throws Exception {
+        LOG.debug("Starting CIDR data adapter for file: {}", config.path());
+        if (isNullOrEmpty(config.path())) {
+            throw new IllegalStateException("File path needs to be set");
+        }
+        if (!pathChecker.fileIsInAllowedPath(Paths.get(config.path()))) {
+            throw new IllegalStateException(CSVFileDataAdapter.ALLOWED_PATH_ERROR);
+        }
+        if (config.checkInterval() < 1) {
+            throw new IllegalStateException("Check interval setting cannot be smaller than 1");
+        }
+
+        // Set file info before parsing the data for the first time
+        fileInfo = FileInfo.forPath(Paths.get(config.path()));
+        lookupRef.set(parseCSVFile());
+    }
+
+    @Override
+    public Duration refreshInterval() {
+        return Duration.standardSeconds(Ints.saturatedCast(config.checkInterval()));
+    }
+
+    @Override
+    protected void doRefresh(LookupCachePurge cachePurge) throws Exception {
+        if (!pathChecker.fileIsInAllowedPath(Paths.get(config.path()))) {
+            LOG.error(CSVFileDataAdapter.ALLOWED_PATH_ERROR);
+            setError(new IllegalStateException(CSVFileDataAdapter.ALLOWED_PATH_ERROR));
+            return;
+        }
+
+        try {
+            final FileInfo.Change fileChanged = fileInfo.checkForChange();
+            if (!fileChanged.isChanged() && !getError().isPresent()) {
+                // Nothing to do, file did not change
+                return;
+            }
+
+            LOG.debug("CIDR file {} has changed, updating data", config.path());
+            final CIDRTrie<String> trie;
+            try {
+                trie = parseCSVFile();
+            } catch (RuntimeException e) {
+                // Keep serving the previous data until the file has been fixed
+                setError(e);
+                return;
+            }
+            lookupRef.set(trie);
+            cachePurge.purgeAll();
+            fileInfo = fileChanged.fileInfo();
+            clearError();
+        } catch (IOException e) {
+            LOG.error("Couldn't check data adapter <{}> CIDR file {} for updates: {} {}", name(), config.path(), e.getClass().getCanonicalName(), e.getMessage());
+            setError(e);
+        }
+    }
+
+    /**
+     * @throws IOException           if the file cannot be read
+     * @throws IllegalStateException if the file is malformed
+     */
+    private CIDRTrie<String> parseCSVFile() throws IOException {
+        final InputStream inputStream = Files.newInputStream(Paths.get(config.path()));
+        final InputStreamReader fileReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+        final CIDRTrie<String> trie = new CIDRTrie<>();
+
+        try (final CSVReader csvReader = new CSVReader(fileReader, config.separatorAsChar(), config.quotecharAsChar())) {
+            int line = 0;
+            int keyColumn = -1;
+            int valueColumn = -1;
+            int invalidLines = 0;
+
+            while (true) {
+                final String[] next = csvReader.readNext();
+                if (next == null) {
+                    break;
+                }
+                line++;
+
+                if (line == 1) {
+                    // The first line in the CSV file provides the column names
+                    int col = 0;
+                    for (final String column : next) {
+                        if (!isNullOrEmpty(column)) {
+                            if (config.keyColumn().equals(column)) {
+                                keyColumn = col;
+                            }
+                            if (config.valueColumn().equals(column)) {
+                                valueColumn = col;
+                            }
+                        }
+                        col++;
+                    }
+                } else {
+                    // The other lines are supposed to be data entries
+                    if (keyColumn < 0 || valueColumn < 0) {
+                        throw new IllegalStateException("Couldn't detect column number for key or value - check CSV file format");
+                    }
+                    if (next.length <= Math.max(keyColumn, valueColumn)) {
+                        throw new IllegalStateException("Line " + line + " is missing the key or value column - check CSV file format");
+                    }
+                    try {
+                        addRange(trie, next[keyColumn], next[valueColumn]);
+                    } catch (IllegalArgumentException e) {
+                        // Skip invalid ranges instead of dropping the whole file
+                        if (invalidLines++ == 0) {
+                            LOG.warn("Ignoring invalid range <{}> in line {} of CIDR file {}: {}", next[keyColumn], line, config.path(), e.getMessage());
+                        }
+                    }
+                }
+            }
+            if (invalidLines > 0) {
+                LOG.warn("Ignored {} lines with invalid ranges in CIDR file {}", invalidLines, config.path());
+            }
+        } catch (Exception e) {
+            // A partially parsed file must not replace the data
+            LOG.error("Couldn't parse CIDR file {} (settings separator=<{}> quotechar=<{}> key_column=<{}> value_column=<{}>)", config.path(),
+                    config.separator(), config.quotechar(), config.keyColumn(), config.valueColumn(), e);
+            throw e;
+        }
+
+        return trie;
+    }
+
+    /**
+     * Adds a CIDR notation, an address range or a single address to the trie.
+     *
+     * @throws IllegalArgumentException if the range is invalid
+     */
+    @VisibleForTesting
+    static void addRange(CIDRTrie<String> trie, String range, String value) {
+        final String trimmed = range.trim();
+        final int slash = trimmed.indexOf('/');
+        final int dash = trimmed.indexOf('-');
+        if (slash >= 0) {
+            final InetAddress network = InetAddresses.forString(trimmed.substring(0, slash).trim());
+            final int prefixLength;
+            try {
+                prefixLength = Integer.parseInt(trimmed.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid prefix length in " + trimmed);
+            }
+            trie.put(network, prefixLength, value);
+        } else if (dash >= 0) {
+            trie.putRange(InetAddresses.forString(trimmed.substring(0, dash).trim()),
+                    InetAddresses.forString(trimmed.substring(dash + 1).trim()),
+                    value);
+        } else {
+            final InetAddress address = InetAddresses.forString(trimmed);
+            trie.put(address, address.getAddress().length * 8, value);
+        }
+    }
+
+    @Override
+    public void doStop() throws Exception {
+        LOG.debug("Stopping CIDR data adapter for file: {}", config.path());
+    }
+
+    @Override
+    public LookupResult doGet(Object key) {
+        final InetAddress address;
+        if (key instanceof InetAddress) {
+            address = (InetAddress) key;
+        } else {
+            try {
+                address = InetAddresses.forString(String.valueOf(key).trim());
+            } catch (IllegalArgumentException e) {
+                LOG.debug("Unable to parse IP address <{}>, returning empty result.", key);
+                return getEmptyResult();
+            }
+        }
+
+        final String value = lookupRef.get().longestPrefixMatch(address);
+        if (value == null) {
+            return getEmptyResult();
+        }
+
+        return LookupResult.single(value);
+    }
+
+    @Override
+    public void set(Object key, Object value) {
+
+    }
+
+    public interface Factory extends LookupDataAdapter.Factory<CIDRFileDataAdapter> {
+        @Override
+        CIDRFileDataAdapter create(@Assisted("id") String id,
+                                   @Assisted("name") String name,
+                                   LookupDataAdapterConfiguration configuration);
+
+        @Override
+        Descriptor getDescriptor();
+    }
+
+    public static class Descriptor extends LookupDataAdapter.Descriptor<Config> {
+        public Descriptor() {
+            super(NAME, Config.class);
+        }
+
+        @Override
+        public Config defaultConfiguration() {
+            return Config.builder()
+                    .type(NAME)
+                    .path("/etc/graylog/lookup-table-networks.csv")
+                    .separator(",")
+                    .quotechar("\"")
+                    .keyColumn("network")
+                    .valueColumn("value")
+                    .checkInterval(60)
+                    .build();
+        }
+    }
+
+    @AutoValue
+    @WithBeanGetter
+    @JsonAutoDetect
+    @JsonDeserialize(builder = AutoValue_CIDRFileDataAdapter_Config.Builder.class)
+    @JsonTypeName(NAME)
+    public static abstract class Config implements LookupDataAdapterConfiguration {
+
+        @Override
+        @JsonProperty(TYPE_FIELD)
+        public abstract String type();
+
+        @JsonProperty("path")
+        @NotEmpty
+        public abstract String path();
+
+        // Using String here instead of char to allow deserialization of a longer (invalid) string to get proper
+        // validation error messages
+        @JsonProperty("separator")
+        @Size(min = 1, max = 1)
+        @NotEmpty
+        public abstract String separator();
+
+        @JsonIgnore
+        public char separatorAsChar() {
+            return separator().charAt(0);
+        }
+
+        // Using String here instead of char to allow deserialization of a longer (invalid) string to get proper
+        // validation error messages
+        @JsonProperty("quotechar")
+        @Size(min = 1, max = 1)
+        @NotEmpty
+        public abstract String quotechar();
+
+        @JsonIgnore
+        public char quotecharAsChar() {
+            return quotechar().charAt(0);
+        }
+
+        @JsonProperty("key_column")
+        @NotEmpty
+        public abstract String keyColumn();
+
+        @JsonProperty("value_column")
+        @NotEmpty
+        public abstract String valueColumn();
+
+        @JsonProperty("check_interval")
+        @Min(1)
+        public abstract long checkInterval();
+
+        public static Builder builder() {
+            return new AutoValue_CIDRFileDataAdapter_Config.Builder();
+        }
+
+        @Override
+        public Optional<Multimap<String, String>> validate(LookupDataAdapterValidationContext context) {
+            final ArrayListMultimap<String, String> errors = ArrayListMultimap.create();
+
+            final Path path = Paths.get(path());
+            if (!context.getPathChecker().fileIsInAllowedPath(path)) {
+                errors.put("path", CSVFileDataAdapter.ALLOWED_PATH_ERROR);
+
+                // Intentionally return here, because in the Cloud context, we should not perform the following checks
+                // to report to the user whether or not a file exists.
+                return Optional.of(errors);
+            }
+
+            if (!Files.exists(path)) {
+                errors.put("path", "The file does not exist.");
+            } else if (!Files.isReadable(path)) {
+                errors.put("path", "The file cannot be read.");
+            }
+
+            return errors.isEmpty() ? Optional.empty() : Optional.of(errors);
+        }
+
+        @AutoValue.Builder
+        public abstract static class Builder {
+            @JsonProperty(TYPE_FIELD)
+            public abstract Builder type(String type);
+
+            @JsonProperty("path")
+            public abstract Builder path(String path);
+
+            @JsonProperty("separator")
+            public abstract Builder separator(String separator);
+
+            @JsonProperty("quotechar")
+            public abstract Builder quotechar(String quotechar);
+
+            @JsonProperty("key_column")
+            public abstract Builder keyColumn(String keyColumn);
+
+            @JsonProperty("value_column")
+            public abstract Builder valueColumn(String valueColumn);
+
+            @JsonProperty("check_interval")
+            public abstract Builder checkInterval(long checkInterval);
+
+            public abstract Config build();
+        }
+    }
+}
@@ -22,6 +22,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.primitives.Ints;
@@ -45,10 +46,14 @@ import javax.inject.Inject;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.Size;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
@@ -101,9 +106,9 @@ public class DSVHTTPDataAdapter extends LookupDataAdapter {
             throw UrlNotWhitelistedException.forUrl(config.url());
         }
 
-        final Optional<String> response = httpFileRetriever.fetchFileIfNotModified(config.url());
+        final Optional<Map<String, String>> response = httpFileRetriever.fetchFileIfNotModified(config.url(), dsvParser::parse);
 
-        response.ifPresent(body -> lookupRef.set(dsvParser.parse(body)));
+        response.ifPresent(lookupRef::set);
     }
 
     @Override
@@ -124,14 +129,14 @@ public class DSVHTTPDataAdapter extends LookupDataAdapter {
 
         try {
             // reload file if the url was blacklisted so that any errors with the file will surface again
-            final Optional<String> response = urlWasNotWhitelisted ?
-                    this.httpFileRetriever.fetchFile(config.url()) :
-                    this.httpFileRetriever.fetchFileIfNotModified(config.url());
+            final Optional<Map<String, String>> response = urlWasNotWhitelisted ?
+                    this.httpFileRetriever.fetchFile(config.url(), dsvParser::parse) :
+                    this.httpFileRetriever.fetchFileIfNotModified(config.url(), dsvParser::parse);
 
-            response.ifPresent(body -> {
+            response.ifPresent(newLookupTable -> {
                 LOG.debug("DSV file {} has changed, updating data", config.url());
-                lookupRef.set(dsvParser.parse(body));
-                cachePurge.purgeAll();
+                final Map<String, String> oldLookupTable = lookupRef.getAndSet(newLookupTable);
+                purgeChangedKeys(oldLookupTable, newLookupTable, cachePurge);
                 clearError();
             });
         } catch (Exception e) {
@@ -140,6 +145,35 @@ public class DSVHTTPDataAdapter extends LookupDataAdapter {
         }
     }
 
+    /**
+     * Only purges the cache entries of keys which have been added, removed or changed, so the unchanged entries
+     * stay cached and the refresh doesn't cause a burst of cache misses. The cache entries are stored with the keys
+     * as they have been looked up, so they are matched after the same conversion the lookup applies.
+     */
+    @VisibleForTesting
+    void purgeChangedKeys(Map<String, String> oldLookupTable, Map<String, String> newLookupTable, LookupCachePurge cachePurge) {
+        final Set<String> changedKeys = new HashSet<>();
+        newLookupTable.forEach((key, value) -> {
+            if (!value.equals(oldLookupTable.get(key))) {
+                changedKeys.add(key);
+            }
+        });
+        for (String key : oldLookupTable.keySet()) {
+            if (!newLookupTable.containsKey(key)) {
+                changedKeys.add(key);
+            }
+        }
+
+        // Purging each key is more expensive than purging all entries, if most of the file has changed
+        if (changedKeys.size() > Math.max(newLookupTable.size(), oldLookupTable.size()) / 2) {
+            LOG.debug("{} of {} keys in DSV file {} have changed, purging all cache entries", changedKeys.size(), newLookupTable.size(), config.url());
+            cachePurge.purgeAll();
+        } else {
+            LOG.debug("{} of {} keys in DSV file {} have changed, purging their cache entries", changedKeys.size(), newLookupTable.size(), config.url());
+            cachePurge.purgeKeys(key -> changedKeys.contains(toLookupKey(key)));
+        }
+    }
+
     @Override
     public void doStop() throws Exception {
         LOG.debug("Stopping HTTP DSV data adapter for url: {}", config.url());
@@ -147,13 +181,32 @@ public class DSVHTTPDataAdapter extends LookupDataAdapter {
 
     @Override
     public LookupResult doGet(Object key) {
-        final String stringKey = config.isCaseInsensitiveLookup() ? String.valueOf(key).toLowerCase(Locale.ENGLISH) : String.valueOf(key);
+        return lookup(lookupRef.get(), key);
+    }
+
+    @Override
+    protected Map<Object, LookupResult> doGetAll(Collection<Object> keys) {
+        // resolve all keys against the same version of the file
+        final Map<String, String> lookupTable = lookupRef.get();
+        final Map<Object, LookupResult> results = new LinkedHashMap<>(keys.size());
+        for (Object key : keys) {
+            results.computeIfAbsent(key, k -> lookup(lookupTable, k));
+        }
+        return results;
+    }
+
+    private String toLookupKey(Object key) {
+        return config.isCaseInsensitiveLookup() ? String.valueOf(key).toLowerCase(Locale.ENGLISH) : String.valueOf(key);
+    }
+
+    private LookupResult lookup(Map<String, String> lookupTable, Object key) {
+        final String stringKey = toLookupKey(key);
 
         if (config.isCheckPresenceOnly()) {
-            return LookupResult.single(lookupRef.get().containsKey(stringKey));
+            return LookupResult.single(lookupTable.containsKey(stringKey));
         }
 
-        final String value = lookupRef.get().get(stringKey);
+        final String value = lookupTable.get(stringKey);
 
         if (value == null) {
             return LookupResult.empty();
@@ -18,6 +18,7 @@ package org.graylog2.lookup.adapters;
 
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
@@ -30,14 +31,17 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.assistedinject.Assisted;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.graylog.autovalue.WithBeanGetter;
 import org.graylog2.lookup.adapters.dnslookup.ADnsAnswer;
 import org.graylog2.lookup.adapters.dnslookup.DnsAnswer;
+import org.graylog2.lookup.adapters.dnslookup.DnsAnswerCache;
 import org.graylog2.lookup.adapters.dnslookup.DnsClient;
 import org.graylog2.lookup.adapters.dnslookup.DnsLookupType;
+import org.graylog2.lookup.adapters.dnslookup.NegativeDnsAnswerException;
 import org.graylog2.lookup.adapters.dnslookup.PtrDnsAnswer;
 import org.graylog2.lookup.adapters.dnslookup.TxtDnsAnswer;
 import org.graylog2.lookup.dto.DataAdapterDto;
@@ -45,6 +49,7 @@ import org.graylog2.plugin.lookup.LookupCachePurge;
 import org.graylog2.plugin.lookup.LookupDataAdapter;
 import org.graylog2.plugin.lookup.LookupDataAdapterConfiguration;
 import org.graylog2.plugin.lookup.LookupResult;
+import org.graylog2.shared.metrics.MetricUtils;
 import org.graylog2.shared.utilities.ExceptionUtils;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
@@ -54,6 +59,7 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
@@ -61,6 +67,11 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 public class DnsLookupDataAdapter extends LookupDataAdapter {
@@ -78,7 +89,19 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
     private static final String TIMER_RESOLVE_DOMAIN_NAME = "resolveDomainNameTime";
     private static final String TIMER_REVERSE_LOOKUP = "reverseLookupTime";
     private static final String TIMER_TEXT_LOOKUP = "textLookupTime";
+    private static final String TIMER_ASYNC_RESOLUTION = "asyncResolutionTime";
+    private static final String GAUGE_OUTSTANDING_QUERIES = "outstandingQueries";
+    // The number of DNS queries of a bulk lookup which are in flight at the same time.
+    private static final int BULK_LOOKUP_CONCURRENCY = 8;
+    // The number of answers kept by the adapter in asynchronous resolution mode.
+    private static final long ASYNC_ANSWER_CACHE_SIZE = 100_000;
+    // Negative answers without a SOA record must not be cached forever, but shouldn't be queried for every message either.
+    private static final long NEGATIVE_ANSWER_DEFAULT_TTL = TimeUnit.SECONDS.toMillis(60);
+    // Returned while the asynchronous resolution is in flight. The zero TTL makes the lookup cache ask again.
+    private static final LookupResult PENDING_RESULT = LookupResult.builder().cacheTTL(0).build();
+
     private DnsClient dnsClient;
+    private ExecutorService bulkLookupExecutor;
     private final Config config;
 
     private final Counter errorCounter;
@@ -88,6 +111,8 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
     private final Timer reverseLookupTimer;
     private final Timer textLookupTimer;
 
+    private final DnsAnswerCache asyncAnswerCache;
+
     @Inject
     public DnsLookupDataAdapter(@Assisted("dto") DataAdapterDto dto,
                                 MetricRegistry metricRegistry) {
@@ -97,6 +122,13 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
         this.resolveDomainNameTimer = metricRegistry.timer(MetricRegistry.name(getClass(), dto.id(), TIMER_RESOLVE_DOMAIN_NAME));
         this.reverseLookupTimer = metricRegistry.timer(MetricRegistry.name(getClass(), dto.id(), TIMER_REVERSE_LOOKUP));
         this.textLookupTimer = metricRegistry.timer(MetricRegistry.name(getClass(), dto.id(), TIMER_TEXT_LOOKUP));
+        this.asyncAnswerCache = new DnsAnswerCache(ASYNC_ANSWER_CACHE_SIZE,
+                metricRegistry.timer(MetricRegistry.name(getClass(), dto.id(), TIMER_ASYNC_RESOLUTION)));
+
+        // Replace the gauge of a previous instance of this adapter
+        final String outstandingQueriesName = MetricRegistry.name(getClass(), dto.id(), GAUGE_OUTSTANDING_QUERIES);
+        metricRegistry.remove(outstandingQueriesName);
+        MetricUtils.safelyRegister(metricRegistry, outstandingQueriesName, (Gauge<Integer>) asyncAnswerCache::outstanding);
     }
 
     @Override
@@ -104,12 +136,20 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
 
         dnsClient = new DnsClient(config.requestTimeout());
         dnsClient.start(config.serverIps());
+        bulkLookupExecutor = Executors.newFixedThreadPool(BULK_LOOKUP_CONCURRENCY, new ThreadFactoryBuilder()
+                .setNameFormat("dns-lookup-adapter-" + id() + "-%d")
+                .setDaemon(true)
+                .build());
     }
 
     @Override
     protected void doStop() {
 
         dnsClient.stop();
+        if (bulkLookupExecutor != null) {
+            bulkLookupExecutor.shutdownNow();
+        }
+        asyncAnswerCache.clear();
     }
 
     /**
@@ -137,6 +177,11 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
             return getEmptyResult();
         }
 
+        if (config.asyncResolution()) {
+            final LookupResult answer = asyncAnswerCache.getOrResolve(trimmedKey, this::resolveAsync);
+            return answer == null ? PENDING_RESULT : answer;
+        }
+
         LOG.debug("Beginning [{}] DNS resolution for key [{}]", config.lookupType(), trimmedKey);
 
         LookupResult lookupResult;
@@ -179,6 +224,132 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
         return lookupResult;
     }
 
+    /**
+     * Resolves the keys concurrently, so the lookup of all keys takes about as long as the slowest query instead of
+     * the sum of all queries.
+     */
+    @Override
+    protected Map<Object, LookupResult> doGetAll(Collection<Object> keys) {
+        if (config.asyncResolution()) {
+            // Never blocks, so there is nothing to gain from the executor
+            final Map<Object, LookupResult> results = new LinkedHashMap<>(keys.size());
+            for (Object key : keys) {
+                results.computeIfAbsent(key, this::doGet);
+            }
+            return results;
+        }
+
+        final Map<Object, CompletableFuture<LookupResult>> pendingResults = new LinkedHashMap<>(keys.size());
+        for (Object key : keys) {
+            pendingResults.computeIfAbsent(key, this::submitLookup);
+        }
+
+        final Map<Object, LookupResult> results = new LinkedHashMap<>(pendingResults.size());
+        pendingResults.forEach((key, pendingResult) -> {
+            try {
+                results.put(key, pendingResult.join());
+            } catch (CompletionException e) {
+                LOG.error("Could not perform [{}] DNS lookup for [{}]. Cause [{}]", config.lookupType(), key, ExceptionUtils.getRootCauseOrMessage(e));
+                errorCounter.inc();
+                results.put(key, getErrorResult());
+            }
+        });
+        return results;
+    }
+
+    private CompletableFuture<LookupResult> submitLookup(Object key) {
+        try {
+            return CompletableFuture.supplyAsync(() -> doGet(key), bulkLookupExecutor);
+        } catch (RejectedExecutionException e) {
+            // the adapter has been stopped while the lookup was running
+            final CompletableFuture<LookupResult> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    /**
+     * Starts the resolution of the key without waiting for the DNS server. The returned future always completes
+     * normally, failures are mapped to the empty or error result.
+     */
+    private CompletableFuture<LookupResult> resolveAsync(String key) {
+        LOG.debug("Beginning asynchronous [{}] DNS resolution for key [{}]", config.lookupType(), key);
+
+        final CompletableFuture<LookupResult> resolution;
+        switch (config.lookupType()) {
+            case A:
+                resolution = dnsClient.resolveIPv4AddressForHostnameAsync(key, false).thenApply(this::buildLookupResult);
+                break;
+            case AAAA:
+                resolution = dnsClient.resolveIPv6AddressForHostnameAsync(key, false).thenApply(this::buildLookupResult);
+                break;
+            case A_AAAA: {
+                final CompletableFuture<List<ADnsAnswer>> ip4Answers = dnsClient.resolveIPv4AddressForHostnameAsync(key, true);
+                final CompletableFuture<List<ADnsAnswer>> ip6Answers = dnsClient.resolveIPv6AddressForHostnameAsync(key, true);
+                resolution = CompletableFuture.allOf(ip4Answers, ip6Answers).handle((ignored, throwable) -> {
+                    final List<ADnsAnswer> ip4 = answersOrEmpty(ip4Answers);
+                    final List<ADnsAnswer> ip6 = answersOrEmpty(ip6Answers);
+                    if (ip4.isEmpty() && ip6.isEmpty()) {
+                        // Both answers were negative, the one of the A query determines the negative TTL
+                        throw new CompletionException(ip4Answers.handle((answers, e) -> e).join());
+                    }
+                    return buildAllAddressesResult(ip4, ip6);
+                });
+                break;
+            }
+            case PTR:
+                resolution = dnsClient.reverseLookupAsync(key).thenApply(this::buildReverseLookupResult);
+                break;
+            case TXT:
+                resolution = dnsClient.txtLookupAsync(key).thenApply(this::buildTextLookupResult);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format(Locale.ENGLISH, "DnsLookupType [%s] is not supported", config.lookupType()));
+        }
+
+        return resolution.handle((lookupResult, throwable) -> {
+            if (throwable == null) {
+                LOG.debug("Asynchronous [{}] DNS resolution complete for key [{}]. Response [{}]", config.lookupType(), key, lookupResult);
+                return lookupResult;
+            }
+            final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            if (cause instanceof NegativeDnsAnswerException) {
+                // A valid case when the DNS record does not exist. Do not log an error.
+                return buildNegativeResult((NegativeDnsAnswerException) cause);
+            }
+            LOG.error("Could not perform [{}] DNS lookup for [{}]. Cause [{}]", config.lookupType(), key, ExceptionUtils.getRootCauseOrMessage(cause));
+            errorCounter.inc();
+            return getErrorResult();
+        });
+    }
+
+    /**
+     * Returns the answers of a completed query, treating a negative answer as no answers. Rethrows other failures.
+     */
+    private static List<ADnsAnswer> answersOrEmpty(CompletableFuture<List<ADnsAnswer>> answers) {
+        try {
+            return answers.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof NegativeDnsAnswerException) {
+                return Collections.emptyList();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Negative answers are cached as long as the SOA record of the zone allows (RFC 2308), unless the TTL is overridden.
+     */
+    private LookupResult buildNegativeResult(NegativeDnsAnswerException e) {
+        final long cacheTTL;
+        if (config.hasOverrideTTL()) {
+            cacheTTL = config.getCacheTTLOverrideMillis();
+        } else {
+            cacheTTL = e.negativeTTL().isPresent() ? TimeUnit.SECONDS.toMillis(e.negativeTTL().getAsLong()) : NEGATIVE_ANSWER_DEFAULT_TTL;
+        }
+        return LookupResult.builder().cacheTTL(cacheTTL).build();
+    }
+
     /**
      * Provides both single and multiple addresses in LookupResult. This is because the purpose of a hostname
      * resolution request is to resolve to a single IP address (so that communication can be initiated with it).
@@ -270,33 +441,12 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
             } catch (UnknownHostException e) {
             }
 
-            // Select answer for single value. Prefer use of IPv4 address. Only return IPv6 address if no IPv6 address found.
-            final String singleValue;
-            if (CollectionUtils.isNotEmpty(ip4Answers)) {
-                singleValue = ip4Answers.get(0).ipAddress();
-            } else if (CollectionUtils.isNotEmpty(ip6Answers)) {
-                singleValue = ip6Answers.get(0).ipAddress();
-            } else {
+            if (CollectionUtils.isEmpty(ip4Answers) && CollectionUtils.isEmpty(ip6Answers)) {
                 LOG.debug("Could not resolve [A/AAAA] records hostname [{}].", key);
                 return getEmptyResult();
             }
 
-            final LookupResult.Builder builder = LookupResult.builder();
-            if (StringUtils.isNotBlank(singleValue)) {
-                builder.single(singleValue);
-            }
-
-            final List<ADnsAnswer> allAnswers = new ArrayList<>();
-            allAnswers.addAll(ip4Answers);
-            allAnswers.addAll(ip6Answers);
-
-            if (CollectionUtils.isNotEmpty(allAnswers)) {
-                builder.multiValue(Collections.singletonMap(RESULTS_FIELD, allAnswers)).stringListValue(ADnsAnswer.convertToStringListValue(allAnswers));
-            }
-
-            assignMinimumTTL(allAnswers, builder);
-
-            return builder.build();
+            return buildAllAddressesResult(ip4Answers, ip6Answers);
         } catch (Exception e) {
             LOG.error("Could not resolve [A/AAAA] records for hostname [{}]. Cause [{}]", key, ExceptionUtils.getRootCauseOrMessage(e));
             errorCounter.inc();
@@ -304,6 +454,34 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
         }
     }
 
+    private LookupResult buildAllAddressesResult(List<ADnsAnswer> ip4Answers, List<ADnsAnswer> ip6Answers) {
+
+        // Select answer for single value. Prefer use of IPv4 address. Only return IPv6 address if no IPv6 address found.
+        final String singleValue;
+        if (CollectionUtils.isNotEmpty(ip4Answers)) {
+            singleValue = ip4Answers.get(0).ipAddress();
+        } else {
+            singleValue = ip6Answers.get(0).ipAddress();
+        }
+
+        final LookupResult.Builder builder = LookupResult.builder();
+        if (StringUtils.isNotBlank(singleValue)) {
+            builder.single(singleValue);
+        }
+
+        final List<ADnsAnswer> allAnswers = new ArrayList<>();
+        allAnswers.addAll(ip4Answers);
+        allAnswers.addAll(ip6Answers);
+
+        if (CollectionUtils.isNotEmpty(allAnswers)) {
+            builder.multiValue(Collections.singletonMap(RESULTS_FIELD, allAnswers)).stringListValue(ADnsAnswer.convertToStringListValue(allAnswers));
+        }
+
+        assignMinimumTTL(allAnswers, builder);
+
+        return builder.build();
+    }
+
     private LookupResult performReverseLookup(Object key) {
 
         final PtrDnsAnswer dnsResponse;
@@ -315,32 +493,34 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
             return getErrorResult();
         }
 
-        if (dnsResponse != null) {
-            if (!Strings.isNullOrEmpty(dnsResponse.fullDomain())) {
+        if (dnsResponse != null && !Strings.isNullOrEmpty(dnsResponse.fullDomain())) {
+            return buildReverseLookupResult(dnsResponse);
+        }
+
+        LOG.debug("Could not perform reverse lookup on IP address [{}]. No PTR record was found.", key);
+        return getEmptyResult();
+    }
 
-                // Include answer in both single and multiValue fields.
-                final Map<Object, Object> multiValueResults = new LinkedHashMap<>();
-                multiValueResults.put(PtrDnsAnswer.FIELD_DOMAIN, dnsResponse.domain());
-                multiValueResults.put(PtrDnsAnswer.FIELD_FULL_DOMAIN, dnsResponse.fullDomain());
-                multiValueResults.put(PtrDnsAnswer.FIELD_DNS_TTL, dnsResponse.dnsTTL());
+    private LookupResult buildReverseLookupResult(PtrDnsAnswer dnsResponse) {
 
-                final LookupResult.Builder builder = LookupResult.builder()
-                        .single(dnsResponse.fullDomain())
-                        .multiValue(multiValueResults)
-                        .stringListValue(ImmutableList.of(dnsResponse.fullDomain()));
+        // Include answer in both single and multiValue fields.
+        final Map<Object, Object> multiValueResults = new LinkedHashMap<>();
+        multiValueResults.put(PtrDnsAnswer.FIELD_DOMAIN, dnsResponse.domain());
+        multiValueResults.put(PtrDnsAnswer.FIELD_FULL_DOMAIN, dnsResponse.fullDomain());
+        multiValueResults.put(PtrDnsAnswer.FIELD_DNS_TTL, dnsResponse.dnsTTL());
 
-                if (config.hasOverrideTTL()) {
-                    builder.cacheTTL(config.getCacheTTLOverrideMillis());
-                } else {
-                    builder.cacheTTL(dnsResponse.dnsTTL() * 1000);
-                }
+        final LookupResult.Builder builder = LookupResult.builder()
+                .single(dnsResponse.fullDomain())
+                .multiValue(multiValueResults)
+                .stringListValue(ImmutableList.of(dnsResponse.fullDomain()));
 
-                return builder.build();
-            }
+        if (config.hasOverrideTTL()) {
+            builder.cacheTTL(config.getCacheTTLOverrideMillis());
+        } else {
+            builder.cacheTTL(dnsResponse.dnsTTL() * 1000);
         }
 
-        LOG.debug("Could not perform reverse lookup on IP address [{}]. No PTR record was found.", key);
-        return getEmptyResult();
+        return builder.build();
     }
 
     private LookupResult performTextLookup(Object key) {
@@ -357,18 +537,23 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
         }
 
         if (CollectionUtils.isNotEmpty(txtDnsAnswers)) {
-            final LookupResult.Builder builder = LookupResult.builder();
-            builder.multiValue(Collections.singletonMap(RAW_RESULTS_FIELD, txtDnsAnswers))
-                    .stringListValue(TxtDnsAnswer.convertToStringListValue(txtDnsAnswers));
-            assignMinimumTTL(txtDnsAnswers, builder);
-
-            return builder.build();
+            return buildTextLookupResult(txtDnsAnswers);
         }
 
         LOG.debug("Could not perform Text lookup on IP address [{}]. No TXT records were found.", key);
         return getEmptyResult();
     }
 
+    private LookupResult buildTextLookupResult(List<TxtDnsAnswer> txtDnsAnswers) {
+
+        final LookupResult.Builder builder = LookupResult.builder();
+        builder.multiValue(Collections.singletonMap(RAW_RESULTS_FIELD, txtDnsAnswers))
+                .stringListValue(TxtDnsAnswer.convertToStringListValue(txtDnsAnswers));
+        assignMinimumTTL(txtDnsAnswers, builder);
+
+        return builder.build();
+    }
+
     /**
      * Assigns the minimum TTL found in the supplied DnsAnswers. The minimum makes sense, because this is the least
      * amount of time that at least one of the records is valid for.
@@ -411,6 +596,7 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
                                               .serverIps(Config.DEFAULT_SERVER_IP)
                                               .cacheTTLOverrideEnabled(Config.DEFAULT_CACHE_TTL_OVERRIDE)
                                               .requestTimeout(Config.DEFAULT_TIMEOUT_MILLIS)
+                                              .asyncResolution(Config.DEFAULT_ASYNC_RESOLUTION)
                                               .build();
         }
     }
@@ -429,12 +615,14 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
         private static final String FIELD_LOOKUP_TYPE = "lookup_type";
         private static final String FIELD_REQUEST_TIMEOUT = "request_timeout";
         private static final String FIELD_SERVER_IPS = "server_ips";
+        private static final String FIELD_ASYNC_RESOLUTION = "async_resolution";
 
         // Default values
         private static final boolean DEFAULT_CACHE_TTL_OVERRIDE = false;
         private static final DnsLookupType DEFAULT_LOOKUP_TYPE = DnsLookupType.A;
         private static final int DEFAULT_TIMEOUT_MILLIS = 10000;
         private static final String DEFAULT_SERVER_IP = ""; // Intentionally blank
+        private static final boolean DEFAULT_ASYNC_RESOLUTION = false;
 
         @Override
         @JsonProperty(TYPE_FIELD)
@@ -460,6 +648,13 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
         @JsonProperty(FIELD_CACHE_TTL_OVERRIDE_UNIT)
         public abstract TimeUnit cacheTTLOverrideUnit();
 
+        /**
+         * If enabled, lookups never wait for the DNS server. Keys without a known answer get an empty result and the
+         * answer is resolved in the background.
+         */
+        @JsonProperty(FIELD_ASYNC_RESOLUTION)
+        public abstract boolean asyncResolution();
+
         public static Builder builder() {
             return new AutoValue_DnsLookupDataAdapter_Config.Builder();
         }
@@ -504,7 +699,8 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
                              .serverIps(DEFAULT_SERVER_IP)
                              .lookupType(DnsLookupType.A)
                              .cacheTTLOverrideEnabled(DEFAULT_CACHE_TTL_OVERRIDE)
-                             .requestTimeout(DEFAULT_TIMEOUT_MILLIS);
+                             .requestTimeout(DEFAULT_TIMEOUT_MILLIS)
+                             .asyncResolution(DEFAULT_ASYNC_RESOLUTION);
             }
 
             @JsonProperty(TYPE_FIELD)
@@ -528,6 +724,9 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
             @JsonProperty(FIELD_CACHE_TTL_OVERRIDE_UNIT)
             public abstract Builder cacheTTLOverrideUnit(@Nullable TimeUnit cacheTTLOverrideUnit);
 
+            @JsonProperty(FIELD_ASYNC_RESOLUTION)
+            public abstract Builder asyncResolution(boolean asyncResolution);
+
             abstract Config autoBuild();
 
             public Config build() {
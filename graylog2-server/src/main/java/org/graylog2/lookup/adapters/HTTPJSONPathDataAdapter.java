@@ -25,6 +25,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.floreysoft.jmte.Engine;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ArrayListMultimap;
@@ -36,6 +38,8 @@ import com.jayway.jsonpath.InvalidJsonException;
 import com.jayway.jsonpath.InvalidPathException;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.PathNotFoundException;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.Headers;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
@@ -63,10 +67,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
@@ -75,6 +85,9 @@ public class HTTPJSONPathDataAdapter extends LookupDataAdapter {
     private static final Logger LOG = LoggerFactory.getLogger(HTTPJSONPathDataAdapter.class);
     public static final String NAME = "httpjsonpath";
 
+    // The number of URLs for which the last response is kept to revalidate it with conditional requests
+    private static final long VALIDATED_RESPONSES_SIZE = 10_000;
+
     private final Config config;
     private final Engine templateEngine;
     private final OkHttpClient httpClient;
@@ -84,6 +97,11 @@ public class HTTPJSONPathDataAdapter extends LookupDataAdapter {
     private final Timer httpRequestTimer;
     private final Meter httpRequestErrors;
     private final Meter httpURLErrors;
+    private final Meter httpNotModified;
+
+    private final Cache<String, ValidatedResponse> validatedResponses = Caffeine.newBuilder()
+            .maximumSize(VALIDATED_RESPONSES_SIZE)
+            .build();
 
     private JsonPath singleJsonPath = null;
     private JsonPath multiJsonPath = null;
@@ -103,6 +121,7 @@ public class HTTPJSONPathDataAdapter extends LookupDataAdapter {
         this.httpRequestTimer = metricRegistry.timer(MetricRegistry.name(getClass(), "httpRequestTime"));
         this.httpRequestErrors = metricRegistry.meter(MetricRegistry.name(getClass(), "httpRequestErrors"));
         this.httpURLErrors = metricRegistry.meter(MetricRegistry.name(getClass(), "httpURLErrors"));
+        this.httpNotModified = metricRegistry.meter(MetricRegistry.name(getClass(), "httpNotModified"));
     }
 
     @Override
@@ -137,6 +156,7 @@ public class HTTPJSONPathDataAdapter extends LookupDataAdapter {
 
     @Override
     protected void doStop() throws Exception {
+        validatedResponses.invalidateAll();
     }
 
     @Override
@@ -150,6 +170,118 @@ public class HTTPJSONPathDataAdapter extends LookupDataAdapter {
 
     @Override
     protected LookupResult doGet(Object key) {
+        final Request request = buildRequest(key);
+        if (request == null) {
+            return getErrorResult();
+        }
+
+        final Timer.Context time = httpRequestTimer.time();
+        try (final Response response = httpClient.newCall(request).execute()) {
+            return parseResponse(key, response);
+        } catch (IOException e) {
+            LOG.error("HTTP request error for key <{}>", key, e);
+            httpRequestErrors.mark();
+            return getErrorResult();
+        } finally {
+            time.stop();
+        }
+    }
+
+    @Override
+    protected Map<Object, LookupResult> doGetAll(Collection<Object> keys) {
+        // Enqueue the requests for all keys at once, the HTTP client executes them concurrently on pooled connections
+        // instead of waiting for each response before sending the next request.
+        final Map<Object, CompletableFuture<LookupResult>> pendingResults = new LinkedHashMap<>(keys.size());
+        for (Object key : keys) {
+            if (!pendingResults.containsKey(key)) {
+                pendingResults.put(key, enqueueRequest(key));
+            }
+        }
+
+        // the requests run concurrently, so all of them have to complete within the timeout of a single request
+        final long timeoutMillis = requestTimeoutMillis();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final Map<Object, LookupResult> results = new LinkedHashMap<>(pendingResults.size());
+        pendingResults.forEach((key, pendingResult) -> {
+            try {
+                results.put(key, timeoutMillis == 0
+                        ? pendingResult.get()
+                        : pendingResult.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                LOG.error("HTTP request for key <{}> didn't complete within {}ms", key, timeoutMillis);
+                httpRequestErrors.mark();
+                pendingResult.cancel(true);
+                results.put(key, getErrorResult());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pendingResult.cancel(true);
+                results.put(key, getErrorResult());
+            } catch (ExecutionException e) {
+                // the pending results are always completed normally
+                results.put(key, getErrorResult());
+            }
+        });
+        return results;
+    }
+
+    /**
+     * The maximum time a single request may take with the timeouts of the HTTP client, {@code 0} if it's unbounded.
+     */
+    private long requestTimeoutMillis() {
+        if (httpClient.callTimeoutMillis() > 0) {
+            return httpClient.callTimeoutMillis();
+        }
+        if (httpClient.connectTimeoutMillis() == 0 || httpClient.writeTimeoutMillis() == 0 || httpClient.readTimeoutMillis() == 0) {
+            return 0;
+        }
+        return (long) httpClient.connectTimeoutMillis() + httpClient.writeTimeoutMillis() + httpClient.readTimeoutMillis();
+    }
+
+    private CompletableFuture<LookupResult> enqueueRequest(Object key) {
+        final Request request = buildRequest(key);
+        if (request == null) {
+            return CompletableFuture.completedFuture(getErrorResult());
+        }
+
+        final CompletableFuture<LookupResult> result = new CompletableFuture<>();
+        final Timer.Context time = httpRequestTimer.time();
+        final Call pendingCall = httpClient.newCall(request);
+        // a result which is cancelled after the timeout cancels the request as well
+        result.whenComplete((lookupResult, e) -> {
+            if (result.isCancelled()) {
+                pendingCall.cancel();
+            }
+        });
+        pendingCall.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                time.stop();
+                if (call.isCanceled()) {
+                    return;
+                }
+                LOG.error("HTTP request error for key <{}>", key, e);
+                httpRequestErrors.mark();
+                result.complete(getErrorResult());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (final Response ignored = response) {
+                    result.complete(parseResponse(key, response));
+                } catch (Exception e) {
+                    LOG.error("HTTP request error for key <{}>", key, e);
+                    httpRequestErrors.mark();
+                    result.complete(getErrorResult());
+                } finally {
+                    time.stop();
+                }
+            }
+        });
+        return result;
+    }
+
+    @Nullable
+    private Request buildRequest(Object key) {
         String encodedKey;
         try {
             encodedKey = URLEncoder.encode(String.valueOf(key), "UTF-8").replaceAll("\\+", "%20");
@@ -163,7 +295,7 @@ public class HTTPJSONPathDataAdapter extends LookupDataAdapter {
             LOG.error("URL <{}> is not whitelisted. Aborting lookup request.", urlString);
             publishSystemNotificationForWhitelistFailure();
             setError(UrlNotWhitelistedException.forUrl(urlString));
-            return getErrorResult();
+            return null;
         } else {
             // we use this kind of error reporting mechanism only for whitelist errors, so we can safely clear the
             // error here
@@ -175,35 +307,55 @@ public class HTTPJSONPathDataAdapter extends LookupDataAdapter {
         if (url == null) {
             LOG.error("Couldn't parse URL <{}> - returning empty result", urlString);
             httpURLErrors.mark();
-            return getErrorResult();
+            return null;
         }
 
-        final Request request = new Request.Builder()
+        final Request.Builder requestBuilder = new Request.Builder()
                 .get()
                 .url(url)
-                .headers(headers)
-                .build();
+                .headers(headers);
 
-        final Timer.Context time = httpRequestTimer.time();
-        try (final Response response = httpClient.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                LOG.warn("HTTP request for key <{}> failed: {}", key, response);
-                httpRequestErrors.mark();
-                return getErrorResult();
+        // Ask the server to only send the body if it has changed since the last response for this URL
+        final ValidatedResponse validatedResponse = validatedResponses.getIfPresent(url.toString());
+        if (validatedResponse != null) {
+            if (validatedResponse.eTag() != null) {
+                requestBuilder.header(HttpHeaders.IF_NONE_MATCH, validatedResponse.eTag());
             }
+            if (validatedResponse.lastModified() != null) {
+                requestBuilder.header(HttpHeaders.IF_MODIFIED_SINCE, validatedResponse.lastModified());
+            }
+        }
 
-            final LookupResult result = parseBody(singleJsonPath, multiJsonPath, response.body().byteStream());
-            if (result == null) {
-                return getErrorResult();
+        return requestBuilder.build();
+    }
+
+    private LookupResult parseResponse(Object key, Response response) {
+        final String url = response.request().url().toString();
+        if (response.code() == 304) {
+            final ValidatedResponse validatedResponse = validatedResponses.getIfPresent(url);
+            if (validatedResponse != null) {
+                httpNotModified.mark();
+                return validatedResponse.result();
             }
-            return result;
-        } catch (IOException e) {
-            LOG.error("HTTP request error for key <{}>", key, e);
+        }
+
+        if (!response.isSuccessful()) {
+            LOG.warn("HTTP request for key <{}> failed: {}", key, response);
             httpRequestErrors.mark();
             return getErrorResult();
-        } finally {
-            time.stop();
         }
+
+        final LookupResult result = parseBody(singleJsonPath, multiJsonPath, response.body().byteStream());
+        if (result == null) {
+            return getErrorResult();
+        }
+
+        final String eTag = response.header(HttpHeaders.ETAG);
+        final String lastModified = response.header(HttpHeaders.LAST_MODIFIED);
+        if (eTag != null || lastModified != null) {
+            validatedResponses.put(url, ValidatedResponse.create(eTag, lastModified, result));
+        }
+        return result;
     }
 
     @VisibleForTesting
@@ -267,6 +419,21 @@ public class HTTPJSONPathDataAdapter extends LookupDataAdapter {
     public void set(Object key, Object value) {
     }
 
+    @AutoValue
+    abstract static class ValidatedResponse {
+        @Nullable
+        abstract String eTag();
+
+        @Nullable
+        abstract String lastModified();
+
+        abstract LookupResult result();
+
+        static ValidatedResponse create(@Nullable String eTag, @Nullable String lastModified, LookupResult result) {
+            return new AutoValue_HTTPJSONPathDataAdapter_ValidatedResponse(eTag, lastModified, result);
+        }
+    }
+
     public interface Factory extends LookupDataAdapter.Factory2<HTTPJSONPathDataAdapter> {
         @Override
         HTTPJSONPathDataAdapter create(@Assisted("dto") DataAdapterDto dto);
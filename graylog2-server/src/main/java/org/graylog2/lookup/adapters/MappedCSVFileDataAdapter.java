@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters;
+
+import au.com.bytecode.opencsv.CSVReader;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.primitives.Ints;
+import com.google.inject.assistedinject.Assisted;
+import org.graylog.autovalue.WithBeanGetter;
+import org.graylog2.lookup.AllowedAuxiliaryPathChecker;
+import org.graylog2.lookup.adapters.mappedcsv.CSVIndex;
+import org.graylog2.lookup.adapters.mappedcsv.CSVIndexWriter;
+import org.graylog2.plugin.lookup.LookupCachePurge;
+import org.graylog2.plugin.lookup.LookupDataAdapter;
+import org.graylog2.plugin.lookup.LookupDataAdapterConfiguration;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.graylog2.plugin.utilities.FileInfo;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * CSV file data adapter for large files. The CSV file is compiled into an index file in the data directory which is
+ * memory-mapped to serve lookups, so the entries don't occupy any heap space.
+ * <p>
+ * Changes to the CSV file are compiled into a new index file while lookups are still served from the current one.
+ * The new index replaces the current one once it is complete.
+ */
+public class MappedCSVFileDataAdapter extends LookupDataAdapter {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedCSVFileDataAdapter.class);
+
+    public static final String NAME = "mapped_csvfile";
+
+    private static final String INDEX_FILE_SUFFIX = ".idx";
+
+    private final Config config;
+    private final AllowedAuxiliaryPathChecker pathChecker;
+    private final Path indexDirectory;
+    private final AtomicReference<CSVIndex> indexRef = new AtomicReference<>();
+
+    private FileInfo fileInfo = FileInfo.empty();
+
+    @Inject
+    public MappedCSVFileDataAdapter(@Assisted("id") String id,
+                                    @Assisted("name") String name,
+                                    @Assisted LookupDataAdapterConfiguration config,
+                                    MetricRegistry metricRegistry,
+                                    AllowedAuxiliaryPathChecker pathChecker,
+                                    @Named("data_dir") Path dataDir) {
+        super(id, name, config, metricRegistry);
+        this.config = (Config) config;
+        this.pathChecker = pathChecker;
+        this.indexDirectory = dataDir.resolve("lookup-tables").resolve(id);
+    }
+
+    @Override
+    public void doStart() throws Exception {
+        LOG.debug("Starting memory-mapped CSV data adapter for file: {}", config.path());
+        if (isNullOrEmpty(config.path())) {
+            throw new IllegalStateException("File path needs to be set");
+        }
+        if (!pathChecker.fileIsInAllowedPath(Paths.get(config.path()))) {
+            throw new IllegalStateException(CSVFileDataAdapter.ALLOWED_PATH_ERROR);
+        }
+        if (config.checkInterval() < 1) {
+            throw new IllegalStateException("Check interval setting cannot be smaller than 1");
+        }
+
+        Files.createDirectories(indexDirectory);
+        // Index files of a previous run are outdated, the CSV file might have changed in the meantime
+        deleteIndexFiles();
+
+        // Set file info before parsing the data for the first time
+        fileInfo = FileInfo.forPath(Paths.get(config.path()));
+        try {
+            replaceIndex(buildIndex());
+        } catch (Exception e) {
+            setError(e);
+        }
+    }
+
+    @Override
+    public Duration refreshInterval() {
+        return Duration.standardSeconds(Ints.saturatedCast(config.checkInterval()));
+    }
+
+    @Override
+    protected void doRefresh(LookupCachePurge cachePurge) throws Exception {
+        if (!pathChecker.fileIsInAllowedPath(Paths.get(config.path()))) {
+            LOG.error(CSVFileDataAdapter.ALLOWED_PATH_ERROR);
+            setError(new IllegalStateException(CSVFileDataAdapter.ALLOWED_PATH_ERROR));
+            return;
+        }
+
+        try {
+            final FileInfo.Change fileChanged = fileInfo.checkForChange();
+            if (!fileChanged.isChanged() && !getError().isPresent()) {
+                // Nothing to do, file did not change
+                return;
+            }
+
+            LOG.debug("CSV file {} has changed, rebuilding index", config.path());
+            // Lookups are served from the current index until the new one is complete
+            replaceIndex(buildIndex());
+            cachePurge.purgeAll();
+            fileInfo = fileChanged.fileInfo();
+            clearError();
+        } catch (IOException e) {
+            LOG.error("Couldn't check data adapter <{}> CSV file {} for updates: {} {}", name(), config.path(), e.getClass().getCanonicalName(), e.getMessage());
+            setError(e);
+        } catch (Exception e) {
+            // The previous index stays active
+            setError(e);
+        }
+    }
+
+    private CSVIndex buildIndex() throws Exception {
+        final Path indexFile = indexDirectory.resolve(UUID.randomUUID().toString() + INDEX_FILE_SUFFIX);
+        final InputStreamReader fileReader = new InputStreamReader(Files.newInputStream(Paths.get(config.path())), StandardCharsets.UTF_8);
+
+        try (final CSVReader csvReader = new CSVReader(fileReader, config.separatorAsChar(), config.quotecharAsChar());
+             final CSVIndexWriter indexWriter = new CSVIndexWriter(indexFile)) {
+            int line = 0;
+            int keyColumn = -1;
+            int valueColumn = -1;
+
+            while (true) {
+                final String[] next = csvReader.readNext();
+                if (next == null) {
+                    break;
+                }
+                line++;
+
+                if (line == 1) {
+                    // The first line in the CSV file provides the column names
+                    int col = 0;
+                    for (final String column : next) {
+                        if (!isNullOrEmpty(column)) {
+                            if (config.keyColumn().equals(column)) {
+                                keyColumn = col;
+                            }
+                            if (config.valueColumn().equals(column)) {
+                                valueColumn = col;
+                            }
+                        }
+                        col++;
+                    }
+                } else {
+                    // The other lines are supposed to be data entries
+                    if (keyColumn < 0 || valueColumn < 0) {
+                        throw new IllegalStateException("Couldn't detect column number for key or value - check CSV file format");
+                    }
+                    if (config.isCaseInsensitiveLookup()) {
+                        indexWriter.add(next[keyColumn].toLowerCase(Locale.ENGLISH), next[valueColumn]);
+                    } else {
+                        indexWriter.add(next[keyColumn], next[valueColumn]);
+                    }
+                }
+            }
+
+            final CSVIndex index = indexWriter.finish();
+            LOG.debug("Built index {} with {} entries for CSV file {}", indexFile, index.size(), config.path());
+            return index;
+        } catch (Exception e) {
+            LOG.error("Couldn't parse CSV file {} (settings separator=<{}> quotechar=<{}> key_column=<{}> value_column=<{}>)", config.path(),
+                    config.separator(), config.quotechar(), config.keyColumn(), config.valueColumn(), e);
+            deleteIndexFile(indexFile);
+            throw e;
+        }
+    }
+
+    private void replaceIndex(CSVIndex index) {
+        final CSVIndex previous = indexRef.getAndSet(index);
+        if (previous != null) {
+            // Lookups which are still running keep working, the file is deleted once they have released the index
+            previous.close();
+        }
+    }
+
+    private void deleteIndexFiles() throws IOException {
+        try (DirectoryStream<Path> indexFiles = Files.newDirectoryStream(indexDirectory, "*" + INDEX_FILE_SUFFIX)) {
+            for (Path indexFile : indexFiles) {
+                deleteIndexFile(indexFile);
+            }
+        }
+    }
+
+    private void deleteIndexFile(Path indexFile) {
+        try {
+            Files.deleteIfExists(indexFile);
+        } catch (IOException e) {
+            LOG.warn("Couldn't delete CSV index file {}", indexFile, e);
+        }
+    }
+
+    @Override
+    public void doStop() throws Exception {
+        LOG.debug("Stopping memory-mapped CSV data adapter for file: {}", config.path());
+        final CSVIndex index = indexRef.getAndSet(null);
+        if (index != null) {
+            index.close();
+        }
+    }
+
+    @Override
+    public LookupResult doGet(Object key) {
+        final CSVIndex index = retainIndex();
+        if (index == null) {
+            return getEmptyResult();
+        }
+
+        final String stringKey = config.isCaseInsensitiveLookup() ? String.valueOf(key).toLowerCase(Locale.ENGLISH) : String.valueOf(key);
+        final String value;
+        try {
+            value = index.get(stringKey);
+        } finally {
+            index.release();
+        }
+
+        if (value == null) {
+            return getEmptyResult();
+        }
+
+        return LookupResult.single(value);
+    }
+
+    @Nullable
+    private CSVIndex retainIndex() {
+        while (true) {
+            final CSVIndex index = indexRef.get();
+            // Retaining only fails if the index has been replaced concurrently, the new one is picked up on retry
+            if (index == null || index.retain()) {
+                return index;
+            }
+        }
+    }
+
+    @Override
+    public void set(Object key, Object value) {
+
+    }
+
+    public interface Factory extends LookupDataAdapter.Factory<MappedCSVFileDataAdapter> {
+        @Override
+        MappedCSVFileDataAdapter create(@Assisted("id") String id,
+                                        @Assisted("name") String name,
+                                        LookupDataAdapterConfiguration configuration);
+
+        @Override
+        Descriptor getDescriptor();
+    }
+
+    public static class Descriptor extends LookupDataAdapter.Descriptor<Config> {
+        public Descriptor() {
+            super(NAME, Config.class);
+        }
+
+        @Override
+        public Config defaultConfiguration() {
+            return Config.builder()
+                    .type(NAME)
+                    .path("/etc/graylog/lookup-table.csv")
+                    .separator(",")
+                    .quotechar("\"")
+                    .keyColumn("key")
+                    .valueColumn("value")
+                    .checkInterval(60)
+                    .caseInsensitiveLookup(false)
+                    .build();
+        }
+    }
+
+    @AutoValue
+    @WithBeanGetter
+    @JsonAutoDetect
+    @JsonDeserialize(builder = AutoValue_MappedCSVFileDataAdapter_Config.Builder.class)
+    @JsonTypeName(NAME)
+    public static abstract class Config implements LookupDataAdapterConfiguration {
+
+        @Override
+        @JsonProperty(TYPE_FIELD)
+        public abstract String type();
+
+        @JsonProperty("path")
+        @NotEmpty
+        public abstract String path();
+
+        // Using String here instead of char to allow deserialization of a longer (invalid) string to get proper
+        // validation error messages
+        @JsonProperty("separator")
+        @Size(min = 1, max = 1)
+        @NotEmpty
+        public abstract String separator();
+
+        @JsonIgnore
+        public char separatorAsChar() {
+            return separator().charAt(0);
+        }
+
+        // Using String here instead of char to allow deserialization of a longer (invalid) string to get proper
+        // validation error messages
+        @JsonProperty("quotechar")
+        @Size(min = 1, max = 1)
+        @NotEmpty
+        public abstract String quotechar();
+
+        @JsonIgnore
+        public char quotecharAsChar() {
+            return quotechar().charAt(0);
+        }
+
+        @JsonProperty("key_column")
+        @NotEmpty
+        public abstract String keyColumn();
+
+        @JsonProperty("value_column")
+        @NotEmpty
+        public abstract String valueColumn();
+
+        @JsonProperty("check_interval")
+        @Min(1)
+        public abstract long checkInterval();
+
+        @JsonProperty("case_insensitive_lookup")
+        public abstract Optional<Boolean> caseInsensitiveLookup();
+
+        public boolean isCaseInsensitiveLookup() {
+            return caseInsensitiveLookup().isPresent() && caseInsensitiveLookup().get();
+        }
+
+        public static Builder builder() {
+            return new AutoValue_MappedCSVFileDataAdapter_Config.Builder();
+        }
+
+        @Override
+        public Optional<Multimap<String, String>> validate(LookupDataAdapterValidationContext context) {
+            final ArrayListMultimap<String, String> errors = ArrayListMultimap.create();
+
+            final Path path = Paths.get(path());
+            if (!context.getPathChecker().fileIsInAllowedPath(path)) {
+                errors.put("path", CSVFileDataAdapter.ALLOWED_PATH_ERROR);
+
+                // Intentionally return here, because in the Cloud context, we should not perform the following checks
+                // to report to the user whether or not a file exists.
+                return Optional.of(errors);
+            }
+
+            if (!Files.exists(path)) {
+                errors.put("path", "The file does not exist.");
+            } else if (!Files.isReadable(path)) {
+                errors.put("path", "The file cannot be read.");
+            }
+
+            return errors.isEmpty() ? Optional.empty() : Optional.of(errors);
+        }
+
+        @AutoValue.Builder
+        public abstract static class Builder {
+            @JsonProperty(TYPE_FIELD)
+            public abstract Builder type(String type);
+
+            @JsonProperty("path")
+            public abstract Builder path(String path);
+
+            @JsonProperty("separator")
+            public abstract Builder separator(String separator);
+
+            @JsonProperty("quotechar")
+            public abstract Builder quotechar(String quotechar);
+
+            @JsonProperty("key_column")
+            public abstract Builder keyColumn(String keyColumn);
+
+            @JsonProperty("value_column")
+            public abstract Builder valueColumn(String valueColumn);
+
+            @JsonProperty("check_interval")
+            public abstract Builder checkInterval(long checkInterval);
+
+            @JsonProperty("case_insensitive_lookup")
+            public abstract Builder caseInsensitiveLookup(Boolean caseInsensitiveLookup);
+
+            public abstract Config build();
+        }
+    }
+}
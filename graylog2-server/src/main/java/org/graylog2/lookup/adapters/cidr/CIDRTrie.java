@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters.cidr;
+
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * Path-compressed binary trie (PATRICIA) for IPv4 and IPv6 network prefixes with longest-prefix-match lookups.
+ * <p>
+ * Lookups take at most one step per bit of the address and the trie contains less than two nodes per prefix.
+ * The trie is not thread-safe for modifications, but can be read concurrently once it has been safely published.
+ */
+public class CIDRTrie<V> {
+    private final Node<V> ipv4Root = new Node<>(new byte[4], 0, null);
+    private final Node<V> ipv6Root = new Node<>(new byte[16], 0, null);
+    private long size = 0;
+
+    /**
+     * Adds a network prefix. Adding the same prefix again replaces its value.
+     *
+     * @param network      any address in the network, host bits are ignored
+     * @param prefixLength the number of network bits
+     */
+    public void put(InetAddress network, int prefixLength, V value) {
+        final byte[] address = network.getAddress();
+        if (prefixLength < 0 || prefixLength > address.length * 8) {
+            throw new IllegalArgumentException("Invalid prefix length " + prefixLength + " for address " + network.getHostAddress());
+        }
+        put(rootFor(network), mask(address, prefixLength), prefixLength, value);
+    }
+
+    /**
+     * Adds all addresses from {@code start} to {@code end} (both inclusive) by splitting the range into the
+     * smallest number of network prefixes.
+     */
+    public void putRange(InetAddress start, InetAddress end, V value) {
+        if (start.getClass() != end.getClass()) {
+            throw new IllegalArgumentException("Range " + start.getHostAddress() + "-" + end.getHostAddress() + " mixes IPv4 and IPv6 addresses");
+        }
+        final int bits = start.getAddress().length * 8;
+        BigInteger current = new BigInteger(1, start.getAddress());
+        final BigInteger last = new BigInteger(1, end.getAddress());
+        if (current.compareTo(last) > 0) {
+            throw new IllegalArgumentException("Range start " + start.getHostAddress() + " is after range end " + end.getHostAddress());
+        }
+        while (current.compareTo(last) <= 0) {
+            // the largest block which is aligned at the current address and doesn't exceed the end of the range
+            int hostBits = current.signum() == 0 ? bits : current.getLowestSetBit();
+            while (current.add(BigInteger.ONE.shiftLeft(hostBits)).subtract(BigInteger.ONE).compareTo(last) > 0) {
+                hostBits--;
+            }
+            put(toAddress(current, bits / 8), bits - hostBits, value);
+            current = current.add(BigInteger.ONE.shiftLeft(hostBits));
+        }
+    }
+
+    /**
+     * @return the value of the most specific prefix containing the address or {@code null} if there is none
+     */
+    @Nullable
+    public V longestPrefixMatch(InetAddress address) {
+        final byte[] bytes = address.getAddress();
+        final int bits = bytes.length * 8;
+        Node<V> node = rootFor(address);
+        V match = null;
+        while (node != null && matches(bytes, node.key, node.length)) {
+            if (node.value != null) {
+                match = node.value;
+            }
+            if (node.length == bits) {
+                break;
+            }
+            node = node.child(bitAt(bytes, node.length));
+        }
+        return match;
+    }
+
+    /**
+     * @return the number of distinct prefixes
+     */
+    public long size() {
+        return size;
+    }
+
+    private Node<V> rootFor(InetAddress address) {
+        return address instanceof Inet4Address ? ipv4Root : ipv6Root;
+    }
+
+    private void put(Node<V> root, byte[] key, int length, V value) {
+        Node<V> node = root;
+        while (true) {
+            if (node.length == length) {
+                if (node.value == null) {
+                    size++;
+                }
+                node.value = value;
+                return;
+            }
+            final int bit = bitAt(key, node.length);
+            final Node<V> child = node.child(bit);
+            if (child == null) {
+                node.setChild(bit, new Node<>(key, length, value));
+                size++;
+                return;
+            }
+            final int common = commonPrefixLength(key, child.key, Math.min(length, child.length));
+            if (common == child.length) {
+                node = child;
+                continue;
+            }
+
+            final Node<V> split;
+            if (common == length) {
+                // the new prefix contains the child
+                split = new Node<>(key, length, value);
+                size++;
+            } else {
+                split = new Node<>(mask(key, common), common, null);
+                split.setChild(bitAt(key, common), new Node<>(key, length, value));
+                size++;
+            }
+            split.setChild(bitAt(child.key, common), child);
+            node.setChild(bit, split);
+            return;
+        }
+    }
+
+    private static boolean matches(byte[] address, byte[] prefix, int length) {
+        final int fullBytes = length / 8;
+        for (int i = 0; i < fullBytes; i++) {
+            if (address[i] != prefix[i]) {
+                return false;
+            }
+        }
+        final int remainingBits = length % 8;
+        if (remainingBits == 0) {
+            return true;
+        }
+        final int mask = 0xff << (8 - remainingBits);
+        return (address[fullBytes] & mask) == (prefix[fullBytes] & mask);
+    }
+
+    private static int commonPrefixLength(byte[] a, byte[] b, int maxLength) {
+        for (int i = 0; i * 8 < maxLength; i++) {
+            final int diff = (a[i] ^ b[i]) & 0xff;
+            if (diff != 0) {
+                return Math.min(maxLength, i * 8 + Integer.numberOfLeadingZeros(diff) - 24);
+            }
+        }
+        return maxLength;
+    }
+
+    private static int bitAt(byte[] key, int index) {
+        return (key[index / 8] >>> (7 - index % 8)) & 1;
+    }
+
+    private static byte[] mask(byte[] address, int length) {
+        final byte[] masked = Arrays.copyOf(address, address.length);
+        for (int i = 0; i < masked.length; i++) {
+            final int bitsInByte = Math.max(0, Math.min(8, length - i * 8));
+            masked[i] = (byte) (masked[i] & (0xff << (8 - bitsInByte)));
+        }
+        return masked;
+    }
+
+    private static InetAddress toAddress(BigInteger value, int size) {
+        final byte[] bytes = value.toByteArray();
+        final byte[] address = new byte[size];
+        final int length = Math.min(bytes.length, size);
+        System.arraycopy(bytes, bytes.length - length, address, size - length, length);
+        try {
+            return InetAddress.getByAddress(address);
+        } catch (UnknownHostException e) {
+            // cannot happen, the address has a valid length
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Node<V> {
+        private final byte[] key;
+        private final int length;
+        @Nullable
+        private V value;
+        private Node<V> zero;
+        private Node<V> one;
+
+        private Node(byte[] key, int length, @Nullable V value) {
+            this.key = key;
+            this.length = length;
+            this.value = value;
+        }
+
+        private Node<V> child(int bit) {
+            return bit == 0 ? zero : one;
+        }
+
+        private void setChild(int bit, Node<V> child) {
+            if (bit == 0) {
+                zero = child;
+            } else {
+                one = child;
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters.dnslookup;
+
+import com.codahale.metrics.Timer;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.graylog2.plugin.lookup.LookupResult;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Holds the answers of asynchronous DNS resolutions. Concurrent requests for the same key are coalesced into a
+ * single query, callers never wait for a query to complete.
+ * <p>
+ * Answers, including negative ones, expire after the TTL of their {@link LookupResult}.
+ */
+public class DnsAnswerCache {
+    private final Cache<String, LookupResult> answers;
+    private final ConcurrentMap<String, CompletableFuture<LookupResult>> pending = new ConcurrentHashMap<>();
+    private final Timer resolutionTimer;
+
+    public DnsAnswerCache(long maximumSize, Timer resolutionTimer) {
+        this(maximumSize, resolutionTimer, Ticker.systemTicker());
+    }
+
+    DnsAnswerCache(long maximumSize, Timer resolutionTimer, Ticker ticker) {
+        this.resolutionTimer = resolutionTimer;
+        this.answers = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<String, LookupResult>() {
+                    @Override
+                    public long expireAfterCreate(@NonNull String key, @NonNull LookupResult result, long currentTime) {
+                        // Saturates to Long.MAX_VALUE for results without TTL
+                        return TimeUnit.MILLISECONDS.toNanos(result.cacheTTL());
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(@NonNull String key, @NonNull LookupResult result, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, result, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(@NonNull String key, @NonNull LookupResult result, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * Returns the cached answer for the key. If there is none, a resolution is started unless one for the same key
+     * is already in flight.
+     *
+     * @param key      the lookup key
+     * @param resolver starts the asynchronous resolution of a key, the returned future must not fail
+     * @return the cached answer or {@code null} if the answer is not known yet
+     */
+    @Nullable
+    public LookupResult getOrResolve(String key, Function<String, CompletableFuture<LookupResult>> resolver) {
+        final LookupResult answer = answers.getIfPresent(key);
+        if (answer != null) {
+            return answer;
+        }
+
+        final CompletableFuture<LookupResult> placeholder = new CompletableFuture<>();
+        if (pending.putIfAbsent(key, placeholder) != null) {
+            // Another caller already started the resolution
+            return null;
+        }
+
+        final Timer.Context timerContext = resolutionTimer.time();
+        CompletableFuture<LookupResult> resolution;
+        try {
+            resolution = resolver.apply(key);
+        } catch (Exception e) {
+            resolution = new CompletableFuture<>();
+            resolution.completeExceptionally(e);
+        }
+        resolution.whenComplete((result, throwable) -> {
+            timerContext.stop();
+            if (result != null) {
+                answers.put(key, result);
+            }
+            pending.remove(key, placeholder);
+        });
+
+        // The resolution might have completed synchronously, e. g. because the key was invalid
+        return answers.getIfPresent(key);
+    }
+
+    /**
+     * @return the number of resolutions in flight
+     */
+    public int outstanding() {
+        return pending.size();
+    }
+
+    public long size() {
+        return answers.estimatedSize();
+    }
+
+    public void clear() {
+        answers.invalidateAll();
+    }
+}
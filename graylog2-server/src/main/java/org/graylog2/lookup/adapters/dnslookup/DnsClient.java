@@ -16,6 +16,7 @@
  */
 package org.graylog2.lookup.adapters.dnslookup;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
@@ -24,6 +25,7 @@ import com.google.common.net.HostAndPort;
 import com.google.common.net.InetAddresses;
 import com.google.common.net.InternetDomainName;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.AddressedEnvelope;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.handler.codec.dns.DefaultDnsPtrRecord;
@@ -33,6 +35,7 @@ import io.netty.handler.codec.dns.DefaultDnsRecordDecoder;
 import io.netty.handler.codec.dns.DnsRecord;
 import io.netty.handler.codec.dns.DnsRecordType;
 import io.netty.handler.codec.dns.DnsResponse;
+import io.netty.handler.codec.dns.DnsResponseCode;
 import io.netty.handler.codec.dns.DnsSection;
 import io.netty.resolver.dns.DnsNameResolver;
 import io.netty.resolver.dns.DnsNameResolverBuilder;
@@ -45,6 +48,7 @@ import org.graylog2.shared.utilities.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
@@ -54,9 +58,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
@@ -216,23 +222,28 @@ public class DnsClient {
             return null;
         }
 
-        LOG.trace("Attempting to decode DNS record [{}]", dnsRecord);
-
-        /* Read data from DNS record response. The data is a binary representation of the IP address
-         * IPv4 address: 32 bits, IPv6 address: 128 bits */
-        byte[] ipAddressBytes;
-        final DefaultDnsRawRecord dnsRawRecord = (DefaultDnsRawRecord) dnsRecord;
         try {
-            final ByteBuf byteBuf = dnsRawRecord.content();
-            ipAddressBytes = new byte[byteBuf.readableBytes()];
-            int readerIndex = byteBuf.readerIndex();
-            byteBuf.getBytes(readerIndex, ipAddressBytes);
+            return decodeAddressRecord(dnsRecord, includeIpVersion);
         } finally {
             /* Must manually release references on dnsRawRecord object since the DefaultDnsRawRecord class
-             * extends ReferenceCounted. This also releases the above ByteBuf, since DefaultDnsRawRecord is
+             * extends ReferenceCounted. This also releases the record content, since DefaultDnsRawRecord is
              * the holder for it. */
-            dnsRawRecord.release();
+            ((DefaultDnsRawRecord) dnsRecord).release();
         }
+    }
+
+    /**
+     * Decodes an A or AAAA record without releasing it. Used for records which are owned by a {@link DnsResponse}.
+     */
+    private static ADnsAnswer decodeAddressRecord(DnsRecord dnsRecord, boolean includeIpVersion) {
+
+        LOG.trace("Attempting to decode DNS record [{}]", dnsRecord);
+
+        /* Read data from DNS record response. The data is a binary representation of the IP address
+         * IPv4 address: 32 bits, IPv6 address: 128 bits */
+        final ByteBuf byteBuf = ((DefaultDnsRawRecord) dnsRecord).content();
+        final byte[] ipAddressBytes = new byte[byteBuf.readableBytes()];
+        byteBuf.getBytes(byteBuf.readerIndex(), ipAddressBytes);
 
         LOG.trace("The IP address has [{}] bytes", ipAddressBytes.length);
 
@@ -392,6 +403,165 @@ public class DnsClient {
         }
     }
 
+    /**
+     * Asynchronous variant of {@link #resolveIPv4AddressForHostname(String, boolean)}. Only the records in the
+     * answer of the configured DNS server are used, CNAME chains have to be resolved by the server.
+     * <p>
+     * The returned future fails with a {@link NegativeDnsAnswerException} if the name has no A records.
+     */
+    public CompletableFuture<List<ADnsAnswer>> resolveIPv4AddressForHostnameAsync(String hostName, boolean includeIpVersion) {
+        return resolveIpAddressesAsync(hostName, DnsRecordType.A, includeIpVersion);
+    }
+
+    /**
+     * Asynchronous variant of {@link #resolveIPv6AddressForHostname(String, boolean)}.
+     *
+     * @see #resolveIPv4AddressForHostnameAsync(String, boolean)
+     */
+    public CompletableFuture<List<ADnsAnswer>> resolveIPv6AddressForHostnameAsync(String hostName, boolean includeIpVersion) {
+        return resolveIpAddressesAsync(hostName, DnsRecordType.AAAA, includeIpVersion);
+    }
+
+    private CompletableFuture<List<ADnsAnswer>> resolveIpAddressesAsync(String hostName, DnsRecordType dnsRecordType, boolean includeIpVersion) {
+        LOG.debug("Attempting to asynchronously resolve [{}] records for [{}]", dnsRecordType, hostName);
+
+        return queryAsync(hostName, dnsRecordType, () -> validateHostName(hostName), response -> {
+            final List<ADnsAnswer> answers = new ArrayList<>();
+            for (int i = 0; i < response.count(DnsSection.ANSWER); i++) {
+                final DnsRecord dnsRecord = response.recordAt(DnsSection.ANSWER, i);
+                // Skip CNAME records, the server includes the records of the canonical name
+                if (dnsRecord.type() == dnsRecordType && dnsRecord instanceof DefaultDnsRawRecord) {
+                    final ADnsAnswer answer = decodeAddressRecord(dnsRecord, includeIpVersion);
+                    if (answer != null) {
+                        answers.add(answer);
+                    }
+                }
+            }
+            return answers.isEmpty() ? null : answers;
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #reverseLookup(String)}.
+     * <p>
+     * The returned future fails with a {@link NegativeDnsAnswerException} if there is no PTR record for the address.
+     */
+    public CompletableFuture<PtrDnsAnswer> reverseLookupAsync(String ipAddress) {
+        LOG.debug("Attempting to asynchronously perform reverse lookup for IP address [{}]", ipAddress);
+
+        final String trimmedAddress = StringUtils.trim(ipAddress);
+        return queryAsync(trimmedAddress, DnsRecordType.PTR, () -> validateIpAddress(trimmedAddress), response -> {
+            for (int i = 0; i < response.count(DnsSection.ANSWER); i++) {
+                final DnsRecord dnsRecord = response.recordAt(DnsSection.ANSWER, i);
+                if (dnsRecord instanceof DefaultDnsPtrRecord) {
+                    final DefaultDnsPtrRecord ptrRecord = (DefaultDnsPtrRecord) dnsRecord;
+                    final PtrDnsAnswer.Builder dnsAnswerBuilder = PtrDnsAnswer.builder();
+                    try {
+                        parseReverseLookupDomain(dnsAnswerBuilder, ptrRecord.hostname());
+                    } catch (IllegalArgumentException e) {
+                        dnsAnswerBuilder.domain("");
+                    }
+                    return dnsAnswerBuilder.dnsTTL(ptrRecord.timeToLive()).build();
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #txtLookup(String)}.
+     * <p>
+     * The returned future fails with a {@link NegativeDnsAnswerException} if there are no TXT records for the name.
+     */
+    public CompletableFuture<List<TxtDnsAnswer>> txtLookupAsync(String hostName) {
+        LOG.debug("Attempting to asynchronously perform TXT lookup for hostname [{}]", hostName);
+
+        return queryAsync(hostName, DnsRecordType.TXT, () -> validateHostName(hostName), response -> {
+            final List<TxtDnsAnswer> txtRecords = new ArrayList<>();
+            for (int i = 0; i < response.count(DnsSection.ANSWER); i++) {
+                final DnsRecord dnsRecord = response.recordAt(DnsSection.ANSWER, i);
+                if (dnsRecord instanceof DefaultDnsRawRecord && dnsRecord.type() == DnsRecordType.TXT) {
+                    final DefaultDnsRawRecord txtRecord = (DefaultDnsRawRecord) dnsRecord;
+                    txtRecords.add(TxtDnsAnswer.builder()
+                                               .value(decodeTxtRecord(txtRecord))
+                                               .dnsTTL(txtRecord.timeToLive())
+                                               .build());
+                }
+            }
+            return txtRecords.isEmpty() ? null : txtRecords;
+        });
+    }
+
+    /**
+     * Sends a single query without blocking the calling thread. The decoder runs on the event loop and must not
+     * keep references to the response, which is released afterwards. If the decoder returns {@code null} or the
+     * name doesn't exist, the future fails with a {@link NegativeDnsAnswerException}.
+     */
+    private <T> CompletableFuture<T> queryAsync(String name, DnsRecordType type, Runnable validation, Function<DnsResponse, T> decoder) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        if (isShutdown()) {
+            result.completeExceptionally(new DnsClientNotRunningException());
+            return result;
+        }
+        final String question;
+        try {
+            validation.run();
+            question = type == DnsRecordType.PTR ? getInverseAddressFormat(name) : name;
+        } catch (IllegalArgumentException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        resolver.query(new DefaultDnsQuestion(question, type)).addListener((Future<AddressedEnvelope<DnsResponse, InetSocketAddress>> future) -> {
+            if (!future.isSuccess()) {
+                result.completeExceptionally(future.cause());
+                return;
+            }
+            final DnsResponse response = future.getNow().content();
+            try {
+                if (response.code() == DnsResponseCode.NXDOMAIN) {
+                    result.completeExceptionally(new NegativeDnsAnswerException(name, negativeTTL(response)));
+                } else if (response.code() != DnsResponseCode.NOERROR) {
+                    result.completeExceptionally(new IOException("DNS server returned [" + response.code() + "] for [" + name + "]"));
+                } else {
+                    final T decoded = decoder.apply(response);
+                    if (decoded == null) {
+                        result.completeExceptionally(new NegativeDnsAnswerException(name, negativeTTL(response)));
+                    } else {
+                        result.complete(decoded);
+                    }
+                }
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            } finally {
+                // Must manually release references on content object since the DnsResponse class extends ReferenceCounted
+                response.release();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The TTL of a negative answer is the minimum of the SOA record TTL and the SOA MINIMUM field (RFC 2308).
+     *
+     * @return the TTL in seconds or {@code -1} if the response doesn't contain a SOA record
+     */
+    @VisibleForTesting
+    static long negativeTTL(DnsResponse response) {
+        for (int i = 0; i < response.count(DnsSection.AUTHORITY); i++) {
+            final DnsRecord dnsRecord = response.recordAt(DnsSection.AUTHORITY, i);
+            if (dnsRecord.type() == DnsRecordType.SOA && dnsRecord instanceof DefaultDnsRawRecord) {
+                final ByteBuf content = ((DefaultDnsRawRecord) dnsRecord).content();
+                // MINIMUM is the last of the five 32 bit fields at the end of the record data
+                if (content.readableBytes() >= 5 * Integer.BYTES) {
+                    final long minimum = content.getUnsignedInt(content.writerIndex() - Integer.BYTES);
+                    return Math.min(dnsRecord.timeToLive(), minimum);
+                }
+            }
+        }
+        return -1;
+    }
+
     private boolean isShutdown() {
         return nettyEventLoop == null || nettyEventLoop.isShutdown();
     }
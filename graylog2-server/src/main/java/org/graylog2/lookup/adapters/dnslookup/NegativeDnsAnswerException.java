@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters.dnslookup;
+
+import java.net.UnknownHostException;
+import java.util.OptionalLong;
+
+/**
+ * Signals that the DNS server answered, but there is no record of the requested type for the name
+ * (NXDOMAIN or NODATA). Carries the negative caching TTL of the answer according to RFC 2308, if the server
+ * included the SOA record of the zone.
+ */
+public class NegativeDnsAnswerException extends UnknownHostException {
+    private final long negativeTTL;
+
+    public NegativeDnsAnswerException(String name, long negativeTTL) {
+        super("No DNS record found for [" + name + "]");
+        this.negativeTTL = negativeTTL;
+    }
+
+    /**
+     * @return the time in seconds the negative answer may be cached
+     */
+    public OptionalLong negativeTTL() {
+        return negativeTTL < 0 ? OptionalLong.empty() : OptionalLong.of(negativeTTL);
+    }
+}
@@ -17,12 +17,20 @@
 package org.graylog2.lookup.adapters.dsvhttp;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableMap;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * The main difference to using a CSVReader is that this explicitly handles comment lines and does not support
  * a column name line.
@@ -47,6 +55,7 @@ public class DSVParser {
                      int keyColumn,
                      @SuppressWarnings("OptionalUsedAsFieldOrParameterType") Optional<Integer> valueColumn) {
 
+        checkArgument(!Strings.isNullOrEmpty(lineSeparator), "The line separator must not be empty");
         this.ignorechar = ignorechar;
         this.lineSeparator = lineSeparator;
         this.quoteChar = quoteChar;
@@ -68,25 +77,65 @@ public class DSVParser {
     }
 
     public Map<String, String> parse(String body) {
-        final ImmutableMap.Builder<String, String> newLookupBuilder = ImmutableMap.builder();
+        try {
+            return parse(new StringReader(body));
+        } catch (IOException e) {
+            // Reading from a string doesn't fail
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        final String[] lines = body.split(lineSeparator);
+    /**
+     * Parses the lines as they are read, so the body never has to be held in memory as a whole. If a key occurs more
+     * than once, the last line wins. The line separator may consist of several characters, e.g. {@code \r\n}.
+     */
+    public Map<String, String> parse(Reader body) throws IOException {
+        final Map<String, String> newLookup = new LinkedHashMap<>();
 
-        for (String line : lines) {
-            if (line.startsWith(this.ignorechar)) {
-                continue;
+        final BufferedReader reader = body instanceof BufferedReader ? (BufferedReader) body : new BufferedReader(body);
+        final StringBuilder line = new StringBuilder();
+        final int separatorLength = lineSeparator.length();
+        final char lastSeparatorChar = lineSeparator.charAt(separatorLength - 1);
+        int c;
+        while ((c = reader.read()) != -1) {
+            line.append((char) c);
+            if (c == lastSeparatorChar && endsWithLineSeparator(line)) {
+                parseLine(line.substring(0, line.length() - separatorLength), newLookup);
+                line.setLength(0);
             }
-            final String[] values = line.split(this.splitPattern);
-            if (values.length <= Math.max(keyColumn, keyOnly ? 0 : valueColumn)) {
-                continue;
+        }
+        if (line.length() > 0) {
+            parseLine(line.toString(), newLookup);
+        }
+
+        return Collections.unmodifiableMap(newLookup);
+    }
+
+    private boolean endsWithLineSeparator(StringBuilder line) {
+        final int start = line.length() - lineSeparator.length();
+        if (start < 0) {
+            return false;
+        }
+        for (int i = 0; i < lineSeparator.length(); i++) {
+            if (line.charAt(start + i) != lineSeparator.charAt(i)) {
+                return false;
             }
-            final String key = this.caseInsensitive ? values[keyColumn].toLowerCase(Locale.ENGLISH) : values[keyColumn];
-            final String value = this.keyOnly ? "" : values[valueColumn].trim();
-            final String finalKey = Strings.isNullOrEmpty(quoteChar) ? key.trim() : key.trim().replaceAll("^" + quoteChar + "|" + quoteChar + "$", "");
-            final String finalValue = Strings.isNullOrEmpty(quoteChar) ? value.trim() : value.trim().replaceAll("^" + quoteChar + "|" + quoteChar + "$", "");
-            newLookupBuilder.put(finalKey, finalValue);
         }
+        return true;
+    }
 
-        return newLookupBuilder.build();
+    private void parseLine(String line, Map<String, String> newLookup) {
+        if (line.startsWith(this.ignorechar)) {
+            return;
+        }
+        final String[] values = line.split(this.splitPattern);
+        if (values.length <= Math.max(keyColumn, keyOnly ? 0 : valueColumn)) {
+            return;
+        }
+        final String key = this.caseInsensitive ? values[keyColumn].toLowerCase(Locale.ENGLISH) : values[keyColumn];
+        final String value = this.keyOnly ? "" : values[valueColumn].trim();
+        final String finalKey = Strings.isNullOrEmpty(quoteChar) ? key.trim() : key.trim().replaceAll("^" + quoteChar + "|" + quoteChar + "$", "");
+        final String finalValue = Strings.isNullOrEmpty(quoteChar) ? value.trim() : value.trim().replaceAll("^" + quoteChar + "|" + quoteChar + "$", "");
+        newLookup.put(finalKey, finalValue);
     }
 }
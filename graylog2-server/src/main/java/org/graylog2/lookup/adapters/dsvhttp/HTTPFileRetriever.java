@@ -26,6 +26,7 @@ import org.joda.time.DateTimeZone;
 
 import javax.inject.Inject;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -37,6 +38,7 @@ import java.util.concurrent.atomic.AtomicReference;
 
 public class HTTPFileRetriever {
     private final AtomicReference<Map<String, String>> lastLastModified = new AtomicReference<>(Collections.emptyMap());
+    private final AtomicReference<Map<String, String>> lastETag = new AtomicReference<>(Collections.emptyMap());
     private final OkHttpClient client;
 
     @Inject
@@ -79,6 +81,23 @@ public class HTTPFileRetriever {
         return fetchFile(url, true);
     }
 
+    /**
+     * Request file and parse the body while it is being received, without buffering it in memory. Will send the
+     * "If-Modified-Since" and "If-None-Match" headers so that the file won't be fetched if it hasn't been modified
+     * since the last successfully parsed response.
+     */
+    public <T> Optional<T> fetchFileIfNotModified(String url, BodyParser<T> parser) throws IOException {
+        return fetchFile(url, parser, true);
+    }
+
+    /**
+     * Request file and parse the body while it is being received. No "If-Modified-Since" header will be sent so the
+     * file will be fetched again, even if it hasn't been modified since the last fetch.
+     */
+    public <T> Optional<T> fetchFile(String url, BodyParser<T> parser) throws IOException {
+        return fetchFile(url, parser, false);
+    }
+
     /**
      * Request file bytes by sending an "If-Modified-Since" header so that the file won't be fetched if it hasn't been
      * modified since the last request.
@@ -100,6 +119,7 @@ public class HTTPFileRetriever {
         try (Response response = doHttpGet(url, addIfModifiedSinceHeader)) {
             if (null != response && null != response.body()) {
                 Files.copy(response.body().byteStream(), toPath, StandardCopyOption.REPLACE_EXISTING);
+                rememberValidators(url, response);
                 return true;
             }
             return false;
@@ -109,7 +129,9 @@ public class HTTPFileRetriever {
     private Optional<byte[]> fetchFileBytes(String url, boolean addIfModifiedSinceHeader) throws IOException {
         try (Response response = doHttpGet(url, addIfModifiedSinceHeader)) {
             if (null != response && null != response.body()) {
-                return Optional.of(response.body().bytes());
+                final byte[] bytes = response.body().bytes();
+                rememberValidators(url, response);
+                return Optional.of(bytes);
             }
         }
         return Optional.empty();
@@ -118,7 +140,20 @@ public class HTTPFileRetriever {
     private Optional<String> fetchFile(String url, boolean addIfModifiedSinceHeader) throws IOException {
         try (Response response = doHttpGet(url, addIfModifiedSinceHeader)) {
             if (null != response && null != response.body()) {
-                return Optional.of(response.body().string());
+                final String body = response.body().string();
+                rememberValidators(url, response);
+                return Optional.of(body);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private <T> Optional<T> fetchFile(String url, BodyParser<T> parser, boolean addIfModifiedSinceHeader) throws IOException {
+        try (Response response = doHttpGet(url, addIfModifiedSinceHeader)) {
+            if (null != response && null != response.body()) {
+                final T result = parser.parse(response.body().charStream());
+                rememberValidators(url, response);
+                return Optional.of(result);
             }
         }
         return Optional.empty();
@@ -134,16 +169,15 @@ public class HTTPFileRetriever {
             if (lastModified != null) {
                 requestBuilder.header("If-Modified-Since", lastModified);
             }
+            final String eTag = this.lastETag.get().get(url);
+            if (eTag != null) {
+                requestBuilder.header("If-None-Match", eTag);
+            }
         }
         final Call request = client.newCall(requestBuilder.build());
 
         final Response response = request.execute();
         if (response.isSuccessful()) {
-            final String lastModifiedHeader = response.header("Last-Modified", DateTime.now(DateTimeZone.UTC).toString());
-            final Map<String, String> newLastModified = new HashMap<>(this.lastLastModified.get());
-            newLastModified.put(url, lastModifiedHeader);
-            this.lastLastModified.set(ImmutableMap.copyOf(newLastModified));
-
             return response;
         } else {
             response.close();
@@ -154,4 +188,29 @@ public class HTTPFileRetriever {
 
         return null;
     }
+
+    /**
+     * The validators are only stored after the body has been processed, so a failed transfer is retried with the
+     * next request instead of being answered with "304 Not Modified".
+     */
+    private void rememberValidators(String url, Response response) {
+        final String lastModifiedHeader = response.header("Last-Modified", DateTime.now(DateTimeZone.UTC).toString());
+        final Map<String, String> newLastModified = new HashMap<>(this.lastLastModified.get());
+        newLastModified.put(url, lastModifiedHeader);
+        this.lastLastModified.set(ImmutableMap.copyOf(newLastModified));
+
+        final String eTagHeader = response.header("ETag");
+        final Map<String, String> newETag = new HashMap<>(this.lastETag.get());
+        if (eTagHeader != null) {
+            newETag.put(url, eTagHeader);
+        } else {
+            newETag.remove(url);
+        }
+        this.lastETag.set(ImmutableMap.copyOf(newETag));
+    }
+
+    @FunctionalInterface
+    public interface BodyParser<T> {
+        T parse(Reader body) throws IOException;
+    }
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters.mappedcsv;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only key/value index which is served from a memory-mapped file created by {@link CSVIndexWriter}.
+ * <p>
+ * File layout (all numbers big-endian):
+ * <pre>
+ * header:  magic (int), version (int), entry count (long), slot count (long), slots offset (long)
+ * records: key length (int), key (UTF-8), value length (int), value (UTF-8), ...
+ * slots:   key hash (int), record offset (long), ... (open addressing with linear probing, offset 0 is empty)
+ * </pre>
+ * Only the mapped file is used for lookups, so the index does not take up any heap space regardless of its size.
+ * <p>
+ * The index file is deleted once the index has been {@link #close() closed} and all lookups which
+ * {@link #retain() retained} it have {@link #release() released} it again.
+ */
+public class CSVIndex implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(CSVIndex.class);
+
+    static final int MAGIC = 0x47_4c_43_49; // "GLCI"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 2 * Integer.BYTES + 3 * Long.BYTES;
+    static final int SLOT_SIZE = Integer.BYTES + Long.BYTES;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_32();
+
+    private final Path path;
+    private final MappedFile file;
+    private final long size;
+    private final long slotMask;
+    private final long slotsOffset;
+    // the owner holds one reference until the index is closed
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private CSVIndex(Path path, MappedFile file, long size, long slotCount, long slotsOffset) {
+        this.path = path;
+        this.file = file;
+        this.size = size;
+        this.slotMask = slotCount - 1;
+        this.slotsOffset = slotsOffset;
+    }
+
+    public static CSVIndex open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedFile file = MappedFile.map(channel, FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (file.size() < HEADER_SIZE || file.getInt(0) != MAGIC) {
+                throw new IOException("Invalid CSV index file " + path);
+            }
+            final int version = file.getInt(Integer.BYTES);
+            if (version != VERSION) {
+                throw new IOException("Unsupported CSV index file version " + version + " in " + path);
+            }
+            final long size = file.getLong(2 * Integer.BYTES);
+            final long slotCount = file.getLong(2 * Integer.BYTES + Long.BYTES);
+            final long slotsOffset = file.getLong(2 * Integer.BYTES + 2 * Long.BYTES);
+            if (Long.bitCount(slotCount) != 1 || slotsOffset + slotCount * SLOT_SIZE != file.size()) {
+                throw new IOException("Corrupt CSV index file " + path);
+            }
+            return new CSVIndex(path, file, size, slotCount, slotsOffset);
+        }
+    }
+
+    /**
+     * @return the value for the given key or {@code null} if the key doesn't exist
+     */
+    @Nullable
+    public String get(String key) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int hash = hash(keyBytes);
+        for (long slot = hash & slotMask; ; slot = (slot + 1) & slotMask) {
+            final long slotPosition = slotsOffset + slot * SLOT_SIZE;
+            final long recordOffset = file.getLong(slotPosition + Integer.BYTES);
+            if (recordOffset == 0) {
+                return null;
+            }
+            if (file.getInt(slotPosition) == hash && keyEquals(file, recordOffset, keyBytes)) {
+                final long valuePosition = recordOffset + Integer.BYTES + keyBytes.length;
+                final byte[] value = new byte[file.getInt(valuePosition)];
+                file.get(valuePosition + Integer.BYTES, value);
+                return new String(value, StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * Acquires a reference for a lookup, it has to be released with {@link #release()} afterwards.
+     *
+     * @return {@code false} if the index has already been closed and must not be used anymore
+     */
+    public boolean retain() {
+        int current;
+        do {
+            current = references.get();
+            if (current == 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Releases a reference acquired by {@link #retain()} and deletes the index file if it was the last one.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOG.warn("Couldn't delete CSV index file {}", path, e);
+            }
+        }
+    }
+
+    /**
+     * Releases the owner's reference. The index file is deleted once all running lookups are done.
+     */
+    @Override
+    public void close() {
+        release();
+    }
+
+    /**
+     * @return the number of distinct keys in the index
+     */
+    public long size() {
+        return size;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    static int hash(byte[] key) {
+        return HASH_FUNCTION.hashBytes(key).asInt();
+    }
+
+    static boolean keyEquals(MappedFile file, long recordOffset, byte[] key) {
+        if (file.getInt(recordOffset) != key.length) {
+            return false;
+        }
+        final long keyPosition = recordOffset + Integer.BYTES;
+        for (int i = 0; i < key.length; i++) {
+            if (file.get(keyPosition + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters.mappedcsv;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.graylog2.lookup.adapters.mappedcsv.CSVIndex.HEADER_SIZE;
+import static org.graylog2.lookup.adapters.mappedcsv.CSVIndex.MAGIC;
+import static org.graylog2.lookup.adapters.mappedcsv.CSVIndex.SLOT_SIZE;
+import static org.graylog2.lookup.adapters.mappedcsv.CSVIndex.VERSION;
+
+/**
+ * Writes a {@link CSVIndex} file.
+ * <p>
+ * Entries are streamed to disk as they are added. The hash table is built in a memory-mapped region of the
+ * same file once all entries have been written, so the heap usage doesn't depend on the number of entries.
+ * If a key is added more than once, the last value wins.
+ */
+public class CSVIndexWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final DataOutputStream out;
+    private long position = HEADER_SIZE;
+    private long recordCount = 0;
+
+    public CSVIndexWriter(Path path) throws IOException {
+        this.path = path;
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), BUFFER_SIZE));
+        // the header is written once the index is complete
+        out.write(new byte[HEADER_SIZE]);
+    }
+
+    public void add(String key, String value) throws IOException {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(keyBytes.length);
+        out.write(keyBytes);
+        out.writeInt(valueBytes.length);
+        out.write(valueBytes);
+        position += 2 * Integer.BYTES + keyBytes.length + valueBytes.length;
+        recordCount++;
+    }
+
+    /**
+     * Builds the hash table for the written entries and opens the finished index.
+     */
+    public CSVIndex finish() throws IOException {
+        out.close();
+
+        final long slotsOffset = position;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedFile records = MappedFile.map(channel, FileChannel.MapMode.READ_ONLY, 0, slotsOffset);
+            final long slotCount = slotCount(recordCount);
+            final long slotMask = slotCount - 1;
+            // mapping beyond the end of the file extends it, the new region is filled with zeros (i.e. empty slots)
+            final MappedFile slots = MappedFile.map(channel, FileChannel.MapMode.READ_WRITE, slotsOffset, slotCount * SLOT_SIZE);
+
+            long size = 0;
+            long recordOffset = HEADER_SIZE;
+            while (recordOffset < slotsOffset) {
+                final byte[] key = new byte[records.getInt(recordOffset)];
+                records.get(recordOffset + Integer.BYTES, key);
+                final int hash = CSVIndex.hash(key);
+
+                for (long slot = hash & slotMask; ; slot = (slot + 1) & slotMask) {
+                    final long slotPosition = slot * SLOT_SIZE;
+                    final long existingOffset = slots.getLong(slotPosition + Integer.BYTES);
+                    if (existingOffset == 0) {
+                        slots.putInt(slotPosition, hash);
+                        slots.putLong(slotPosition + Integer.BYTES, recordOffset);
+                        size++;
+                        break;
+                    }
+                    if (slots.getInt(slotPosition) == hash && CSVIndex.keyEquals(records, existingOffset, key)) {
+                        slots.putLong(slotPosition + Integer.BYTES, recordOffset);
+                        break;
+                    }
+                }
+                recordOffset = nextRecord(records, recordOffset);
+            }
+            slots.force();
+
+            // the header goes last, an index without a valid header is never opened
+            final MappedFile header = MappedFile.map(channel, FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putInt(0, MAGIC);
+            header.putInt(Integer.BYTES, VERSION);
+            header.putLong(2 * Integer.BYTES, size);
+            header.putLong(2 * Integer.BYTES + Long.BYTES, slotCount);
+            header.putLong(2 * Integer.BYTES + 2 * Long.BYTES, slotsOffset);
+            header.force();
+        }
+        return CSVIndex.open(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private static long nextRecord(MappedFile records, long recordOffset) {
+        final long valueOffset = recordOffset + Integer.BYTES + records.getInt(recordOffset);
+        return valueOffset + Integer.BYTES + records.getInt(valueOffset);
+    }
+
+    /**
+     * Use at most half of the slots to keep probe sequences short.
+     */
+    private static long slotCount(long recordCount) {
+        return Long.highestOneBit(Math.max(2, recordCount * 2 - 1)) << 1;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters.mappedcsv;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A region of a file which is memory-mapped in segments, so it can be larger than a single {@link MappedByteBuffer}.
+ * <p>
+ * Reads use absolute positions only and are therefore safe to use from multiple threads. The mapping stays valid
+ * after the channel has been closed and is released once the instance has been garbage collected.
+ */
+class MappedFile {
+    private static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+    private final MappedByteBuffer[] segments;
+    private final long segmentSize;
+    private final long size;
+
+    private MappedFile(MappedByteBuffer[] segments, long segmentSize, long size) {
+        this.segments = segments;
+        this.segmentSize = segmentSize;
+        this.size = size;
+    }
+
+    static MappedFile map(FileChannel channel, FileChannel.MapMode mode, long position, long size) throws IOException {
+        return map(channel, mode, position, size, DEFAULT_SEGMENT_SIZE);
+    }
+
+    @VisibleForTesting
+    static MappedFile map(FileChannel channel, FileChannel.MapMode mode, long position, long size, long segmentSize) throws IOException {
+        final int segmentCount = Math.toIntExact(Math.max(1, (size + segmentSize - 1) / segmentSize));
+        final MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            final long segmentStart = i * segmentSize;
+            segments[i] = channel.map(mode, position + segmentStart, Math.min(segmentSize, size - segmentStart));
+        }
+        return new MappedFile(segments, segmentSize, size);
+    }
+
+    long size() {
+        return size;
+    }
+
+    byte get(long position) {
+        return segments[(int) (position / segmentSize)].get((int) (position % segmentSize));
+    }
+
+    void get(long position, byte[] dst) {
+        int copied = 0;
+        while (copied < dst.length) {
+            final long current = position + copied;
+            final MappedByteBuffer segment = segments[(int) (current / segmentSize)];
+            final int offset = (int) (current % segmentSize);
+            final int length = Math.min(dst.length - copied, segment.limit() - offset);
+            // duplicate() to not modify the position of the shared buffer
+            final ByteBuffer view = segment.duplicate();
+            view.position(offset);
+            view.get(dst, copied, length);
+            copied += length;
+        }
+    }
+
+    int getInt(long position) {
+        final MappedByteBuffer segment = segments[(int) (position / segmentSize)];
+        final int offset = (int) (position % segmentSize);
+        if (offset + Integer.BYTES <= segment.limit()) {
+            return segment.getInt(offset);
+        }
+        // the value spans two segments
+        int value = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            value = (value << 8) | (get(position + i) & 0xff);
+        }
+        return value;
+    }
+
+    long getLong(long position) {
+        final MappedByteBuffer segment = segments[(int) (position / segmentSize)];
+        final int offset = (int) (position % segmentSize);
+        if (offset + Long.BYTES <= segment.limit()) {
+            return segment.getLong(offset);
+        }
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8) | (get(position + i) & 0xff);
+        }
+        return value;
+    }
+
+    void put(long position, byte value) {
+        segments[(int) (position / segmentSize)].put((int) (position % segmentSize), value);
+    }
+
+    void putInt(long position, int value) {
+        final MappedByteBuffer segment = segments[(int) (position / segmentSize)];
+        final int offset = (int) (position % segmentSize);
+        if (offset + Integer.BYTES <= segment.limit()) {
+            segment.putInt(offset, value);
+            return;
+        }
+        for (int i = 0; i < Integer.BYTES; i++) {
+            put(position + i, (byte) (value >>> (8 * (Integer.BYTES - 1 - i))));
+        }
+    }
+
+    void putLong(long position, long value) {
+        final MappedByteBuffer segment = segments[(int) (position / segmentSize)];
+        final int offset = (int) (position % segmentSize);
+        if (offset + Long.BYTES <= segment.limit()) {
+            segment.putLong(offset, value);
+            return;
+        }
+        for (int i = 0; i < Long.BYTES; i++) {
+            put(position + i, (byte) (value >>> (8 * (Long.BYTES - 1 - i))));
+        }
+    }
+
+    void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+}
@@ -16,18 +16,26 @@
  */
 package org.graylog2.lookup.caches;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.Ticker;
 import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.github.benmanes.caffeine.cache.stats.StatsCounter;
 import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.math.LongMath;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import org.checkerframework.checker.nullness.qual.NonNull;
@@ -36,15 +44,32 @@ import org.graylog2.plugin.lookup.LookupCache;
 import org.graylog2.plugin.lookup.LookupCacheConfiguration;
 import org.graylog2.plugin.lookup.LookupCacheKey;
 import org.graylog2.plugin.lookup.LookupResult;
+import org.graylog2.shared.metrics.MetricUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Named;
 import javax.validation.constraints.Min;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class CaffeineLookupCache extends LookupCache {
@@ -52,14 +77,42 @@ public class CaffeineLookupCache extends LookupCache {
 
     // Use the old GuavaLookupCache name, so we don't have to deal with migrations
     public static final String NAME = "guava_cache";
-    private final Cache<LookupCacheKey, LookupResult> cache;
+
+    private static final String METRIC_PREFIX = "org.graylog2.lookup.caches";
+    private static final String SNAPSHOT_DIRECTORY = "lookup-caches";
+
+    // Refreshes are cheap to skip, so only a small number of them run at the same time per cache.
+    private static final int RELOAD_THREADS = 2;
+    private static final int RELOAD_QUEUE_SIZE = 1000;
+
+    private final Cache<LookupCacheKey, CachedResult> cache;
+    private final Ticker ticker;
+    private final long refreshAfterWriteNanos;
+    private final long maxStalenessNanos;
+    private final ThreadPoolExecutor reloadExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final Path snapshotFile;
+    private final long snapshotIntervalNanos;
+    private final Timer snapshotLoadTimer;
+    private final Timer snapshotWriteTimer;
+    private final AtomicLong snapshotEntries = new AtomicLong();
+    private final AtomicLong snapshotBytes = new AtomicLong();
+    private ScheduledFuture<?> snapshotTask;
 
     @Inject
     public CaffeineLookupCache(@Assisted("id") String id,
                                @Assisted("name") String name,
                                @Assisted LookupCacheConfiguration c,
                                @Named("processbuffer_processors") int processorCount,
-                               MetricRegistry metricRegistry) {
+                               MetricRegistry metricRegistry,
+                               @Named("daemonScheduler") ScheduledExecutorService scheduler,
+                               @Named("data_dir") Path dataDir) {
+        this(id, name, c, metricRegistry, Ticker.systemTicker(), scheduler, dataDir.resolve(SNAPSHOT_DIRECTORY));
+    }
+
+    @VisibleForTesting
+    CaffeineLookupCache(String id, String name, LookupCacheConfiguration c, MetricRegistry metricRegistry, Ticker ticker,
+                        ScheduledExecutorService scheduler, Path snapshotDirectory) {
         super(id, name, c, metricRegistry);
         Config config = (Config) c;
         Caffeine<Object, Object> builder = Caffeine.newBuilder();
@@ -68,31 +121,71 @@ public class CaffeineLookupCache extends LookupCache {
 
         builder.maximumSize(config.maxSize());
         builder.expireAfter(buildExpiry(config));
+        builder.ticker(ticker);
+
+        this.ticker = ticker;
+        this.refreshAfterWriteNanos = toNanos(config.refreshAfterWrite(), config.refreshAfterWriteUnit());
+        this.maxStalenessNanos = toNanos(config.maxStaleness(), config.maxStalenessUnit());
+        if (refreshAfterWriteNanos > 0 || maxStalenessNanos > 0) {
+            this.reloadExecutor = new ThreadPoolExecutor(RELOAD_THREADS, RELOAD_THREADS, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(RELOAD_QUEUE_SIZE),
+                    new ThreadFactoryBuilder().setNameFormat("lookup-cache-reload-" + id + "-%d").setDaemon(true).build());
+            this.reloadExecutor.allowCoreThreadTimeOut(true);
+        } else {
+            this.reloadExecutor = null;
+        }
 
         cache = builder.build();
+
+        this.scheduler = scheduler;
+        this.snapshotFile = snapshotDirectory.resolve(id + ".snapshot");
+        this.snapshotIntervalNanos = toNanos(config.snapshotInterval(), config.snapshotIntervalUnit());
+        this.snapshotLoadTimer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, id, "snapshotLoadTime"));
+        this.snapshotWriteTimer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, id, "snapshotWriteTime"));
+        // Replace the gauges of a previous instance of this cache, which would report stale values otherwise
+        registerGauge(metricRegistry, MetricRegistry.name(METRIC_PREFIX, id, "snapshotEntries"), snapshotEntries::get);
+        registerGauge(metricRegistry, MetricRegistry.name(METRIC_PREFIX, id, "snapshotBytes"), snapshotBytes::get);
     }
 
-    private Expiry<LookupCacheKey, LookupResult> buildExpiry(Config config) {
-       return new Expiry<LookupCacheKey, LookupResult>() {
+    private static void registerGauge(MetricRegistry metricRegistry, String name, Gauge<Long> gauge) {
+        metricRegistry.remove(name);
+        MetricUtils.safelyRegister(metricRegistry, name, gauge);
+    }
+
+    private static long toNanos(long duration, @Nullable TimeUnit unit) {
+        if (duration <= 0 || unit == null) {
+            return 0L;
+        }
+        return unit.toNanos(duration);
+    }
+
+    private long expireAfterWriteNanos(Config config, LookupResult lookupResult) {
+        if (lookupResult.hasTTL()) {
+            return TimeUnit.MILLISECONDS.toNanos(lookupResult.cacheTTL());
+        } else {
+            if (config.expireAfterWrite() > 0 && config.expireAfterWriteUnit() != null) {
+                //noinspection ConstantConditions
+                return config.expireAfterWriteUnit().toNanos(config.expireAfterWrite());
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private Expiry<LookupCacheKey, CachedResult> buildExpiry(Config config) {
+       return new Expiry<LookupCacheKey, CachedResult>() {
            @Override
-           public long expireAfterCreate(@NonNull LookupCacheKey lookupCacheKey, @NonNull LookupResult lookupResult, long currentTime) {
-               if (lookupResult.hasTTL()) {
-                   return TimeUnit.MILLISECONDS.toNanos(lookupResult.cacheTTL());
-               } else {
-                   if (config.expireAfterWrite() > 0 && config.expireAfterWriteUnit() != null) {
-                       //noinspection ConstantConditions
-                       return config.expireAfterWriteUnit().toNanos(config.expireAfterWrite());
-                   }
-                   return Long.MAX_VALUE;
-               }
+           public long expireAfterCreate(@NonNull LookupCacheKey lookupCacheKey, @NonNull CachedResult cachedResult, long currentTime) {
+               // Expired entries are kept for the max staleness window, so they can be served while being refreshed.
+               return LongMath.saturatedAdd(cachedResult.expireAfterWriteNanos, maxStalenessNanos);
            }
            @Override
-           public long expireAfterUpdate(@NonNull LookupCacheKey lookupCacheKey, @NonNull LookupResult lookupResult, long currentTime, long currentDuration) {
-               return currentDuration;
+           public long expireAfterUpdate(@NonNull LookupCacheKey lookupCacheKey, @NonNull CachedResult cachedResult, long currentTime, long currentDuration) {
+               // Entries are only updated by refreshes, which start a new lifetime.
+               return expireAfterCreate(lookupCacheKey, cachedResult, currentTime);
            }
 
            @Override
-           public long expireAfterRead(@NonNull LookupCacheKey lookupCacheKey, @NonNull LookupResult lookupResult, long currentTime, long currentDuration) {
+           public long expireAfterRead(@NonNull LookupCacheKey lookupCacheKey, @NonNull CachedResult cachedResult, long currentTime, long currentDuration) {
                if (config.expireAfterAccess() > 0 && config.expireAfterAccessUnit() != null) {
                    //noinspection ConstantConditions
                    return config.expireAfterAccessUnit().toNanos(config.expireAfterAccess());
@@ -113,34 +206,188 @@ public class CaffeineLookupCache extends LookupCache {
 
     @Override
     protected void doStart() throws Exception {
+        if (snapshotIntervalNanos > 0) {
+            loadSnapshot();
+            snapshotTask = scheduler.scheduleWithFixedDelay(this::writeSnapshot,
+                    snapshotIntervalNanos, snapshotIntervalNanos, TimeUnit.NANOSECONDS);
+        }
     }
 
     @Override
     protected void doStop() throws Exception {
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+        }
+        if (snapshotIntervalNanos > 0) {
+            if (snapshotTask != null) {
+                snapshotTask.cancel(false);
+            }
+            // Keep the latest entries for the next start, e.g. after a restart or a configuration change
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * Loads the entries of a previous snapshot with their remaining expiration time. Entries which have expired
+     * in the meantime are skipped.
+     */
+    private void loadSnapshot() {
+        if (!Files.exists(snapshotFile)) {
+            return;
+        }
+        final Policy.VarExpiration<LookupCacheKey, CachedResult> expiration = cache.policy().expireVariably()
+                .orElseThrow(() -> new IllegalStateException("Cache doesn't support variable expiration"));
+        try (final Timer.Context ignored = snapshotLoadTimer.time()) {
+            final long count = LookupCacheSnapshot.read(snapshotFile, System.currentTimeMillis(), entry -> {
+                if (entry.remainingNanos > 0) {
+                    final CachedResult cachedResult = newCachedResult(entry.result);
+                    cachedResult.loadedAtNanos = cachedResult.loadedAtNanos - entry.ageNanos;
+                    expiration.putIfAbsent(entry.key, cachedResult, entry.remainingNanos, TimeUnit.NANOSECONDS);
+                }
+            });
+            LOG.debug("Loaded {} entries from snapshot {} of cache <{}>", count, snapshotFile, name());
+        } catch (Exception e) {
+            LOG.warn("Couldn't load snapshot {} of cache <{}>, starting with an empty cache", snapshotFile, name(), e);
+        }
+    }
+
+    /**
+     * Writes the most frequently used entries, which don't contain errors, to the snapshot file.
+     */
+    private synchronized void writeSnapshot() {
+        final Policy.VarExpiration<LookupCacheKey, CachedResult> expiration = cache.policy().expireVariably()
+                .orElseThrow(() -> new IllegalStateException("Cache doesn't support variable expiration"));
+        final Map<LookupCacheKey, CachedResult> entries = cache.policy().eviction()
+                .map(eviction -> eviction.hottest(snapshotMaxEntries()))
+                .orElseGet(cache::asMap);
+        final long now = ticker.read();
+
+        try (final Timer.Context ignored = snapshotWriteTimer.time()) {
+            Files.createDirectories(snapshotFile.getParent());
+            final long count = LookupCacheSnapshot.write(snapshotFile, System.currentTimeMillis(), () -> entries.entrySet().stream()
+                    .filter(entry -> !entry.getValue().result.hasError())
+                    .map(entry -> new LookupCacheSnapshot.Entry(entry.getKey(), entry.getValue().result,
+                            now - entry.getValue().loadedAtNanos,
+                            expiration.getExpiresAfter(entry.getKey(), TimeUnit.NANOSECONDS).orElse(0L)))
+                    .filter(entry -> entry.remainingNanos > 0)
+                    .iterator());
+            snapshotEntries.set(count);
+            snapshotBytes.set(Files.size(snapshotFile));
+        } catch (Exception e) {
+            LOG.warn("Couldn't write snapshot {} of cache <{}>", snapshotFile, name(), e);
+        }
+    }
+
+    private int snapshotMaxEntries() {
+        final Config config = (Config) getConfig();
+        return config.snapshotMaxEntries() > 0 ? config.snapshotMaxEntries() : config.maxSize();
     }
 
     @Override
     public LookupResult get(LookupCacheKey key, Callable<LookupResult> loader) {
-        final Function<LookupCacheKey, LookupResult> mapFunction = unused -> {
+        final Function<LookupCacheKey, CachedResult> mapFunction = unused -> {
             try {
-                return loader.call();
+                return newCachedResult(loader.call());
             } catch (Exception e) {
                 LOG.warn("Loading value from data adapter failed for key {}, returning empty result", key, e);
-                return LookupResult.withError();
+                return newCachedResult(LookupResult.withError());
+            }
+        };
+        try (final Timer.Context ignored = lookupTimer()) {
+            final CachedResult cachedResult = cache.get(key, mapFunction);
+            refreshIfNeeded(key, cachedResult, loader);
+            return cachedResult.result;
+        }
+    }
+
+    @Override
+    public Map<LookupCacheKey, LookupResult> getAll(Collection<LookupCacheKey> keys,
+                                                    Function<Collection<LookupCacheKey>, Map<LookupCacheKey, LookupResult>> loader) {
+        final Function<Iterable<? extends LookupCacheKey>, Map<LookupCacheKey, CachedResult>> mapFunction = missingKeys -> {
+            final List<LookupCacheKey> keysToLoad = Lists.newArrayList(missingKeys);
+            Map<LookupCacheKey, LookupResult> loaded;
+            try {
+                loaded = loader.apply(keysToLoad);
+            } catch (Exception e) {
+                LOG.warn("Loading values from data adapter failed for keys {}, returning empty results", keysToLoad, e);
+                loaded = new HashMap<>();
+            }
+            // every requested key must be present, otherwise it would be loaded again for every lookup
+            final Map<LookupCacheKey, CachedResult> results = new HashMap<>(keysToLoad.size());
+            for (LookupCacheKey key : keysToLoad) {
+                final LookupResult result = loaded.get(key);
+                results.put(key, newCachedResult(result == null ? LookupResult.withError() : result));
             }
+            return results;
         };
         try (final Timer.Context ignored = lookupTimer()) {
-            return cache.get(key, mapFunction);
+            final Map<LookupCacheKey, CachedResult> cached = cache.getAll(keys, mapFunction);
+            final Map<LookupCacheKey, LookupResult> results = new LinkedHashMap<>(keys.size());
+            for (LookupCacheKey key : keys) {
+                final CachedResult cachedResult = cached.get(key);
+                refreshIfNeeded(key, cachedResult, () -> {
+                    final LookupResult result = loader.apply(Collections.singletonList(key)).get(key);
+                    return result == null ? LookupResult.withError() : result;
+                });
+                results.put(key, cachedResult.result);
+            }
+            return results;
+        }
+    }
+
+    private CachedResult newCachedResult(LookupResult result) {
+        return new CachedResult(result, expireAfterWriteNanos((Config) getConfig(), result), ticker.read());
+    }
+
+    /**
+     * Reloads the entry in the background if it is older than the refresh interval or has passed its expiration
+     * time and is only kept because of the max staleness window. The current value is returned in the meantime.
+     */
+    private void refreshIfNeeded(LookupCacheKey key, CachedResult cachedResult, Callable<LookupResult> loader) {
+        if (reloadExecutor == null) {
+            return;
+        }
+        final long age = ticker.read() - cachedResult.loadedAtNanos;
+        final boolean refreshDue = refreshAfterWriteNanos > 0 && age >= refreshAfterWriteNanos;
+        final boolean stale = maxStalenessNanos > 0 && age >= cachedResult.expireAfterWriteNanos;
+        if ((refreshDue || stale) && cachedResult.reloading.compareAndSet(false, true)) {
+            try {
+                reloadExecutor.execute(() -> reload(key, cachedResult, loader));
+            } catch (RejectedExecutionException e) {
+                // too many pending reloads, the cached value is served until the next attempt
+                cachedResult.reloading.set(false);
+            }
+        }
+    }
+
+    private void reload(LookupCacheKey key, CachedResult cachedResult, Callable<LookupResult> loader) {
+        final Timer.Context reloadTime = reloadTimer();
+        try {
+            final LookupResult result = loader.call();
+            reloadTime.stop();
+            if (result == null || result.hasError()) {
+                // keep serving the previous value, the next lookup will try again
+                incrReloadFailureCount();
+                cachedResult.reloading.set(false);
+                return;
+            }
+            // don't resurrect entries which have been purged or replaced in the meantime
+            cache.asMap().replace(key, cachedResult, newCachedResult(result));
+        } catch (Exception e) {
+            reloadTime.stop();
+            LOG.warn("Reloading value from data adapter failed for key {}, keeping the cached value", key, e);
+            incrReloadFailureCount();
+            cachedResult.reloading.set(false);
         }
     }
 
     @Override
     public LookupResult getIfPresent(LookupCacheKey key) {
-        final LookupResult cacheEntry = cache.getIfPresent(key);
+        final CachedResult cacheEntry = cache.getIfPresent(key);
         if (cacheEntry == null) {
             return LookupResult.empty();
         }
-        return cacheEntry;
+        return cacheEntry.result;
     }
 
     @Override
@@ -162,6 +409,30 @@ public class CaffeineLookupCache extends LookupCache {
         }
     }
 
+    @Override
+    public void purge(LookupCacheKey prefix, Predicate<Object> keyMatcher) {
+        cache.invalidateAll(
+                cache.asMap().keySet().stream()
+                        .filter(lookupCacheKey -> prefix.prefix().equals(lookupCacheKey.prefix()))
+                        .filter(lookupCacheKey -> lookupCacheKey.key() != null && keyMatcher.test(lookupCacheKey.key()))
+                        .collect(Collectors.toSet())
+        );
+    }
+
+    private static class CachedResult {
+        private final LookupResult result;
+        private final long expireAfterWriteNanos;
+        // adjusted for entries restored from a snapshot
+        private long loadedAtNanos;
+        private final AtomicBoolean reloading = new AtomicBoolean(false);
+
+        CachedResult(LookupResult result, long expireAfterWriteNanos, long loadedAtNanos) {
+            this.result = result;
+            this.expireAfterWriteNanos = expireAfterWriteNanos;
+            this.loadedAtNanos = loadedAtNanos;
+        }
+    }
+
     public interface Factory extends LookupCache.Factory {
         @Override
         CaffeineLookupCache create(@Assisted("id") String id, @Assisted("name") String name, LookupCacheConfiguration configuration);
@@ -190,7 +461,7 @@ public class CaffeineLookupCache extends LookupCache {
     @JsonAutoDetect
     @AutoValue
     @WithBeanGetter
-    @JsonDeserialize(builder = AutoValue_CaffeineLookupCache_Config.Builder.class)
+    @JsonDeserialize(builder = CaffeineLookupCache.Config.Builder.class)
     @JsonTypeName(NAME)
     public abstract static class Config implements LookupCacheConfiguration {
 
@@ -214,12 +485,49 @@ public class CaffeineLookupCache extends LookupCache {
         @JsonProperty("expire_after_write_unit")
         public abstract TimeUnit expireAfterWriteUnit();
 
+        @Min(0)
+        @JsonProperty("refresh_after_write")
+        public abstract long refreshAfterWrite();
+
+        @Nullable
+        @JsonProperty("refresh_after_write_unit")
+        public abstract TimeUnit refreshAfterWriteUnit();
+
+        @Min(0)
+        @JsonProperty("max_staleness")
+        public abstract long maxStaleness();
+
+        @Nullable
+        @JsonProperty("max_staleness_unit")
+        public abstract TimeUnit maxStalenessUnit();
+
+        @Min(0)
+        @JsonProperty("snapshot_interval")
+        public abstract long snapshotInterval();
+
+        @Nullable
+        @JsonProperty("snapshot_interval_unit")
+        public abstract TimeUnit snapshotIntervalUnit();
+
+        @Min(0)
+        @JsonProperty("snapshot_max_entries")
+        public abstract int snapshotMaxEntries();
+
         public static Builder builder() {
-            return new AutoValue_CaffeineLookupCache_Config.Builder();
+            return new AutoValue_CaffeineLookupCache_Config.Builder()
+                    .refreshAfterWrite(0)
+                    .maxStaleness(0)
+                    .snapshotInterval(0)
+                    .snapshotMaxEntries(0);
         }
 
         @AutoValue.Builder
         public abstract static class Builder {
+            @JsonCreator
+            public static Builder create() {
+                return Config.builder();
+            }
+
             @JsonProperty("type")
             public abstract Builder type(String type);
 
@@ -238,6 +546,27 @@ public class CaffeineLookupCache extends LookupCache {
             @JsonProperty("expire_after_write_unit")
             public abstract Builder expireAfterWriteUnit(@Nullable TimeUnit expireAfterWriteUnit);
 
+            @JsonProperty("refresh_after_write")
+            public abstract Builder refreshAfterWrite(long refreshAfterWrite);
+
+            @JsonProperty("refresh_after_write_unit")
+            public abstract Builder refreshAfterWriteUnit(@Nullable TimeUnit refreshAfterWriteUnit);
+
+            @JsonProperty("max_staleness")
+            public abstract Builder maxStaleness(long maxStaleness);
+
+            @JsonProperty("max_staleness_unit")
+            public abstract Builder maxStalenessUnit(@Nullable TimeUnit maxStalenessUnit);
+
+            @JsonProperty("snapshot_interval")
+            public abstract Builder snapshotInterval(long snapshotInterval);
+
+            @JsonProperty("snapshot_interval_unit")
+            public abstract Builder snapshotIntervalUnit(@Nullable TimeUnit snapshotIntervalUnit);
+
+            @JsonProperty("snapshot_max_entries")
+            public abstract Builder snapshotMaxEntries(int snapshotMaxEntries);
+
             public abstract Config build();
         }
     }
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.caches;
+
+import com.google.common.math.LongMath;
+import org.graylog2.plugin.lookup.LookupCacheKey;
+import org.graylog2.plugin.lookup.LookupResult;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Reads and writes snapshots of lookup cache entries in a compact binary format.
+ * <p>
+ * Keys and values are restricted to the types data adapters usually return (strings, numbers, booleans, lists and
+ * maps of those). Entries containing other types are left out of the snapshot. The format is local to a node and
+ * may change between releases, a snapshot with an unknown version is ignored.
+ */
+class LookupCacheSnapshot {
+    private static final int MAGIC = 0x47_4c_43_53; // "GLCS"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte END_OF_ENTRIES = 0;
+    private static final byte ENTRY = 1;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INTEGER = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_DOUBLE = 5;
+    private static final byte TYPE_BOOLEAN = 6;
+    private static final byte TYPE_LIST = 7;
+    private static final byte TYPE_MAP = 8;
+
+    private LookupCacheSnapshot() {
+    }
+
+    static class Entry {
+        final LookupCacheKey key;
+        final LookupResult result;
+        /** Time since the value has been loaded from the data adapter. */
+        final long ageNanos;
+        /** Time until the entry expires from the cache. */
+        final long remainingNanos;
+
+        Entry(LookupCacheKey key, LookupResult result, long ageNanos, long remainingNanos) {
+            this.key = key;
+            this.result = result;
+            this.ageNanos = ageNanos;
+            this.remainingNanos = remainingNanos;
+        }
+    }
+
+    /**
+     * Writes the entries to a temporary file which replaces the snapshot file once it is complete.
+     *
+     * @return the number of written entries
+     */
+    static long write(Path file, long timestampMillis, Iterable<Entry> entries) throws IOException {
+        final Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        long count = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(timestampMillis);
+            for (Entry entry : entries) {
+                if (!isSupported(entry.key.key()) || !isSupported(entry.result)) {
+                    continue;
+                }
+                out.writeByte(ENTRY);
+                writeString(out, entry.key.prefix());
+                writeValue(out, entry.key.key());
+                writeValue(out, entry.result.singleValue());
+                writeValue(out, entry.result.multiValue());
+                writeValue(out, entry.result.stringListValue());
+                out.writeLong(entry.result.cacheTTL());
+                out.writeLong(entry.ageNanos);
+                out.writeLong(entry.remainingNanos);
+                count++;
+            }
+            out.writeByte(END_OF_ENTRIES);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Reads the entries of a snapshot. The age and remaining time of the entries are adjusted by the time which has
+     * passed since the snapshot has been written.
+     *
+     * @return the number of read entries
+     */
+    static long read(Path file, long nowMillis, Consumer<Entry> consumer) throws IOException {
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Invalid lookup cache snapshot " + file);
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported lookup cache snapshot version " + version + " in " + file);
+            }
+            final long elapsedNanos = Math.max(0, nowMillis - in.readLong()) * 1_000_000L;
+
+            while (in.readByte() == ENTRY) {
+                final LookupCacheKey key = LookupCacheKey.createFromJSON(readString(in), readValue(in));
+                final Object singleValue = readValue(in);
+                @SuppressWarnings("unchecked") final Map<Object, Object> multiValue = (Map<Object, Object>) readValue(in);
+                @SuppressWarnings("unchecked") final List<String> stringListValue = (List<String>) readValue(in);
+                final LookupResult result = LookupResult.createFromJSON(singleValue, multiValue, stringListValue, false, in.readLong());
+                final long ageNanos = in.readLong();
+                final long remainingNanos = in.readLong();
+
+                consumer.accept(new Entry(key, result, LongMath.saturatedAdd(ageNanos, elapsedNanos), remainingNanos - elapsedNanos));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isSupported(LookupResult result) {
+        return isSupported(result.singleValue()) && isSupported(result.multiValue()) && isSupported(result.stringListValue());
+    }
+
+    private static boolean isSupported(Object value) {
+        if (value == null || value instanceof CharSequence || value instanceof Integer || value instanceof Long
+                || value instanceof Float || value instanceof Double || value instanceof Boolean) {
+            return true;
+        }
+        if (value instanceof List) {
+            return ((List<?>) value).stream().allMatch(LookupCacheSnapshot::isSupported);
+        }
+        if (value instanceof Map) {
+            return ((Map<?, ?>) value).entrySet().stream()
+                    .allMatch(entry -> isSupported(entry.getKey()) && isSupported(entry.getValue()));
+        }
+        return false;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof CharSequence) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, value.toString());
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof List) {
+            final List<?> list = (List<?>) value;
+            out.writeByte(TYPE_LIST);
+            out.writeInt(list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(TYPE_MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported value type " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_INTEGER:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_FLOAT:
+                return in.readFloat();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_LIST:
+                final int size = in.readInt();
+                final List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            case TYPE_MAP:
+                final int entries = in.readInt();
+                final Map<Object, Object> map = new LinkedHashMap<>(entries);
+                for (int i = 0; i < entries; i++) {
+                    map.put(readValue(in), readValue(in));
+                }
+                return map;
+            default:
+                throw new IOException("Unknown value type " + type + " in lookup cache snapshot");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
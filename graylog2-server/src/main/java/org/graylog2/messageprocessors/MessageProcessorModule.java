@@ -19,12 +19,19 @@ package org.graylog2.messageprocessors;
 import com.google.inject.Scopes;
 import org.graylog.plugins.pipelineprocessor.PipelineProcessorModule;
 import org.graylog.plugins.pipelineprocessor.db.mongodb.MongoDbServicesModule;
+import org.graylog2.messageprocessors.deduplication.DeduplicationProcessor;
 import org.graylog2.plugin.PluginModule;
+import org.graylog2.rollups.RollupProcessor;
+import org.graylog2.streams.StreamSamplingProcessor;
 
 public class MessageProcessorModule extends PluginModule {
     @Override
     protected void configure() {
         addMessageProcessor(MessageFilterChainProcessor.class, MessageFilterChainProcessor.Descriptor.class);
+        addMessageProcessor(DeduplicationProcessor.class, DeduplicationProcessor.Descriptor.class);
+        addMessageProcessor(RollupProcessor.class, RollupProcessor.Descriptor.class);
+        // the processors depending on the stream routing are placed after it by V20210301120000_PlaceRoutedMessageProcessors
+        addMessageProcessor(StreamSamplingProcessor.class, StreamSamplingProcessor.Descriptor.class);
         // must not be a singleton, because each thread should get an isolated copy of the processors
         bind(OrderedMessageProcessors.class).in(Scopes.NO_SCOPE);
 
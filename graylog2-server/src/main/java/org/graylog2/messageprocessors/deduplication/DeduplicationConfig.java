@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.messageprocessors.deduplication;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+@JsonAutoDetect
+@JsonIgnoreProperties(ignoreUnknown = true)
+@AutoValue
+public abstract class DeduplicationConfig {
+    private static final List<String> DEFAULT_FIELDS = ImmutableList.of(Message.FIELD_MESSAGE, Message.FIELD_SOURCE, Message.FIELD_TIMESTAMP);
+    private static final long DEFAULT_WINDOW_SECONDS = 300;
+    private static final long DEFAULT_EXPECTED_MESSAGES = 1_000_000;
+    private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.0001;
+    private static final String DEFAULT_TAG_FIELD = "gl2_duplicate";
+
+    public enum Action {
+        DROP, TAG
+    }
+
+    @JsonProperty("enabled")
+    public abstract boolean enabled();
+
+    /**
+     * The message fields which identify a message. Messages with equal values in all of these fields are duplicates.
+     */
+    @JsonProperty("fields")
+    public abstract List<String> fields();
+
+    /**
+     * The minimum time for which a message is remembered.
+     */
+    @JsonProperty("window_seconds")
+    public abstract long windowSeconds();
+
+    /**
+     * The number of distinct messages expected within one window. The filters are sized for it, more messages
+     * increase the false-positive rate instead of the memory usage.
+     */
+    @JsonProperty("expected_messages")
+    public abstract long expectedMessages();
+
+    /**
+     * The acceptable probability of a unique message being taken for a duplicate.
+     */
+    @JsonProperty("false_positive_rate")
+    public abstract double falsePositiveRate();
+
+    @JsonProperty("action")
+    public abstract Action action();
+
+    /**
+     * The field set to {@code true} on duplicates, if they are tagged instead of dropped.
+     */
+    @JsonProperty("tag_field")
+    public abstract String tagField();
+
+    @JsonCreator
+    public static DeduplicationConfig create(@JsonProperty("enabled") boolean enabled,
+                                             @JsonProperty("fields") @Nullable List<String> fields,
+                                             @JsonProperty("window_seconds") @Nullable Long windowSeconds,
+                                             @JsonProperty("expected_messages") @Nullable Long expectedMessages,
+                                             @JsonProperty("false_positive_rate") @Nullable Double falsePositiveRate,
+                                             @JsonProperty("action") @Nullable Action action,
+                                             @JsonProperty("tag_field") @Nullable String tagField) {
+        final DeduplicationConfig config = builder()
+                .enabled(enabled)
+                .fields(fields == null || fields.isEmpty() ? DEFAULT_FIELDS : fields)
+                .windowSeconds(windowSeconds == null ? DEFAULT_WINDOW_SECONDS : windowSeconds)
+                .expectedMessages(expectedMessages == null ? DEFAULT_EXPECTED_MESSAGES : expectedMessages)
+                .falsePositiveRate(falsePositiveRate == null ? DEFAULT_FALSE_POSITIVE_RATE : falsePositiveRate)
+                .action(action == null ? Action.DROP : action)
+                .tagField(tagField == null ? DEFAULT_TAG_FIELD : tagField)
+                .build();
+
+        checkArgument(config.windowSeconds() > 0, "window_seconds must be positive: %s", config.windowSeconds());
+        checkArgument(config.expectedMessages() > 0, "expected_messages must be positive: %s", config.expectedMessages());
+        checkArgument(config.falsePositiveRate() > 0.0d && config.falsePositiveRate() < 1.0d,
+                "false_positive_rate must be between 0 and 1 (exclusive): %s", config.falsePositiveRate());
+        return config;
+    }
+
+    public static DeduplicationConfig defaultConfig() {
+        return builder()
+                .enabled(false)
+                .fields(DEFAULT_FIELDS)
+                .windowSeconds(DEFAULT_WINDOW_SECONDS)
+                .expectedMessages(DEFAULT_EXPECTED_MESSAGES)
+                .falsePositiveRate(DEFAULT_FALSE_POSITIVE_RATE)
+                .action(Action.DROP)
+                .tagField(DEFAULT_TAG_FIELD)
+                .build();
+    }
+
+    public static Builder builder() {
+        return new AutoValue_DeduplicationConfig.Builder();
+    }
+
+    public abstract Builder toBuilder();
+
+    @AutoValue.Builder
+    public static abstract class Builder {
+        public abstract Builder enabled(boolean enabled);
+        public abstract Builder fields(List<String> fields);
+        public abstract Builder windowSeconds(long windowSeconds);
+        public abstract Builder expectedMessages(long expectedMessages);
+        public abstract Builder falsePositiveRate(double falsePositiveRate);
+        public abstract Builder action(Action action);
+        public abstract Builder tagField(String tagField);
+
+        public abstract DeduplicationConfig build();
+    }
+}
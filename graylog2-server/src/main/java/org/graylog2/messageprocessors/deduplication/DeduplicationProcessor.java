@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.messageprocessors.deduplication;
+
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Messages;
+import org.graylog2.plugin.messageprocessors.MessageProcessor;
+import org.graylog2.shared.messageq.MessageQueueAcknowledger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+
+/**
+ * Drops or tags messages which are equal to a message seen shortly before, e.g. because redundant shippers or
+ * at-least-once delivery sent them twice. Runs after the stream routing and the pipelines, so the messages are compared
+ * with their normalized fields.
+ */
+public class DeduplicationProcessor implements MessageProcessor {
+    private static final Logger LOG = LoggerFactory.getLogger(DeduplicationProcessor.class);
+
+    public static class Descriptor implements MessageProcessor.Descriptor {
+        @Override
+        public String name() {
+            return "Message Deduplication";
+        }
+
+        @Override
+        public String className() {
+            return DeduplicationProcessor.class.getCanonicalName();
+        }
+    }
+
+    private final MessageDeduplicator deduplicator;
+    private final MessageQueueAcknowledger messageQueueAcknowledger;
+
+    @Inject
+    public DeduplicationProcessor(MessageDeduplicator deduplicator,
+                                  MessageQueueAcknowledger messageQueueAcknowledger) {
+        this.deduplicator = deduplicator;
+        this.messageQueueAcknowledger = messageQueueAcknowledger;
+    }
+
+    @Override
+    public Messages process(Messages messages) {
+        final DeduplicationConfig config = deduplicator.getConfig();
+        if (!config.enabled()) {
+            return messages;
+        }
+
+        for (Message message : messages) {
+            if (message.getFilterOut() || !deduplicator.isDuplicate(message)) {
+                continue;
+            }
+            if (config.action() == DeduplicationConfig.Action.TAG) {
+                message.addField(config.tagField(), true);
+            } else {
+                LOG.debug("Dropping duplicate message <{}>.", message.getId());
+                message.setFilterOut(true);
+                messageQueueAcknowledger.acknowledge(message);
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.messageprocessors.deduplication;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.graylog2.cluster.ClusterConfigChangedEvent;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Remembers the messages seen within the configured window, shared by the {@link DeduplicationProcessor} instances of
+ * all processing threads.
+ */
+@Singleton
+public class MessageDeduplicator {
+    private static final Logger LOG = LoggerFactory.getLogger(MessageDeduplicator.class);
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final ClusterConfigService clusterConfigService;
+    private final ScheduledExecutorService scheduler;
+    private final LongSupplier nanoClock;
+    private final Meter checkedMessages;
+    private final Meter duplicateMessages;
+
+    private volatile DeduplicationConfig config = DeduplicationConfig.defaultConfig();
+    @Nullable
+    private volatile TimeBucketedBloomFilter filter;
+
+    @Inject
+    public MessageDeduplicator(ClusterConfigService clusterConfigService,
+                               @Named("daemonScheduler") ScheduledExecutorService scheduler,
+                               EventBus eventBus,
+                               MetricRegistry metricRegistry) {
+        this(clusterConfigService, scheduler, eventBus, metricRegistry, System::nanoTime);
+    }
+
+    @VisibleForTesting
+    MessageDeduplicator(ClusterConfigService clusterConfigService,
+                        ScheduledExecutorService scheduler,
+                        EventBus eventBus,
+                        MetricRegistry metricRegistry,
+                        LongSupplier nanoClock) {
+        this.clusterConfigService = clusterConfigService;
+        this.scheduler = scheduler;
+        this.nanoClock = nanoClock;
+        this.checkedMessages = metricRegistry.meter(name(MessageDeduplicator.class, "checkedMessages"));
+        this.duplicateMessages = metricRegistry.meter(name(MessageDeduplicator.class, "duplicateMessages"));
+        metricRegistry.register(name(MessageDeduplicator.class, "falsePositiveRate"), (Gauge<Double>) () -> {
+            final TimeBucketedBloomFilter filter = this.filter;
+            return filter == null ? 0.0d : filter.expectedFalsePositiveRate();
+        });
+        metricRegistry.register(name(MessageDeduplicator.class, "rememberedMessages"), (Gauge<Long>) () -> {
+            final TimeBucketedBloomFilter filter = this.filter;
+            return filter == null ? 0L : filter.approximateElementCount();
+        });
+
+        reload();
+        eventBus.register(this);
+    }
+
+    public DeduplicationConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Remembers the message and checks if an equal message has been seen within the window. Messages are equal if all
+     * configured fields are.
+     *
+     * @return {@code true} if the message is probably a duplicate, {@code false} if it definitely isn't or
+     * deduplication is disabled
+     */
+    public boolean isDuplicate(Message message) {
+        final TimeBucketedBloomFilter filter = this.filter;
+        if (filter == null) {
+            return false;
+        }
+        checkedMessages.mark();
+        if (filter.put(hash(message, config))) {
+            return false;
+        }
+        duplicateMessages.mark();
+        return true;
+    }
+
+    private static long hash(Message message, DeduplicationConfig config) {
+        final Hasher hasher = HASH_FUNCTION.newHasher();
+        for (String field : config.fields()) {
+            final Object value = message.getField(field);
+            hasher.putUnencodedChars(field).putByte((byte) 0);
+            if (value == null) {
+                hasher.putByte((byte) 1);
+            } else {
+                hasher.putUnencodedChars(value.toString()).putByte((byte) 0);
+            }
+        }
+        return hasher.hash().asLong();
+    }
+
+    @Subscribe
+    @SuppressWarnings("unused")
+    public void updateConfig(ClusterConfigChangedEvent event) {
+        if (!DeduplicationConfig.class.getCanonicalName().equals(event.type())) {
+            return;
+        }
+
+        scheduler.schedule((Runnable) this::reload, 0, TimeUnit.SECONDS);
+    }
+
+    private void reload() {
+        final DeduplicationConfig newConfig;
+        final TimeBucketedBloomFilter newFilter;
+        try {
+            newConfig = clusterConfigService.getOrDefault(DeduplicationConfig.class, DeduplicationConfig.defaultConfig());
+            newFilter = newConfig.enabled()
+                    ? new TimeBucketedBloomFilter(TimeUnit.SECONDS.toNanos(newConfig.windowSeconds()),
+                            newConfig.expectedMessages(), newConfig.falsePositiveRate(), nanoClock)
+                    : null;
+        } catch (Exception e) {
+            LOG.error("Couldn't update message deduplication, keeping the current configuration {}", config, e);
+            return;
+        }
+
+        LOG.debug("Updating message deduplication - {}", newConfig);
+        // the previously seen messages are forgotten, the fields identifying them might have changed
+        config = newConfig;
+        filter = newFilter;
+    }
+}
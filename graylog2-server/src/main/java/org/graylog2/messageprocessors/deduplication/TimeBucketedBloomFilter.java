@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.messageprocessors.deduplication;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * A set of Bloom filters which together remember the hashes added within a time window.
+ * <p>
+ * The window is split into buckets. Hashes are added to the filter of the current bucket and looked up in all of them.
+ * Once a bucket has passed, the filter of the oldest bucket is dropped, so memory stays bounded and a hash is
+ * remembered for at least the window and at most one bucket longer.
+ * </p>
+ */
+class TimeBucketedBloomFilter {
+    static final int BUCKETS = 5;
+
+    private final long bucketNanos;
+    private final long expectedInsertionsPerBucket;
+    private final double falsePositiveRate;
+    private final LongSupplier nanoClock;
+
+    // the filter of the current bucket comes first
+    private volatile List<BloomFilter<Long>> filters;
+    private volatile long currentBucketEnd;
+
+    TimeBucketedBloomFilter(long windowNanos, long expectedInsertions, double falsePositiveRate, LongSupplier nanoClock) {
+        this.bucketNanos = Math.max(1L, windowNanos / (BUCKETS - 1));
+        this.expectedInsertionsPerBucket = Math.max(1L, expectedInsertions / (BUCKETS - 1));
+        this.falsePositiveRate = falsePositiveRate;
+        this.nanoClock = nanoClock;
+        this.filters = ImmutableList.of(newFilter());
+        this.currentBucketEnd = nanoClock.getAsLong() + bucketNanos;
+    }
+
+    /**
+     * Adds the hash to the filter.
+     *
+     * @return {@code true} if the hash has not been added within the window, {@code false} if it probably has
+     */
+    boolean put(long hash) {
+        final List<BloomFilter<Long>> filters = rotate();
+        // the bits only change for hashes which have definitely not been added to this bucket yet
+        if (!filters.get(0).put(hash)) {
+            return false;
+        }
+        for (int i = 1; i < filters.size(); i++) {
+            if (filters.get(i).mightContain(hash)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the probability that {@link #put(long)} takes a new hash for one which has been added before
+     */
+    double expectedFalsePositiveRate() {
+        double uniqueProbability = 1.0d;
+        for (BloomFilter<Long> filter : filters) {
+            uniqueProbability *= 1.0d - filter.expectedFpp();
+        }
+        return 1.0d - uniqueProbability;
+    }
+
+    long approximateElementCount() {
+        long count = 0;
+        for (BloomFilter<Long> filter : filters) {
+            count += filter.approximateElementCount();
+        }
+        return count;
+    }
+
+    private List<BloomFilter<Long>> rotate() {
+        final long now = nanoClock.getAsLong();
+        if (now - currentBucketEnd < 0) {
+            return filters;
+        }
+        synchronized (this) {
+            // another thread might have rotated in the meantime
+            if (now - currentBucketEnd < 0) {
+                return filters;
+            }
+            final long elapsedBuckets = (now - currentBucketEnd) / bucketNanos + 1;
+            final ImmutableList.Builder<BloomFilter<Long>> rotated = ImmutableList.builder();
+            rotated.add(newFilter());
+            // one empty bucket for each bucket which has passed without any hashes
+            for (long i = 1; i < Math.min(elapsedBuckets, BUCKETS); i++) {
+                rotated.add(newFilter());
+            }
+            final int keep = (int) Math.max(0, BUCKETS - elapsedBuckets);
+            rotated.addAll(filters.subList(0, Math.min(keep, filters.size())));
+            filters = rotated.build();
+            currentBucketEnd += elapsedBuckets * bucketNanos;
+            return filters;
+        }
+    }
+
+    private BloomFilter<Long> newFilter() {
+        return BloomFilter.create(Funnels.longFunnel(), expectedInsertionsPerBucket, falsePositiveRate);
+    }
+}
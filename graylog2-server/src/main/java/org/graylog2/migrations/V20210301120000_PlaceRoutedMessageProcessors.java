@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.migrations;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter;
+import org.graylog2.messageprocessors.MessageFilterChainProcessor;
+import org.graylog2.messageprocessors.MessageProcessorsConfig;
+import org.graylog2.messageprocessors.deduplication.DeduplicationProcessor;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.plugin.messageprocessors.MessageProcessor;
+import org.graylog2.rollups.RollupProcessor;
+import org.graylog2.streams.StreamSamplingProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Places the message processors which depend on the final streams or fields of a message after the stream routing of
+ * the message filter chain and the pipelines.
+ *
+ * Processors missing from a stored processor order would be appended to it, after all other processors. Without a
+ * stored order all processors are sorted by their class name, which puts them before the stream routing. The
+ * migration writes the class name order in that case, so the processors can be placed explicitly.
+ */
+public class V20210301120000_PlaceRoutedMessageProcessors extends Migration {
+    private static final Logger LOG = LoggerFactory.getLogger(V20210301120000_PlaceRoutedMessageProcessors.class);
+
+    // in the order they are inserted after the stream routing: duplicates are compared with the fields normalized by the
+    // pipelines and dropped before they are sampled, the rollups count the sampled streams like searches do
+    static final List<String> ROUTED_PROCESSORS = ImmutableList.of(
+            DeduplicationProcessor.class.getCanonicalName(),
+            StreamSamplingProcessor.class.getCanonicalName(),
+            RollupProcessor.class.getCanonicalName());
+    static final Set<String> ROUTING_PROCESSORS = ImmutableSet.of(
+            MessageFilterChainProcessor.class.getCanonicalName(),
+            PipelineInterpreter.class.getCanonicalName());
+
+    private final ClusterConfigService clusterConfigService;
+    private final Set<String> processorClassNames;
+
+    @Inject
+    public V20210301120000_PlaceRoutedMessageProcessors(ClusterConfigService clusterConfigService,
+                                                        Set<MessageProcessor.Descriptor> processorDescriptors) {
+        this.clusterConfigService = clusterConfigService;
+        this.processorClassNames = processorDescriptors.stream()
+                .map(MessageProcessor.Descriptor::className)
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public ZonedDateTime createdAt() {
+        return ZonedDateTime.parse("2021-03-01T12:00:00Z");
+    }
+
+    @Override
+    public void upgrade() {
+        final MessageProcessorsConfig config = clusterConfigService.getOrDefault(MessageProcessorsConfig.class,
+                MessageProcessorsConfig.defaultConfig());
+
+        final List<String> order = new ArrayList<>(config.processorOrder());
+        if (order.isEmpty()) {
+            processorClassNames.stream()
+                    .filter(className -> !ROUTED_PROCESSORS.contains(className))
+                    .sorted(String.CASE_INSENSITIVE_ORDER)
+                    .forEach(order::add);
+        }
+
+        // processors which are already part of the order have been placed by the user
+        final List<String> missingProcessors = ROUTED_PROCESSORS.stream()
+                .filter(processorClassNames::contains)
+                .filter(className -> !order.contains(className))
+                .collect(Collectors.toList());
+        if (missingProcessors.isEmpty()) {
+            LOG.debug("Migration already completed.");
+            return;
+        }
+
+        for (String className : missingProcessors) {
+            // after the routing and the processors which precede it in the list, wherever the user placed them
+            final List<String> predecessors = ROUTED_PROCESSORS.subList(0, ROUTED_PROCESSORS.indexOf(className));
+            int position = 0;
+            for (int i = 0; i < order.size(); i++) {
+                if (ROUTING_PROCESSORS.contains(order.get(i)) || predecessors.contains(order.get(i))) {
+                    position = i + 1;
+                }
+            }
+            order.add(position, className);
+        }
+
+        LOG.info("Placing message processors {} after the stream routing.", missingProcessors);
+        clusterConfigService.write(config.toBuilder().processorOrder(order).build());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.periodical;
+
+import org.graylog2.plugin.periodical.Periodical;
+import org.graylog2.rollups.RollupEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+
+public class RollupFlushPeriodical extends Periodical {
+    private static final Logger LOG = LoggerFactory.getLogger(RollupFlushPeriodical.class);
+
+    private final RollupEngine rollupEngine;
+
+    @Inject
+    public RollupFlushPeriodical(RollupEngine rollupEngine) {
+        this.rollupEngine = rollupEngine;
+    }
+
+    @Override
+    public void doRun() {
+        rollupEngine.flush();
+    }
+
+    @Override
+    public boolean runsForever() {
+        return false;
+    }
+
+    @Override
+    public boolean stopOnGracefulShutdown() {
+        return true;
+    }
+
+    @Override
+    public boolean masterOnly() {
+        return false;
+    }
+
+    @Override
+    public boolean startOnThisNode() {
+        return true;
+    }
+
+    @Override
+    public boolean isDaemon() {
+        return true;
+    }
+
+    @Override
+    public int getInitialDelaySeconds() {
+        return 15;
+    }
+
+    @Override
+    public int getPeriodSeconds() {
+        return 15;
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return LOG;
+    }
+}
@@ -24,10 +24,16 @@ import com.google.common.eventbus.EventBus;
 import org.graylog2.notifications.Notification;
 import org.graylog2.notifications.NotificationService;
 import org.graylog2.plugin.GlobalMetricNames;
+import org.graylog2.plugin.IOState;
 import org.graylog2.plugin.ServerStatus;
 import org.graylog2.plugin.ThrottleState;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.inputs.transports.ThrottleableTransport;
 import org.graylog2.plugin.periodical.Periodical;
+import org.graylog2.shared.buffers.InputPressureTracker;
 import org.graylog2.shared.buffers.ProcessBuffer;
+import org.graylog2.shared.inputs.InputRegistry;
 import org.graylog2.shared.journal.Journal;
 import org.graylog2.shared.journal.LocalKafkaJournal;
 import org.slf4j.Logger;
@@ -35,6 +41,10 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import static org.graylog2.shared.metrics.MetricUtils.safelyRegister;
 
@@ -59,6 +69,8 @@ public class ThrottleStateUpdaterThread extends Periodical {
     private final Size retentionSize;
     private final NotificationService notificationService;
     private final ServerStatus serverStatus;
+    private final InputRegistry inputRegistry;
+    private final InputPressureTracker inputPressureTracker;
 
     private boolean firstRun = true;
     private long logEndOffset;
@@ -73,12 +85,16 @@ public class ThrottleStateUpdaterThread extends Periodical {
                                       NotificationService notificationService,
                                       ServerStatus serverStatus,
                                       MetricRegistry metricRegistry,
+                                      InputRegistry inputRegistry,
+                                      InputPressureTracker inputPressureTracker,
                                       @Named("message_journal_max_size") Size retentionSize) {
         this.processBuffer = processBuffer;
         this.eventBus = eventBus;
         this.retentionSize = retentionSize;
         this.notificationService = notificationService;
         this.serverStatus = serverStatus;
+        this.inputRegistry = inputRegistry;
+        this.inputPressureTracker = inputPressureTracker;
         // leave this.journal null, we'll say "don't start" in that case, see startOnThisNode() below.
         if (journal instanceof LocalKafkaJournal) {
             this.journal = (LocalKafkaJournal) journal;
@@ -227,6 +243,21 @@ public class ThrottleStateUpdaterThread extends Periodical {
         } else {
             throttleState.uncommittedJournalEntries = logEndOffset - committedOffset;
         }
+
+        // in fair-share mode the inputs which have to back off are picked here
+        if (inputPressureTracker.isEnabled()) {
+            final Map<String, Double> weights = new HashMap<>();
+            final Set<String> throttleableInputs = new HashSet<>();
+            for (IOState<MessageInput> inputState : inputRegistry.getRunningInputs()) {
+                final MessageInput input = inputState.getStoppable();
+                final Configuration configuration = input.getConfiguration();
+                weights.put(input.getId(), (double) configuration.getInt(ThrottleableTransport.CK_THROTTLING_WEIGHT, 1));
+                if (configuration.getBoolean(ThrottleableTransport.CK_THROTTLING_ALLOWED)) {
+                    throttleableInputs.add(input.getId());
+                }
+            }
+            inputPressureTracker.update(throttleState, weights, throttleableInputs);
+        }
         log.debug("ThrottleState: {}", throttleState);
 
         // the journal needs this to provide information to rest clients
@@ -30,6 +30,7 @@ import com.lmax.disruptor.WaitStrategy;
 import com.lmax.disruptor.YieldingWaitStrategy;
 import org.apache.commons.lang3.StringUtils;
 import org.graylog2.configuration.PathConfiguration;
+import org.graylog2.shared.buffers.InputPressureTracker;
 import org.graylog2.shared.messageq.MessageQueueModule;
 import org.graylog2.utilities.ProxyHostsPattern;
 import org.graylog2.utilities.ProxyHostsPatternConverter;
@@ -78,6 +79,9 @@ public abstract class BaseConfiguration extends PathConfiguration {
     @Parameter("inputbuffer_processors")
     private int inputbufferProcessors = 2;
 
+    @Parameter(value = "throttling_mode")
+    private String throttlingMode = InputPressureTracker.GLOBAL_MODE;
+
     @Parameter("message_recordings_enable")
     private boolean messageRecordingsEnable = false;
 
@@ -126,6 +130,10 @@ public abstract class BaseConfiguration extends PathConfiguration {
         }
     }
 
+    public String getThrottlingMode() {
+        return throttlingMode;
+    }
+
     public WaitStrategy getProcessorWaitStrategy() {
         return getWaitStrategy(processorWaitStrategy, "processbuffer_wait_strategy");
     }
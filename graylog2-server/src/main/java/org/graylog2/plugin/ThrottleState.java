@@ -18,6 +18,9 @@ package org.graylog2.plugin;
 
 import com.google.common.base.MoreObjects;
 
+import javax.annotation.Nullable;
+import java.util.Set;
+
 public class ThrottleState {
     public long uncommittedJournalEntries;
     public long appendEventsPerSec;
@@ -25,6 +28,12 @@ public class ThrottleState {
     public long journalSizeLimit;
     public long readEventsPerSec;
     public long processBufferCapacity;
+    /**
+     * The ids of the inputs which have to back off in fair-share throttling mode, {@code null} if every throttleable
+     * input decides on its own.
+     */
+    @Nullable
+    public Set<String> throttledInputs;
 
     public ThrottleState() {
     }
@@ -36,6 +45,7 @@ public class ThrottleState {
         this.journalSizeLimit = o.journalSizeLimit;
         this.readEventsPerSec = o.readEventsPerSec;
         this.processBufferCapacity = o.processBufferCapacity;
+        this.throttledInputs = o.throttledInputs;
     }
 
     @Override
@@ -48,6 +58,7 @@ public class ThrottleState {
                 .add("journalSize", journalSize)
                 .add("journalSizeLimit", journalSizeLimit)
                 .add("pbCapacity", processBufferCapacity)
+                .add("throttledInputs", throttledInputs)
                 .toString();
     }
 }
@@ -18,6 +18,34 @@ package org.graylog2.plugin.buffers;
 
 import org.graylog2.plugin.journal.RawMessage;
 
+import java.util.List;
+
 public interface InputBuffer extends EventBuffer {
     void insert(RawMessage message);
+
+    /**
+     * Inserts a batch of raw messages, keeping their order.
+     *
+     * @param messages the raw messages to insert
+     */
+    default void insert(List<RawMessage> messages) {
+        for (RawMessage message : messages) {
+            insert(message);
+        }
+    }
+
+    /**
+     * Inserts a batch of raw messages, keeping their order, and runs the callback once all of them have been written
+     * to the message journal. If the journal is disabled, the callback runs once they have been handed to the process
+     * buffer.
+     * <p>
+     * The callback runs on a buffer processor thread and must not block.
+     *
+     * @param messages  the raw messages to insert
+     * @param onWritten the callback to run after the messages have been written
+     */
+    default void insert(List<RawMessage> messages, Runnable onWritten) {
+        insert(messages);
+        onWritten.run();
+    }
 }
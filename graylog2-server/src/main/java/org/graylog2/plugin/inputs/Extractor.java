@@ -30,6 +30,7 @@ import org.graylog2.shared.utilities.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -191,6 +192,18 @@ public abstract class Extractor implements EmbeddedPersistable {
     }
 
     public void runExtractor(Message msg) {
+        runExtractor(msg, null);
+    }
+
+    /**
+     * Runs the extractor on the given message, optionally skipping the evaluation of the extractor condition.
+     *
+     * @param msg              the message to run the extractor on
+     * @param conditionMatched the result of the extractor condition for the current value of the source field if it
+     *                         is already known, e.g. from a prefilter shared by all extractors of an input,
+     *                         {@code null} to evaluate the condition
+     */
+    public void runExtractor(Message msg, @Nullable Boolean conditionMatched) {
         try(final Timer.Context ignored = completeTimer.time()) {
             final String field;
             try (final Timer.Context ignored2 = conditionTimer.time()) {
@@ -204,14 +217,14 @@ public abstract class Extractor implements EmbeddedPersistable {
 
                 // Decide if to extract at all.
                 if (conditionType.equals(ConditionType.STRING)) {
-                    if (field.contains(conditionValue)) {
+                    if (conditionMatched != null ? conditionMatched : field.contains(conditionValue)) {
                         conditionHitsCounter.inc();
                     } else {
                         conditionMissesCounter.inc();
                         return;
                     }
                 } else if (conditionType.equals(ConditionType.REGEX)) {
-                    if (regexConditionPattern.matcher(field).find()) {
+                    if (conditionMatched != null ? conditionMatched : regexConditionPattern.matcher(field).find()) {
                         conditionHitsCounter.inc();
                     } else {
                         conditionMissesCounter.inc();
@@ -17,12 +17,18 @@
 package org.graylog2.plugin.inputs;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
 import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.annotation.JsonValue;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.graylog2.plugin.AbstractDescriptor;
 import org.graylog2.plugin.GlobalMetricNames;
 import org.graylog2.plugin.LocalMetricRegistry;
@@ -34,14 +40,22 @@ import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationException;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
 import org.graylog2.plugin.inputs.codecs.Codec;
+import org.graylog2.plugin.inputs.transports.AbstractTcpTransport;
+import org.graylog2.plugin.inputs.transports.NettyTransport;
 import org.graylog2.plugin.inputs.transports.Transport;
+import org.graylog2.plugin.inputs.util.InputRateLimiter;
 import org.graylog2.plugin.journal.RawMessage;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public abstract class MessageInput implements Stoppable {
     private static final Logger LOG = LoggerFactory.getLogger(MessageInput.class);
@@ -94,6 +108,10 @@ public abstract class MessageInput implements Stoppable {
     protected InputBuffer inputBuffer;
     private String nodeId;
     private MetricSet transportMetrics;
+    @Nullable
+    private volatile InputRateLimiter rateLimiter;
+    private MetricsForwarder localMetricsForwarder;
+    private MetricsForwarder transportMetricsForwarder;
 
     public MessageInput(MetricRegistry metricRegistry,
                         Configuration configuration,
@@ -140,6 +158,14 @@ public abstract class MessageInput implements Stoppable {
         } catch (IllegalArgumentException ignored) {
             // This happens for certain types of inputs, see https://github.com/Graylog2/graylog2-server/issues/1049#issuecomment-88857134
         }
+
+        // metrics which are added while the input is running, e. g. per socket or per sender, are registered as well
+        localMetricsForwarder = new MetricsForwarder(metricRegistry, getUniqueReadableId());
+        localRegistry.addListener(localMetricsForwarder);
+        if (transportMetrics instanceof MetricRegistry && transportMetrics != localRegistry) {
+            transportMetricsForwarder = new MetricsForwarder(metricRegistry, getUniqueReadableId());
+            ((MetricRegistry) transportMetrics).addListener(transportMetricsForwarder);
+        }
     }
 
     public void checkConfiguration() throws ConfigurationException {
@@ -149,6 +175,7 @@ public abstract class MessageInput implements Stoppable {
 
     public void launch(final InputBuffer buffer) throws MisfireException {
         this.inputBuffer = buffer;
+        this.rateLimiter = InputRateLimiter.fromConfiguration(configuration, localRegistry);
         try {
             transport.setMessageAggregator(codec.getAggregator());
 
@@ -170,6 +197,12 @@ public abstract class MessageInput implements Stoppable {
     }
 
     private void cleanupMetrics() {
+        if (localMetricsForwarder != null) {
+            localRegistry.removeListener(localMetricsForwarder);
+        }
+        if (transportMetricsForwarder != null && transportMetrics instanceof MetricRegistry) {
+            ((MetricRegistry) transportMetrics).removeListener(transportMetricsForwarder);
+        }
         if (localRegistry != null && localRegistry.getMetrics() != null)
             for (String metricName : localRegistry.getMetrics().keySet())
                 metricRegistry.remove(getUniqueReadableId() + "." + metricName);
@@ -330,28 +363,119 @@ public abstract class MessageInput implements Stoppable {
     }
 
     public void processRawMessage(RawMessage rawMessage) {
-        final int payloadLength = rawMessage.getPayload().length;
-        if (payloadLength == 0) {
+        if (!prepareRawMessage(rawMessage)) {
+            return;
+        }
+        final int payloadLength = rawMessage.getPayloadSize();
+
+        inputBuffer.insert(rawMessage);
+
+        incomingMessages.mark();
+        globalIncomingMessages.inc();
+        rawSize.mark(payloadLength);
+        globalRawSize.inc(payloadLength);
+    }
+
+    /**
+     * Processes a batch of raw messages received together, e. g. the messages of a bulk request. The messages are
+     * inserted into the input buffer as one batch.
+     *
+     * @param rawMessages the raw messages in the order they have been received
+     */
+    public void processRawMessages(List<RawMessage> rawMessages) {
+        processRawMessages(rawMessages, null);
+    }
+
+    /**
+     * Processes a batch of raw messages like {@link #processRawMessages(List)} and runs the callback once all of them
+     * have been written to the message journal. Transports use this to acknowledge messages to their source only
+     * when they cannot get lost anymore.
+     *
+     * @param rawMessages the raw messages in the order they have been received
+     * @param onWritten   the callback to run after the messages have been written, must not block
+     * @see InputBuffer#insert(List, Runnable)
+     */
+    public void processRawMessages(List<RawMessage> rawMessages, @Nullable Runnable onWritten) {
+        final List<RawMessage> batch = new ArrayList<>(rawMessages.size());
+        long payloadLength = 0L;
+        for (RawMessage rawMessage : rawMessages) {
+            if (prepareRawMessage(rawMessage)) {
+                batch.add(rawMessage);
+                payloadLength += rawMessage.getPayloadSize();
+            }
+        }
+        if (batch.isEmpty()) {
+            if (onWritten != null) {
+                onWritten.run();
+            }
+            return;
+        }
+
+        if (onWritten == null) {
+            inputBuffer.insert(batch);
+        } else {
+            inputBuffer.insert(batch, onWritten);
+        }
+
+        incomingMessages.mark(batch.size());
+        globalIncomingMessages.inc(batch.size());
+        rawSize.mark(payloadLength);
+        globalRawSize.inc(payloadLength);
+    }
+
+    private boolean prepareRawMessage(RawMessage rawMessage) {
+        if (rawMessage.getPayloadSize() == 0) {
             LOG.debug("Discarding empty message {} from input [{}/{}] (remote address {}). Turn logger org.graylog2.plugin.journal.RawMessage to TRACE to see originating stack trace.",
                       rawMessage.getId(),
                       getTitle(),
                       getId(),
                       rawMessage.getRemoteAddress() == null ? "unknown" : rawMessage.getRemoteAddress());
             emptyMessages.inc();
-            return;
+            rawMessage.release();
+            return false;
+        }
+
+        if (!checkRateLimit(rawMessage)) {
+            rawMessage.release();
+            return false;
         }
 
         // add the common message metadata for this input/codec
         rawMessage.setCodecName(codec.getName());
         rawMessage.setCodecConfig(codecConfig);
         rawMessage.addSourceNode(getId(), serverStatus.getNodeId());
+        return true;
+    }
 
-        inputBuffer.insert(rawMessage);
+    private boolean checkRateLimit(RawMessage rawMessage) {
+        final InputRateLimiter limiter = rateLimiter;
+        if (limiter == null) {
+            return true;
+        }
+        final InetAddress source = rawMessage.getRemoteAddress() == null ? null : rawMessage.getRemoteAddress().getAddress();
+        if (limiter.getPolicy() == InputRateLimiter.Policy.BACKPRESSURE) {
+            if (transport instanceof AbstractTcpTransport) {
+                // the transport stops reading from the connection while it is over the limit
+                limiter.acquire(source);
+                return true;
+            } else if (!(transport instanceof NettyTransport)) {
+                // transports pulling messages are slowed down by blocking them
+                final long delay = limiter.acquire(source);
+                if (delay > 0) {
+                    Uninterruptibles.sleepUninterruptibly(delay, TimeUnit.NANOSECONDS);
+                }
+                return true;
+            }
+        }
+        return limiter.permit(source);
+    }
 
-        incomingMessages.mark();
-        globalIncomingMessages.inc();
-        rawSize.mark(payloadLength);
-        globalRawSize.inc(payloadLength);
+    /**
+     * @return the rate limiter of the running input or {@code null} if the input has no rate limits
+     */
+    @Nullable
+    public InputRateLimiter getRateLimiter() {
+        return rateLimiter;
     }
 
     public String getType() {
@@ -394,6 +518,7 @@ public abstract class MessageInput implements Stoppable {
             final ConfigurationRequest r = new ConfigurationRequest();
             r.putAll(transport.getFields());
             r.putAll(codec.getFields());
+            InputRateLimiter.addConfigurationFields(r);
 
             // give the codec the opportunity to override default values for certain configuration fields,
             // this is commonly being used to default to some well known port for protocols such as GELF or syslog
@@ -421,4 +546,79 @@ public abstract class MessageInput implements Stoppable {
                 .add("nodeId", getNodeId())
                 .toString();
     }
+
+    /**
+     * Registers metrics added to a local registry in the global registry and removes them when they are removed.
+     */
+    private static class MetricsForwarder extends MetricRegistryListener.Base {
+        private final MetricRegistry target;
+        private final String prefix;
+
+        MetricsForwarder(MetricRegistry target, String prefix) {
+            this.target = target;
+            this.prefix = prefix;
+        }
+
+        private void add(String name, Metric metric) {
+            try {
+                target.register(MetricRegistry.name(prefix, name), metric);
+            } catch (IllegalArgumentException ignored) {
+                // already registered
+            }
+        }
+
+        private void remove(String name) {
+            target.remove(MetricRegistry.name(prefix, name));
+        }
+
+        @Override
+        public void onGaugeAdded(String name, Gauge<?> gauge) {
+            add(name, gauge);
+        }
+
+        @Override
+        public void onGaugeRemoved(String name) {
+            remove(name);
+        }
+
+        @Override
+        public void onCounterAdded(String name, Counter counter) {
+            add(name, counter);
+        }
+
+        @Override
+        public void onCounterRemoved(String name) {
+            remove(name);
+        }
+
+        @Override
+        public void onHistogramAdded(String name, Histogram histogram) {
+            add(name, histogram);
+        }
+
+        @Override
+        public void onHistogramRemoved(String name) {
+            remove(name);
+        }
+
+        @Override
+        public void onMeterAdded(String name, Meter meter) {
+            add(name, meter);
+        }
+
+        @Override
+        public void onMeterRemoved(String name) {
+            remove(name);
+        }
+
+        @Override
+        public void onTimerAdded(String name, Timer timer) {
+            add(name, timer);
+        }
+
+        @Override
+        public void onTimerRemoved(String name) {
+            remove(name);
+        }
+    }
 }
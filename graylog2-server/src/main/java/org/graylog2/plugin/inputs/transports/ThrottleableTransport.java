@@ -22,6 +22,8 @@ import org.graylog2.plugin.ThrottleState;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
 import org.graylog2.plugin.configuration.fields.BooleanField;
+import org.graylog2.plugin.configuration.fields.ConfigurationField;
+import org.graylog2.plugin.configuration.fields.NumberField;
 import org.graylog2.plugin.inputs.MessageInput;
 import org.graylog2.plugin.inputs.MisfireException;
 import org.slf4j.Logger;
@@ -41,10 +43,14 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public abstract class ThrottleableTransport implements Transport {
     private static final Logger log = LoggerFactory.getLogger(ThrottleableTransport.class);
     public static final String CK_THROTTLING_ALLOWED = "throttling_allowed";
+    public static final String CK_THROTTLING_WEIGHT = "throttling_weight";
+    public static final long MAX_UNCOMMITTED_JOURNAL_ENTRIES = 100_000;
+    public static final long MAX_UNCOMMITTED_JOURNAL_GROWTH = 20_000;
     private final boolean throttlingAllowed;
     private final AtomicBoolean currentlyThrottled = new AtomicBoolean(false);
     private final EventBus eventBus;
     private volatile CountDownLatch blockLatch = null;
+    private volatile String inputId;
     private long lastUncommitted;
 
     public static class Config implements Transport.Config {
@@ -61,6 +67,15 @@ public abstract class ThrottleableTransport implements Transport {
                     "If you regularly poll an external system, e.g. via HTTP, you normally want to leave this disabled."
 
             ));
+            request.addField(new NumberField(
+                    CK_THROTTLING_WEIGHT,
+                    "Throttling weight",
+                    1,
+                    "Relative share of the journal this input may use before it gets throttled, if the node uses the " +
+                    "fair-share throttling mode. An input with weight 2 may contribute twice as many messages as an input with weight 1.",
+                    ConfigurationField.Optional.OPTIONAL,
+                    NumberField.Attribute.ONLY_POSITIVE
+            ));
             return request;
         }
     }
@@ -72,6 +87,8 @@ public abstract class ThrottleableTransport implements Transport {
 
     @Override
     public void launch(MessageInput input) throws MisfireException {
+        inputId = input.getId();
+
         // Call this before registering on the event bus. There might be stuff in doLaunch() that needs to run first.
         doLaunch(input);
 
@@ -175,40 +192,58 @@ public abstract class ThrottleableTransport implements Transport {
 
         final String transportName = this.getClass().getSimpleName();
         log.debug("Checking if transport {} should be throttled {}", transportName, state);
+        if (state.throttledInputs != null) {
+            // fair-share mode, the decision has been made across all inputs of this node
+            final boolean throttled = state.throttledInputs.contains(inputId);
+            log.debug("[{}] [{}] fair share of input {}", transportName, throttled ? "throttled" : "unthrottled", inputId);
+            return throttled;
+        }
+        return isProcessingBehind(state, prevUncommitted, transportName);
+    }
+
+    /**
+     * The default rules to decide whether the processing system falls behind the incoming messages.
+     *
+     * @param state                      the current state of the processing system
+     * @param prevUncommittedEntries     the number of uncommitted journal entries of the previous state
+     * @param name                       the name to use in log messages
+     * @return true if inputs should back off, false if not.
+     */
+    public static boolean isProcessingBehind(ThrottleState state, long prevUncommittedEntries, String name) {
         if (state.uncommittedJournalEntries == 0) {
             // journal is completely empty, let's read some stuff
-            log.debug("[{}] [unthrottled] journal empty", transportName);
+            log.debug("[{}] [unthrottled] journal empty", name);
             return false;
         }
-        if (state.uncommittedJournalEntries > 100_000) {
-            log.debug("[{}] [throttled] number of unread journal entries is larger than 100.000 entries: {}", transportName, state.uncommittedJournalEntries);
+        if (state.uncommittedJournalEntries > MAX_UNCOMMITTED_JOURNAL_ENTRIES) {
+            log.debug("[{}] [throttled] number of unread journal entries is larger than 100.000 entries: {}", name, state.uncommittedJournalEntries);
             return true;
         }
-        if (state.uncommittedJournalEntries - prevUncommitted > 20_000) {
+        if (state.uncommittedJournalEntries - prevUncommittedEntries > MAX_UNCOMMITTED_JOURNAL_GROWTH) {
             // journal is growing, don't read more
-            log.debug("[{}] [throttled] number of unread journal entries is growing by more than 20.000 entries: {}", transportName, state.uncommittedJournalEntries - prevUncommitted);
+            log.debug("[{}] [throttled] number of unread journal entries is growing by more than 20.000 entries: {}", name, state.uncommittedJournalEntries - prevUncommittedEntries);
             return true;
         }
         if (state.processBufferCapacity == 0) {
-            log.debug("[{}] [throttled] no capacity in process buffer", transportName);
+            log.debug("[{}] [throttled] no capacity in process buffer", name);
             return true;
         }
         if (state.appendEventsPerSec == 0 && state.readEventsPerSec == 0 && state.processBufferCapacity > 0) {
             // no one writes anything, it's ok to get more events
-            log.debug("[{}] [unthrottled] no incoming messages and nothing read from journal even if we could", transportName);
+            log.debug("[{}] [unthrottled] no incoming messages and nothing read from journal even if we could", name);
             return false;
         }
         if ((state.journalSize / (double) state.journalSizeLimit) * 100.0 > 90) {
             // more than 90% of the journal limit is in use, don't read more if possible to avoid throwing away data
-            log.debug("[{}] [throttled] journal more than 90% full", transportName);
+            log.debug("[{}] [throttled] journal more than 90% full", name);
             return true;
         }
         if ((state.readEventsPerSec / (double) state.appendEventsPerSec) * 100.0 < 50) {
             // read rate is less than 50% of what we write to the journal over the last second, let's try to back off
-            log.debug("[{}] [throttled] write rate is more than twice as high than read rate", transportName);
+            log.debug("[{}] [throttled] write rate is more than twice as high than read rate", name);
             return true;
         }
-        log.debug("[{}] [unthrottled] fall through", transportName);
+        log.debug("[{}] [unthrottled] fall through", name);
         return false;
     }
 
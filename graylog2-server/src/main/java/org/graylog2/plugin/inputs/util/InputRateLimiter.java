@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin.inputs.util;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.configuration.ConfigurationRequest;
+import org.graylog2.plugin.configuration.fields.ConfigurationField;
+import org.graylog2.plugin.configuration.fields.DropdownField;
+import org.graylog2.plugin.configuration.fields.NumberField;
+
+import javax.annotation.Nullable;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Limits the rate of messages an input accepts, in total and per sender address.
+ * <p>
+ * Each limit is a {@link TokenBucket} allowing bursts of one second. Senders are tracked while they keep sending,
+ * up to a fixed number of senders. Limited senders are counted in a single meter, the senders which have been limited
+ * most are reported by a gauge for debugging.
+ */
+public class InputRateLimiter {
+    public static final String CK_INPUT_RATE = "rate_limit_input";
+    public static final String CK_SOURCE_RATE = "rate_limit_source";
+    public static final String CK_POLICY = "rate_limit_policy";
+    public static final String CK_SAMPLE_RATE = "rate_limit_sample_rate";
+
+    private static final String METRIC_PREFIX = "rateLimit";
+    private static final int DEFAULT_SAMPLE_RATE = 10;
+    private static final int MAX_SOURCES = 10_000;
+    private static final long SOURCE_EXPIRY_MINUTES = 1L;
+    private static final int TOP_LIMITED_SOURCES = 10;
+
+    public enum Policy {
+        /**
+         * Messages over the limit are dropped.
+         */
+        DROP,
+        /**
+         * One of {@link #CK_SAMPLE_RATE} messages over the limit is kept, the others are dropped.
+         */
+        SAMPLE,
+        /**
+         * Transports stop reading from senders over the limit. Transports which cannot push back drop the messages.
+         */
+        BACKPRESSURE
+    }
+
+    private final Policy policy;
+    private final int sampleRate;
+    private final LongSupplier nanoClock;
+    @Nullable
+    private final TokenBucket inputBucket;
+    @Nullable
+    private final LoadingCache<InetAddress, SourceLimit> sources;
+    private final Meter limited;
+    private final Meter limitedBySource;
+    private final Counter dropped;
+    private final AtomicLong overLimit = new AtomicLong();
+
+    @VisibleForTesting
+    InputRateLimiter(Policy policy,
+                     double inputRate,
+                     double sourceRate,
+                     int sampleRate,
+                     MetricRegistry metricRegistry,
+                     LongSupplier nanoClock) {
+        this.policy = policy;
+        this.sampleRate = sampleRate;
+        this.nanoClock = nanoClock;
+        this.inputBucket = inputRate > 0 ? newBucket(inputRate) : null;
+        this.sources = sourceRate > 0 ? Caffeine.newBuilder()
+                .maximumSize(MAX_SOURCES)
+                .expireAfterAccess(SOURCE_EXPIRY_MINUTES, TimeUnit.MINUTES)
+                .build(address -> new SourceLimit(newBucket(sourceRate))) : null;
+        this.limited = metricRegistry.meter(name(METRIC_PREFIX, "limited"));
+        this.limitedBySource = metricRegistry.meter(name(METRIC_PREFIX, "source", "limited"));
+        this.dropped = metricRegistry.counter(name(METRIC_PREFIX, "dropped"));
+        if (sources != null) {
+            // the input registry outlives a relaunch of the input
+            final String topLimitedName = name(METRIC_PREFIX, "source", "topLimited");
+            metricRegistry.remove(topLimitedName);
+            metricRegistry.register(topLimitedName, (Gauge<Map<String, Long>>) () -> topLimitedSources(TOP_LIMITED_SOURCES));
+        }
+    }
+
+    /**
+     * @param configuration  the input configuration
+     * @param metricRegistry the registry of the input
+     * @return the rate limiter configured for the input or {@code null} if there are no limits
+     */
+    @Nullable
+    public static InputRateLimiter fromConfiguration(Configuration configuration, MetricRegistry metricRegistry) {
+        final int inputRate = configuration.getInt(CK_INPUT_RATE, 0);
+        final int sourceRate = configuration.getInt(CK_SOURCE_RATE, 0);
+        if (inputRate <= 0 && sourceRate <= 0) {
+            return null;
+        }
+        final String policy = configuration.getString(CK_POLICY, Policy.DROP.name());
+        final int sampleRate = configuration.getInt(CK_SAMPLE_RATE, DEFAULT_SAMPLE_RATE);
+        return new InputRateLimiter(
+                Policy.valueOf(policy.toUpperCase(Locale.ENGLISH)),
+                inputRate,
+                sourceRate,
+                Math.max(1, sampleRate),
+                metricRegistry,
+                System::nanoTime);
+    }
+
+    public static void addConfigurationFields(ConfigurationRequest request) {
+        request.addField(new NumberField(
+                CK_INPUT_RATE,
+                "Rate limit (messages/second)",
+                0,
+                "Maximum number of messages per second the input accepts. Set to 0 to disable.",
+                ConfigurationField.Optional.OPTIONAL,
+                ConfigurationField.PLACE_AT_END_POSITION,
+                NumberField.Attribute.ONLY_POSITIVE));
+        request.addField(new NumberField(
+                CK_SOURCE_RATE,
+                "Rate limit per sender (messages/second)",
+                0,
+                "Maximum number of messages per second the input accepts from a single sender address. Set to 0 to disable.",
+                ConfigurationField.Optional.OPTIONAL,
+                ConfigurationField.PLACE_AT_END_POSITION,
+                NumberField.Attribute.ONLY_POSITIVE));
+        request.addField(new DropdownField(
+                CK_POLICY,
+                "Rate limit policy",
+                Policy.DROP.name(),
+                ImmutableMap.of(
+                        Policy.DROP.name(), "Drop messages over the limit",
+                        Policy.SAMPLE.name(), "Keep a sample of the messages over the limit",
+                        Policy.BACKPRESSURE.name(), "Stop reading from senders over the limit (TCP only)"),
+                "What to do with messages over the rate limit. Inputs which cannot stop reading drop messages instead, " +
+                        "inputs pulling messages slow down.",
+                ConfigurationField.Optional.OPTIONAL,
+                ConfigurationField.PLACE_AT_END_POSITION));
+        request.addField(new NumberField(
+                CK_SAMPLE_RATE,
+                "Rate limit sample rate",
+                DEFAULT_SAMPLE_RATE,
+                "Keep one of this many messages over the limit with the sample policy.",
+                ConfigurationField.Optional.OPTIONAL,
+                ConfigurationField.PLACE_AT_END_POSITION,
+                NumberField.Attribute.ONLY_POSITIVE));
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Decides if a message is accepted, taking a token from the buckets of the input and the sender if it is.
+     *
+     * @param source the sender address, if known
+     * @return {@code true} if the message is accepted
+     */
+    public boolean permit(@Nullable InetAddress source) {
+        final long now = nanoClock.getAsLong();
+        final SourceLimit sourceLimit = sourceLimit(source);
+        if (sourceLimit != null && !sourceLimit.bucket.tryAcquire(now)) {
+            markLimited(sourceLimit);
+        } else if (inputBucket == null || inputBucket.tryAcquire(now)) {
+            return true;
+        } else {
+            // the sender is within its limit, a message dropped for the input limit must not use up its token
+            if (sourceLimit != null) {
+                sourceLimit.bucket.release();
+            }
+            markLimited(null);
+        }
+        if (policy == Policy.SAMPLE && overLimit.incrementAndGet() % sampleRate == 0) {
+            return true;
+        }
+        dropped.inc();
+        return false;
+    }
+
+    /**
+     * Accepts a message in any case and takes a token from the buckets of the input and the sender, going into debt
+     * if there are none.
+     *
+     * @param source the sender address, if known
+     * @return the nanoseconds to wait before accepting more messages, 0 if the limits have not been exceeded
+     */
+    public long acquire(@Nullable InetAddress source) {
+        final long now = nanoClock.getAsLong();
+        final SourceLimit sourceLimit = sourceLimit(source);
+        final long sourceDelay = sourceLimit == null ? 0L : sourceLimit.bucket.acquire(now);
+        final long inputDelay = inputBucket == null ? 0L : inputBucket.acquire(now);
+        if (sourceDelay > 0) {
+            markLimited(sourceLimit);
+        } else if (inputDelay > 0) {
+            markLimited(null);
+        }
+        return Math.max(sourceDelay, inputDelay);
+    }
+
+    /**
+     * @param source the sender address, if known
+     * @return the nanoseconds until the input and the sender may send again, 0 if they may send now
+     */
+    public long nanosUntilAvailable(@Nullable InetAddress source) {
+        final long now = nanoClock.getAsLong();
+        final SourceLimit sourceLimit = sources == null || source == null ? null : sources.getIfPresent(source);
+        final long sourceDelay = sourceLimit == null ? 0L : sourceLimit.bucket.nanosUntilAvailable(now);
+        final long inputDelay = inputBucket == null ? 0L : inputBucket.nanosUntilAvailable(now);
+        return Math.max(sourceDelay, inputDelay);
+    }
+
+    @Nullable
+    private SourceLimit sourceLimit(@Nullable InetAddress source) {
+        return sources == null || source == null ? null : sources.get(source);
+    }
+
+    /**
+     * @param limitedSource the limit of the sender if it has been exceeded, {@code null} if only the input limit has
+     */
+    private void markLimited(@Nullable SourceLimit limitedSource) {
+        limited.mark();
+        if (limitedSource != null) {
+            limitedBySource.mark();
+            limitedSource.limited.incrementAndGet();
+        }
+    }
+
+    @VisibleForTesting
+    Map<String, Long> topLimitedSources(int limit) {
+        if (sources == null) {
+            return Collections.emptyMap();
+        }
+        final Map<String, Long> top = new LinkedHashMap<>();
+        sources.asMap().entrySet().stream()
+                .filter(entry -> entry.getValue().limited.get() > 0)
+                .sorted(Comparator.comparingLong((Map.Entry<InetAddress, SourceLimit> entry) -> entry.getValue().limited.get()).reversed())
+                .limit(limit)
+                .forEach(entry -> top.put(entry.getKey().getHostAddress(), entry.getValue().limited.get()));
+        return top;
+    }
+
+    private TokenBucket newBucket(double rate) {
+        return new TokenBucket(rate, Math.max(1L, (long) rate), nanoClock.getAsLong());
+    }
+
+    private static class SourceLimit {
+        private final TokenBucket bucket;
+        // the number of messages over the limit of the sender while it has been tracked
+        private final AtomicLong limited = new AtomicLong();
+
+        SourceLimit(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin.inputs.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Lock-free token bucket, implemented as a generic cell rate algorithm: the only state is the theoretical arrival
+ * time of the next token, which is updated with a CAS.
+ */
+public class TokenBucket {
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong theoreticalArrivalTime;
+
+    /**
+     * @param tokensPerSecond the rate tokens become available with
+     * @param burst           the maximum number of tokens which can be taken at once
+     * @param nowNanos        the current time in nanoseconds, the bucket starts full
+     */
+    public TokenBucket(double tokensPerSecond, long burst, long nowNanos) {
+        checkArgument(tokensPerSecond > 0, "tokensPerSecond must be positive");
+        checkArgument(burst > 0, "burst must be positive");
+        this.nanosPerToken = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / tokensPerSecond));
+        this.burstNanos = burst * nanosPerToken;
+        this.theoreticalArrivalTime = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @param nowNanos the current time in nanoseconds
+     * @return {@code true} if a token has been taken
+     */
+    public boolean tryAcquire(long nowNanos) {
+        while (true) {
+            final long tat = theoreticalArrivalTime.get();
+            final long next = Math.max(tat - nowNanos, 0L) + nowNanos + nanosPerToken;
+            if (next - nowNanos > burstNanos) {
+                return false;
+            }
+            if (theoreticalArrivalTime.compareAndSet(tat, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes a token even if none is available, going into debt.
+     *
+     * @param nowNanos the current time in nanoseconds
+     * @return the nanoseconds until the debt has been paid off, 0 if a token was available
+     */
+    public long acquire(long nowNanos) {
+        while (true) {
+            final long tat = theoreticalArrivalTime.get();
+            final long next = Math.max(tat - nowNanos, 0L) + nowNanos + nanosPerToken;
+            if (theoreticalArrivalTime.compareAndSet(tat, next)) {
+                return Math.max(next - nowNanos - burstNanos, 0L);
+            }
+        }
+    }
+
+    /**
+     * Returns a token taken with {@link #tryAcquire(long)} which has not been used.
+     */
+    public void release() {
+        theoreticalArrivalTime.addAndGet(-nanosPerToken);
+    }
+
+    /**
+     * @param nowNanos the current time in nanoseconds
+     * @return the nanoseconds until the next token is available, 0 if one is available now
+     */
+    public long nanosUntilAvailable(long nowNanos) {
+        final long tat = theoreticalArrivalTime.get();
+        return Math.max(tat - nowNanos + nanosPerToken - burstNanos, 0L);
+    }
+}
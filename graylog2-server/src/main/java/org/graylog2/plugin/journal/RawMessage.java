@@ -20,7 +20,12 @@ import com.eaio.uuid.UUID;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.UninitializedMessageException;
+import com.google.protobuf.UnsafeByteOperations;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.configuration.Configuration;
@@ -38,6 +43,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -58,13 +64,24 @@ import static org.graylog2.plugin.journal.JournalMessages.JournalMessage;
  * as well as an opaque meta data structure.<br>
  * The format of the meta data is not stable yet, but will likely be a JSON string.
  * </p>
+ * <p>
+ * The payload of a raw message may be backed by a (pooled) Netty buffer, see {@link #RawMessage(ByteBuf, InetSocketAddress)}.
+ * Raw messages are therefore reference counted: the consumer of a raw message has to {@link #release() release} it
+ * once the payload isn't needed anymore, e. g. after it has been written to the journal or has been decoded.
+ * Releasing a raw message which isn't backed by a buffer is harmless.
+ * </p>
  */
-public class RawMessage implements Serializable {
+public class RawMessage implements Serializable, ReferenceCounted {
     public static final byte CURRENT_VERSION = 1;
 
     private static final Logger log = LoggerFactory.getLogger(RawMessage.class);
 
+    // buffers which are more than this factor larger than the payload are copied instead of being retained
+    private static final int MAX_PAYLOAD_BUFFER_OVERHEAD = 2;
+
     private transient final JournalMessage.Builder msgBuilder;
+    private transient final PayloadReference payloadReference = new PayloadReference();
+    private transient ByteBuf payloadBuffer;
     private final UUID id;
     private Object messageQueueId;
     private Configuration codecConfig;
@@ -81,14 +98,57 @@ public class RawMessage implements Serializable {
         this(Long.MIN_VALUE, new UUID(), Tools.nowUTC(), remoteAddress, payload);
     }
 
+    /**
+     * Creates a raw message backed by the given buffer without copying the payload.
+     * <p>
+     * The raw message takes over the reference to the buffer, so callers which still need the buffer have to
+     * {@link ByteBuf#retain() retain} it. The buffer is released once the raw message is released. If the buffer is
+     * a lot larger than its readable bytes (e. g. a fixed size receive buffer or a slice of a larger buffer), the
+     * payload is copied into a right sized buffer of the same allocator, so that the larger buffer isn't pinned
+     * while the message waits in the buffers.
+     *
+     * @param payload       the payload, the readable bytes of the buffer are used
+     * @param remoteAddress the remote address of the sender
+     */
+    public RawMessage(@Nonnull ByteBuf payload, @Nullable InetSocketAddress remoteAddress) {
+        this(Long.MIN_VALUE, new UUID(), Tools.nowUTC(), ResolvableInetSocketAddress.wrap(remoteAddress), retainablePayload(payload));
+    }
+
+    private RawMessage(long journalOffset,
+                       UUID id,
+                       DateTime timestamp,
+                       @Nullable ResolvableInetSocketAddress remoteAddress,
+                       ByteBuf payload) {
+        this(journalOffset, id, timestamp, remoteAddress, wrapPayload(payload));
+        if (payload.nioBufferCount() == 1) {
+            this.payloadBuffer = payload;
+        } else {
+            // the payload has been copied
+            payload.release();
+        }
+    }
+
+    /**
+     * Creates a raw message with the given payload.
+     * <p>
+     * The payload array isn't copied and must not be modified afterwards.
+     */
     public RawMessage(long journalOffset,
                       @Nonnull UUID id,
                       DateTime timestamp,
                       @Nullable ResolvableInetSocketAddress remoteAddress,
                       @Nonnull byte[] payload) {
+        this(journalOffset, id, timestamp, remoteAddress, UnsafeByteOperations.unsafeWrap(checkNotNull(payload, "The message payload must not be null!")));
+    }
+
+    private RawMessage(long journalOffset,
+                       UUID id,
+                       DateTime timestamp,
+                       @Nullable ResolvableInetSocketAddress remoteAddress,
+                       ByteString payload) {
         checkNotNull(id, "The message id must not be null!");
         checkNotNull(payload, "The message payload must not be null!");
-        if (payload.length == 0 && log.isTraceEnabled()) {
+        if (payload.isEmpty() && log.isTraceEnabled()) {
             log.trace("The message payload should not be empty, message {} from {} will be discarded.",
                       id,
                       remoteAddress == null ? "unknown" : remoteAddress,
@@ -109,7 +169,32 @@ public class RawMessage implements Serializable {
             setRemoteAddress(remoteAddress);
         }
 
-        msgBuilder.setPayload(ByteString.copyFrom(payload));
+        msgBuilder.setPayload(payload);
+    }
+
+    private static ByteBuf retainablePayload(ByteBuf payload) {
+        checkNotNull(payload, "The message payload must not be null!");
+        ByteBuf root = payload;
+        while (root.unwrap() != null) {
+            root = root.unwrap();
+        }
+        if (root.capacity() > MAX_PAYLOAD_BUFFER_OVERHEAD * payload.readableBytes()) {
+            final ByteBuf copy = payload.alloc().buffer(payload.readableBytes());
+            try {
+                copy.writeBytes(payload);
+            } finally {
+                payload.release();
+            }
+            return copy;
+        }
+        return payload;
+    }
+
+    private static ByteString wrapPayload(ByteBuf payload) {
+        if (payload.nioBufferCount() == 1) {
+            return UnsafeByteOperations.unsafeWrap(payload.nioBuffer());
+        }
+        return ByteString.copyFrom(payload.nioBuffer());
     }
 
     public void addSourceNode(String sourceInputId, NodeId nodeId) {
@@ -130,7 +215,7 @@ public class RawMessage implements Serializable {
     @Nullable
     public static RawMessage decode(final byte[] buffer, final Object messageQueueId) {
         try {
-            final JournalMessage journalMessage = JournalMessage.parseFrom(buffer);
+            final JournalMessage journalMessage = parseJournalMessage(buffer);
 
             // TODO validate message based on field contents and version number
 
@@ -144,7 +229,7 @@ public class RawMessage implements Serializable {
     @Nullable
     public static RawMessage decode(final byte[] buffer, final long journalOffset) {
         try {
-            final JournalMessage journalMessage = JournalMessage.parseFrom(buffer);
+            final JournalMessage journalMessage = parseJournalMessage(buffer);
 
             // TODO validate message based on field contents and version number
 
@@ -155,6 +240,13 @@ public class RawMessage implements Serializable {
         }
     }
 
+    private static JournalMessage parseJournalMessage(byte[] buffer) throws IOException {
+        // the payload is a slice of the given buffer instead of a copy
+        final CodedInputStream input = CodedInputStream.newInstance(buffer);
+        input.enableAliasing(true);
+        return JournalMessage.parseFrom(input);
+    }
+
     public byte[] encode() {
         try {
             final JournalMessages.CodecInfo codec = msgBuilder.getCodec();
@@ -188,6 +280,23 @@ public class RawMessage implements Serializable {
         return msgBuilder.getPayload().toByteArray(); // TODO PERFORMANCE array copy
     }
 
+    /**
+     * @return the size of the payload in bytes
+     */
+    public int getPayloadSize() {
+        return msgBuilder.getPayload().size();
+    }
+
+    /**
+     * Decodes the payload without copying it into an intermediate array first.
+     *
+     * @param charset the charset of the payload
+     * @return the decoded payload
+     */
+    public String getPayloadAsString(Charset charset) {
+        return msgBuilder.getPayload().toString(charset);
+    }
+
     public UUID getId() {
         return id;
     }
@@ -266,7 +375,7 @@ public class RawMessage implements Serializable {
         helper.add("id", getId())
                 .add("messageQueueId", getMessageQueueId())
                 .add("codec", getCodecName())
-                .add("payloadSize", getPayload().length)
+                .add("payloadSize", getPayloadSize())
                 .add("timestamp", getTimestamp());
         if (getRemoteAddress() != null) {
             helper.add("remoteAddress", getRemoteAddress().getInetSocketAddress().toString());
@@ -289,6 +398,65 @@ public class RawMessage implements Serializable {
         return (long) messageQueueId;
     }
 
+    @Override
+    public int refCnt() {
+        return payloadReference.refCnt();
+    }
+
+    @Override
+    public RawMessage retain() {
+        payloadReference.retain();
+        return this;
+    }
+
+    @Override
+    public RawMessage retain(int increment) {
+        payloadReference.retain(increment);
+        return this;
+    }
+
+    @Override
+    public RawMessage touch() {
+        payloadReference.touch();
+        return this;
+    }
+
+    @Override
+    public RawMessage touch(Object hint) {
+        payloadReference.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return payloadReference.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return payloadReference.release(decrement);
+    }
+
+    private class PayloadReference extends AbstractReferenceCounted {
+        @Override
+        protected void deallocate() {
+            if (payloadBuffer != null) {
+                // the payload must not be accessed anymore once the buffer has been released
+                msgBuilder.setPayload(ByteString.EMPTY);
+                payloadBuffer.release();
+                payloadBuffer = null;
+            }
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            if (payloadBuffer != null) {
+                payloadBuffer.touch(hint);
+            }
+            return this;
+        }
+    }
+
     public static class SourceNode {
         public String nodeId;
         public String inputId;
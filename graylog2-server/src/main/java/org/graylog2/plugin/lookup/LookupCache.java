@@ -28,9 +28,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import static org.graylog2.utilities.ObjectUtils.objectId;
 
@@ -45,6 +51,8 @@ public abstract class LookupCache extends AbstractIdleService {
     private final Meter hitCount;
     private final Meter missCount;
     private final Timer lookupTimer;
+    private final Timer reloadTimer;
+    private final Meter reloadFailureCount;
 
     private AtomicReference<Throwable> error = new AtomicReference<>();
 
@@ -60,6 +68,8 @@ public abstract class LookupCache extends AbstractIdleService {
         this.hitCount = metricRegistry.meter(MetricRegistry.name("org.graylog2.lookup.caches", id, "hits"));
         this.missCount = metricRegistry.meter(MetricRegistry.name("org.graylog2.lookup.caches", id, "misses"));
         this.lookupTimer = metricRegistry.timer(MetricRegistry.name("org.graylog2.lookup.caches", id, "lookupTime"));
+        this.reloadTimer = metricRegistry.timer(MetricRegistry.name("org.graylog2.lookup.caches", id, "reloadTime"));
+        this.reloadFailureCount = metricRegistry.meter(MetricRegistry.name("org.graylog2.lookup.caches", id, "reloadFailures"));
         final Gauge<Long> entriesGauge = new Gauge<Long>() {
             @Override
             public Long getValue() {
@@ -96,6 +106,18 @@ public abstract class LookupCache extends AbstractIdleService {
         return lookupTimer.time();
     }
 
+    /**
+     * Measures the time it takes to reload an entry in the background, for caches that refresh entries before
+     * they expire.
+     */
+    public Timer.Context reloadTimer() {
+        return reloadTimer.time();
+    }
+
+    public void incrReloadFailureCount() {
+        reloadFailureCount.mark();
+    }
+
     /**
      * Get the number of elements in this lookup cache.
      *
@@ -153,12 +175,48 @@ public abstract class LookupCache extends AbstractIdleService {
 
     public abstract LookupResult get(LookupCacheKey key, Callable<LookupResult> loader);
 
+    /**
+     * Get the cached results for several keys at once.
+     * <p>
+     * Caches supporting bulk loads should call the loader once with all keys which are not cached yet. The default
+     * implementation falls back to {@link #get(LookupCacheKey, Callable)} and calls the loader for every key.
+     *
+     * @param keys   the keys to get the results for
+     * @param loader loads the results of all keys passed to it, missing keys are treated as errors
+     * @return the results for all keys, in the iteration order of the given keys
+     */
+    public Map<LookupCacheKey, LookupResult> getAll(Collection<LookupCacheKey> keys,
+                                                    Function<Collection<LookupCacheKey>, Map<LookupCacheKey, LookupResult>> loader) {
+        final Map<LookupCacheKey, LookupResult> results = new LinkedHashMap<>(keys.size());
+        for (LookupCacheKey key : keys) {
+            results.computeIfAbsent(key, k -> get(k, () -> loadSingle(k, loader)));
+        }
+        return results;
+    }
+
+    private static LookupResult loadSingle(LookupCacheKey key,
+                                           Function<Collection<LookupCacheKey>, Map<LookupCacheKey, LookupResult>> loader) {
+        final LookupResult result = loader.apply(Collections.singletonList(key)).get(key);
+        return result == null ? LookupResult.withError() : result;
+    }
+
     public abstract LookupResult getIfPresent(LookupCacheKey key);
 
     public abstract void purge();
 
     public abstract void purge(LookupCacheKey purgeKey);
 
+    /**
+     * Purges the entries with the prefix of the given key whose keys match the predicate. The default
+     * implementation purges all entries with the prefix, caches which can iterate their entries should override it.
+     *
+     * @param prefix     the prefix of the entries to purge
+     * @param keyMatcher predicate matching the keys of the entries to purge
+     */
+    public void purge(LookupCacheKey prefix, Predicate<Object> keyMatcher) {
+        purge(prefix);
+    }
+
     public LookupCacheConfiguration getConfig() {
         return config;
     }
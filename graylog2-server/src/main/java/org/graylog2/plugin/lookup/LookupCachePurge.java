@@ -16,6 +16,8 @@
  */
 package org.graylog2.plugin.lookup;
 
+import java.util.function.Predicate;
+
 /**
  * This is passed into {@link LookupDataAdapter#doRefresh(LookupCachePurge)} to allow data adapters to prune cache
  * entries without having to know about the actual cache instances.
@@ -31,4 +33,13 @@ public interface LookupCachePurge {
      * @param key cache key to purge
      */
     void purgeKey(Object key);
+
+    /**
+     * Purges the cache entries of all keys matching the given predicate. This allows data adapters converting the
+     * keys before looking them up to purge all keys converting to a changed one. Purges all entries by default.
+     * @param keyMatcher predicate matching the cache keys to purge
+     */
+    default void purgeKeys(Predicate<Object> keyMatcher) {
+        purgeAll();
+    }
 }
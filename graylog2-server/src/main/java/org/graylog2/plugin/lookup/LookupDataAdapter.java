@@ -26,7 +26,10 @@ import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -41,6 +44,8 @@ public abstract class LookupDataAdapter extends AbstractIdleService {
 
     private final LookupDataAdapterConfiguration config;
     private final Timer requestTimer;
+    // bulk lookups are timed separately, one of them would skew the latency of single requests
+    private final Timer bulkRequestTimer;
     private final Timer refreshTimer;
     private LookupResult resultWithError;
 
@@ -60,6 +65,7 @@ public abstract class LookupDataAdapter extends AbstractIdleService {
         this.config = config;
 
         this.requestTimer = metricRegistry.timer(MetricRegistry.name("org.graylog2.lookup.adapters", id, "requests"));
+        this.bulkRequestTimer = metricRegistry.timer(MetricRegistry.name("org.graylog2.lookup.adapters", id, "bulkRequests"));
         this.refreshTimer = metricRegistry.timer(MetricRegistry.name("org.graylog2.lookup.adapters", id, "refresh"));
         this.resultWithError = LookupResult.withError();
     }
@@ -145,6 +151,39 @@ public abstract class LookupDataAdapter extends AbstractIdleService {
     }
     protected abstract LookupResult doGet(Object key);
 
+    /**
+     * Look up several keys at once.
+     *
+     * @param keys the keys to look up, duplicates are only looked up once
+     * @return the results for all keys, in the iteration order of the given keys
+     */
+    public Map<Object, LookupResult> getAll(Collection<Object> keys) {
+        if (state() == State.FAILED) {
+            final Map<Object, LookupResult> results = new LinkedHashMap<>(keys.size());
+            keys.forEach(key -> results.put(key, getErrorResult()));
+            return results;
+        }
+        checkState(isRunning(), "Data adapter needs to be started before it can be used");
+        try (final Timer.Context ignored = bulkRequestTimer.time()) {
+            return doGetAll(keys);
+        }
+    }
+
+    /**
+     * Look up several keys at once. The default implementation calls {@link #doGet(Object)} for every key, data
+     * adapters which can resolve multiple keys more efficiently than one after the other should override it.
+     *
+     * @param keys the keys to look up, duplicates must only be looked up once
+     * @return the results for all keys, in the iteration order of the given keys
+     */
+    protected Map<Object, LookupResult> doGetAll(Collection<Object> keys) {
+        final Map<Object, LookupResult> results = new LinkedHashMap<>(keys.size());
+        for (Object key : keys) {
+            results.computeIfAbsent(key, this::doGet);
+        }
+        return results;
+    }
+
     @Deprecated
     public abstract void set(Object key, Object value);
 
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.rollups;
+
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The counters of a single processing thread.
+ * <p>
+ * The counters are a plain map which is owned by whoever took it out of the slot: the processing thread while it
+ * updates them, or the {@link RollupEngine} when it drains them. If the engine drained the map, the processing thread
+ * starts a new one, if the processing thread holds it, the engine picks it up on the next flush. Neither side ever
+ * waits for the other.
+ * </p>
+ */
+class RollupAccumulator {
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final AtomicReference<Map<RollupKey, RollupCell>> slot = new AtomicReference<>(new HashMap<>());
+
+    void add(Iterable<Message> messages, RollupConfig config) {
+        Map<RollupKey, RollupCell> cells = slot.getAndSet(null);
+        if (cells == null) {
+            cells = new HashMap<>();
+        }
+        try {
+            for (Message message : messages) {
+                if (!message.getFilterOut()) {
+                    add(cells, message, config);
+                }
+            }
+        } finally {
+            slot.set(cells);
+        }
+    }
+
+    private void add(Map<RollupKey, RollupCell> cells, Message message, RollupConfig config) {
+        final long minute = message.getTimestamp().getMillis() / MINUTE_MILLIS * MINUTE_MILLIS;
+
+        final List<String> dimensions = config.dimensions();
+        final String[] values = new String[dimensions.size()];
+        for (int i = 0; i < values.length; i++) {
+            final Object value = message.getField(dimensions.get(i));
+            values[i] = value == null ? null : value.toString();
+        }
+
+        final List<String> numericFields = config.numericFields();
+        for (Stream stream : message.getStreams()) {
+            final RollupKey key = new RollupKey(minute, stream.getId(), dimensions, values, numericFields);
+            final RollupCell cell = cells.computeIfAbsent(key, k -> new RollupCell(numericFields.size()));
+            cell.increment();
+            for (int i = 0; i < numericFields.size(); i++) {
+                final Object value = message.getField(numericFields.get(i));
+                if (value instanceof Number) {
+                    cell.add(i, ((Number) value).doubleValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the counters collected since the last call.
+     *
+     * @return the counters, or an empty map if the processing thread is updating them right now
+     */
+    Map<RollupKey, RollupCell> drain() {
+        final Map<RollupKey, RollupCell> cells = slot.getAndSet(null);
+        return cells == null ? new HashMap<>() : cells;
+    }
+}
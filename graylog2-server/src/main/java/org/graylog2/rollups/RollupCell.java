@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.rollups;
+
+import java.util.Arrays;
+
+/**
+ * The counter of a {@link RollupKey}, with the sum, minimum and maximum of each numeric field. Not thread-safe.
+ */
+final class RollupCell {
+    private long count = 0L;
+    private final long[] valueCounts;
+    private final double[] sums;
+    private final double[] mins;
+    private final double[] maxs;
+
+    RollupCell(int numericFields) {
+        this.valueCounts = new long[numericFields];
+        this.sums = new double[numericFields];
+        this.mins = new double[numericFields];
+        this.maxs = new double[numericFields];
+        Arrays.fill(mins, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+    }
+
+    void increment() {
+        count++;
+    }
+
+    void add(int field, double value) {
+        valueCounts[field]++;
+        sums[field] += value;
+        mins[field] = Math.min(mins[field], value);
+        maxs[field] = Math.max(maxs[field], value);
+    }
+
+    void merge(RollupCell other) {
+        count += other.count;
+        for (int i = 0; i < valueCounts.length; i++) {
+            valueCounts[i] += other.valueCounts[i];
+            sums[i] += other.sums[i];
+            mins[i] = Math.min(mins[i], other.mins[i]);
+            maxs[i] = Math.max(maxs[i], other.maxs[i]);
+        }
+    }
+
+    long count() {
+        return count;
+    }
+
+    /**
+     * Whether any message of this counter had a numeric value in the field.
+     */
+    boolean hasValues(int field) {
+        return valueCounts[field] > 0;
+    }
+
+    double sum(int field) {
+        return sums[field];
+    }
+
+    double min(int field) {
+        return mins[field];
+    }
+
+    double max(int field) {
+        return maxs[field];
+    }
+}
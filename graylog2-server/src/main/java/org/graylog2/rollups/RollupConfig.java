@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.rollups;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+@JsonAutoDetect
+@JsonIgnoreProperties(ignoreUnknown = true)
+@AutoValue
+public abstract class RollupConfig {
+    private static final List<String> DEFAULT_DIMENSIONS = ImmutableList.of(Message.FIELD_SOURCE, "level");
+    private static final long DEFAULT_MIN_QUERY_RANGE_SECONDS = 3600;
+
+    @JsonProperty("enabled")
+    public abstract boolean enabled();
+
+    /**
+     * The stream whose index set receives the rollup documents. It must use a dedicated index set, rollups are
+     * discarded if any other stream uses it, and should not be routed to by any stream rules.
+     */
+    @JsonProperty("stream_id")
+    @Nullable
+    public abstract String streamId();
+
+    /**
+     * The message fields whose values get their own counters. Counters are always kept per stream as well.
+     */
+    @JsonProperty("dimensions")
+    public abstract List<String> dimensions();
+
+    /**
+     * The numeric message fields whose sum, minimum and maximum are kept per counter.
+     */
+    @JsonProperty("numeric_fields")
+    public abstract List<String> numericFields();
+
+    /**
+     * Whether pivot searches which only need the rollups are answered from them.
+     */
+    @JsonProperty("answer_queries")
+    public abstract boolean answerQueries();
+
+    /**
+     * The shortest time range answered from the rollups. Shorter ranges are cheap enough to answer from the
+     * messages.
+     */
+    @JsonProperty("min_query_range_seconds")
+    public abstract long minQueryRangeSeconds();
+
+    @JsonCreator
+    public static RollupConfig create(@JsonProperty("enabled") boolean enabled,
+                                      @JsonProperty("stream_id") @Nullable String streamId,
+                                      @JsonProperty("dimensions") @Nullable List<String> dimensions,
+                                      @JsonProperty("numeric_fields") @Nullable List<String> numericFields,
+                                      @JsonProperty("answer_queries") boolean answerQueries,
+                                      @JsonProperty("min_query_range_seconds") @Nullable Long minQueryRangeSeconds) {
+        return builder()
+                .enabled(enabled)
+                .streamId(streamId)
+                .dimensions(dimensions == null ? DEFAULT_DIMENSIONS : dimensions)
+                .numericFields(numericFields == null ? ImmutableList.of() : numericFields)
+                .answerQueries(answerQueries)
+                .minQueryRangeSeconds(minQueryRangeSeconds == null ? DEFAULT_MIN_QUERY_RANGE_SECONDS : minQueryRangeSeconds)
+                .build();
+    }
+
+    public static RollupConfig defaultConfig() {
+        return builder()
+                .enabled(false)
+                .dimensions(DEFAULT_DIMENSIONS)
+                .numericFields(ImmutableList.of())
+                .answerQueries(false)
+                .minQueryRangeSeconds(DEFAULT_MIN_QUERY_RANGE_SECONDS)
+                .build();
+    }
+
+    public static Builder builder() {
+        return new AutoValue_RollupConfig.Builder();
+    }
+
+    public abstract Builder toBuilder();
+
+    @AutoValue.Builder
+    public static abstract class Builder {
+        public abstract Builder enabled(boolean enabled);
+        public abstract Builder streamId(@Nullable String streamId);
+        public abstract Builder dimensions(List<String> dimensions);
+        public abstract Builder numericFields(List<String> numericFields);
+        public abstract Builder answerQueries(boolean answerQueries);
+        public abstract Builder minQueryRangeSeconds(long minQueryRangeSeconds);
+
+        abstract List<String> dimensions();
+        abstract List<String> numericFields();
+        abstract RollupConfig autoBuild();
+
+        public RollupConfig build() {
+            // the lists are part of the rollup keys, keep them immutable
+            dimensions(ImmutableList.copyOf(dimensions()));
+            numericFields(ImmutableList.copyOf(numericFields()));
+            return autoBuild();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.rollups;
+
+import com.google.auto.value.AutoValue;
+import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * The time range for which the rollups of all nodes are complete.
+ * <p>
+ * It starts when the last node started counting, e. g. after the configuration changed or a node restarted without
+ * writing its counters, and ends with the last minute all running nodes have written.
+ * </p>
+ */
+@AutoValue
+public abstract class RollupCoverage {
+    /**
+     * Nodes which didn't update their status for this long are considered gone, together with their unwritten counters.
+     */
+    static final Duration STALE_AFTER = Duration.standardMinutes(2);
+
+    public abstract DateTime from();
+
+    public abstract DateTime to();
+
+    /**
+     * @return whether all minutes touched by the time range are covered
+     */
+    public boolean contains(TimeRange timeRange) {
+        final DateTime from = timeRange.getFrom().minuteOfDay().roundFloorCopy();
+        final DateTime to = timeRange.getTo().minuteOfDay().roundCeilingCopy();
+        return !from.isBefore(from()) && !to.isAfter(to());
+    }
+
+    public static RollupCoverage create(DateTime from, DateTime to) {
+        return new AutoValue_RollupCoverage(from, to);
+    }
+
+    /**
+     * Determines the coverage of the rollups of the given configuration from the status of all nodes.
+     */
+    public static Optional<RollupCoverage> of(Collection<RollupStatusDto> statuses, RollupConfig config, DateTime now) {
+        final DateTime staleBefore = now.minus(STALE_AFTER);
+        DateTime from = null;
+        DateTime to = null;
+        for (RollupStatusDto status : statuses) {
+            if (!status.running()) {
+                // stopped gracefully after writing all of its counters, only minutes it didn't count are missing
+                if (status.countsFor(config)) {
+                    from = latest(from, status.coveredSince());
+                }
+            } else if (status.updatedAt().isBefore(staleBefore)) {
+                // gone without writing its counters, the minutes until it stopped are incomplete
+                from = latest(from, status.updatedAt().plus(STALE_AFTER).minuteOfDay().roundCeilingCopy());
+            } else if (status.countsFor(config)) {
+                from = latest(from, status.coveredSince());
+                to = to == null || status.flushedUntil().isBefore(to) ? status.flushedUntil() : to;
+            } else {
+                // still counting with another configuration
+                return Optional.empty();
+            }
+        }
+        if (from == null || to == null || !from.isBefore(to)) {
+            return Optional.empty();
+        }
+        return Optional.of(create(from, to));
+    }
+
+    private static DateTime latest(DateTime current, DateTime other) {
+        return current == null || other.isAfter(current) ? other : current;
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.rollups;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import org.graylog2.cluster.ClusterConfigChangedEvent;
+import org.graylog2.database.NotFoundException;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.messages.Messages;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.streams.StreamService;
+import org.graylog2.system.shutdown.GracefulShutdownHook;
+import org.graylog2.system.shutdown.GracefulShutdownService;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.LongStream;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Maintains per-minute message counters for the configured dimensions and flushes them as compact documents into the
+ * index set of the rollup stream.
+ * <p>
+ * Every processing thread counts into its own {@link RollupAccumulator}. Flushing merges the counters of all threads
+ * and writes the minutes which are complete, i. e. older than a grace period for late messages. Messages arriving
+ * even later produce additional documents for their minute, which searches simply add up.
+ * </p>
+ * <p>
+ * Every node records the minutes it has complete rollups for in the {@link RollupStatusService}. Counters which are
+ * lost, because they couldn't be written or the node stopped without writing them, move the start of that range
+ * past them. On a graceful shutdown all counters are written, so the range continues after a restart. The
+ * {@link RollupCoverage} of all nodes determines which searches can be answered from the rollups.
+ * </p>
+ */
+@Singleton
+public class RollupEngine implements GracefulShutdownHook {
+    private static final Logger LOG = LoggerFactory.getLogger(RollupEngine.class);
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long GRACE_PERIOD_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final String ROLLUP_MESSAGE = "rollup";
+    private static final String ROLLUP_SOURCE = "graylog-rollup";
+
+    public static final String FIELD_STREAM = "rollup_stream";
+    public static final String FIELD_COUNT = "rollup_count";
+
+    private final ClusterConfigService clusterConfigService;
+    private final StreamService streamService;
+    private final RollupStatusService statusService;
+    private final Messages messages;
+    private final ScheduledExecutorService scheduler;
+    private final LongSupplier wallClock;
+    private final List<RollupAccumulator> accumulators = new CopyOnWriteArrayList<>();
+    private final Meter flushedDocuments;
+    // counters of incomplete minutes, only accessed while flushing
+    private final Map<RollupKey, RollupCell> pending = new HashMap<>();
+
+    // the configuration and start of the minutes this node has complete counters for, only accessed while flushing
+    private RollupConfig coveredConfig;
+    private DateTime coveredSince;
+    private boolean stopped = false;
+
+    private volatile RollupConfig config;
+    private volatile int pendingSize = 0;
+    private volatile Optional<RollupCoverage> coverage = Optional.empty();
+
+    @Inject
+    public RollupEngine(ClusterConfigService clusterConfigService,
+                        StreamService streamService,
+                        RollupStatusService statusService,
+                        Messages messages,
+                        @Named("daemonScheduler") ScheduledExecutorService scheduler,
+                        EventBus eventBus,
+                        GracefulShutdownService gracefulShutdownService,
+                        MetricRegistry metricRegistry) {
+        this(clusterConfigService, streamService, statusService, messages, scheduler, eventBus, gracefulShutdownService,
+                metricRegistry, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    RollupEngine(ClusterConfigService clusterConfigService,
+                 StreamService streamService,
+                 RollupStatusService statusService,
+                 Messages messages,
+                 ScheduledExecutorService scheduler,
+                 EventBus eventBus,
+                 GracefulShutdownService gracefulShutdownService,
+                 MetricRegistry metricRegistry,
+                 LongSupplier wallClock) {
+        this.clusterConfigService = clusterConfigService;
+        this.streamService = streamService;
+        this.statusService = statusService;
+        this.messages = messages;
+        this.scheduler = scheduler;
+        this.wallClock = wallClock;
+        this.flushedDocuments = metricRegistry.meter(name(RollupEngine.class, "flushedDocuments"));
+        metricRegistry.register(name(RollupEngine.class, "pendingRollups"), (Gauge<Integer>) () -> pendingSize);
+
+        reload();
+        resumeCoverage();
+        eventBus.register(this);
+        gracefulShutdownService.register(this);
+    }
+
+    public RollupConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the time range for which the rollups of all nodes are complete, as of the last flush
+     */
+    public Optional<RollupCoverage> getCoverage() {
+        return coverage;
+    }
+
+    public static String sumField(String field) {
+        return "rollup_sum_" + field;
+    }
+
+    public static String minField(String field) {
+        return "rollup_min_" + field;
+    }
+
+    public static String maxField(String field) {
+        return "rollup_max_" + field;
+    }
+
+    /**
+     * Creates the counters of a processing thread. They must only be updated by that thread.
+     */
+    RollupAccumulator newAccumulator() {
+        final RollupAccumulator accumulator = new RollupAccumulator();
+        accumulators.add(accumulator);
+        return accumulator;
+    }
+
+    /**
+     * Writes the counters of all complete minutes to the index set of the rollup stream.
+     */
+    public void flush() {
+        flush(false);
+    }
+
+    /**
+     * Writes the counters of all minutes, the buffers have already been drained at this point.
+     */
+    @Override
+    public void doGracefulShutdown() {
+        flush(true);
+    }
+
+    private synchronized void flush(boolean shutdown) {
+        if (stopped) {
+            return;
+        }
+        stopped = shutdown;
+
+        for (RollupAccumulator accumulator : accumulators) {
+            accumulator.drain().forEach((key, cell) -> pending.merge(key, cell, (existing, added) -> {
+                existing.merge(added);
+                return existing;
+            }));
+        }
+
+        final long now = wallClock.getAsLong();
+        final long completeBefore = shutdown ? Long.MAX_VALUE : now - GRACE_PERIOD_MILLIS - MINUTE_MILLIS;
+        final List<Map.Entry<RollupKey, RollupCell>> complete = new ArrayList<>();
+        final Iterator<Map.Entry<RollupKey, RollupCell>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<RollupKey, RollupCell> entry = it.next();
+            if (entry.getKey().minute() <= completeBefore) {
+                complete.add(entry);
+                it.remove();
+            }
+        }
+        pendingSize = pending.size();
+
+        final RollupConfig config = this.config;
+        if (!config.enabled() || config.streamId() == null) {
+            coveredConfig = null;
+            coveredSince = null;
+        } else if (coveredSince == null || !countsSame(coveredConfig, config)) {
+            // the current minute may have been counted partially with the previous configuration
+            coveredConfig = config;
+            coveredSince = nextMinute(now);
+        }
+
+        if (!complete.isEmpty() && coveredSince != null) {
+            write(complete, config);
+        }
+
+        final DateTime flushedUntil = shutdown ? new DateTime(now, DateTimeZone.UTC) : new DateTime(completeBefore, DateTimeZone.UTC)
+                .minuteOfDay().roundFloorCopy()
+                .plusMinutes(1);
+        try {
+            statusService.save(config, coveredSince, flushedUntil, !shutdown, new DateTime(now, DateTimeZone.UTC));
+            coverage = RollupCoverage.of(statusService.all(), config, new DateTime(now, DateTimeZone.UTC));
+        } catch (Exception e) {
+            LOG.warn("Couldn't update the rollup status, searches are not answered from rollups.", e);
+            coverage = Optional.empty();
+        }
+    }
+
+    private void write(List<Map.Entry<RollupKey, RollupCell>> complete, RollupConfig config) {
+        final Stream rollupStream;
+        try {
+            rollupStream = streamService.load(config.streamId());
+        } catch (NotFoundException e) {
+            LOG.warn("Couldn't find rollup stream <{}>, discarding {} rollups.", config.streamId(), complete.size());
+            lost(complete.stream().mapToLong(entry -> entry.getKey().minute()));
+            return;
+        }
+        // rollup documents keep the ids of the counted streams, they must not be found by searches in other index sets
+        if (streamService.loadAllWithIndexSet(rollupStream.getIndexSetId()).stream()
+                .anyMatch(stream -> !rollupStream.getId().equals(stream.getId()))) {
+            LOG.warn("Rollup stream <{}> shares its index set <{}> with other streams, discarding {} rollups. Please use a dedicated index set.",
+                    rollupStream.getId(), rollupStream.getIndexSetId(), complete.size());
+            lost(complete.stream().mapToLong(entry -> entry.getKey().minute()));
+            return;
+        }
+        final IndexSet indexSet = rollupStream.getIndexSet();
+
+        final List<Map.Entry<IndexSet, Message>> documents = new ArrayList<>(complete.size());
+        final Map<String, Long> minutes = new HashMap<>(complete.size());
+        for (Map.Entry<RollupKey, RollupCell> entry : complete) {
+            final Message message = toMessage(entry.getKey(), entry.getValue(), rollupStream.getId());
+            documents.add(Maps.immutableEntry(indexSet, message));
+            minutes.put(message.getId(), entry.getKey().minute());
+        }
+
+        LOG.debug("Flushing {} rollups to index set <{}>", documents.size(), rollupStream.getIndexSetId());
+        final List<String> failedIds = messages.bulkIndex(documents, true);
+        if (!failedIds.isEmpty()) {
+            LOG.warn("Failed to index {} of {} rollups.", failedIds.size(), documents.size());
+            lost(failedIds.stream().map(minutes::get).filter(Objects::nonNull).mapToLong(Long::longValue));
+        }
+        flushedDocuments.mark(documents.size() - failedIds.size());
+    }
+
+    /**
+     * Starts the covered minutes after the given ones, whose counters are missing.
+     */
+    private void lost(LongStream minutes) {
+        final OptionalLong last = minutes.max();
+        if (last.isPresent() && last.getAsLong() + MINUTE_MILLIS > coveredSince.getMillis()) {
+            coveredSince = new DateTime(last.getAsLong() + MINUTE_MILLIS, DateTimeZone.UTC);
+        }
+    }
+
+    /**
+     * Continues the covered minutes of the previous run if it wrote all of its counters.
+     */
+    private synchronized void resumeCoverage() {
+        final RollupConfig config = this.config;
+        final DateTime now = new DateTime(wallClock.getAsLong(), DateTimeZone.UTC);
+        try {
+            final Optional<RollupStatusDto> previous = statusService.get()
+                    .filter(status -> !status.running() && status.countsFor(config));
+            if (previous.isPresent()) {
+                LOG.debug("Resuming rollups covered since {}", previous.get().coveredSince());
+                coveredConfig = config;
+                coveredSince = previous.get().coveredSince();
+            } else if (config.enabled() && config.streamId() != null) {
+                coveredConfig = config;
+                coveredSince = nextMinute(now.getMillis());
+            }
+            // until the next flush, the counters of this run are unwritten
+            statusService.save(config, coveredSince, previous.map(RollupStatusDto::flushedUntil).orElse(now), true, now);
+        } catch (Exception e) {
+            LOG.warn("Couldn't update the rollup status, searches are not answered from rollups.", e);
+        }
+    }
+
+    private static boolean countsSame(@Nullable RollupConfig previous, RollupConfig current) {
+        return previous != null
+                && Objects.equals(previous.streamId(), current.streamId())
+                && previous.dimensions().equals(current.dimensions())
+                && previous.numericFields().equals(current.numericFields());
+    }
+
+    private static DateTime nextMinute(long millis) {
+        return new DateTime(millis, DateTimeZone.UTC).minuteOfDay().roundCeilingCopy();
+    }
+
+    @VisibleForTesting
+    static Message toMessage(RollupKey key, RollupCell cell, String rollupStreamId) {
+        final Message message = new Message(ROLLUP_MESSAGE, ROLLUP_SOURCE, new DateTime(key.minute(), DateTimeZone.UTC));
+        // the original stream is kept in the streams as well, so the stream filters of searches still match
+        message.addField(Message.FIELD_STREAMS, ImmutableList.of(rollupStreamId, key.streamId()));
+        message.addField(FIELD_STREAM, key.streamId());
+        for (int i = 0; i < key.dimensions().size(); i++) {
+            final String value = key.value(i);
+            if (value != null) {
+                message.addField(key.dimensions().get(i), value);
+            }
+        }
+
+        message.addField(FIELD_COUNT, cell.count());
+        for (int i = 0; i < key.numericFields().size(); i++) {
+            if (cell.hasValues(i)) {
+                final String field = key.numericFields().get(i);
+                message.addField(sumField(field), cell.sum(i));
+                message.addField(minField(field), cell.min(i));
+                message.addField(maxField(field), cell.max(i));
+            }
+        }
+        return message;
+    }
+
+    @Subscribe
+    @SuppressWarnings("unused")
+    public void updateConfig(ClusterConfigChangedEvent event) {
+        if (!RollupConfig.class.getCanonicalName().equals(event.type())) {
+            return;
+        }
+
+        scheduler.schedule((Runnable) this::reload, 0, TimeUnit.SECONDS);
+    }
+
+    private void reload() {
+        final RollupConfig newConfig = clusterConfigService.getOrDefault(RollupConfig.class,
+                RollupConfig.defaultConfig());
+
+        LOG.debug("Updating rollups - {}", newConfig);
+        config = newConfig;
+    }
+}
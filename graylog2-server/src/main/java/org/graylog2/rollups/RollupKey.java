@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.rollups;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Identifies one counter: a minute, a stream and the values of the configured dimensions.
+ */
+final class RollupKey {
+    private final long minute;
+    private final String streamId;
+    private final List<String> dimensions;
+    private final String[] values;
+    private final List<String> numericFields;
+    private final int hashCode;
+
+    RollupKey(long minute, String streamId, List<String> dimensions, String[] values, List<String> numericFields) {
+        this.minute = minute;
+        this.streamId = streamId;
+        this.dimensions = dimensions;
+        this.values = values;
+        this.numericFields = numericFields;
+        this.hashCode = Objects.hash(minute, streamId, dimensions, Arrays.hashCode(values), numericFields);
+    }
+
+    /**
+     * The start of the minute in milliseconds since the epoch.
+     */
+    long minute() {
+        return minute;
+    }
+
+    String streamId() {
+        return streamId;
+    }
+
+    List<String> dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * The value of the dimension at the given position, or {@code null} if the messages don't have it.
+     */
+    @Nullable
+    String value(int dimension) {
+        return values[dimension];
+    }
+
+    List<String> numericFields() {
+        return numericFields;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final RollupKey that = (RollupKey) o;
+        return minute == that.minute &&
+                streamId.equals(that.streamId) &&
+                Arrays.equals(values, that.values) &&
+                dimensions.equals(that.dimensions) &&
+                numericFields.equals(that.numericFields);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "RollupKey{" +
+                "minute=" + minute +
+                ", streamId='" + streamId + '\'' +
+                ", dimensions=" + dimensions +
+                ", values=" + Arrays.toString(values) +
+                '}';
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.rollups;
+
+import org.graylog2.plugin.Messages;
+import org.graylog2.plugin.messageprocessors.MessageProcessor;
+
+import javax.inject.Inject;
+
+/**
+ * Counts the routed messages into the per-minute rollups. Runs after the stream routing and the stream sampling, so it
+ * sees the final streams of the messages. See {@link org.graylog2.migrations.V20210301120000_PlaceRoutedMessageProcessors}.
+ */
+public class RollupProcessor implements MessageProcessor {
+    public static class Descriptor implements MessageProcessor.Descriptor {
+        @Override
+        public String name() {
+            return "Rollup Aggregator";
+        }
+
+        @Override
+        public String className() {
+            return RollupProcessor.class.getCanonicalName();
+        }
+    }
+
+    private final RollupEngine rollupEngine;
+    // each processing thread has its own processor instance, and thus its own counters
+    private final RollupAccumulator accumulator;
+
+    @Inject
+    public RollupProcessor(RollupEngine rollupEngine) {
+        this.rollupEngine = rollupEngine;
+        this.accumulator = rollupEngine.newAccumulator();
+    }
+
+    @Override
+    public Messages process(Messages messages) {
+        final RollupConfig config = rollupEngine.getConfig();
+        if (config.enabled()) {
+            accumulator.add(messages, config);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.rollups;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.views.search.Filter;
+import org.graylog.plugins.views.search.GlobalOverride;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
+import org.graylog.plugins.views.search.engine.BackendQuery;
+import org.graylog.plugins.views.search.filter.OrFilter;
+import org.graylog.plugins.views.search.filter.StreamFilter;
+import org.graylog.plugins.views.search.searchtypes.pivot.BucketSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.Pivot;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotSort;
+import org.graylog.plugins.views.search.searchtypes.pivot.SeriesSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.SortSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.DateInterval;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Time;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Values;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Max;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Min;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Sum;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Rewrites pivot search types which only need the data kept in the rollups to search the rollup stream instead of
+ * the messages.
+ * <p>
+ * A pivot is answerable if it doesn't filter by a query, groups by time in minutes or more and by rollup dimensions
+ * only, and its series are message counts or the sum, minimum or maximum of rollup numeric fields. Since the counters
+ * are per minute, the edges of the time range are rounded to whole minutes. The total of the result is the number of
+ * rollup documents, not of messages.
+ * </p>
+ * <p>
+ * Only time ranges within the {@link RollupCoverage} are answered, so ranges reaching into the most recent minutes,
+ * which have not been written yet, or into minutes with missing counters are left to the messages.
+ * </p>
+ */
+public class RollupQueryRewriter {
+    private static final Logger LOG = LoggerFactory.getLogger(RollupQueryRewriter.class);
+    private static final Set<String> MINUTE_OR_LONGER_UNITS = ImmutableSet.of("m", "h", "d", "w", "M");
+
+    private final Supplier<RollupConfig> config;
+    private final Supplier<Optional<RollupCoverage>> coverage;
+
+    @Inject
+    public RollupQueryRewriter(RollupEngine rollupEngine) {
+        this(rollupEngine::getConfig, rollupEngine::getCoverage);
+    }
+
+    @VisibleForTesting
+    RollupQueryRewriter(Supplier<RollupConfig> config, Supplier<Optional<RollupCoverage>> coverage) {
+        this.config = config;
+        this.coverage = coverage;
+    }
+
+    /**
+     * A rewriter which leaves all queries alone.
+     */
+    public static RollupQueryRewriter disabled() {
+        return new RollupQueryRewriter(RollupConfig::defaultConfig, Optional::empty);
+    }
+
+    public Query rewrite(Query query) {
+        final RollupConfig config = this.config.get();
+        final Optional<RollupCoverage> coverage = this.coverage.get();
+        if (!config.enabled() || !config.answerQueries() || config.streamId() == null || !coverage.isPresent()) {
+            return query;
+        }
+        if (!isEmpty(query.query())
+                || !isEmpty(query.globalOverride().flatMap(GlobalOverride::query).orElse(null))
+                || !isStreamFilter(query.filter())) {
+            return query;
+        }
+
+        boolean rewritten = false;
+        final ImmutableSet.Builder<SearchType> searchTypes = ImmutableSet.builder();
+        for (SearchType searchType : query.searchTypes()) {
+            if (searchType instanceof Pivot) {
+                final Optional<Pivot> pivot = rewrite(query, (Pivot) searchType, config, coverage.get());
+                if (pivot.isPresent()) {
+                    LOG.debug("[{}] Answering pivot <{}> from rollups", query.id(), searchType.id());
+                    searchTypes.add(pivot.get());
+                    rewritten = true;
+                    continue;
+                }
+            }
+            searchTypes.add(searchType);
+        }
+        return rewritten ? query.toBuilder().searchTypes(searchTypes.build()).build() : query;
+    }
+
+    private Optional<Pivot> rewrite(Query query, Pivot pivot, RollupConfig config, RollupCoverage coverage) {
+        if (pivot.filter() != null || !isEmpty(pivot.query().orElse(null))) {
+            return Optional.empty();
+        }
+        final Set<String> streams = pivot.effectiveStreams().isEmpty() ? query.usedStreamIds() : pivot.effectiveStreams();
+        if (streams.isEmpty()) {
+            return Optional.empty();
+        }
+        final TimeRange timeRange = query.effectiveTimeRange(pivot);
+        if (timeRange.getTo().getMillis() - timeRange.getFrom().getMillis() < config.minQueryRangeSeconds() * 1000
+                || !coverage.contains(timeRange)) {
+            return Optional.empty();
+        }
+
+        final Optional<List<BucketSpec>> rowGroups = rewriteGroups(pivot.rowGroups(), timeRange, config);
+        final Optional<List<BucketSpec>> columnGroups = rewriteGroups(pivot.columnGroups(), timeRange, config);
+        final Optional<List<SeriesSpec>> series = rewriteSeries(pivot.series(), config);
+        final Optional<List<SortSpec>> sort = rewriteSort(pivot.sort(), config);
+        if (!rowGroups.isPresent() || !columnGroups.isPresent() || !series.isPresent() || !sort.isPresent()) {
+            return Optional.empty();
+        }
+
+        // messages of several streams are counted once per stream, so they can only be added up per stream
+        final boolean groupedByStream = isGroupedByStream(rowGroups.get()) || isGroupedByStream(columnGroups.get());
+        if (streams.size() > 1 && !groupedByStream) {
+            return Optional.empty();
+        }
+
+        final String streamQuery = streams.stream()
+                .sorted()
+                .map(streamId -> "\"" + streamId + "\"")
+                .collect(Collectors.joining(" OR ", RollupEngine.FIELD_STREAM + ":(", ")"));
+        return Optional.of(pivot.toBuilder()
+                .rowGroups(rowGroups.get())
+                .columnGroups(columnGroups.get())
+                .series(series.get())
+                .sort(sort.get())
+                .streams(Collections.singleton(config.streamId()))
+                .query(ElasticsearchQueryString.of(streamQuery))
+                .build());
+    }
+
+    private Optional<List<BucketSpec>> rewriteGroups(List<BucketSpec> groups, TimeRange timeRange, RollupConfig config) {
+        final ImmutableList.Builder<BucketSpec> rewritten = ImmutableList.builder();
+        for (BucketSpec group : groups) {
+            if (group instanceof Values) {
+                final Values values = (Values) group;
+                final Optional<String> field = rewriteField(values.field(), config);
+                if (!field.isPresent()) {
+                    return Optional.empty();
+                }
+                rewritten.add(Values.builder().field(field.get()).limit(values.limit()).build());
+            } else if (group instanceof Time) {
+                final Time time = (Time) group;
+                if (!Message.FIELD_TIMESTAMP.equals(time.field()) || !isMinuteOrLonger(time.interval().toDateInterval(timeRange))) {
+                    return Optional.empty();
+                }
+                rewritten.add(time);
+            } else {
+                return Optional.empty();
+            }
+        }
+        return Optional.of(rewritten.build());
+    }
+
+    private Optional<List<SeriesSpec>> rewriteSeries(List<SeriesSpec> series, RollupConfig config) {
+        final ImmutableList.Builder<SeriesSpec> rewritten = ImmutableList.builder();
+        for (SeriesSpec spec : series) {
+            // the ids are kept, because the results are looked up by them
+            if (spec instanceof Count && isNullOrEmpty(((Count) spec).field())) {
+                rewritten.add(Sum.builder().id(spec.id()).field(RollupEngine.FIELD_COUNT).build());
+            } else if (spec instanceof Sum && config.numericFields().contains(((Sum) spec).field())) {
+                rewritten.add(Sum.builder().id(spec.id()).field(RollupEngine.sumField(((Sum) spec).field())).build());
+            } else if (spec instanceof Min && config.numericFields().contains(((Min) spec).field())) {
+                rewritten.add(Min.builder().id(spec.id()).field(RollupEngine.minField(((Min) spec).field())).build());
+            } else if (spec instanceof Max && config.numericFields().contains(((Max) spec).field())) {
+                rewritten.add(Max.builder().id(spec.id()).field(RollupEngine.maxField(((Max) spec).field())).build());
+            } else {
+                return Optional.empty();
+            }
+        }
+        return Optional.of(rewritten.build());
+    }
+
+    private Optional<List<SortSpec>> rewriteSort(List<SortSpec> sort, RollupConfig config) {
+        final ImmutableList.Builder<SortSpec> rewritten = ImmutableList.builder();
+        for (SortSpec spec : sort) {
+            if (spec instanceof PivotSort) {
+                final PivotSort pivotSort = (PivotSort) spec;
+                final Optional<String> field = Message.FIELD_TIMESTAMP.equals(pivotSort.field())
+                        ? Optional.of(Message.FIELD_TIMESTAMP)
+                        : rewriteField(pivotSort.field(), config);
+                if (!field.isPresent()) {
+                    return Optional.empty();
+                }
+                rewritten.add(PivotSort.create(PivotSort.Type, field.get(), pivotSort.direction()));
+            } else {
+                // series sorts refer to the series ids, which are unchanged
+                rewritten.add(spec);
+            }
+        }
+        return Optional.of(rewritten.build());
+    }
+
+    private Optional<String> rewriteField(String field, RollupConfig config) {
+        if (Message.FIELD_STREAMS.equals(field)) {
+            return Optional.of(RollupEngine.FIELD_STREAM);
+        }
+        return config.dimensions().contains(field) ? Optional.of(field) : Optional.empty();
+    }
+
+    private boolean isGroupedByStream(List<BucketSpec> groups) {
+        return groups.stream()
+                .anyMatch(group -> group instanceof Values && RollupEngine.FIELD_STREAM.equals(((Values) group).field()));
+    }
+
+    private boolean isMinuteOrLonger(@Nullable DateInterval interval) {
+        if (interval == null) {
+            return false;
+        }
+        if ("s".equals(interval.getUnit())) {
+            return interval.getQuantity().intValue() % 60 == 0;
+        }
+        return MINUTE_OR_LONGER_UNITS.contains(interval.getUnit());
+    }
+
+    private boolean isStreamFilter(@Nullable Filter filter) {
+        if (filter == null || filter instanceof StreamFilter) {
+            return true;
+        }
+        return filter instanceof OrFilter && filter.filters().stream().allMatch(f -> f instanceof StreamFilter);
+    }
+
+    private boolean isEmpty(@Nullable BackendQuery query) {
+        return query == null || (query instanceof ElasticsearchQueryString && ((ElasticsearchQueryString) query).isEmpty());
+    }
+
+    private static boolean isNullOrEmpty(@Nullable String value) {
+        return value == null || value.isEmpty();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.rollups;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.auto.value.AutoValue;
+import org.joda.time.DateTime;
+import org.mongojack.Id;
+import org.mongojack.ObjectId;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The time range a node has written complete rollups for.
+ */
+@AutoValue
+@JsonDeserialize(builder = RollupStatusDto.Builder.class)
+public abstract class RollupStatusDto {
+    private static final String FIELD_ID = "id";
+    static final String FIELD_NODE_ID = "node_id";
+    private static final String FIELD_STREAM_ID = "stream_id";
+    private static final String FIELD_DIMENSIONS = "dimensions";
+    private static final String FIELD_NUMERIC_FIELDS = "numeric_fields";
+    private static final String FIELD_COVERED_SINCE = "covered_since";
+    private static final String FIELD_FLUSHED_UNTIL = "flushed_until";
+    private static final String FIELD_RUNNING = "running";
+    private static final String FIELD_UPDATED_AT = "updated_at";
+
+    @Id
+    @ObjectId
+    @Nullable
+    @JsonProperty(FIELD_ID)
+    public abstract String id();
+
+    @JsonProperty(FIELD_NODE_ID)
+    public abstract String nodeId();
+
+    @JsonProperty(FIELD_STREAM_ID)
+    @Nullable
+    public abstract String streamId();
+
+    @JsonProperty(FIELD_DIMENSIONS)
+    public abstract List<String> dimensions();
+
+    @JsonProperty(FIELD_NUMERIC_FIELDS)
+    public abstract List<String> numericFields();
+
+    /**
+     * The start of the first minute whose messages have all been counted, {@code null} if the node doesn't count.
+     */
+    @JsonProperty(FIELD_COVERED_SINCE)
+    @Nullable
+    public abstract DateTime coveredSince();
+
+    /**
+     * The end of the last minute which has been written.
+     */
+    @JsonProperty(FIELD_FLUSHED_UNTIL)
+    public abstract DateTime flushedUntil();
+
+    /**
+     * Whether the node is still counting, {@code false} after all counters have been written on a graceful shutdown.
+     */
+    @JsonProperty(FIELD_RUNNING)
+    public abstract boolean running();
+
+    @JsonProperty(FIELD_UPDATED_AT)
+    public abstract DateTime updatedAt();
+
+    /**
+     * @return whether the rollups of this node have been counted with the given configuration
+     */
+    public boolean countsFor(RollupConfig config) {
+        return config.enabled()
+                && coveredSince() != null
+                && Objects.equals(streamId(), config.streamId())
+                && dimensions().equals(config.dimensions())
+                && numericFields().equals(config.numericFields());
+    }
+
+    public static RollupStatusDto of(String nodeId,
+                                     RollupConfig config,
+                                     @Nullable DateTime coveredSince,
+                                     DateTime flushedUntil,
+                                     boolean running,
+                                     DateTime updatedAt) {
+        return builder()
+                .nodeId(nodeId)
+                .streamId(config.streamId())
+                .dimensions(config.dimensions())
+                .numericFields(config.numericFields())
+                .coveredSince(coveredSince)
+                .flushedUntil(flushedUntil)
+                .running(running)
+                .updatedAt(updatedAt)
+                .build();
+    }
+
+    public static Builder builder() {
+        return Builder.create();
+    }
+
+    public abstract Builder toBuilder();
+
+    @AutoValue.Builder
+    public static abstract class Builder {
+        @JsonCreator
+        public static Builder create() {
+            return new AutoValue_RollupStatusDto.Builder();
+        }
+
+        @Id
+        @ObjectId
+        @JsonProperty(FIELD_ID)
+        public abstract Builder id(String id);
+
+        @JsonProperty(FIELD_NODE_ID)
+        public abstract Builder nodeId(String nodeId);
+
+        @JsonProperty(FIELD_STREAM_ID)
+        public abstract Builder streamId(@Nullable String streamId);
+
+        @JsonProperty(FIELD_DIMENSIONS)
+        public abstract Builder dimensions(List<String> dimensions);
+
+        @JsonProperty(FIELD_NUMERIC_FIELDS)
+        public abstract Builder numericFields(List<String> numericFields);
+
+        @JsonProperty(FIELD_COVERED_SINCE)
+        public abstract Builder coveredSince(@Nullable DateTime coveredSince);
+
+        @JsonProperty(FIELD_FLUSHED_UNTIL)
+        public abstract Builder flushedUntil(DateTime flushedUntil);
+
+        @JsonProperty(FIELD_RUNNING)
+        public abstract Builder running(boolean running);
+
+        @JsonProperty(FIELD_UPDATED_AT)
+        public abstract Builder updatedAt(DateTime updatedAt);
+
+        public abstract RollupStatusDto build();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.rollups;
+
+import com.google.common.collect.ImmutableList;
+import com.mongodb.BasicDBObject;
+import org.bson.types.ObjectId;
+import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
+import org.graylog2.database.MongoConnection;
+import org.graylog2.database.MongoDBUpsertRetryer;
+import org.graylog2.plugin.system.NodeId;
+import org.joda.time.DateTime;
+import org.mongojack.DBQuery;
+import org.mongojack.JacksonDBCollection;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Manages the database collection for the rollup status of the nodes.
+ */
+public class RollupStatusService {
+    public static final String COLLECTION_NAME = "rollup_status";
+
+    private final String nodeId;
+    private final JacksonDBCollection<RollupStatusDto, ObjectId> db;
+
+    @Inject
+    public RollupStatusService(MongoConnection mongoConnection,
+                               NodeId nodeId,
+                               MongoJackObjectMapperProvider mapper) {
+        this.nodeId = nodeId.toString();
+        this.db = JacksonDBCollection.wrap(mongoConnection.getDatabase().getCollection(COLLECTION_NAME),
+                RollupStatusDto.class,
+                ObjectId.class,
+                mapper.get());
+
+        db.createIndex(new BasicDBObject(RollupStatusDto.FIELD_NODE_ID, 1), new BasicDBObject("unique", true));
+    }
+
+    /**
+     * Returns the rollup status entries of all nodes.
+     *
+     * @return a list of all rollup status entries
+     */
+    public List<RollupStatusDto> all() {
+        return ImmutableList.copyOf(db.find().iterator());
+    }
+
+    /**
+     * Returns the rollup status entry for the calling node.
+     *
+     * @return the rollup status entry or an empty optional if none exists
+     */
+    public Optional<RollupStatusDto> get() {
+        return Optional.ofNullable(db.findOne(DBQuery.is(RollupStatusDto.FIELD_NODE_ID, nodeId)));
+    }
+
+    /**
+     * Create or update (upsert) the rollup status entry of the calling node.
+     *
+     * @return the created/updated entry
+     */
+    public RollupStatusDto save(RollupConfig config,
+                                @Nullable DateTime coveredSince,
+                                DateTime flushedUntil,
+                                boolean running,
+                                DateTime updatedAt) {
+        return MongoDBUpsertRetryer.run(() -> db.findAndModify(
+                DBQuery.is(RollupStatusDto.FIELD_NODE_ID, nodeId),
+                null,
+                null,
+                false,
+                RollupStatusDto.of(nodeId, config, coveredSince, flushedUntil, running, updatedAt),
+                true,
+                true));
+    }
+}
@@ -41,6 +41,10 @@ class DirectMessageHandler implements WorkHandler<RawMessageEvent> {
         if (rawMessage != null) {
             processingStatusRecorder.updateIngestReceiveTime(rawMessage.getTimestamp());
         }
+        final Runnable writeCallback = event.getWriteCallback();
+        if (writeCallback != null) {
+            writeCallback.run();
+        }
         // clear out for gc and to avoid promoting the raw message event to a tenured gen
         event.clear();
     }
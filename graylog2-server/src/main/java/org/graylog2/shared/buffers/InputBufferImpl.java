@@ -31,10 +31,13 @@ import org.graylog2.plugin.journal.RawMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import java.util.List;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static org.graylog2.shared.metrics.MetricUtils.constantGauge;
@@ -46,6 +49,8 @@ public class InputBufferImpl implements InputBuffer {
 
     private final RingBuffer<RawMessageEvent> ringBuffer;
     private final Meter incomingMessages;
+    // the journal is written in sequence order, the direct handlers process the events of a range concurrently
+    private final boolean writesInOrder;
 
     @Inject
     public InputBufferImpl(MetricRegistry metricRegistry,
@@ -62,7 +67,8 @@ public class InputBufferImpl implements InputBuffer {
         disruptor.setDefaultExceptionHandler(new LoggingExceptionHandler(LOG));
 
         final int numberOfHandlers = configuration.getInputbufferProcessors();
-        if (configuration.isMessageJournalEnabled()) {
+        writesInOrder = configuration.isMessageJournalEnabled();
+        if (writesInOrder) {
             LOG.info("Message journal is enabled.");
 
             final RawMessageEncoderHandler[] handlers = new RawMessageEncoderHandler[numberOfHandlers];
@@ -103,6 +109,57 @@ public class InputBufferImpl implements InputBuffer {
         incomingMessages.mark();
     }
 
+    @Override
+    public void insert(List<RawMessage> messages) {
+        insert(messages, null);
+    }
+
+    @Override
+    public void insert(List<RawMessage> messages, @Nullable Runnable onWritten) {
+        final int size = messages.size();
+        if (size == 0) {
+            if (onWritten != null) {
+                onWritten.run();
+            }
+            return;
+        }
+        final Runnable eventCallback = onWritten == null || writesInOrder ? null : countDown(size, onWritten);
+        final int bufferSize = ringBuffer.getBufferSize();
+        // claim contiguous ranges and publish each of them at once, ranges cannot be larger than the ring
+        for (int start = 0; start < size; start += bufferSize) {
+            final int n = Math.min(bufferSize, size - start);
+            final long hi = ringBuffer.next(n);
+            final long lo = hi - (n - 1);
+            try {
+                for (long sequence = lo; sequence <= hi; sequence++) {
+                    final RawMessageEvent event = ringBuffer.get(sequence);
+                    event.setRawMessage(messages.get(start + (int) (sequence - lo)));
+                    event.setMoreInBatch(sequence != hi);
+                    event.setWriteCallback(eventCallback);
+                }
+                if (writesInOrder && start + n == size) {
+                    // ranges are written in order, so the last event is written after all others
+                    ringBuffer.get(hi).setWriteCallback(onWritten);
+                }
+            } finally {
+                ringBuffer.publish(lo, hi);
+            }
+        }
+        incomingMessages.mark(size);
+    }
+
+    /**
+     * @return a callback for every event of a range, which runs the given one after it has been run for all events
+     */
+    private static Runnable countDown(int events, Runnable onWritten) {
+        final AtomicInteger remaining = new AtomicInteger(events);
+        return () -> {
+            if (remaining.decrementAndGet() == 0) {
+                onWritten.run();
+            }
+        };
+    }
+
     @Override
     public long getUsage() {
         return ringBuffer.getBufferSize() - ringBuffer.remainingCapacity();
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.plugin.ThrottleState;
+import org.graylog2.plugin.inputs.transports.ThrottleableTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.graylog2.shared.metrics.MetricUtils.safelyRegister;
+
+/**
+ * Tracks how much each input contributes to the journal and the process buffer and decides which throttleable inputs
+ * have to back off in the fair-share throttling mode.
+ * <p>
+ * The contribution of an input is the number of its messages which have been journaled but not decoded yet, plus the
+ * number of messages it wrote since the last throttle state update. While the processing system falls behind, the
+ * inputs with the largest contribution per weight are throttled first, and every other input only if it exceeds its
+ * weighted share.
+ * </p>
+ * <p>
+ * Decisions are made once per throttle state update and additionally right after journal writes, if the journal grows
+ * faster than the thresholds of {@link ThrottleableTransport} allow.
+ * </p>
+ */
+@Singleton
+public class InputPressureTracker {
+    private static final Logger LOG = LoggerFactory.getLogger(InputPressureTracker.class);
+
+    public static final String GLOBAL_MODE = "global";
+    public static final String FAIR_SHARE_MODE = "fair_share";
+
+    // journal writes trigger at most one decision per interval
+    private static final long DECISION_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final boolean enabled;
+    private final EventBus eventBus;
+    private final LongSupplier nanoClock;
+    private final Counter writeTriggeredThrottles;
+    private final ConcurrentMap<String, Usage> usages = new ConcurrentHashMap<>();
+
+    private volatile Set<String> throttledInputs = ImmutableSet.of();
+    private volatile Map<String, Double> inputWeights = ImmutableMap.of();
+    private volatile Set<String> throttleableInputs = ImmutableSet.of();
+    private volatile ThrottleState lastState;
+    private volatile long backlogAtLastUpdate;
+    private volatile long lastDecision;
+    private long previousUncommittedEntries;
+
+    @Inject
+    public InputPressureTracker(@Named("throttling_mode") String throttlingMode,
+                                EventBus eventBus,
+                                MetricRegistry metricRegistry) {
+        this(isFairShareMode(throttlingMode), eventBus, metricRegistry, System::nanoTime);
+    }
+
+    @VisibleForTesting
+    InputPressureTracker(boolean enabled, EventBus eventBus, MetricRegistry metricRegistry, LongSupplier nanoClock) {
+        this.enabled = enabled;
+        this.eventBus = eventBus;
+        this.nanoClock = nanoClock;
+        this.writeTriggeredThrottles = metricRegistry.counter(name(InputPressureTracker.class, "writeTriggeredThrottles"));
+        safelyRegister(metricRegistry, name(InputPressureTracker.class, "throttledInputs"), (Gauge<Integer>) () -> throttledInputs.size());
+    }
+
+    private static boolean isFairShareMode(String throttlingMode) {
+        switch (throttlingMode) {
+            case FAIR_SHARE_MODE:
+                return true;
+            case GLOBAL_MODE:
+                return false;
+            default:
+                LOG.warn("Invalid setting for [throttling_mode]: Falling back to default: {}", GLOBAL_MODE);
+                return false;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records the messages which have just been written to the journal and throttles the heaviest inputs right away
+     * if the journal grows too fast.
+     *
+     * @param messagesByInput the number of written messages per input id
+     */
+    public void recordWritten(Map<String, Integer> messagesByInput) {
+        if (!enabled || messagesByInput.isEmpty()) {
+            return;
+        }
+        messagesByInput.forEach((inputId, count) -> usage(inputId).appended.add(count));
+
+        final ThrottleState state = lastState;
+        // wait for the first throttle state update, we don't know the inputs before
+        if (state == null || nanoClock.getAsLong() - lastDecision < DECISION_INTERVAL_NANOS) {
+            return;
+        }
+        final long backlog = totalBacklog();
+        if (backlog <= ThrottleableTransport.MAX_UNCOMMITTED_JOURNAL_ENTRIES
+                && backlog - backlogAtLastUpdate <= ThrottleableTransport.MAX_UNCOMMITTED_JOURNAL_GROWTH) {
+            return;
+        }
+
+        final ThrottleState changedState;
+        synchronized (this) {
+            lastDecision = nanoClock.getAsLong();
+            final Set<String> selected = selectThrottled(contributions(), inputWeights, throttleableInputs);
+            if (throttledInputs.containsAll(selected)) {
+                return;
+            }
+            // only add inputs here, releasing them is left to the next update
+            throttledInputs = ImmutableSet.copyOf(Sets.union(throttledInputs, selected));
+            changedState = new ThrottleState(lastState);
+            changedState.throttledInputs = throttledInputs;
+            lastState = changedState;
+        }
+        LOG.debug("Journal grew to {} uncommitted entries, throttling inputs {}", backlog, changedState.throttledInputs);
+        writeTriggeredThrottles.inc();
+        eventBus.post(changedState);
+    }
+
+    /**
+     * Records a message which has been read from the journal and is being processed.
+     *
+     * @param inputId the id of the input which received the message
+     */
+    public void recordProcessed(@Nullable String inputId) {
+        if (enabled && inputId != null) {
+            usage(inputId).processed.increment();
+        }
+    }
+
+    /**
+     * Decides which inputs have to back off and stores the decision in the given throttle state. Expected to be called
+     * with every throttle state update, before it is published.
+     *
+     * @param state              the new throttle state
+     * @param weights            the throttling weights of all running inputs
+     * @param throttleableInputs the ids of the running inputs which are allowed to be throttled
+     */
+    public void update(ThrottleState state, Map<String, Double> weights, Set<String> throttleableInputs) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            final boolean processingBehind = ThrottleableTransport.isProcessingBehind(state, previousUncommittedEntries, "fair-share");
+            previousUncommittedEntries = state.uncommittedJournalEntries;
+            this.inputWeights = ImmutableMap.copyOf(weights);
+            this.throttleableInputs = ImmutableSet.copyOf(throttleableInputs);
+
+            throttledInputs = processingBehind
+                    ? selectThrottled(contributions(), inputWeights, this.throttleableInputs)
+                    : ImmutableSet.of();
+
+            usages.values().forEach(Usage::startPeriod);
+            usages.entrySet().removeIf(entry -> !weights.containsKey(entry.getKey()) && entry.getValue().backlog() == 0);
+            backlogAtLastUpdate = totalBacklog();
+            lastDecision = nanoClock.getAsLong();
+
+            state.throttledInputs = throttledInputs;
+            lastState = state;
+        }
+    }
+
+    /**
+     * Picks the throttleable inputs with the largest contribution per weight first, as long as they contribute more than
+     * their weighted share of the total contribution of all running inputs.
+     */
+    @VisibleForTesting
+    static Set<String> selectThrottled(Map<String, Long> contributions, Map<String, Double> weights, Set<String> throttleable) {
+        double totalContribution = 0;
+        double totalWeight = 0;
+        for (Map.Entry<String, Double> entry : weights.entrySet()) {
+            totalContribution += contributions.getOrDefault(entry.getKey(), 0L);
+            totalWeight += entry.getValue();
+        }
+        if (totalWeight <= 0) {
+            return ImmutableSet.of();
+        }
+        final double sharePerWeight = totalContribution / totalWeight;
+
+        final List<String> candidates = throttleable.stream()
+                .filter(weights::containsKey)
+                .filter(inputId -> contributions.getOrDefault(inputId, 0L) > 0)
+                .sorted(Comparator.comparingDouble((String inputId) -> contributions.get(inputId) / weights.get(inputId)).reversed())
+                .collect(Collectors.toList());
+
+        final ImmutableSet.Builder<String> selected = ImmutableSet.builder();
+        for (int i = 0; i < candidates.size(); i++) {
+            final String inputId = candidates.get(i);
+            // the heaviest input always backs off, the others only if they exceed their share
+            if (i > 0 && contributions.get(inputId) / weights.get(inputId) <= sharePerWeight) {
+                break;
+            }
+            selected.add(inputId);
+        }
+        return selected.build();
+    }
+
+    private Map<String, Long> contributions() {
+        return usages.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().contribution()));
+    }
+
+    private long totalBacklog() {
+        long backlog = 0;
+        for (Usage usage : usages.values()) {
+            backlog += usage.backlog();
+        }
+        return backlog;
+    }
+
+    private Usage usage(String inputId) {
+        return usages.computeIfAbsent(inputId, id -> new Usage());
+    }
+
+    private static class Usage {
+        private final LongAdder appended = new LongAdder();
+        private final LongAdder processed = new LongAdder();
+        private volatile long appendedAtPeriodStart;
+
+        long backlog() {
+            // messages journaled before a restart are processed without having been counted as appended
+            return Math.max(0, appended.sum() - processed.sum());
+        }
+
+        long contribution() {
+            return backlog() + appended.sum() - appendedAtPeriodStart;
+        }
+
+        void startPeriod() {
+            appendedAtPeriodStart = appended.sum();
+        }
+    }
+}
@@ -30,7 +30,9 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
@@ -41,13 +43,16 @@ public class JournallingMessageHandler implements EventHandler<RawMessageEvent>
     private final Counter byteCounter;
     private final MessageQueueWriter messageQueueWriter;
     private final ProcessingStatusRecorder processingStatusRecorder;
+    private final InputPressureTracker inputPressureTracker;
 
     @Inject
     public JournallingMessageHandler(MetricRegistry metrics,
                                      MessageQueueWriter messageQueueWriter,
-                                     ProcessingStatusRecorder processingStatusRecorder) {
+                                     ProcessingStatusRecorder processingStatusRecorder,
+                                     InputPressureTracker inputPressureTracker) {
         this.messageQueueWriter = messageQueueWriter;
         this.processingStatusRecorder = processingStatusRecorder;
+        this.inputPressureTracker = inputPressureTracker;
         byteCounter = metrics.counter(MetricRegistry.name(JournallingMessageHandler.class, "written_bytes"));
     }
 
@@ -56,25 +61,52 @@ public class JournallingMessageHandler implements EventHandler<RawMessageEvent>
         batch.add(event);
 
         if (endOfBatch) {
-            log.debug("End of batch, journaling {} messages", batch.size());
-            // write batch to journal
-
-            // copy to avoid re-running this all the time
-            final Filter metricsFilter = new Filter();
-            final List<RawMessageEvent> entries = batch.stream().map(metricsFilter).filter(Objects::nonNull).collect(Collectors.toList());
-
-            // The filter computed the latest receive timestamp of all messages in the batch so we don't have to
-            // call the update on the recorder service for every message. (less contention)
-            processingStatusRecorder.updateIngestReceiveTime(metricsFilter.getLatestReceiveTime());
-
-            messageQueueWriter.write(entries);
-
-            // Release objects for GC
-            batch.stream()
-                    .filter(Objects::nonNull)
-                    .forEach(RawMessageEvent::clear);
+            // Ranges which have been published at once are written with one append. The tail of a range which is
+            // still being encoded waits for the next batch.
+            int completed = batch.size();
+            while (completed > 0 && batch.get(completed - 1).hasMoreInBatch()) {
+                completed--;
+            }
+            final List<RawMessageEvent> completedEvents = batch.subList(0, completed);
+
+            if (!completedEvents.isEmpty()) {
+                log.debug("End of batch, journaling {} messages", completedEvents.size());
+                // write batch to journal
+
+                // copy to avoid re-running this all the time
+                final Filter metricsFilter = new Filter();
+                final List<RawMessageEvent> entries = completedEvents.stream().map(metricsFilter).filter(Objects::nonNull).collect(Collectors.toList());
+
+                // The filter computed the latest receive timestamp of all messages in the batch so we don't have to
+                // call the update on the recorder service for every message. (less contention)
+                processingStatusRecorder.updateIngestReceiveTime(metricsFilter.getLatestReceiveTime());
+
+                messageQueueWriter.write(entries);
+
+                if (inputPressureTracker.isEnabled()) {
+                    final Map<String, Integer> writtenByInput = new HashMap<>();
+                    for (RawMessageEvent entry : entries) {
+                        if (entry.getInputId() != null) {
+                            writtenByInput.merge(entry.getInputId(), 1, Integer::sum);
+                        }
+                    }
+                    inputPressureTracker.recordWritten(writtenByInput);
+                }
+
+                completedEvents.stream()
+                        .map(RawMessageEvent::getWriteCallback)
+                        .filter(Objects::nonNull)
+                        .forEach(Runnable::run);
+
+                // Release objects for GC
+                completedEvents.stream()
+                        .filter(Objects::nonNull)
+                        .forEach(RawMessageEvent::clear);
+            }
+            completedEvents.clear();
 
-            batch.clear();
+            // the ring buffer slots can be reused as soon as we return, keep the pending events out of them
+            batch.replaceAll(RawMessageEvent::detach);
         }
     }
 
@@ -26,6 +26,7 @@ public class NoopInputBuffer implements InputBuffer {
 
     @Override
     public void insert(RawMessage message) {
+        message.release();
     }
 
     @Override
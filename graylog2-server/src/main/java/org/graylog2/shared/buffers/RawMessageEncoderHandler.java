@@ -18,38 +18,54 @@ package org.graylog2.shared.buffers;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Iterables;
 import com.lmax.disruptor.WorkHandler;
+import org.graylog2.plugin.journal.RawMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.List;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
 public class RawMessageEncoderHandler implements WorkHandler<RawMessageEvent> {
     private static final Logger log = LoggerFactory.getLogger(RawMessageEncoderHandler.class);
     private final Meter incomingMessages;
+    private final InputPressureTracker inputPressureTracker;
 
     @Inject
-    public RawMessageEncoderHandler(MetricRegistry metricRegistry) {
+    public RawMessageEncoderHandler(MetricRegistry metricRegistry, InputPressureTracker inputPressureTracker) {
+        this.inputPressureTracker = inputPressureTracker;
         incomingMessages = metricRegistry.meter(name(RawMessageEncoderHandler.class, "incomingMessages"));
     }
 
     @Override
     public void onEvent(RawMessageEvent event) throws Exception {
         incomingMessages.mark();
-        event.setEncodedRawMessage(event.getRawMessage().encode());
-        event.setMessageIdBytes(event.getRawMessage().getIdBytes());
-        
-        if (log.isTraceEnabled()) {
-            log.trace("Serialized message {} for journal, size {} bytes",
-                      event.getRawMessage().getId(), event.getEncodedRawMessage().length);
-        }
+        try {
+            event.setEncodedRawMessage(event.getRawMessage().encode());
+            event.setMessageIdBytes(event.getRawMessage().getIdBytes());
+
+            if (log.isTraceEnabled()) {
+                log.trace("Serialized message {} for journal, size {} bytes",
+                          event.getRawMessage().getId(), event.getEncodedRawMessage().length);
+            }
 
-        // Set timestamp in event to retain access to it after we clear the raw message object below
-        event.setMessageTimestamp(event.getRawMessage().getTimestamp());
+            // Set timestamp in event to retain access to it after we clear the raw message object below
+            event.setMessageTimestamp(event.getRawMessage().getTimestamp());
 
-        // clear for gc and to avoid promotion to tenured space
-        event.setRawMessage(null);
+            if (inputPressureTracker.isEnabled()) {
+                final List<RawMessage.SourceNode> sourceNodes = event.getRawMessage().getSourceNodes();
+                if (!sourceNodes.isEmpty()) {
+                    event.setInputId(Iterables.getLast(sourceNodes).inputId);
+                }
+            }
+        } finally {
+            // the payload has been serialized or cannot be, release its buffer and clear for gc and to avoid promotion
+            // to tenured space
+            event.getRawMessage().release();
+            event.setRawMessage(null);
+        }
     }
 }
@@ -23,6 +23,7 @@ import com.lmax.disruptor.EventTranslatorOneArg;
 import org.graylog2.plugin.journal.RawMessage;
 import org.joda.time.DateTime;
 
+import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
 
 public class RawMessageEvent {
@@ -37,6 +38,15 @@ public class RawMessageEvent {
     // We need access to the raw message timestamp after the raw message has been cleared
     private DateTime messageTimestamp;
 
+    // the input which received the message, only set if it is needed after encoding
+    private String inputId;
+
+    // set for all but the last event of a range that has been published at once
+    private boolean moreInBatch;
+
+    // runs once this event has been written, with the journal after all events published before it as well
+    private Runnable writeCallback;
+
     public static final EventFactory<RawMessageEvent> FACTORY = new EventFactory<RawMessageEvent>() {
         @Override
         public RawMessageEvent newInstance() {
@@ -47,6 +57,9 @@ public class RawMessageEvent {
         @Override
         public void translateTo(RawMessageEvent event, long sequence, RawMessage arg0) {
             event.setRawMessage(arg0);
+            event.setMoreInBatch(false);
+            event.setWriteCallback(null);
+            event.setInputId(null);
         }
     };
 
@@ -91,6 +104,50 @@ public class RawMessageEvent {
         this.messageTimestamp = messageTimestamp;
     }
 
+    @Nullable
+    public String getInputId() {
+        return inputId;
+    }
+
+    public void setInputId(@Nullable String inputId) {
+        this.inputId = inputId;
+    }
+
+    public boolean hasMoreInBatch() {
+        return moreInBatch;
+    }
+
+    public void setMoreInBatch(boolean moreInBatch) {
+        this.moreInBatch = moreInBatch;
+    }
+
+    @Nullable
+    public Runnable getWriteCallback() {
+        return writeCallback;
+    }
+
+    public void setWriteCallback(@Nullable Runnable writeCallback) {
+        this.writeCallback = writeCallback;
+    }
+
+    /**
+     * Moves the encoded message out of this ring buffer slot into a new event, so the slot can be reused before the
+     * message has been written.
+     *
+     * @return a new event holding the encoded message, id and timestamp of this event
+     */
+    public RawMessageEvent detach() {
+        final RawMessageEvent copy = new RawMessageEvent();
+        copy.setEncodedRawMessage(encodedRawMessage);
+        copy.setMessageIdBytes(messageIdBytes);
+        copy.setMessageTimestamp(messageTimestamp);
+        copy.setInputId(inputId);
+        copy.setMoreInBatch(moreInBatch);
+        copy.setWriteCallback(writeCallback);
+        clear();
+        return copy;
+    }
+
     // performance doesn't matter, it's only being called during tracing
     public UUID getMessageId() {
         final ByteBuffer wrap = ByteBuffer.wrap(messageIdBytes);
@@ -102,5 +159,8 @@ public class RawMessageEvent {
         this.encodedRawMessage = null;
         this.messageIdBytes = null;
         this.messageTimestamp = null;
+        this.inputId = null;
+        this.moreInBatch = false;
+        this.writeCallback = null;
     }
 }
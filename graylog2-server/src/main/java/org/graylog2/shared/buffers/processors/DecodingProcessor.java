@@ -34,6 +34,7 @@ import org.graylog2.plugin.buffers.MessageEvent;
 import org.graylog2.plugin.inputs.codecs.Codec;
 import org.graylog2.plugin.inputs.codecs.MultiMessageCodec;
 import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.shared.buffers.InputPressureTracker;
 import org.graylog2.shared.journal.Journal;
 import org.graylog2.shared.messageq.MessageQueueAcknowledger;
 import org.graylog2.shared.utilities.ExceptionUtils;
@@ -65,6 +66,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
     private final MetricRegistry metricRegistry;
     private final Journal journal;
     private final MessageQueueAcknowledger acknowledger;
+    private final InputPressureTracker inputPressureTracker;
     private final Timer parseTime;
 
     @AssistedInject
@@ -73,6 +75,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
                              final MetricRegistry metricRegistry,
                              final Journal journal,
                              MessageQueueAcknowledger acknowledger,
+                             InputPressureTracker inputPressureTracker,
                              @Assisted("decodeTime") Timer decodeTime,
                              @Assisted("parseTime") Timer parseTime) {
         this.codecFactory = codecFactory;
@@ -80,6 +83,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
         this.metricRegistry = metricRegistry;
         this.journal = journal;
         this.acknowledger = acknowledger;
+        this.inputPressureTracker = inputPressureTracker;
 
         // these metrics are global to all processors, thus they are passed in directly to avoid relying on the class name
         this.parseTime = parseTime;
@@ -110,7 +114,11 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
                     message.recordTiming(serverStatus, "decode", context.stop());
                 }
             }
-            // aid garbage collection to collect the raw message early (to avoid promoting it to later generations).
+            // release the payload and aid garbage collection to collect the raw message early (to avoid promoting it
+            // to later generations).
+            if (event.getRaw() != null) {
+                event.getRaw().release();
+            }
             event.clearRaw();
         }
     }
@@ -128,6 +136,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
         } catch (NoSuchElementException e) {
             inputIdOnCurrentNode = null;
         }
+        inputPressureTracker.recordProcessed(inputIdOnCurrentNode);
 
         final Codec.Factory<? extends Codec> factory = codecFactory.get(raw.getCodecName());
         if (factory == null) {
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.graylog2.cluster.ClusterConfigChangedEvent;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.plugin.streams.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Reduces the messages routed into streams which are configured to keep only a sample of them.
+ * <p>
+ * Whether a message is kept is decided by a hash of the configured field, so the decision is the same on every node
+ * and for every message with the same value. Retained messages get a weight field per sampled stream with the number
+ * of messages they stand for in that stream, which allows extrapolating counts.
+ * </p>
+ */
+@Singleton
+public class StreamSampler {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamSampler.class);
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_32();
+
+    private final ClusterConfigService clusterConfigService;
+    private final ScheduledExecutorService scheduler;
+    private final Clock clock;
+    private final Meter sampledOutMessages;
+    // incoming rates of the streams with a target rate
+    private final ConcurrentMap<String, Meter> streamRates = new ConcurrentHashMap<>();
+
+    private volatile StreamSamplingConfig config;
+
+    @Inject
+    public StreamSampler(ClusterConfigService clusterConfigService,
+                         @Named("daemonScheduler") ScheduledExecutorService scheduler,
+                         EventBus eventBus,
+                         MetricRegistry metricRegistry) {
+        this(clusterConfigService, scheduler, eventBus, metricRegistry, Clock.defaultClock());
+    }
+
+    @VisibleForTesting
+    StreamSampler(ClusterConfigService clusterConfigService,
+                  ScheduledExecutorService scheduler,
+                  EventBus eventBus,
+                  MetricRegistry metricRegistry,
+                  Clock clock) {
+        this.clusterConfigService = clusterConfigService;
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.sampledOutMessages = metricRegistry.meter(name(StreamSampler.class, "sampledOutMessages"));
+
+        reload();
+        eventBus.register(this);
+    }
+
+    /**
+     * Removes the message from the sampled streams which don't keep it, and sets the weight field of every sampled
+     * stream which keeps it.
+     *
+     * @param message the routed message
+     */
+    public void sample(Message message) {
+        final StreamSamplingConfig config = this.config;
+        if (config.streams().isEmpty()) {
+            return;
+        }
+
+        for (Stream stream : message.getStreams()) {
+            final StreamSamplingConfig.Sampling sampling = config.streams().get(stream.getId());
+            if (sampling == null) {
+                continue;
+            }
+            final long keepOneIn = keepOneIn(stream.getId(), sampling);
+            if (keepOneIn <= 1) {
+                continue;
+            }
+            if (bucket(message, sampling.hashField(), keepOneIn) == 0) {
+                message.addField(weightField(config, stream.getId()), keepOneIn);
+            } else {
+                LOG.trace("Sampled out message <{}> of stream <{}>", message.getId(), stream.getId());
+                message.removeStream(stream);
+                sampledOutMessages.mark();
+            }
+        }
+    }
+
+    /**
+     * @return the field which holds the number of messages a retained message stands for in the given stream
+     */
+    public static String weightField(StreamSamplingConfig config, String streamId) {
+        return config.weightField() + "_" + streamId;
+    }
+
+    private long keepOneIn(String streamId, StreamSamplingConfig.Sampling sampling) {
+        long keepOneIn = sampling.keepOneIn();
+        if (sampling.targetRate() > 0) {
+            final Meter rate = streamRates.computeIfAbsent(streamId, id -> new Meter(clock));
+            rate.mark();
+            keepOneIn = Math.max(keepOneIn, (long) Math.ceil(rate.getOneMinuteRate() / sampling.targetRate()));
+        }
+        return keepOneIn;
+    }
+
+    @VisibleForTesting
+    static long bucket(Message message, String hashField, long buckets) {
+        Object value = message.getField(hashField);
+        if (value == null) {
+            value = message.getId();
+        }
+        final int hash = HASH_FUNCTION.hashUnencodedChars(value.toString()).asInt();
+        return Integer.toUnsignedLong(hash) % buckets;
+    }
+
+    @Subscribe
+    @SuppressWarnings("unused")
+    public void updateConfig(ClusterConfigChangedEvent event) {
+        if (!StreamSamplingConfig.class.getCanonicalName().equals(event.type())) {
+            return;
+        }
+
+        scheduler.schedule((Runnable) this::reload, 0, TimeUnit.SECONDS);
+    }
+
+    private void reload() {
+        final StreamSamplingConfig newConfig = clusterConfigService.getOrDefault(StreamSamplingConfig.class,
+                StreamSamplingConfig.defaultConfig());
+
+        LOG.debug("Updating stream sampling - {}", newConfig);
+        config = newConfig;
+        streamRates.keySet().retainAll(newConfig.streams().keySet());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.Message;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+
+/**
+ * The sampling settings of all streams which keep only a part of their messages.
+ */
+@JsonAutoDetect
+@JsonIgnoreProperties(ignoreUnknown = true)
+@AutoValue
+public abstract class StreamSamplingConfig {
+    private static final String DEFAULT_WEIGHT_FIELD = "sampling_weight";
+
+    /**
+     * The sampling settings by stream id.
+     */
+    @JsonProperty("streams")
+    public abstract Map<String, Sampling> streams();
+
+    /**
+     * The prefix of the fields which are set to the number of messages a retained message stands for, followed by
+     * an underscore and the stream id, e. g. {@code sampling_weight_<stream id>}.
+     */
+    @JsonProperty("weight_field")
+    public abstract String weightField();
+
+    @JsonCreator
+    public static StreamSamplingConfig create(@JsonProperty("streams") @Nullable Map<String, Sampling> streams,
+                                              @JsonProperty("weight_field") @Nullable String weightField) {
+        return new AutoValue_StreamSamplingConfig(
+                streams == null ? ImmutableMap.of() : ImmutableMap.copyOf(streams),
+                weightField == null ? DEFAULT_WEIGHT_FIELD : weightField);
+    }
+
+    public static StreamSamplingConfig defaultConfig() {
+        return create(null, null);
+    }
+
+    @JsonAutoDetect
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    @AutoValue
+    public abstract static class Sampling {
+        /**
+         * Keep one in this many messages. Values below 2 keep every message.
+         */
+        @JsonProperty("keep_one_in")
+        public abstract int keepOneIn();
+
+        /**
+         * Keep about this many messages per second, zero for no limit. If {@link #keepOneIn()} is set as well, the
+         * stricter setting wins.
+         */
+        @JsonProperty("target_rate")
+        public abstract double targetRate();
+
+        /**
+         * The field whose value decides if a message is kept. Messages with equal values are kept or dropped together.
+         */
+        @JsonProperty("hash_field")
+        public abstract String hashField();
+
+        @JsonCreator
+        public static Sampling create(@JsonProperty("keep_one_in") @Nullable Integer keepOneIn,
+                                      @JsonProperty("target_rate") @Nullable Double targetRate,
+                                      @JsonProperty("hash_field") @Nullable String hashField) {
+            return new AutoValue_StreamSamplingConfig_Sampling(
+                    keepOneIn == null ? 1 : keepOneIn,
+                    targetRate == null ? 0.0d : targetRate,
+                    hashField == null ? Message.FIELD_ID : hashField);
+        }
+    }
+}
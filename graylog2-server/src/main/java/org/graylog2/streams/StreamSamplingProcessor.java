@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Messages;
+import org.graylog2.plugin.messageprocessors.MessageProcessor;
+
+import javax.inject.Inject;
+
+/**
+ * Removes messages from the streams which keep only a sample of them. Runs after the stream rules and pipelines, so
+ * it sees the final streams of the messages.
+ */
+public class StreamSamplingProcessor implements MessageProcessor {
+    public static class Descriptor implements MessageProcessor.Descriptor {
+        @Override
+        public String name() {
+            return "Stream Sampler";
+        }
+
+        @Override
+        public String className() {
+            return StreamSamplingProcessor.class.getCanonicalName();
+        }
+    }
+
+    private final StreamSampler streamSampler;
+
+    @Inject
+    public StreamSamplingProcessor(StreamSampler streamSampler) {
+        this.streamSampler = streamSampler;
+    }
+
+    @Override
+    public Messages process(Messages messages) {
+        for (Message message : messages) {
+            if (!message.getFilterOut()) {
+                streamSampler.sample(message);
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Finds all occurrences of a fixed set of strings in a text with a single pass over the text, using the
+ * Aho-Corasick algorithm. Instances are immutable and can be shared between threads.
+ */
+public class AhoCorasickMatcher {
+    private static final int ROOT = 0;
+
+    // Indexed by node: the sorted characters of the outgoing trie edges and their target nodes
+    private final char[][] edgeCharacters;
+    private final int[][] edgeTargets;
+    private final int[] failureLinks;
+    // Indexed by node: the patterns ending at the node, including the ones reachable through failure links
+    private final int[][] outputs;
+    private final int patternCount;
+
+    /**
+     * @param patterns the non-empty strings to search for, the index of a pattern in this list identifies it
+     *                 in the results of {@link #find(CharSequence)}
+     */
+    public AhoCorasickMatcher(List<String> patterns) {
+        final List<Map<Character, Integer>> trie = new ArrayList<>();
+        final List<List<Integer>> nodeOutputs = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        nodeOutputs.add(new ArrayList<>());
+
+        for (int i = 0; i < patterns.size(); i++) {
+            final String pattern = patterns.get(i);
+            checkArgument(pattern != null && !pattern.isEmpty(), "Patterns must not be empty");
+
+            int node = ROOT;
+            for (int c = 0; c < pattern.length(); c++) {
+                final Integer next = trie.get(node).get(pattern.charAt(c));
+                if (next == null) {
+                    trie.add(new TreeMap<>());
+                    nodeOutputs.add(new ArrayList<>());
+                    trie.get(node).put(pattern.charAt(c), trie.size() - 1);
+                    node = trie.size() - 1;
+                } else {
+                    node = next;
+                }
+            }
+            nodeOutputs.get(node).add(i);
+        }
+
+        final int nodes = trie.size();
+        this.edgeCharacters = new char[nodes][];
+        this.edgeTargets = new int[nodes][];
+        for (int node = 0; node < nodes; node++) {
+            final Map<Character, Integer> edges = trie.get(node);
+            edgeCharacters[node] = new char[edges.size()];
+            edgeTargets[node] = new int[edges.size()];
+            int edge = 0;
+            for (Map.Entry<Character, Integer> entry : edges.entrySet()) {
+                edgeCharacters[node][edge] = entry.getKey();
+                edgeTargets[node][edge] = entry.getValue();
+                edge++;
+            }
+        }
+
+        // Breadth-first traversal, so the failure link of a node's parent is always known before the node itself
+        this.failureLinks = new int[nodes];
+        final Deque<Integer> queue = new ArrayDeque<>();
+        for (int target : edgeTargets[ROOT]) {
+            failureLinks[target] = ROOT;
+            queue.add(target);
+        }
+        while (!queue.isEmpty()) {
+            final int node = queue.poll();
+            for (int edge = 0; edge < edgeCharacters[node].length; edge++) {
+                final char c = edgeCharacters[node][edge];
+                final int target = edgeTargets[node][edge];
+                queue.add(target);
+
+                int failure = failureLinks[node];
+                while (failure != ROOT && transition(failure, c) == -1) {
+                    failure = failureLinks[failure];
+                }
+                final int failureTarget = transition(failure, c);
+                failureLinks[target] = failureTarget == -1 ? ROOT : failureTarget;
+                nodeOutputs.get(target).addAll(nodeOutputs.get(failureLinks[target]));
+            }
+        }
+
+        this.outputs = new int[nodes][];
+        for (int node = 0; node < nodes; node++) {
+            outputs[node] = nodeOutputs.get(node).stream().mapToInt(Integer::intValue).distinct().toArray();
+        }
+        this.patternCount = patterns.size();
+    }
+
+    /**
+     * Returns the indexes of all patterns which occur in the given text.
+     *
+     * @param text the text to search
+     * @return the set of pattern indexes found in the text
+     */
+    public BitSet find(CharSequence text) {
+        final BitSet found = new BitSet(patternCount);
+        int foundCount = 0;
+        int node = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next = transition(node, c);
+            while (next == -1 && node != ROOT) {
+                node = failureLinks[node];
+                next = transition(node, c);
+            }
+            node = next == -1 ? ROOT : next;
+
+            for (int pattern : outputs[node]) {
+                if (!found.get(pattern)) {
+                    found.set(pattern);
+                    if (++foundCount == patternCount) {
+                        return found;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private int transition(int node, char c) {
+        final int edge = Arrays.binarySearch(edgeCharacters[node], c);
+        return edge < 0 ? -1 : edgeTargets[node][edge];
+    }
+}
@@ -51,8 +51,8 @@ public class LenientExplicitOrdering<T> extends Ordering<T> {
             return ((Comparable) left).compareTo(right);
         }
         if (leftIdx == null) {
-            return -1;
+            return 1;
         }
-        return 1;
+        return -1;
     }
 }
@@ -18,7 +18,10 @@ package org.graylog.plugins.beats;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.logging.LoggingHandler;
@@ -27,9 +30,19 @@ import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -231,6 +244,102 @@ public class BeatsFrameDecoderTest {
         }
     }
 
+    @Test
+    public void decodeLargeCompressedFrameOnDecodingExecutor() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2,
+                new ThreadFactoryBuilder().setNameFormat("beats-decoder-test-%d").build());
+        try {
+            final BeatsFrameDecoder offloadingDecoder = new BeatsFrameDecoder(executor);
+            final EmbeddedChannel offloadingChannel = new EmbeddedChannel(offloadingDecoder);
+
+            // random payloads, so the compressed window is large enough to be offloaded
+            final int windowSize = 200;
+            final ByteBuf buffer = Unpooled.copiedBuffer(
+                    buildWindowSizeFrame(windowSize),
+                    buildLargeCompressedFrame(randomJsonFrames(windowSize)),
+                    buildWindowSizeFrame(1),
+                    buildDataFrame(ImmutableMap.of("foo", "bar"), 1));
+
+            offloadingChannel.writeInbound(buffer);
+            final List<ByteBuf> events = new ArrayList<>();
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (events.size() < windowSize + 1 && System.nanoTime() < deadline) {
+                offloadingChannel.runPendingTasks();
+                ByteBuf event;
+                while ((event = offloadingChannel.readInbound()) != null) {
+                    events.add(event);
+                }
+                Thread.sleep(10L);
+            }
+
+            assertThat(events).hasSize(windowSize + 1);
+            for (int i = 0; i < windowSize; i++) {
+                final Map<String, Object> result = objectMapper.readValue(ByteBufUtil.getBytes(events.get(i)), TypeReferences.MAP_STRING_OBJECT);
+                assertThat(result).containsEntry("sequence", i + 1);
+            }
+            final Map<String, Object> last = objectMapper.readValue(ByteBufUtil.getBytes(events.get(windowSize)), TypeReferences.MAP_STRING_OBJECT);
+            assertThat(last).containsEntry("foo", "bar");
+
+            assertThat(extractSequenceNumber(offloadingChannel.readOutbound())).isEqualTo(windowSize);
+            assertThat(extractSequenceNumber(offloadingChannel.readOutbound())).isEqualTo(1L);
+            assertThat((Object) offloadingChannel.readOutbound()).isNull();
+            offloadingChannel.finish();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void releasesOffloadedFramesAndClosesChannelWhenDecodingExecutorRejects() throws Exception {
+        final BeatsFrameDecoder offloadingDecoder = new BeatsFrameDecoder(command -> {
+            throw new RejectedExecutionException("shut down");
+        });
+        final EmbeddedChannel offloadingChannel = new EmbeddedChannel(offloadingDecoder);
+        final ByteBuf buffer = Unpooled.copiedBuffer(
+                buildWindowSizeFrame(2),
+                buildLargeCompressedFrame(randomJsonFrames(200)),
+                buildDataFrame(ImmutableMap.of("foo", "bar"), 2));
+
+        try {
+            offloadingChannel.writeInbound(buffer);
+        } catch (Exception ignored) {
+            // the decoder exception is rethrown by the embedded channel
+        }
+        offloadingChannel.runPendingTasks();
+
+        assertThat(buffer.refCnt()).isEqualTo(0);
+        assertThat(offloadingChannel.isOpen()).isFalse();
+        assertThat((Object) offloadingChannel.readInbound()).isNull();
+        assertThat((Object) offloadingChannel.readOutbound()).isNull();
+    }
+
+    private byte[] randomJsonFrames(int count) throws IOException {
+        final Random random = new Random(42L);
+        final ByteBuf window = Unpooled.buffer();
+        for (int i = 1; i <= count; i++) {
+            final byte[] value = new byte[512];
+            random.nextBytes(value);
+            final String json = "{\"sequence\":" + i + ",\"value\":\"" + BaseEncoding.base16().encode(value) + "\"}";
+            window.writeBytes(buildJsonFrame(json.getBytes(StandardCharsets.UTF_8), i));
+        }
+        return ByteBufUtil.getBytes(window);
+    }
+
+    private ByteBuf buildLargeCompressedFrame(byte[] payload) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+            out.write(payload);
+        }
+        assertThat(compressed.size()).isGreaterThan(64 * 1024);
+
+        final ByteBuf buffer = Unpooled.buffer(6 + compressed.size());
+        buffer.writeByte('2');
+        buffer.writeByte('C');
+        buffer.writeInt(compressed.size());
+        buffer.writeBytes(compressed.toByteArray());
+        return buffer;
+    }
+
     private long extractSequenceNumber(ByteBuf buffer) {
         assertThat(buffer.readByte()).isEqualTo((byte) '2');
         assertThat(buffer.readByte()).isEqualTo((byte) 'A');
@@ -19,6 +19,7 @@ package org.graylog.plugins.map.geoip;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.eaio.uuid.UUID;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import com.google.common.net.InetAddresses;
 import org.graylog.plugins.map.ConditionalRunner;
@@ -146,4 +147,32 @@ public class GeoIpResolverEngineTest {
         assertFieldResolved(message, "extracted_ip", "Should have resolved public IP");
         assertFieldResolved(message, "ipv6", "Should have resolved public IPv6");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void filterResolvesOnlyConfiguredFields() {
+        final GeoIpResolverEngine resolver = new GeoIpResolverEngine(config.toBuilder().fields(ImmutableList.of("extracted_ip", "missing")).build(), metricRegistry);
+
+        final Map<String, Object> messageFields = Maps.newHashMap();
+        messageFields.put("_id", (new UUID()).toString());
+        messageFields.put("extracted_ip", "1.2.3.4");
+        messageFields.put("ipv6", "2001:4860:4860::8888");
+
+        final Message message = new Message(messageFields);
+        resolver.filter(message);
+
+        assertFieldResolved(message, "extracted_ip", "Should have resolved configured field");
+        assertFieldNotResolved(message, "ipv6", "Should not have resolved field which is not configured");
+    }
+
+    @Test
+    public void cachesLocationInformation() {
+        final GeoIpResolverEngine resolver = new GeoIpResolverEngine(config, metricRegistry);
+
+        assertTrue(resolver.extractGeoLocationInformation("1.2.3.4").isPresent());
+        assertTrue(resolver.extractGeoLocationInformation("1.2.3.4").isPresent());
+        assertFalse(resolver.extractGeoLocationInformation("192.168.0.1").isPresent());
+        assertFalse(resolver.extractGeoLocationInformation("192.168.0.1").isPresent());
+
+        assertEquals("Should have looked up each IP once", 2, metricRegistry.timer(name(GeoIpResolverEngine.class, "resolveTime")).getCount());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.netflow.v9;
+
+import com.google.common.collect.ImmutableList;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NetFlowV9RecordDecoderTest {
+    private static final ImmutableList<NetFlowV9FieldDef> DEFINITIONS = ImmutableList.of(
+            fieldDef(1, NetFlowV9FieldType.ValueType.UINT8, 1),
+            fieldDef(2, NetFlowV9FieldType.ValueType.UINT16, 2),
+            fieldDef(3, NetFlowV9FieldType.ValueType.UINT24, 3),
+            fieldDef(4, NetFlowV9FieldType.ValueType.UINT32, 4),
+            fieldDef(5, NetFlowV9FieldType.ValueType.UINT64, 8),
+            fieldDef(6, NetFlowV9FieldType.ValueType.UINT64, 6),
+            fieldDef(7, NetFlowV9FieldType.ValueType.INT8, 1),
+            fieldDef(8, NetFlowV9FieldType.ValueType.INT16, 2),
+            fieldDef(9, NetFlowV9FieldType.ValueType.INT24, 3),
+            fieldDef(10, NetFlowV9FieldType.ValueType.INT32, 4),
+            fieldDef(11, NetFlowV9FieldType.ValueType.INT64, 8),
+            fieldDef(12, NetFlowV9FieldType.ValueType.IPV4, 4),
+            fieldDef(13, NetFlowV9FieldType.ValueType.IPV6, 16),
+            fieldDef(14, NetFlowV9FieldType.ValueType.MAC, 6),
+            fieldDef(15, NetFlowV9FieldType.ValueType.STRING, 8),
+            fieldDef(16, NetFlowV9FieldType.ValueType.SKIP, 5));
+
+    private static NetFlowV9FieldDef fieldDef(int id, NetFlowV9FieldType.ValueType valueType, int length) {
+        return NetFlowV9FieldDef.create(NetFlowV9FieldType.create(id, valueType, "FIELD_" + id), length);
+    }
+
+    @Test
+    public void decodesSameValuesAsFieldDefinitions() {
+        final NetFlowV9Template template = NetFlowV9Template.create(256, DEFINITIONS.size(), DEFINITIONS);
+        final NetFlowV9RecordDecoder decoder = template.decoder();
+        final int recordCount = 10;
+
+        final byte[] bytes = new byte[decoder.recordLength() * recordCount + 3];
+        new Random(42L).nextBytes(bytes);
+        // Use a printable string value
+        for (int record = 0; record < recordCount; record++) {
+            final int stringOffset = record * decoder.recordLength() + 1 + 2 + 3 + 4 + 8 + 6 + 1 + 2 + 3 + 4 + 8 + 4 + 16 + 6;
+            System.arraycopy(" value  ".getBytes(StandardCharsets.US_ASCII), 0, bytes, stringOffset, 8);
+        }
+
+        final ByteBuf bb = Unpooled.wrappedBuffer(bytes);
+        final List<NetFlowV9BaseRecord> records = decoder.decodeRecords(bb, 0, bytes.length);
+
+        assertThat(records).hasSize(recordCount);
+        assertThat(bb.readerIndex()).isZero();
+        for (NetFlowV9BaseRecord record : records) {
+            assertThat(record).isInstanceOf(NetFlowV9Record.class);
+            for (NetFlowV9FieldDef def : DEFINITIONS) {
+                final Optional<Object> expected = def.parse(bb);
+                final Object actual = record.fields().get(def.type().name().toLowerCase(Locale.ROOT));
+                assertThat(Optional.ofNullable(actual)).as(def.toString()).isEqualTo(expected);
+            }
+        }
+        assertThat(record(records, 0).get("field_15")).isEqualTo("value");
+        assertThat(record(records, 0)).doesNotContainKey("field_16");
+    }
+
+    @Test
+    public void decodesOptionRecordsWithScopes() {
+        final NetFlowV9OptionTemplate optionTemplate = NetFlowV9OptionTemplate.create(257,
+                ImmutableList.of(NetFlowV9ScopeDef.create(1, 4)),
+                ImmutableList.of(fieldDef(34, NetFlowV9FieldType.ValueType.UINT32, 4)));
+        final ByteBuf bb = Unpooled.buffer()
+                .writeInt(100)
+                .writeInt(0x0a000001)
+                .writeShort(0); // padding
+
+        final List<NetFlowV9BaseRecord> records = optionTemplate.decoder().decodeRecords(bb, 0, bb.writerIndex());
+
+        assertThat(records).hasSize(1);
+        final NetFlowV9OptionRecord record = (NetFlowV9OptionRecord) records.get(0);
+        assertThat(record.fields()).containsEntry("field_34", 100L);
+        assertThat(record.scopes()).containsEntry(1, 0x0a000001L);
+    }
+
+    private static Map<String, Object> record(List<NetFlowV9BaseRecord> records, int index) {
+        return records.get(index).fields();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.Stage;
+import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
+import org.graylog.plugins.pipelineprocessor.db.PipelineDao;
+import org.graylog.plugins.pipelineprocessor.db.PipelineService;
+import org.graylog.plugins.pipelineprocessor.db.PipelineStreamConnectionsService;
+import org.graylog.plugins.pipelineprocessor.db.RuleDao;
+import org.graylog.plugins.pipelineprocessor.db.RuleMetricsConfigDto;
+import org.graylog.plugins.pipelineprocessor.db.RuleMetricsConfigService;
+import org.graylog.plugins.pipelineprocessor.db.RuleService;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.StringConversion;
+import org.graylog.plugins.pipelineprocessor.functions.messages.CreateMessage;
+import org.graylog.plugins.pipelineprocessor.functions.messages.DropMessage;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.RemoveField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetField;
+import org.graylog.plugins.pipelineprocessor.parser.FunctionRegistry;
+import org.graylog.plugins.pipelineprocessor.parser.PipelineRuleParser;
+import org.graylog.plugins.pipelineprocessor.processors.listeners.NoopInterpreterListener;
+import org.graylog.plugins.pipelineprocessor.rest.PipelineConnections;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.shared.messageq.MessageQueueAcknowledger;
+import org.graylog2.system.shutdown.GracefulShutdownService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.graylog2.plugin.streams.Stream.DEFAULT_STREAM_ID;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ParallelStageEvaluatorTest {
+    private static final Map<String, Function<?>> FUNCTIONS = ImmutableMap.<String, Function<?>>builder()
+            .put(CreateMessage.NAME, new CreateMessage())
+            .put(DropMessage.NAME, new DropMessage())
+            .put(HasField.NAME, new HasField())
+            .put(RemoveField.NAME, new RemoveField())
+            .put(SetField.NAME, new SetField())
+            .put(StringConversion.NAME, new StringConversion())
+            .build();
+
+    private MetricRegistry metricRegistry;
+    private GracefulShutdownService gracefulShutdownService;
+    private ParallelStageEvaluator evaluator;
+    private ConfigurationStateUpdater stateUpdater;
+
+    @Before
+    public void setUp() {
+        metricRegistry = new MetricRegistry();
+        gracefulShutdownService = new GracefulShutdownService();
+        evaluator = new ParallelStageEvaluator(true, 1, 4, metricRegistry, gracefulShutdownService);
+    }
+
+    @Test
+    public void independentPipelinesAreEvaluatedInParallel() {
+        final PipelineInterpreter interpreter = createPipelineInterpreter(ImmutableList.of(
+                rule("set_a", "when true then set_field(\"a\", \"1\"); end"),
+                rule("set_b", "when true then set_field(\"b\", \"2\"); remove_field(\"obsolete\"); end"),
+                rule("drop", "when has_field(\"c\") then drop_message(); end")
+        ), ImmutableList.of(
+                pipeline("p1", "stage 0 match all rule \"set_a\";"),
+                pipeline("p2", "stage 0 match all rule \"set_b\";"),
+                pipeline("p3", "stage 0 match all rule \"drop\";")
+        ));
+
+        final Message message = messageInDefaultStream();
+        message.addField("obsolete", "value");
+        message.addField("c", "value");
+
+        interpreter.process(message);
+
+        assertThat(message.getField("a")).isEqualTo("1");
+        assertThat(message.getField("b")).isEqualTo("2");
+        assertThat(message.hasField("obsolete")).isFalse();
+        assertThat(message.getFilterOut()).isTrue();
+        assertThat(metricRegistry.meter(name(PipelineInterpreter.class, "parallelStageSlices")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void dependentPipelinesAreEvaluatedSequentially() {
+        final PipelineInterpreter interpreter = createPipelineInterpreter(ImmutableList.of(
+                rule("set_a", "when true then set_field(\"a\", \"1\"); end"),
+                rule("copy_a", "when true then set_field(\"b\", to_string($message.a)); end")
+        ), ImmutableList.of(
+                pipeline("p1", "stage 0 match all rule \"set_a\";"),
+                pipeline("p2", "stage 0 match all rule \"copy_a\";")
+        ));
+
+        final Message message = messageInDefaultStream();
+        interpreter.process(message);
+
+        assertThat(message.getField("a")).isEqualTo("1");
+        assertThat(metricRegistry.meter(name(PipelineInterpreter.class, "parallelStageSlices")).getCount()).isEqualTo(0);
+        assertThat(metricRegistry.meter(name(PipelineInterpreter.class, "dependentStageSlices")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void createdMessagesAreMergedInStageOrder() {
+        final PipelineInterpreter interpreter = createPipelineInterpreter(ImmutableList.of(
+                rule("create_1", "when true then create_message(\"first\"); end"),
+                rule("create_2", "when true then create_message(\"second\"); end"),
+                rule("create_3", "when true then create_message(\"third\"); end")
+        ), ImmutableList.of(
+                pipeline("p1", "stage 0 match all rule \"create_1\";"),
+                pipeline("p2", "stage 0 match all rule \"create_2\";"),
+                pipeline("p3", "stage 0 match all rule \"create_3\";")
+        ));
+
+        for (int i = 0; i < 20; i++) {
+            final Message message = messageInDefaultStream();
+            final List<Message> created = interpreter.processForPipelines(message,
+                    ImmutableSet.of("p1", "p2", "p3"),
+                    new NoopInterpreterListener(),
+                    stateUpdater.getLatestState());
+
+            // the stages of a slice are ordered like the selected pipelines
+            assertThat(created.stream().map(Message::getMessage).collect(Collectors.toList()))
+                    .containsExactly("first", "second", "third");
+        }
+    }
+
+    @Test
+    public void stagesWithUnknownFunctionsAreNotAnalyzable() {
+        // the anonymous subclass lives outside of the bundled functions package
+        final Function<String> custom = new StringConversion() {
+        };
+        final PipelineRuleParser parser = new PipelineRuleParser(new FunctionRegistry(ImmutableMap.of(StringConversion.NAME, custom)));
+        final Rule rule = parser.parseRule("rule \"custom\" when true then to_string(\"x\"); end", false);
+        final Stage stage = Stage.builder()
+                .stage(0)
+                .match(Stage.Match.ALL)
+                .ruleReferences(ImmutableList.of("custom"))
+                .build();
+        stage.setRules(ImmutableList.of(rule));
+
+        assertThat(StageFootprint.of(stage).isAnalyzable()).isFalse();
+    }
+
+    private PipelineInterpreter createPipelineInterpreter(List<RuleDao> rules, List<PipelineDao> pipelines) {
+        final RuleService ruleService = mock(RuleService.class);
+        when(ruleService.loadAll()).thenReturn(rules);
+        final PipelineService pipelineService = mock(PipelineService.class);
+        when(pipelineService.loadAll()).thenReturn(pipelines);
+        final RuleMetricsConfigService ruleMetricsConfigService = mock(RuleMetricsConfigService.class);
+        when(ruleMetricsConfigService.get()).thenReturn(RuleMetricsConfigDto.createDefault());
+        final PipelineStreamConnectionsService pipelineStreamConnectionsService = mock(PipelineStreamConnectionsService.class);
+        final ImmutableSet<String> pipelineIds = pipelines.stream().map(PipelineDao::id).collect(ImmutableSet.toImmutableSet());
+        when(pipelineStreamConnectionsService.loadAll()).thenReturn(Collections.singleton(
+                PipelineConnections.create("c1", DEFAULT_STREAM_ID, pipelineIds)));
+
+        stateUpdater = new ConfigurationStateUpdater(ruleService,
+                pipelineService,
+                pipelineStreamConnectionsService,
+                new PipelineRuleParser(new FunctionRegistry(FUNCTIONS)),
+                ruleMetricsConfigService,
+                new MetricRegistry(),
+                Executors.newScheduledThreadPool(1, new ThreadFactoryBuilder().setNameFormat("stage-evaluator-test-%d").build()),
+                mock(EventBus.class),
+                (currentPipelines, streamPipelineConnections, ruleMetricsConfig) -> new PipelineInterpreter.State(currentPipelines, streamPipelineConnections, ruleMetricsConfig, new MetricRegistry(), 1, true)
+        );
+        return new PipelineInterpreter(mock(MessageQueueAcknowledger.class), new MetricRegistry(), stateUpdater, evaluator);
+    }
+
+    private static RuleDao rule(String name, String body) {
+        return RuleDao.create(name, name, name, "rule \"" + name + "\" " + body, null, null);
+    }
+
+    private static PipelineDao pipeline(String id, String stages) {
+        return PipelineDao.create(id, id, id, "pipeline \"" + id + "\" " + stages + " end", null, null);
+    }
+
+    private static Message messageInDefaultStream() {
+        final Message msg = new Message("message", "source", Tools.nowUTC());
+        final Stream mockedStream = mock(Stream.class);
+        when(mockedStream.getId()).thenReturn(DEFAULT_STREAM_ID);
+        msg.addStream(mockedStream);
+        return msg;
+    }
+}
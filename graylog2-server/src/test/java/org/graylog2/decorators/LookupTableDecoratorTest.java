@@ -29,7 +29,9 @@ import org.graylog2.rest.models.system.indexer.responses.IndexRangeSummary;
 import org.graylog2.rest.resources.search.responses.SearchResponse;
 import org.junit.Test;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -60,10 +62,12 @@ public class LookupTableDecoratorTest {
 
         final SearchResponse searchResponse = createSearchResponse(messages);
 
-        when(function.lookup("0")).thenReturn(LookupResult.single("zero"));
-        when(function.lookup("1")).thenReturn(LookupResult.single("one"));
-        when(function.lookup("2")).thenReturn(LookupResult.empty());
-        when(function.lookup("3")).thenReturn(null);
+        final Map<Object, LookupResult> results = new HashMap<>();
+        results.put("0", LookupResult.single("zero"));
+        results.put("1", LookupResult.single("one"));
+        results.put("2", LookupResult.empty());
+        results.put("3", null);
+        when(function.lookupAll(ImmutableSet.<Object>of("0", "1", "2", "3"))).thenReturn(results);
 
         final SearchResponse response = lookupTableDecorator.apply(searchResponse);
 
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.filters;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.inputs.Extractor;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExtractorConditionPrefilterTest {
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Test
+    void requiredLiteral() {
+        assertThat(ExtractorConditionPrefilter.requiredLiteral("foo")).isEqualTo("foo");
+        assertThat(ExtractorConditionPrefilter.requiredLiteral("^foo bar\\d+")).isEqualTo("foo bar");
+        assertThat(ExtractorConditionPrefilter.requiredLiteral("foo\\.bar.*")).isEqualTo("foo.bar");
+        assertThat(ExtractorConditionPrefilter.requiredLiteral("foos?")).isEqualTo("foo");
+        assertThat(ExtractorConditionPrefilter.requiredLiteral("foo(bar|baz)")).isEqualTo("foo");
+        assertThat(ExtractorConditionPrefilter.requiredLiteral("foo|bar")).isNull();
+        assertThat(ExtractorConditionPrefilter.requiredLiteral("(?i)foo")).isNull();
+        assertThat(ExtractorConditionPrefilter.requiredLiteral("\\Qfoo\\E")).isNull();
+        assertThat(ExtractorConditionPrefilter.requiredLiteral("\\d+foo")).isNull();
+        assertThat(ExtractorConditionPrefilter.requiredLiteral("f*oo")).isNull();
+        assertThat(ExtractorConditionPrefilter.requiredLiteral("[|]foo")).isNull();
+    }
+
+    @Test
+    void prefiltersStringAndRegexConditions() throws Exception {
+        final ImmutableList<Extractor> extractors = ImmutableList.of(
+                extractor("1", "message", Extractor.ConditionType.STRING, "sshd"),
+                extractor("2", "message", Extractor.ConditionType.STRING, "cron"),
+                extractor("3", "message", Extractor.ConditionType.REGEX, "^Accepted \\w+"),
+                extractor("4", "message", Extractor.ConditionType.REGEX, "\\d+"),
+                extractor("5", "message", Extractor.ConditionType.NONE, null),
+                extractor("6", "other", Extractor.ConditionType.STRING, "sshd"));
+        final ExtractorConditionPrefilter prefilter = ExtractorConditionPrefilter.create(extractors);
+
+        final Message message = message("sshd[123]: Accepted publickey for user");
+        message.addField("other", "sshd");
+        final ExtractorConditionPrefilter.Evaluation evaluation = prefilter.evaluate(message);
+
+        assertThat(prefilter.extractors()).isEqualTo(extractors);
+        assertThat(evaluation.conditionMatched(0)).isTrue();
+        assertThat(evaluation.conditionMatched(1)).isFalse();
+        // The literal occurs, but the regular expression still has to be evaluated
+        assertThat(evaluation.conditionMatched(2)).isNull();
+        assertThat(evaluation.conditionMatched(3)).isNull();
+        assertThat(evaluation.conditionMatched(4)).isNull();
+        // A single literal on a source field is not prefiltered
+        assertThat(evaluation.conditionMatched(5)).isNull();
+
+        final ExtractorConditionPrefilter.Evaluation missEvaluation = prefilter.evaluate(message("CRON[42]: session opened"));
+        assertThat(missEvaluation.conditionMatched(0)).isFalse();
+        assertThat(missEvaluation.conditionMatched(1)).isFalse();
+        assertThat(missEvaluation.conditionMatched(2)).isFalse();
+    }
+
+    @Test
+    void rescansChangedSourceField() throws Exception {
+        final ExtractorConditionPrefilter prefilter = ExtractorConditionPrefilter.create(ImmutableList.of(
+                extractor("1", "message", Extractor.ConditionType.STRING, "foo"),
+                extractor("2", "message", Extractor.ConditionType.STRING, "bar")));
+        final Message message = message("foo");
+        final ExtractorConditionPrefilter.Evaluation evaluation = prefilter.evaluate(message);
+
+        assertThat(evaluation.conditionMatched(1)).isFalse();
+
+        message.addField("message", "bar");
+
+        assertThat(evaluation.conditionMatched(0)).isFalse();
+        assertThat(evaluation.conditionMatched(1)).isTrue();
+    }
+
+    @Test
+    void keepsConditionMetrics() throws Exception {
+        final Extractor fooExtractor = extractor("1", "message", Extractor.ConditionType.STRING, "foo");
+        final Extractor barExtractor = extractor("2", "message", Extractor.ConditionType.REGEX, "bar");
+        final ExtractorConditionPrefilter prefilter = ExtractorConditionPrefilter.create(ImmutableList.of(fooExtractor, barExtractor));
+        final Message message = message("foo");
+        final ExtractorConditionPrefilter.Evaluation evaluation = prefilter.evaluate(message);
+
+        fooExtractor.runExtractor(message, evaluation.conditionMatched(0));
+        barExtractor.runExtractor(message, evaluation.conditionMatched(1));
+
+        assertThat(message.getField("target_1")).isEqualTo("extracted");
+        assertThat(message.hasField("target_2")).isFalse();
+        assertThat(metricRegistry.getCounters((name, metric) -> name.endsWith("1.conditionHits")).values())
+                .allSatisfy(counter -> assertThat(counter.getCount()).isEqualTo(1L));
+        assertThat(metricRegistry.getCounters((name, metric) -> name.endsWith("2.conditionMisses")).values())
+                .allSatisfy(counter -> assertThat(counter.getCount()).isEqualTo(1L));
+    }
+
+    private Message message(String text) {
+        return new Message(text, "source", new DateTime(2021, 1, 1, 0, 0, DateTimeZone.UTC));
+    }
+
+    private Extractor extractor(String id, String sourceField, Extractor.ConditionType conditionType, String conditionValue) throws Exception {
+        return new Extractor(metricRegistry, id, "title-" + id, Long.parseLong(id), Extractor.Type.COPY_INPUT,
+                Extractor.CursorStrategy.COPY, sourceField, "target_" + id, Collections.emptyMap(), "admin",
+                Collections.emptyList(), conditionType, conditionValue) {
+            @Override
+            protected Result[] run(String field) {
+                return new Result[]{new Result("extracted", -1, -1)};
+            }
+        };
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.grok;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.krakens.grok.api.Grok;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of the {@link JavaGrokMatcher} and the {@link CompiledGrokMatcher} for every bundled
+ * Grok pattern against a set of sample lines.
+ * <p>
+ * Run it with the test classpath, optionally passing the number of measurement iterations as the first argument.
+ */
+public class GrokMatcherBenchmark {
+    private static final int WARMUP_ITERATIONS = 200;
+
+    public static void main(String[] args) throws Exception {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        final Map<String, String> patterns = CompiledGrokMatcherTest.loadBundledPatterns(new ObjectMapper());
+        final List<String> lines = CompiledGrokMatcherTest.SAMPLE_LINES;
+
+        final List<String> names = new ArrayList<>(patterns.keySet());
+        names.sort(String::compareTo);
+
+        long javaGrokTotal = 0;
+        long compiledTotal = 0;
+        System.out.printf(Locale.ENGLISH, "%-20s %15s %15s %8s%n", "pattern", "java-grok ns/op", "compiled ns/op", "speedup");
+        for (String name : names) {
+            final Grok grok = CompiledGrokMatcherTest.compile(patterns, "%{" + name + "}", false);
+            final GrokMatcher javaGrok = new JavaGrokMatcher(grok);
+            final GrokMatcher compiled = CompiledGrokMatcher.compile(grok);
+
+            run(javaGrok, lines, WARMUP_ITERATIONS);
+            run(compiled, lines, WARMUP_ITERATIONS);
+
+            final long javaGrokNanos = run(javaGrok, lines, iterations);
+            final long compiledNanos = run(compiled, lines, iterations);
+            javaGrokTotal += javaGrokNanos;
+            compiledTotal += compiledNanos;
+
+            final long operations = (long) iterations * lines.size();
+            System.out.printf(Locale.ENGLISH, "%-20s %15d %15d %7.2fx%n",
+                    name, javaGrokNanos / operations, compiledNanos / operations, (double) javaGrokNanos / compiledNanos);
+        }
+
+        System.out.printf(Locale.ENGLISH, "%-20s %15d %15d %7.2fx%n", "TOTAL (ms)",
+                TimeUnit.NANOSECONDS.toMillis(javaGrokTotal), TimeUnit.NANOSECONDS.toMillis(compiledTotal),
+                (double) javaGrokTotal / compiledTotal);
+    }
+
+    private static long run(GrokMatcher matcher, List<String> lines, int iterations) {
+        final int[] captures = new int[1];
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (String line : lines) {
+                matcher.forEachCapture(line, (field, value) -> captures[0]++);
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        if (captures[0] < 0) {
+            throw new IllegalStateException("Unreachable, prevents dead code elimination");
+        }
+        return elapsed;
+    }
+}
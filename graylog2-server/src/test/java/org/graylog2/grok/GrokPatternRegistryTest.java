@@ -34,6 +34,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.Mockito.when;
 
 public class GrokPatternRegistryTest {
@@ -106,6 +107,22 @@ public class GrokPatternRegistryTest {
         grokPatternRegistry.cachedGrokForPattern("%{EMPTY}", true);
     }
 
+    @Test
+    public void cachedGrokMatcherForPatternUsesConfiguredEngine() {
+        final GrokPatternRegistry compiledRegistry = new GrokPatternRegistry(eventBus, grokPatternService,
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("compiled-updater-%d").build()),
+                GrokPatternRegistry.ENGINE_COMPILED);
+
+        final GrokMatcher javaGrokMatcher = grokPatternRegistry.cachedGrokMatcherForPattern("%{TESTNUM:num}", true);
+        final GrokMatcher compiledMatcher = compiledRegistry.cachedGrokMatcherForPattern("%{TESTNUM:num}", true);
+
+        assertThat(javaGrokMatcher).isInstanceOf(JavaGrokMatcher.class);
+        assertThat(compiledMatcher).isInstanceOf(CompiledGrokMatcher.class);
+        assertThat(compiledMatcher.captureFlattened("abc 123"))
+                .containsOnly(entry("num", "123"))
+                .isEqualTo(javaGrokMatcher.captureFlattened("abc 123"));
+    }
+
     @Test
     public void patterns() {
         assertThat(grokPatternRegistry.patterns()).isEqualTo(GROK_PATTERNS);
@@ -19,6 +19,8 @@ package org.graylog2.inputs.codecs;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import org.graylog2.plugin.InstantMillisProvider;
@@ -34,14 +36,21 @@ import org.junit.Test;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.graylog2.inputs.codecs.GelfChunkAggregator.BUFFERED_BYTES;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.CHUNK_COUNTER;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.COMPLETE_MESSAGES;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.ChunkEntry;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.DUPLICATE_CHUNKS;
+import static org.graylog2.inputs.codecs.GelfChunkAggregator.EVICTED_MESSAGES;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.EXPIRED_CHUNKS;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.EXPIRED_MESSAGES;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.WAITING_MESSAGES;
@@ -259,44 +268,82 @@ public class GelfChunkAggregatorTest {
     }
 
     @Test
-    public void testChunkEntryCompareTo() throws Exception {
-        // Test if the ChunkEntry#compareTo() method can handle ChunkEntry objects which have the same timestamp.
-        // See: https://github.com/Graylog2/graylog2-server/issues/1462
+    public void evictsOldestMessagesIfBufferIsFull() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        // a single stripe, so that all messages share the buffer
+        aggregator = new GelfChunkAggregator(poolExecutor, metricRegistry, Size.kilobytes(2L), 1);
 
-        final ConcurrentSkipListSet<GelfChunkAggregator.ChunkEntry> sortedEvictionSet = new ConcurrentSkipListSet<>();
-        final long currentTime = System.currentTimeMillis();
+        final ByteBuf[] msg1 = createChunkedMessage(2047, 1024, generateMessageId(1)); // 2 chunks
+        final ByteBuf[] msg2 = createChunkedMessage(2047, 1024, generateMessageId(2)); // 2 chunks
+        final ByteBuf[] msg3 = createChunkedMessage(2047, 1024, generateMessageId(3)); // 2 chunks
 
-        for (int i = 0; i < 10; i++) {
-            sortedEvictionSet.add(new GelfChunkAggregator.ChunkEntry(1, currentTime, "a" + i));
-        }
+        assertNull(aggregator.addChunk(msg1[0]).getMessage());
+        assertNull(aggregator.addChunk(msg2[0]).getMessage());
+        // exceeds the limit and evicts the oldest message
+        assertNull(aggregator.addChunk(msg3[0]).getMessage());
 
-        final int size = sortedEvictionSet.size();
+        assertNull("message 1 has been evicted", aggregator.addChunk(msg1[1]).getMessage());
+        assertNotNull("message 3 should be complete", aggregator.addChunk(msg3[1]).getMessage());
 
-        for (int i = 0; i < size; i++) {
-            sortedEvictionSet.remove(sortedEvictionSet.first());
+        assertEquals(1, counterValueNamed(metricRegistry, COMPLETE_MESSAGES));
+        assertEquals(2, counterValueNamed(metricRegistry, EVICTED_MESSAGES));
+        assertEquals(1, counterValueNamed(metricRegistry, WAITING_MESSAGES));
+        assertEquals(0, counterValueNamed(metricRegistry, EXPIRED_MESSAGES));
+        assertThat(metricRegistry.getGauges().get(BUFFERED_BYTES).getValue()).isEqualTo(1023L);
+    }
+
+    @Test
+    public void reassemblesMessagesOnConcurrentThreads() throws Exception {
+        final int threads = 4;
+        final int messagesPerThread = 500;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("gelf-chunk-aggregator-test-%d").build());
+        try {
+            final List<Future<Integer>> completed = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                final int firstId = thread * messagesPerThread;
+                completed.add(executor.submit(() -> {
+                    int complete = 0;
+                    for (int id = firstId; id < firstId + messagesPerThread; id++) {
+                        for (ByteBuf chunk : createChunkedMessage(2560, 1024, generateMessageId(id))) {
+                            if (aggregator.addChunk(chunk).getMessage() != null) {
+                                complete++;
+                            }
+                        }
+                    }
+                    return complete;
+                }));
+            }
+            for (Future<Integer> future : completed) {
+                assertEquals(messagesPerThread, (int) future.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
         }
 
-        assertTrue("eviction set should be empty", sortedEvictionSet.isEmpty());
+        assertEquals(threads * messagesPerThread, counterValueNamed(metricRegistry, COMPLETE_MESSAGES));
+        assertEquals(0, counterValueNamed(metricRegistry, WAITING_MESSAGES));
+        assertThat(metricRegistry.getGauges().get(BUFFERED_BYTES).getValue()).isEqualTo(0L);
     }
 
     @Test
     public void testChunkEntryEquals() throws Exception {
-        final GelfChunkAggregator.ChunkEntry entry = new ChunkEntry(1, 0L, "id");
+        final GelfChunkAggregator.ChunkEntry entry = new ChunkEntry(1, 0L, 1L);
 
-        assertThat(entry).isEqualTo(new ChunkEntry(1, 0L, "id"));
-        assertThat(entry).isEqualTo(new ChunkEntry(2, 0L, "id"));
-        assertThat(entry).isNotEqualTo(new ChunkEntry(1, 1L, "id"));
-        assertThat(entry).isNotEqualTo(new ChunkEntry(1, 0L, "foo"));
+        assertThat(entry).isEqualTo(new ChunkEntry(1, 0L, 1L));
+        assertThat(entry).isEqualTo(new ChunkEntry(2, 0L, 1L));
+        assertThat(entry).isNotEqualTo(new ChunkEntry(1, 1L, 1L));
+        assertThat(entry).isNotEqualTo(new ChunkEntry(1, 0L, 2L));
     }
 
     @Test
     public void testChunkEntryHashCode() throws Exception {
-        final GelfChunkAggregator.ChunkEntry entry = new ChunkEntry(1, 0L, "id");
+        final GelfChunkAggregator.ChunkEntry entry = new ChunkEntry(1, 0L, 1L);
 
-        assertThat(entry.hashCode()).isEqualTo(new ChunkEntry(1, 0L, "id").hashCode());
-        assertThat(entry.hashCode()).isEqualTo(new ChunkEntry(2, 0L, "id").hashCode());
-        assertThat(entry.hashCode()).isNotEqualTo(new ChunkEntry(1, 1L, "id").hashCode());
-        assertThat(entry.hashCode()).isNotEqualTo(new ChunkEntry(1, 0L, "foo").hashCode());
+        assertThat(entry.hashCode()).isEqualTo(new ChunkEntry(1, 0L, 1L).hashCode());
+        assertThat(entry.hashCode()).isEqualTo(new ChunkEntry(2, 0L, 1L).hashCode());
+        assertThat(entry.hashCode()).isNotEqualTo(new ChunkEntry(1, 1L, 1L).hashCode());
+        assertThat(entry.hashCode()).isNotEqualTo(new ChunkEntry(1, 0L, 2L).hashCode());
     }
 
     private ByteBuf[] createChunkedMessage(int messageSize, int maxChunkSize) {
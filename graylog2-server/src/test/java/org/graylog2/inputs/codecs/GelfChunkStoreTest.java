@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.graylog2.inputs.codecs.GelfChunkAggregator.ChunkEntry;
+
+public class GelfChunkStoreTest {
+    @Test
+    public void expiresOnlyOutdatedEntries() {
+        final GelfChunkStore store = new GelfChunkStore(5000L, 1000L, 1024L, 0L);
+        store.add(new ChunkEntry(2, 0L, 1L));
+        store.add(new ChunkEntry(2, 1500L, 2L));
+        store.add(new ChunkEntry(2, 1500L, 3L));
+        store.add(new ChunkEntry(2, 4000L, 4L));
+
+        final List<Long> expired = new ArrayList<>();
+        store.expire(5000L, entry -> expired.add(entry.id));
+        assertThat(expired).isEmpty();
+
+        store.expire(5001L, entry -> expired.add(entry.id));
+        assertThat(expired).containsExactly(1L);
+
+        store.remove(3L);
+        store.expire(7000L, entry -> expired.add(entry.id));
+        assertThat(expired).containsExactly(1L, 2L);
+        assertThat(store.size()).isEqualTo(1);
+
+        // skipping more than a full rotation of the wheel still expires everything
+        store.expire(60000L, entry -> expired.add(entry.id));
+        assertThat(expired).containsExactly(1L, 2L, 4L);
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    public void evictsOldestEntriesFirst() {
+        final GelfChunkStore store = new GelfChunkStore(5000L, 1000L, 100L, 0L);
+        for (long i = 1; i <= 5; i++) {
+            final ChunkEntry entry = new ChunkEntry(1, i * 700L, i);
+            store.add(entry);
+            store.addBytes(entry, 30);
+        }
+        assertThat(store.bufferedBytes()).isEqualTo(150L);
+
+        final List<Long> evicted = new ArrayList<>();
+        store.evictOverflow(entry -> evicted.add(entry.id));
+
+        assertThat(evicted).containsExactly(1L, 2L);
+        assertThat(store.bufferedBytes()).isEqualTo(90L);
+        assertThat(store.get(1L)).isNull();
+        assertThat(store.get(3L)).isNotNull();
+    }
+
+    @Test
+    public void removeKeepsBucketsLinked() {
+        final GelfChunkStore store = new GelfChunkStore(5000L, 1000L, 1024L, 0L);
+        for (long i = 1; i <= 4; i++) {
+            store.add(new ChunkEntry(1, 0L, i));
+        }
+
+        assertThat(store.remove(4L)).isNotNull();
+        assertThat(store.remove(1L)).isNotNull();
+        assertThat(store.remove(1L)).isNull();
+        store.add(new ChunkEntry(1, 0L, 5L));
+
+        final List<Long> expired = new ArrayList<>();
+        store.expire(10000L, entry -> expired.add(entry.id));
+        assertThat(expired).containsExactly(2L, 3L, 5L);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.transports;
+
+import com.codahale.metrics.Timer;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.journal.RawMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AmqpChannelConsumerTest {
+    private Channel channel;
+    private MessageInput input;
+    private AmqpTransport transport;
+    private ScheduledExecutorService flushExecutor;
+    private AtomicLong unackedDeliveries;
+    private AtomicLong bytesRead;
+    private Timer ackLatency;
+    private AmqpChannelConsumer consumer;
+
+    @Before
+    public void setUp() {
+        channel = mock(Channel.class);
+        when(channel.isOpen()).thenReturn(true);
+        input = mock(MessageInput.class);
+        transport = mock(AmqpTransport.class);
+        flushExecutor = mock(ScheduledExecutorService.class);
+        doReturn(mock(ScheduledFuture.class)).when(flushExecutor).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        doAnswer(invocation -> {
+            invocation.getArgument(0, Runnable.class).run();
+            return null;
+        }).when(flushExecutor).execute(any(Runnable.class));
+        unackedDeliveries = new AtomicLong();
+        bytesRead = new AtomicLong();
+        ackLatency = new Timer();
+        consumer = new AmqpChannelConsumer(channel, input, transport, 3, 100L, true, flushExecutor,
+                bytesRead::addAndGet, unackedDeliveries, ackLatency);
+    }
+
+    @Test
+    public void acknowledgesBatchOnceItHasBeenWritten() throws Exception {
+        deliver(1L, 2L, 3L);
+
+        final ArgumentCaptor<List<RawMessage>> messages = messagesCaptor();
+        final ArgumentCaptor<Runnable> onWritten = ArgumentCaptor.forClass(Runnable.class);
+        verify(input).processRawMessages(messages.capture(), onWritten.capture());
+        assertThat(messages.getValue()).hasSize(3);
+        assertThat(unackedDeliveries.get()).isEqualTo(3L);
+        assertThat(bytesRead.get()).isEqualTo(15L);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+        onWritten.getValue().run();
+
+        verify(channel).basicAck(3L, true);
+        assertThat(unackedDeliveries.get()).isZero();
+        assertThat(ackLatency.getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void sendsAcknowledgementOnFlushExecutor() throws Exception {
+        doNothing().when(flushExecutor).execute(any(Runnable.class));
+        deliver(1L, 2L, 3L);
+        final ArgumentCaptor<Runnable> onWritten = ArgumentCaptor.forClass(Runnable.class);
+        verify(input).processRawMessages(anyList(), onWritten.capture());
+
+        onWritten.getValue().run();
+
+        // the journal writer must not block on the broker
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        assertThat(unackedDeliveries.get()).isZero();
+
+        final ArgumentCaptor<Runnable> sendAck = ArgumentCaptor.forClass(Runnable.class);
+        verify(flushExecutor).execute(sendAck.capture());
+        sendAck.getValue().run();
+        verify(channel).basicAck(3L, true);
+
+        // already acknowledged, so running it again must not send another ack
+        sendAck.getValue().run();
+        verify(channel, times(1)).basicAck(anyLong(), anyBoolean());
+    }
+
+    @Test
+    public void flushesPartialBatchAfterLinger() throws Exception {
+        deliver(1L);
+        verify(input, never()).processRawMessages(anyList(), any());
+
+        final ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+        verify(flushExecutor).schedule(flush.capture(), eq(100L), eq(TimeUnit.MILLISECONDS));
+        flush.getValue().run();
+
+        final ArgumentCaptor<Runnable> onWritten = ArgumentCaptor.forClass(Runnable.class);
+        verify(input).processRawMessages(anyList(), onWritten.capture());
+        onWritten.getValue().run();
+        verify(channel).basicAck(1L, true);
+    }
+
+    @Test
+    public void flushesBeforeBlockingWhileThrottled() throws Exception {
+        deliver(1L);
+        when(transport.isThrottled()).thenReturn(true);
+        deliver(2L);
+
+        final InOrder inOrder = inOrder(input, transport);
+        inOrder.verify(input).processRawMessages(anyList(), any());
+        inOrder.verify(transport).blockUntilUnthrottled();
+    }
+
+    @Test
+    public void rejectsBatchIfItCannotBeProcessed() throws Exception {
+        doThrow(new IllegalStateException("boom")).when(input).processRawMessages(anyList(), any());
+
+        deliver(1L, 2L, 3L);
+
+        verify(channel).basicNack(1L, false, true);
+        verify(channel).basicNack(2L, false, true);
+        verify(channel).basicNack(3L, false, true);
+        verify(channel, never()).basicNack(anyLong(), eq(true), anyBoolean());
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        assertThat(unackedDeliveries.get()).isZero();
+    }
+
+    @Test
+    public void acknowledgesOnlyUpToTheFirstBatchStillBeingWritten() throws Exception {
+        deliver(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L);
+        final ArgumentCaptor<Runnable> onWritten = ArgumentCaptor.forClass(Runnable.class);
+        verify(input, times(3)).processRawMessages(anyList(), onWritten.capture());
+        final List<Runnable> callbacks = onWritten.getAllValues();
+
+        callbacks.get(2).run();
+        callbacks.get(1).run();
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        assertThat(unackedDeliveries.get()).isEqualTo(3L);
+
+        callbacks.get(0).run();
+        verify(channel).basicAck(9L, true);
+        verify(channel, times(1)).basicAck(anyLong(), anyBoolean());
+        assertThat(unackedDeliveries.get()).isZero();
+        assertThat(ackLatency.getCount()).isEqualTo(3L);
+    }
+
+    @Test
+    public void acknowledgesBatchesAfterRejectedOne() throws Exception {
+        deliver(1L, 2L, 3L);
+        final ArgumentCaptor<Runnable> onWritten = ArgumentCaptor.forClass(Runnable.class);
+        verify(input).processRawMessages(anyList(), onWritten.capture());
+        doThrow(new IllegalStateException("boom")).when(input).processRawMessages(anyList(), any());
+        deliver(4L, 5L, 6L);
+
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        verify(channel).basicNack(4L, false, true);
+
+        onWritten.getValue().run();
+        verify(channel).basicAck(3L, true);
+        assertThat(unackedDeliveries.get()).isZero();
+    }
+
+    @Test
+    public void doesNotAcknowledgeBatchesFromBeforeRecovery() throws Exception {
+        deliver(1L, 2L, 3L);
+        final ArgumentCaptor<Runnable> onWritten = ArgumentCaptor.forClass(Runnable.class);
+        verify(input).processRawMessages(anyList(), onWritten.capture());
+
+        consumer.handleRecoveryStarted(null);
+        onWritten.getValue().run();
+
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        assertThat(unackedDeliveries.get()).isZero();
+    }
+
+    private void deliver(long... deliveryTags) throws Exception {
+        for (long deliveryTag : deliveryTags) {
+            consumer.handleDelivery("consumer", new Envelope(deliveryTag, false, "exchange", "key"), null,
+                    "hello".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<List<RawMessage>> messagesCaptor() {
+        return ArgumentCaptor.forClass((Class) List.class);
+    }
+}
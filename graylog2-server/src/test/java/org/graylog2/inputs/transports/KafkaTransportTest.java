@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.transports;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class KafkaTransportTest {
+    @Test
+    public void updatesLagOfAssignedPartitions() {
+        final Map<MetricName, Metric> metrics = ImmutableMap.of(
+                lagMetricName("logs", 0), metric(42.0d),
+                lagMetricName("logs", 1), metric(Double.NaN),
+                lagMetricName("revoked", 0), metric(23.0d),
+                new MetricName("records-lag-max", "consumer-fetch-manager-metrics", "", ImmutableMap.of()), metric(100.0d));
+        final Map<TopicPartition, Long> partitionLags = new HashMap<>();
+        partitionLags.put(new TopicPartition("logs", 0), 0L);
+        partitionLags.put(new TopicPartition("logs", 1), 7L);
+
+        KafkaTransport.updatePartitionLags(metrics, partitionLags);
+
+        assertThat(partitionLags).containsOnly(
+                entry(new TopicPartition("logs", 0), 42L),
+                entry(new TopicPartition("logs", 1), 7L));
+    }
+
+    private static MetricName lagMetricName(String topic, int partition) {
+        return new MetricName("records-lag", "consumer-fetch-manager-metrics", "",
+                ImmutableMap.of("client-id", "gl2-test", "topic", topic, "partition", String.valueOf(partition)));
+    }
+
+    private static Metric metric(double value) {
+        final Metric metric = mock(Metric.class);
+        when(metric.metricValue()).thenReturn(value);
+        return metric;
+    }
+}
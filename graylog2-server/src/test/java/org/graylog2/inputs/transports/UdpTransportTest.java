@@ -17,6 +17,7 @@
 package org.graylog2.inputs.transports;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.github.joschi.jadconfig.util.Size;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.primitives.Ints;
@@ -28,11 +29,13 @@ import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.FixedRecvByteBufAllocator;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.Epoll;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.util.ReferenceCountUtil;
 import org.apache.commons.lang3.SystemUtils;
 import org.graylog2.inputs.transports.netty.EventLoopGroupFactory;
+import org.graylog2.inputs.transports.netty.UdpSocketDropCounters;
 import org.graylog2.plugin.LocalMetricRegistry;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
@@ -223,6 +226,78 @@ public class UdpTransportTest {
         assertThat(gauges.get(ThroughputCounter.READ_BYTES_TOTAL).getValue()).isEqualTo(1024L);
     }
 
+    @Test
+    public void registersPerSocketThroughputMetrics() throws Exception {
+        final CountingChannelUpstreamHandler handler = new CountingChannelUpstreamHandler();
+        final UdpTransport transport = launchTransportForBootStrapTest(handler);
+        final MetricRegistry metricRegistry = (MetricRegistry) transport.getMetricSet();
+        try {
+            await().atMost(5, TimeUnit.SECONDS).until(() -> transport.getLocalAddress() != null);
+            final InetSocketAddress localAddress = (InetSocketAddress) transport.getLocalAddress();
+
+            sendUdpDatagram(BIND_ADDRESS, localAddress.getPort(), 512);
+            await().atMost(5, TimeUnit.SECONDS).until(() -> handler.getBytesWritten().size() == 1);
+
+            final String readBytesTotal = MetricRegistry.name(UdpTransport.SOCKET_METRIC_PREFIX, "0", ThroughputCounter.READ_BYTES_TOTAL);
+            assertThat(metricRegistry.getGauges().get(readBytesTotal).getValue()).isEqualTo(512L);
+        } finally {
+            transport.stop();
+        }
+
+        assertThat(metricRegistry.getGauges().keySet()).noneMatch(name -> name.startsWith(UdpTransport.SOCKET_METRIC_PREFIX + "."));
+    }
+
+    @Test
+    public void usesSingleSocketWithNioTransport() {
+        final Configuration configuration = new Configuration(ImmutableMap.<String, Object>builder()
+                .putAll(CONFIG_SOURCE)
+                .put(UdpTransport.CK_NUMBER_SOCKETS, 4)
+                .build());
+        final UdpTransport transport = new UdpTransport(configuration, eventLoopGroupFactory, nettyTransportConfiguration, throughputCounter, new LocalMetricRegistry());
+
+        assertThat(transport.getNumberOfSockets()).isEqualTo(1);
+    }
+
+    @Test
+    public void bindsMultipleSocketsWithEpollTransport() throws Exception {
+        assumeTrue("Skipping test intended for systems supporting epoll", Epoll.isAvailable());
+
+        final NettyTransportConfiguration epollConfiguration = new NettyTransportConfiguration("epoll", "jdk", 1);
+        final EventLoopGroupFactory epollEventLoopGroupFactory = new EventLoopGroupFactory(epollConfiguration);
+        // all sockets have to share the port, so a fixed port is required
+        final int port;
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getByName(BIND_ADDRESS))) {
+            port = socket.getLocalPort();
+        }
+        final Configuration configuration = new Configuration(ImmutableMap.of(
+                NettyTransport.CK_BIND_ADDRESS, BIND_ADDRESS,
+                NettyTransport.CK_PORT, port,
+                NettyTransport.CK_RECV_BUFFER_SIZE, RECV_BUFFER_SIZE,
+                NettyTransport.CK_NUMBER_WORKER_THREADS, 1,
+                UdpTransport.CK_NUMBER_SOCKETS, 2));
+        final LocalMetricRegistry metricRegistry = new LocalMetricRegistry();
+        final UdpTransport transport = new UdpTransport(configuration, epollEventLoopGroupFactory, epollConfiguration, throughputCounter, metricRegistry);
+        final MessageInput messageInput = mock(MessageInput.class);
+        when(messageInput.getId()).thenReturn("TEST");
+        when(messageInput.getName()).thenReturn("TEST");
+
+        assertThat(transport.getNumberOfSockets()).isEqualTo(2);
+        transport.launch(messageInput);
+        try {
+            assertThat(metricRegistry.getGauges().keySet()).contains(
+                    MetricRegistry.name(UdpTransport.SOCKET_METRIC_PREFIX, "0", ThroughputCounter.READ_BYTES_TOTAL),
+                    MetricRegistry.name(UdpTransport.SOCKET_METRIC_PREFIX, "1", ThroughputCounter.READ_BYTES_TOTAL));
+            if (UdpSocketDropCounters.isSupported()) {
+                final Gauge<?> drops = metricRegistry.getGauges()
+                        .get(MetricRegistry.name(UdpTransport.SOCKET_METRIC_PREFIX, "1", UdpTransport.RECEIVE_BUFFER_DROPS));
+                assertThat(drops).isNotNull();
+                assertThat(drops.getValue()).isEqualTo(0L);
+            }
+        } finally {
+            transport.stop();
+        }
+    }
+
     private UdpTransport launchTransportForBootStrapTest(final ChannelInboundHandler channelHandler) throws MisfireException {
         final UdpTransport transport = new UdpTransport(CONFIGURATION, eventLoopGroupFactory, nettyTransportConfiguration, throughputCounter, new LocalMetricRegistry()) {
             @Override
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.transports.netty;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.journal.RawMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class BulkHttpHandlerTest {
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        final MessageInput input = mock(MessageInput.class);
+        doAnswer(invocation -> {
+            final List<RawMessage> rawMessages = invocation.getArgument(0);
+            final List<String> batch = new CopyOnWriteArrayList<>();
+            for (RawMessage rawMessage : rawMessages) {
+                batch.add(rawMessage.getPayloadAsString(StandardCharsets.UTF_8));
+                rawMessage.release();
+            }
+            batches.add(batch);
+            return null;
+        }).when(input).processRawMessages(anyList());
+        channel = new EmbeddedChannel(new HttpContentDecompressor(), new BulkHttpHandler(input, true, 16));
+    }
+
+    @Test
+    public void splitsLinesAcrossChunks() {
+        channel.writeInbound(request("/gelf"));
+        channel.writeInbound(content("{\"a\":1}\n{\"b\""));
+        channel.writeInbound(content(":2}\r\n\n{\"c\":3}"));
+        channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+
+        assertThat(batches).containsExactly(
+                singleton("{\"a\":1}"),
+                singleton("{\"b\":2}"),
+                singleton("{\"c\":3}"));
+        assertThat(readResponse().status()).isEqualTo(HttpResponseStatus.ACCEPTED);
+    }
+
+    @Test
+    public void decodesCompressedBody() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write("{\"a\":1}\n{\"b\":2}\n".getBytes(StandardCharsets.UTF_8));
+        }
+        final HttpRequest request = request("/gelf");
+        request.headers().set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+
+        channel.writeInbound(request);
+        channel.writeInbound(new DefaultLastHttpContent(Unpooled.wrappedBuffer(bytes.toByteArray())));
+
+        assertThat(batches).flatExtracting(batch -> batch).containsExactly("{\"a\":1}", "{\"b\":2}");
+        assertThat(readResponse().status()).isEqualTo(HttpResponseStatus.ACCEPTED);
+    }
+
+    @Test
+    public void discardsTooLongLines() {
+        channel.writeInbound(request("/gelf"));
+        channel.writeInbound(content("{\"a\":1}\n{\"too_long\":"));
+        channel.writeInbound(content("\"0123456789\"}\n{\"b\":2}\n"));
+        channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+
+        assertThat(batches).flatExtracting(batch -> batch).containsExactly("{\"a\":1}", "{\"b\":2}");
+        assertThat(readResponse().status()).isEqualTo(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+    }
+
+    @Test
+    public void rejectsUnknownPath() {
+        channel.writeInbound(request("/foo"));
+        channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("{\"a\":1}", StandardCharsets.UTF_8)));
+
+        assertThat(batches).isEmpty();
+        assertThat(readResponse().status()).isEqualTo(HttpResponseStatus.NOT_FOUND);
+    }
+
+    private HttpResponse readResponse() {
+        final HttpResponse response = channel.readOutbound();
+        assertThat(channel.<Object>readOutbound()).isNull();
+        return response;
+    }
+
+    private static HttpRequest request(String uri) {
+        final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, uri);
+        request.headers().add(HttpHeaderNames.HOST, "localhost");
+        request.headers().add(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        return request;
+    }
+
+    private static DefaultHttpContent content(String content) {
+        return new DefaultHttpContent(Unpooled.copiedBuffer(content, StandardCharsets.UTF_8));
+    }
+
+    private static List<String> singleton(String line) {
+        final List<String> batch = new CopyOnWriteArrayList<>();
+        batch.add(line);
+        return batch;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.transports.netty;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UdpSocketDropCountersTest {
+    @Test
+    public void parseDropsReadsInodeAndDropsColumns() throws Exception {
+        final String procNetUdp = "   sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode ref pointer drops\n" +
+                "  137: 00000000:3039 00000000:0000 07 00000000:00000000 00:00000000 00000000  1000        0 36745 2 0000000000000000 0\n" +
+                "  137: 00000000:3039 00000000:0000 07 00000000:00034000 00:00000000 00000000  1000        0 36746 2 0000000000000000 1337\n" +
+                "  invalid line\n";
+
+        final Map<Long, Long> drops = UdpSocketDropCounters.parseDrops(new StringReader(procNetUdp));
+
+        assertThat(drops)
+                .hasSize(2)
+                .containsEntry(36745L, 0L)
+                .containsEntry(36746L, 1337L);
+    }
+}
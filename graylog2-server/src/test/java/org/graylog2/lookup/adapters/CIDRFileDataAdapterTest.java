@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.Resources;
+import com.google.common.net.InetAddresses;
+import org.graylog2.lookup.AllowedAuxiliaryPathChecker;
+import org.graylog2.lookup.adapters.cidr.CIDRTrie;
+import org.graylog2.plugin.lookup.LookupCachePurge;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
+import static org.graylog2.lookup.adapters.CIDRFileDataAdapter.Config;
+import static org.graylog2.lookup.adapters.CIDRFileDataAdapter.NAME;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CIDRFileDataAdapterTest {
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Path csvFile;
+    private CIDRFileDataAdapter adapter;
+
+    @Mock
+    AllowedAuxiliaryPathChecker pathChecker;
+
+    @Mock
+    private LookupCachePurge cachePurge;
+
+    public CIDRFileDataAdapterTest() throws Exception {
+        final URL resource = Resources.getResource("org/graylog2/lookup/adapters/CIDRFileDataAdapterTest.csv");
+        this.csvFile = Paths.get(resource.toURI());
+    }
+
+    @Test
+    public void doGet_returns_value_of_longest_prefix() throws Exception {
+        adapter = new CIDRFileDataAdapter("id", "name", baseConfig(), new MetricRegistry(), pathChecker);
+        when(pathChecker.fileIsInAllowedPath(isA(Path.class))).thenReturn(true);
+        adapter.doStart();
+
+        assertFalse(adapter.getError().isPresent());
+        assertThat(adapter.doGet("10.2.3.4")).isEqualTo(LookupResult.single("internal"));
+        assertThat(adapter.doGet("10.1.3.4")).isEqualTo(LookupResult.single("servers"));
+        assertThat(adapter.doGet("192.168.1.15")).isEqualTo(LookupResult.single("printers"));
+        assertThat(adapter.doGet("192.168.1.21")).isEqualTo(LookupResult.empty());
+        assertThat(adapter.doGet("2001:db8::1")).isEqualTo(LookupResult.single("ipv6-lab"));
+        assertThat(adapter.doGet("172.16.0.1")).isEqualTo(LookupResult.single("gateway"));
+        assertThat(adapter.doGet(InetAddresses.forString("10.0.0.1"))).isEqualTo(LookupResult.single("internal"));
+        assertThat(adapter.doGet("not-an-ip")).isEqualTo(LookupResult.empty());
+    }
+
+    @Test
+    public void doGet_failure_filePathInvalid() {
+        adapter = new CIDRFileDataAdapter("id", "name", baseConfig(), new MetricRegistry(), pathChecker);
+        when(pathChecker.fileIsInAllowedPath(isA(Path.class))).thenReturn(false);
+        assertThatThrownBy(() -> adapter.doStart())
+                .isExactlyInstanceOf(IllegalStateException.class)
+                .hasMessageStartingWith(CSVFileDataAdapter.ALLOWED_PATH_ERROR);
+    }
+
+    @Test
+    public void refresh_failure_disallowedFileLocation() throws Exception {
+        adapter = new CIDRFileDataAdapter("id", "name", baseConfig(), new MetricRegistry(), pathChecker);
+        when(pathChecker.fileIsInAllowedPath(isA(Path.class))).thenReturn(true).thenReturn(false);
+        adapter.doStart();
+        adapter.doRefresh(cachePurge);
+        assertTrue(adapter.getError().isPresent());
+    }
+
+    @Test
+    public void refresh_failure_malformedFileKeepsPreviousData() throws Exception {
+        final Path file = temporaryFolder.newFile("cidr.csv").toPath();
+        Files.write(file, "network,zone\n10.0.0.0/8,internal\n".getBytes(StandardCharsets.UTF_8));
+        adapter = new CIDRFileDataAdapter("id", "name", baseConfig(file), new MetricRegistry(), pathChecker);
+        when(pathChecker.fileIsInAllowedPath(isA(Path.class))).thenReturn(true);
+        adapter.doStart();
+
+        Files.write(file, "network,zone\n10.0.0.0/8,changed\n10.1.0.0/16\n".getBytes(StandardCharsets.UTF_8));
+        adapter.doRefresh(cachePurge);
+
+        assertTrue(adapter.getError().isPresent());
+        assertThat(adapter.doGet("10.1.2.3")).isEqualTo(LookupResult.single("internal"));
+        verify(cachePurge, never()).purgeAll();
+    }
+
+    @Test
+    public void addRange_rejects_invalid_ranges() {
+        final CIDRTrie<String> trie = new CIDRTrie<>();
+        assertThatThrownBy(() -> CIDRFileDataAdapter.addRange(trie, "10.0.0.0/33", "value"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> CIDRFileDataAdapter.addRange(trie, "10.0.0.0/x", "value"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> CIDRFileDataAdapter.addRange(trie, "10.0.0.300", "value"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private Config baseConfig() {
+        return baseConfig(csvFile);
+    }
+
+    private Config baseConfig(Path path) {
+        return Config.builder()
+                     .type(NAME)
+                     .path(path.toString())
+                     .separator(",")
+                     .quotechar("\"")
+                     .keyColumn("network")
+                     .valueColumn("zone")
+                     .checkInterval(60)
+                     .build();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.lookup.adapters.dsvhttp.HTTPFileRetriever;
+import org.graylog2.plugin.lookup.LookupCachePurge;
+import org.graylog2.system.urlwhitelist.UrlWhitelistNotificationService;
+import org.graylog2.system.urlwhitelist.UrlWhitelistService;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class DSVHTTPDataAdapterTest {
+    private final LookupCachePurge cachePurge = mock(LookupCachePurge.class);
+
+    private DSVHTTPDataAdapter createAdapter(boolean caseInsensitive) {
+        final DSVHTTPDataAdapter.Config config = DSVHTTPDataAdapter.Config.builder()
+                .type(DSVHTTPDataAdapter.NAME)
+                .url("https://example.org/table.csv")
+                .separator(",")
+                .lineSeparator("\n")
+                .quotechar("\"")
+                .ignorechar("#")
+                .keyColumn(0)
+                .valueColumn(1)
+                .refreshInterval(60)
+                .caseInsensitiveLookup(caseInsensitive)
+                .checkPresenceOnly(false)
+                .build();
+        return new DSVHTTPDataAdapter("id", "name", config, new MetricRegistry(), mock(HTTPFileRetriever.class),
+                mock(UrlWhitelistService.class), mock(UrlWhitelistNotificationService.class));
+    }
+
+    @Test
+    public void purgesOnlyChangedKeys() {
+        final Map<String, String> oldTable = ImmutableMap.<String, String>builder()
+                .put("a", "1").put("b", "2").put("c", "3").put("d", "4").put("e", "5").put("g", "7").put("h", "8")
+                .build();
+        final Map<String, String> newTable = ImmutableMap.<String, String>builder()
+                .put("a", "1").put("b", "20").put("c", "3").put("d", "4").put("f", "6").put("g", "7").put("h", "8")
+                .build();
+
+        createAdapter(false).purgeChangedKeys(oldTable, newTable, cachePurge);
+
+        final Predicate<Object> purged = capturePurgedKeys();
+        assertThat(purged.test("b")).isTrue();
+        assertThat(purged.test("e")).isTrue();
+        assertThat(purged.test("f")).isTrue();
+        assertThat(purged.test("a")).isFalse();
+        assertThat(purged.test("B")).isFalse();
+    }
+
+    @Test
+    public void purgesChangedKeysLookedUpAsNumbers() {
+        final Map<String, String> oldTable = ImmutableMap.of("1", "a", "2", "b", "3", "c");
+        final Map<String, String> newTable = ImmutableMap.of("1", "a", "2", "x", "3", "c");
+
+        createAdapter(false).purgeChangedKeys(oldTable, newTable, cachePurge);
+
+        final Predicate<Object> purged = capturePurgedKeys();
+        assertThat(purged.test(2L)).isTrue();
+        assertThat(purged.test(2)).isTrue();
+        assertThat(purged.test(1L)).isFalse();
+    }
+
+    @Test
+    public void purgesAllIfMostKeysChanged() {
+        final Map<String, String> oldTable = ImmutableMap.of("a", "1", "b", "2", "c", "3");
+        final Map<String, String> newTable = ImmutableMap.of("a", "10", "b", "20", "c", "3");
+
+        createAdapter(false).purgeChangedKeys(oldTable, newTable, cachePurge);
+
+        verify(cachePurge).purgeAll();
+        verifyNoMoreInteractions(cachePurge);
+    }
+
+    @Test
+    public void purgesChangedKeysInAnyCaseForCaseInsensitiveLookups() {
+        final Map<String, String> oldTable = ImmutableMap.of("a", "1", "b", "2", "c", "3");
+        final Map<String, String> newTable = ImmutableMap.of("a", "1", "b", "20", "c", "3");
+
+        createAdapter(true).purgeChangedKeys(oldTable, newTable, cachePurge);
+
+        final Predicate<Object> purged = capturePurgedKeys();
+        assertThat(purged.test("b")).isTrue();
+        assertThat(purged.test("B")).isTrue();
+        assertThat(purged.test("A")).isFalse();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Predicate<Object> capturePurgedKeys() {
+        final ArgumentCaptor<Predicate<Object>> keyMatcher = ArgumentCaptor.forClass((Class) Predicate.class);
+        verify(cachePurge).purgeKeys(keyMatcher.capture());
+        verifyNoMoreInteractions(cachePurge);
+        return keyMatcher.getValue();
+    }
+}
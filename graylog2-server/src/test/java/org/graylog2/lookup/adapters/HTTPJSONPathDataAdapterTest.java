@@ -16,22 +16,38 @@
  */
 package org.graylog2.lookup.adapters;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.floreysoft.jmte.Engine;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.jayway.jsonpath.JsonPath;
+import okhttp3.Call;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.graylog2.lookup.dto.DataAdapterDto;
 import org.graylog2.plugin.lookup.LookupResult;
+import org.graylog2.system.urlwhitelist.UrlWhitelistNotificationService;
+import org.graylog2.system.urlwhitelist.UrlWhitelistService;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.ws.rs.core.HttpHeaders;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class HTTPJSONPathDataAdapterTest {
     private static Map<Object, Object> JSON = ImmutableMap.of(
@@ -96,4 +112,65 @@ public class HTTPJSONPathDataAdapterTest {
 
         assertThat(result).isNull();
     }
+
+    @Test
+    public void bulkLookupIsBoundByTheRequestTimeout() throws Exception {
+        // the dispatcher never runs the requests, so only the timeout of the adapter completes the lookup
+        final OkHttpClient httpClient = new OkHttpClient.Builder()
+                .dispatcher(new Dispatcher(mock(ExecutorService.class)))
+                .callTimeout(200, TimeUnit.MILLISECONDS)
+                .build();
+        final HTTPJSONPathDataAdapter adapter = startAdapter(httpClient, "http://127.0.0.1:1/?key=${key}");
+
+        final long start = System.nanoTime();
+        final Map<Object, LookupResult> results = adapter.getAll(ImmutableList.of("a", "b"));
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(5_000L);
+        assertThat(results).containsOnlyKeys("a", "b");
+        assertThat(results.values()).allMatch(LookupResult::hasError);
+        assertThat(httpClient.dispatcher().runningCalls()).hasSize(2).allMatch(Call::isCanceled);
+    }
+
+    @Test
+    public void notModifiedResponseReturnsPreviousResult() throws Exception {
+        try (final MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse()
+                    .setHeader(HttpHeaders.ETAG, "\"v1\"")
+                    .setBody(new ObjectMapper().writeValueAsString(JSON)));
+            server.enqueue(new MockResponse().setResponseCode(304));
+            server.start();
+            final HTTPJSONPathDataAdapter adapter = startAdapter(new OkHttpClient(), server.url("/lookup").toString() + "?key=${key}");
+
+            final LookupResult first = adapter.get("foo");
+            final LookupResult second = adapter.get("foo");
+
+            assertThat(first.hasError()).isFalse();
+            assertThat(first.singleValue()).isEqualTo("world");
+            assertThat(second).isEqualTo(first);
+            assertThat(server.takeRequest().getHeader(HttpHeaders.IF_NONE_MATCH)).isNull();
+            assertThat(server.takeRequest().getHeader(HttpHeaders.IF_NONE_MATCH)).isEqualTo("\"v1\"");
+        }
+    }
+
+    private HTTPJSONPathDataAdapter startAdapter(OkHttpClient httpClient, String url) {
+        final UrlWhitelistService urlWhitelistService = mock(UrlWhitelistService.class);
+        when(urlWhitelistService.isWhitelisted(anyString())).thenReturn(true);
+        final DataAdapterDto dto = DataAdapterDto.builder()
+                .id("5e4e6f2b3e8c2a0001a1b2c3")
+                .name("http-json-path")
+                .title("HTTP JSONPath")
+                .description("HTTP JSONPath")
+                .config(HTTPJSONPathDataAdapter.Config.builder()
+                        .type(HTTPJSONPathDataAdapter.NAME)
+                        .url(url)
+                        .singleValueJSONPath("$.hello")
+                        .userAgent("graylog-test")
+                        .headers(Collections.emptyMap())
+                        .build())
+                .build();
+        final HTTPJSONPathDataAdapter adapter = new HTTPJSONPathDataAdapter(dto, new Engine(), httpClient,
+                urlWhitelistService, mock(UrlWhitelistNotificationService.class), new MetricRegistry());
+        adapter.startAsync().awaitRunning();
+        return adapter;
+    }
 }
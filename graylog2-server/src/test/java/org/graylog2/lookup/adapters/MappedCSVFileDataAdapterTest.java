@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.Resources;
+import org.graylog2.lookup.AllowedAuxiliaryPathChecker;
+import org.graylog2.plugin.lookup.LookupCachePurge;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
+import static org.graylog2.lookup.adapters.MappedCSVFileDataAdapter.Config;
+import static org.graylog2.lookup.adapters.MappedCSVFileDataAdapter.NAME;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MappedCSVFileDataAdapterTest {
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Path csvFile;
+
+    @Mock
+    AllowedAuxiliaryPathChecker pathChecker;
+
+    @Mock
+    private LookupCachePurge cachePurge;
+
+    public MappedCSVFileDataAdapterTest() throws Exception {
+        final URL resource = Resources.getResource("org/graylog2/lookup/adapters/CSVFileDataAdapterTest.csv");
+        this.csvFile = Paths.get(resource.toURI());
+    }
+
+    @Test
+    public void doGet_successfully_returns_values() throws Exception {
+        final MappedCSVFileDataAdapter adapter = createAdapter(baseConfig(csvFile));
+        when(pathChecker.fileIsInAllowedPath(isA(Path.class))).thenReturn(true);
+        adapter.doStart();
+
+        assertThat(adapter.getError()).isEmpty();
+        assertThat(adapter.doGet("foo")).isEqualTo(LookupResult.single("23"));
+        assertThat(adapter.doGet("bar")).isEqualTo(LookupResult.single("42"));
+        assertThat(adapter.doGet("quux")).isEqualTo(LookupResult.empty());
+    }
+
+    @Test
+    public void doGet_case_insensitive() throws Exception {
+        final Config config = baseConfigBuilder(csvFile).caseInsensitiveLookup(true).build();
+        final MappedCSVFileDataAdapter adapter = createAdapter(config);
+        when(pathChecker.fileIsInAllowedPath(isA(Path.class))).thenReturn(true);
+        adapter.doStart();
+
+        assertThat(adapter.doGet("FOO")).isEqualTo(LookupResult.single("23"));
+    }
+
+    @Test
+    public void doGet_failure_filePathInvalid() {
+        final MappedCSVFileDataAdapter adapter = createAdapter(baseConfig(csvFile));
+        when(pathChecker.fileIsInAllowedPath((isA(Path.class)))).thenReturn(false);
+        assertThatThrownBy(adapter::doStart)
+                .isExactlyInstanceOf(IllegalStateException.class)
+                .hasMessageStartingWith(CSVFileDataAdapter.ALLOWED_PATH_ERROR);
+    }
+
+    @Test
+    public void refresh_replaces_index_when_file_changes() throws Exception {
+        final Path file = temporaryFolder.newFile("data.csv").toPath();
+        Files.write(file, "key,value\nfoo,1\n".getBytes(StandardCharsets.UTF_8));
+        final MappedCSVFileDataAdapter adapter = createAdapter(baseConfig(file));
+        when(pathChecker.fileIsInAllowedPath(isA(Path.class))).thenReturn(true);
+        adapter.doStart();
+        assertThat(adapter.doGet("foo")).isEqualTo(LookupResult.single("1"));
+
+        Files.write(file, "key,value\nfoo,2\nbar,3\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        adapter.doRefresh(cachePurge);
+
+        assertThat(adapter.getError()).isEmpty();
+        assertThat(adapter.doGet("foo")).isEqualTo(LookupResult.single("2"));
+        assertThat(adapter.doGet("bar")).isEqualTo(LookupResult.single("3"));
+        verify(cachePurge).purgeAll();
+        // the previous index file has been removed
+        try (Stream<Path> indexFiles = Files.list(temporaryFolder.getRoot().toPath().resolve("lookup-tables").resolve("id"))) {
+            assertThat(indexFiles).hasSize(1);
+        }
+    }
+
+    @Test
+    public void refresh_failure_keeps_previous_index() throws Exception {
+        final Path file = temporaryFolder.newFile("data.csv").toPath();
+        Files.write(file, "key,value\nfoo,1\n".getBytes(StandardCharsets.UTF_8));
+        final MappedCSVFileDataAdapter adapter = createAdapter(baseConfig(file));
+        when(pathChecker.fileIsInAllowedPath(isA(Path.class))).thenReturn(true);
+        adapter.doStart();
+
+        Files.write(file, "other,columns\nfoo,2\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        adapter.doRefresh(cachePurge);
+
+        assertThat(adapter.getError()).isPresent();
+        assertThat(adapter.doGet("foo")).isEqualTo(LookupResult.single("1"));
+    }
+
+    @Test
+    public void doStop_removes_index() throws Exception {
+        final MappedCSVFileDataAdapter adapter = createAdapter(baseConfig(csvFile));
+        when(pathChecker.fileIsInAllowedPath(isA(Path.class))).thenReturn(true);
+        adapter.doStart();
+        adapter.doStop();
+
+        try (Stream<Path> indexFiles = Files.list(temporaryFolder.getRoot().toPath().resolve("lookup-tables").resolve("id"))) {
+            assertThat(indexFiles).isEmpty();
+        }
+    }
+
+    private MappedCSVFileDataAdapter createAdapter(Config config) {
+        return new MappedCSVFileDataAdapter("id", "name", config, new MetricRegistry(), pathChecker, temporaryFolder.getRoot().toPath());
+    }
+
+    private Config baseConfig(Path path) {
+        return baseConfigBuilder(path).build();
+    }
+
+    private Config.Builder baseConfigBuilder(Path path) {
+        return Config.builder()
+                     .type(NAME)
+                     .path(path.toString())
+                     .separator(",")
+                     .quotechar("\"")
+                     .keyColumn("key")
+                     .valueColumn("value")
+                     .checkInterval(60)
+                     .caseInsensitiveLookup(false);
+    }
+}
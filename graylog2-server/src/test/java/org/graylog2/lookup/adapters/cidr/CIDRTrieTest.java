@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters.cidr;
+
+import com.google.common.net.InetAddresses;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CIDRTrieTest {
+    @Test
+    void longestPrefixMatch() {
+        final CIDRTrie<String> trie = new CIDRTrie<>();
+        trie.put(ip("10.0.0.0"), 8, "ten");
+        trie.put(ip("10.1.0.0"), 16, "ten-one");
+        trie.put(ip("10.1.2.3"), 32, "host");
+        trie.put(ip("192.168.0.0"), 24, "lan");
+
+        assertThat(trie.longestPrefixMatch(ip("10.2.3.4"))).isEqualTo("ten");
+        assertThat(trie.longestPrefixMatch(ip("10.1.3.4"))).isEqualTo("ten-one");
+        assertThat(trie.longestPrefixMatch(ip("10.1.2.3"))).isEqualTo("host");
+        assertThat(trie.longestPrefixMatch(ip("192.168.0.255"))).isEqualTo("lan");
+        assertThat(trie.longestPrefixMatch(ip("192.168.1.0"))).isNull();
+        assertThat(trie.longestPrefixMatch(ip("11.0.0.0"))).isNull();
+        assertThat(trie.size()).isEqualTo(4);
+    }
+
+    @Test
+    void hostBitsAreIgnoredAndDuplicatesReplaceValue() {
+        final CIDRTrie<String> trie = new CIDRTrie<>();
+        trie.put(ip("10.1.2.3"), 8, "first");
+        trie.put(ip("10.0.0.0"), 8, "second");
+
+        assertThat(trie.longestPrefixMatch(ip("10.200.0.1"))).isEqualTo("second");
+        assertThat(trie.size()).isEqualTo(1);
+    }
+
+    @Test
+    void defaultRoute() {
+        final CIDRTrie<String> trie = new CIDRTrie<>();
+        trie.put(ip("0.0.0.0"), 0, "default");
+        trie.put(ip("10.0.0.0"), 8, "ten");
+
+        assertThat(trie.longestPrefixMatch(ip("8.8.8.8"))).isEqualTo("default");
+        assertThat(trie.longestPrefixMatch(ip("10.0.0.1"))).isEqualTo("ten");
+        // IPv4 and IPv6 prefixes are separate
+        assertThat(trie.longestPrefixMatch(ip("2001:db8::1"))).isNull();
+    }
+
+    @Test
+    void ipv6() {
+        final CIDRTrie<String> trie = new CIDRTrie<>();
+        trie.put(ip("2001:db8::"), 32, "documentation");
+        trie.put(ip("2001:db8:1::"), 48, "site");
+
+        assertThat(trie.longestPrefixMatch(ip("2001:db8:2::1"))).isEqualTo("documentation");
+        assertThat(trie.longestPrefixMatch(ip("2001:db8:1:ffff::1"))).isEqualTo("site");
+        assertThat(trie.longestPrefixMatch(ip("2001:db9::1"))).isNull();
+    }
+
+    @Test
+    void putRangeSplitsIntoPrefixes() {
+        final CIDRTrie<String> trie = new CIDRTrie<>();
+        trie.putRange(ip("10.0.0.5"), ip("10.0.1.2"), "range");
+
+        assertThat(trie.longestPrefixMatch(ip("10.0.0.4"))).isNull();
+        assertThat(trie.longestPrefixMatch(ip("10.0.0.5"))).isEqualTo("range");
+        assertThat(trie.longestPrefixMatch(ip("10.0.0.255"))).isEqualTo("range");
+        assertThat(trie.longestPrefixMatch(ip("10.0.1.2"))).isEqualTo("range");
+        assertThat(trie.longestPrefixMatch(ip("10.0.1.3"))).isNull();
+        // 10.0.0.5/32, 10.0.0.6/31, 10.0.0.8/29, 10.0.0.16/28, 10.0.0.32/27, 10.0.0.64/26, 10.0.0.128/25, 10.0.1.0/31, 10.0.1.2/32
+        assertThat(trie.size()).isEqualTo(9);
+
+        final CIDRTrie<String> everything = new CIDRTrie<>();
+        everything.putRange(ip("0.0.0.0"), ip("255.255.255.255"), "all");
+        assertThat(everything.size()).isEqualTo(1);
+        assertThat(everything.longestPrefixMatch(ip("1.2.3.4"))).isEqualTo("all");
+
+        assertThatThrownBy(() -> trie.putRange(ip("10.0.0.2"), ip("10.0.0.1"), "invalid"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> trie.putRange(ip("10.0.0.1"), ip("::1"), "invalid"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void matchesLinearSearch() {
+        final Random random = new Random(42);
+        final int[] networks = new int[500];
+        final int[] lengths = new int[500];
+        final CIDRTrie<Integer> trie = new CIDRTrie<>();
+        for (int i = 0; i < networks.length; i++) {
+            // few distinct high bits to get nested prefixes
+            networks[i] = (random.nextInt(4) << 28) | random.nextInt(1 << 28);
+            lengths[i] = 1 + random.nextInt(32);
+            networks[i] &= mask(lengths[i]);
+            trie.put(InetAddresses.fromInteger(networks[i]), lengths[i], i);
+        }
+
+        for (int n = 0; n < 10_000; n++) {
+            final int address = random.nextBoolean() ? networks[random.nextInt(networks.length)] | random.nextInt(256) : random.nextInt();
+            Integer expected = null;
+            int expectedLength = -1;
+            for (int i = 0; i < networks.length; i++) {
+                // later entries replace earlier ones with the same prefix
+                if ((address & mask(lengths[i])) == networks[i] && lengths[i] >= expectedLength) {
+                    expected = i;
+                    expectedLength = lengths[i];
+                }
+            }
+            assertThat(trie.longestPrefixMatch(InetAddresses.fromInteger(address))).isEqualTo(expected);
+        }
+    }
+
+    private static int mask(int length) {
+        return length == 0 ? 0 : -1 << (32 - length);
+    }
+
+    private static InetAddress ip(String address) {
+        return InetAddresses.forString(address);
+    }
+}
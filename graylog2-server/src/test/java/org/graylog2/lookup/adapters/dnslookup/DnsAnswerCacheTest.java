@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters.dnslookup;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DnsAnswerCacheTest {
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = nanos::get;
+
+    private Timer timer;
+    private DnsAnswerCache cache;
+
+    @BeforeEach
+    void setUp() {
+        timer = new MetricRegistry().timer("resolutionTime");
+        cache = new DnsAnswerCache(100, timer, ticker);
+    }
+
+    @Test
+    void concurrentRequestsAreCoalesced() {
+        final AtomicInteger queries = new AtomicInteger();
+        final CompletableFuture<LookupResult> resolution = new CompletableFuture<>();
+
+        assertThat(cache.getOrResolve("example.com", key -> {
+            queries.incrementAndGet();
+            return resolution;
+        })).isNull();
+        assertThat(cache.getOrResolve("example.com", key -> {
+            queries.incrementAndGet();
+            return new CompletableFuture<>();
+        })).isNull();
+
+        assertThat(queries).hasValue(1);
+        assertThat(cache.outstanding()).isEqualTo(1);
+
+        final LookupResult answer = LookupResult.builder().single("192.0.2.1").cacheTTL(60_000L).build();
+        resolution.complete(answer);
+
+        assertThat(cache.outstanding()).isZero();
+        assertThat(timer.getCount()).isEqualTo(1);
+        assertThat(cache.getOrResolve("example.com", key -> {
+            throw new AssertionError("Cached answer must be used");
+        })).isEqualTo(answer);
+    }
+
+    @Test
+    void answersExpireAfterTheirTTL() {
+        final LookupResult negativeAnswer = LookupResult.builder().cacheTTL(30_000L).build();
+        final AtomicInteger queries = new AtomicInteger();
+
+        assertThat(cache.getOrResolve("unknown.example.com", key -> {
+            queries.incrementAndGet();
+            return CompletableFuture.completedFuture(negativeAnswer);
+        })).isEqualTo(negativeAnswer);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(29));
+        assertThat(cache.getOrResolve("unknown.example.com", key -> {
+            queries.incrementAndGet();
+            return CompletableFuture.completedFuture(negativeAnswer);
+        })).isEqualTo(negativeAnswer);
+        assertThat(queries).hasValue(1);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        cache.getOrResolve("unknown.example.com", key -> {
+            queries.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        assertThat(queries).hasValue(2);
+    }
+
+    @Test
+    void failedResolutionIsRetried() {
+        final CompletableFuture<LookupResult> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("boom"));
+
+        assertThat(cache.getOrResolve("example.com", key -> failed)).isNull();
+        assertThat(cache.outstanding()).isZero();
+
+        final LookupResult answer = LookupResult.builder().single("192.0.2.1").cacheTTL(60_000L).build();
+        assertThat(cache.getOrResolve("example.com", key -> CompletableFuture.completedFuture(answer))).isEqualTo(answer);
+    }
+}
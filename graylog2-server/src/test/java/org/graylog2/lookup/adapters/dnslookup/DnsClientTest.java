@@ -18,6 +18,14 @@ package org.graylog2.lookup.adapters.dnslookup;
 
 
 import com.google.common.net.InternetDomainName;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.dns.DefaultDnsRawRecord;
+import io.netty.handler.codec.dns.DefaultDnsResponse;
+import io.netty.handler.codec.dns.DnsOpCode;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponseCode;
+import io.netty.handler.codec.dns.DnsSection;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
@@ -123,4 +131,39 @@ public class DnsClientTest {
 
         return builder.build();
     }
+
+    @Test
+    public void testNegativeTTL() {
+
+        // No SOA record in the response
+        final DefaultDnsResponse emptyResponse = new DefaultDnsResponse(1, DnsOpCode.QUERY, DnsResponseCode.NXDOMAIN);
+        assertEquals(-1, DnsClient.negativeTTL(emptyResponse));
+        emptyResponse.release();
+
+        // SOA MINIMUM is smaller than the record TTL
+        final DefaultDnsResponse response = new DefaultDnsResponse(1, DnsOpCode.QUERY, DnsResponseCode.NXDOMAIN);
+        response.addRecord(DnsSection.AUTHORITY, new DefaultDnsRawRecord("example.com.", DnsRecordType.SOA, 3600, soaContent(300)));
+        assertEquals(300, DnsClient.negativeTTL(response));
+        response.release();
+
+        // SOA record TTL is smaller than the MINIMUM
+        final DefaultDnsResponse shortTTLResponse = new DefaultDnsResponse(1, DnsOpCode.QUERY, DnsResponseCode.NOERROR);
+        shortTTLResponse.addRecord(DnsSection.AUTHORITY, new DefaultDnsRawRecord("example.com.", DnsRecordType.SOA, 60, soaContent(300)));
+        assertEquals(60, DnsClient.negativeTTL(shortTTLResponse));
+        shortTTLResponse.release();
+    }
+
+    private static ByteBuf soaContent(long minimum) {
+
+        // MNAME and RNAME as root labels, followed by SERIAL, REFRESH, RETRY, EXPIRE and MINIMUM
+        final ByteBuf content = Unpooled.buffer();
+        content.writeByte(0);
+        content.writeByte(0);
+        content.writeInt(2020010101);
+        content.writeInt(7200);
+        content.writeInt(3600);
+        content.writeInt(1209600);
+        content.writeInt((int) minimum);
+        return content;
+    }
 }
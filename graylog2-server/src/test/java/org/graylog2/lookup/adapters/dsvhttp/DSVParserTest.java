@@ -18,6 +18,7 @@ package org.graylog2.lookup.adapters.dsvhttp;
 
 import org.junit.Test;
 
+import java.io.StringReader;
 import java.util.AbstractMap;
 import java.util.Map;
 import java.util.Optional;
@@ -64,6 +65,22 @@ public class DSVParserTest {
                 );
     }
 
+    @Test
+    public void parseSimpleFileWithMultiCharacterLineSeparator() throws Exception {
+        final String input = "# Sample file for testing\r\nfoo:23\r\nbar:4\r2\r\nbaz:17";
+        final DSVParser dsvParser = new DSVParser("#", "\r\n", ":", "", false, false, 0, Optional.of(1));
+
+        final Map<String, String> result = dsvParser.parse(new StringReader(input));
+
+        assertThat(result)
+                .hasSize(3)
+                .containsExactly(
+                        new AbstractMap.SimpleEntry<>("foo", "23"),
+                        new AbstractMap.SimpleEntry<>("bar", "4\r2"),
+                        new AbstractMap.SimpleEntry<>("baz", "17")
+                );
+    }
+
     @Test
     public void parseFileWithSwappedColumns() throws Exception {
         final String input = "# Sample file for testing\n" +
@@ -191,4 +208,19 @@ public class DSVParserTest {
                 .isNotNull()
                 .isEmpty();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void parseStreamedFileWithDuplicateKeys() throws Exception {
+        final String input = "foo:23\n" +
+                "bar:42\n" +
+                "foo:17\n";
+        final DSVParser dsvParser = new DSVParser("#", "\n", ":", "", false, false, 0, Optional.of(1));
+
+        final Map<String, String> result = dsvParser.parse(new StringReader(input));
+
+        assertThat(result)
+                .hasSize(2)
+                .containsEntry("foo", "17")
+                .containsEntry("bar", "42");
+    }
+}
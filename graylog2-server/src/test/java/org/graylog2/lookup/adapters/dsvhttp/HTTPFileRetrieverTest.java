@@ -27,9 +27,11 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class HTTPFileRetrieverTest {
     private MockWebServer server;
@@ -137,6 +139,51 @@ public class HTTPFileRetrieverTest {
         final Optional<String> ignored = httpFileRetriever.fetchFileIfNotModified(server.url("/").toString());
     }
 
+    @Test
+    public void doNotRetrieveIfETagMatches() throws Exception {
+        this.server.enqueue(new MockResponse()
+                .setResponseCode(200)
+                .setBody("foo:23\nbar:42")
+                .setHeader("ETag", "\"v1\""));
+        this.server.enqueue(new MockResponse()
+                .setResponseCode(304));
+        server.start();
+
+        final HTTPFileRetriever httpFileRetriever = new HTTPFileRetriever(new OkHttpClient());
+        final DSVParser dsvParser = new DSVParser("#", "\n", ":", "", false, false, 0, Optional.of(1));
+
+        final Optional<Map<String, String>> table = httpFileRetriever.fetchFileIfNotModified(server.url("/").toString(), dsvParser::parse);
+        assertThat(server.takeRequest().getHeader("If-None-Match")).isNull();
+        assertThat(table).hasValueSatisfying(t -> assertThat(t).containsEntry("foo", "23").containsEntry("bar", "42"));
+
+        final Optional<Map<String, String>> secondTable = httpFileRetriever.fetchFileIfNotModified(server.url("/").toString(), dsvParser::parse);
+        assertThat(server.takeRequest().getHeader("If-None-Match")).isEqualTo("\"v1\"");
+        assertThat(secondTable).isEmpty();
+    }
+
+    @Test
+    public void failedParseIsNotConsideredUnmodified() throws Exception {
+        final MockResponse response = new MockResponse().setResponseCode(200)
+                .setBody("foobar")
+                .setHeader("ETag", "\"v1\"")
+                .setHeader("Last-Modified", "Fri, 18 Aug 2017 15:02:41 GMT");
+        this.server.enqueue(response);
+        this.server.enqueue(response);
+        server.start();
+
+        final HTTPFileRetriever httpFileRetriever = new HTTPFileRetriever(new OkHttpClient());
+
+        assertThatThrownBy(() -> httpFileRetriever.fetchFileIfNotModified(server.url("/").toString(), body -> {
+            throw new IOException("Connection reset");
+        })).isInstanceOf(IOException.class);
+        server.takeRequest();
+
+        httpFileRetriever.fetchFileIfNotModified(server.url("/").toString(), body -> "parsed");
+        final RecordedRequest secondRequest = server.takeRequest();
+        assertThat(secondRequest.getHeader("If-None-Match")).isNull();
+        assertThat(secondRequest.getHeader("If-Modified-Since")).isNull();
+    }
+
     @After
     public void shutDown() throws IOException {
         if (server != null) {
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters.mappedcsv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CSVIndexTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void lookupOfManyEntries() throws Exception {
+        final CSVIndex index;
+        try (CSVIndexWriter writer = new CSVIndexWriter(tempDir.resolve("test.idx"))) {
+            for (int i = 0; i < 10_000; i++) {
+                writer.add("key-" + i, "value-" + i);
+            }
+            index = writer.finish();
+        }
+
+        assertThat(index.size()).isEqualTo(10_000);
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(index.get("key-" + i)).isEqualTo("value-" + i);
+        }
+        assertThat(index.get("key-10000")).isNull();
+    }
+
+    @Test
+    void lastValueOfDuplicateKeyWins() throws Exception {
+        final CSVIndex index;
+        try (CSVIndexWriter writer = new CSVIndexWriter(tempDir.resolve("test.idx"))) {
+            writer.add("foo", "1");
+            writer.add("bär", "ü");
+            writer.add("foo", "2");
+            writer.add("", "empty");
+            index = writer.finish();
+        }
+
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.get("foo")).isEqualTo("2");
+        assertThat(index.get("bär")).isEqualTo("ü");
+        assertThat(index.get("")).isEqualTo("empty");
+    }
+
+    @Test
+    void emptyIndex() throws Exception {
+        final CSVIndex index;
+        try (CSVIndexWriter writer = new CSVIndexWriter(tempDir.resolve("test.idx"))) {
+            index = writer.finish();
+        }
+
+        assertThat(index.size()).isZero();
+        assertThat(index.get("foo")).isNull();
+    }
+
+    @Test
+    void fileIsDeletedOnceClosedAndReleased() throws Exception {
+        final Path file = tempDir.resolve("test.idx");
+        final CSVIndex index;
+        try (CSVIndexWriter writer = new CSVIndexWriter(file)) {
+            writer.add("foo", "bar");
+            index = writer.finish();
+        }
+
+        assertThat(index.retain()).isTrue();
+        index.close();
+
+        assertThat(file).exists();
+        assertThat(index.get("foo")).isEqualTo("bar");
+        assertThat(index.retain()).isTrue();
+
+        index.release();
+        assertThat(file).exists();
+        index.release();
+        assertThat(file).doesNotExist();
+        assertThat(index.retain()).isFalse();
+    }
+
+    @Test
+    void openRejectsInvalidFiles() throws Exception {
+        final Path file = tempDir.resolve("invalid.idx");
+        Files.write(file, new byte[64]);
+
+        assertThatThrownBy(() -> CSVIndex.open(file)).hasMessageStartingWith("Invalid CSV index file");
+    }
+
+    @Test
+    void mappedFileReadsValuesAcrossSegments() throws Exception {
+        final Path file = tempDir.resolve("segments");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedFile mappedFile = MappedFile.map(channel, FileChannel.MapMode.READ_WRITE, 0, 64, 7);
+            mappedFile.putInt(5, 0x01020304);
+            mappedFile.putLong(12, 0x0102030405060708L);
+            mappedFile.putLong(40, -2L);
+
+            assertThat(mappedFile.getInt(5)).isEqualTo(0x01020304);
+            assertThat(mappedFile.getLong(12)).isEqualTo(0x0102030405060708L);
+            assertThat(mappedFile.getLong(40)).isEqualTo(-2L);
+
+            final byte[] bytes = new byte[8];
+            mappedFile.get(12, bytes);
+            assertThat(bytes).containsExactly(1, 2, 3, 4, 5, 6, 7, 8);
+        }
+    }
+}
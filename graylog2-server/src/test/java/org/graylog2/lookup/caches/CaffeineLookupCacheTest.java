@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.caches;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.lookup.LookupCacheKey;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class CaffeineLookupCacheTest {
+    @TempDir
+    Path tempDir;
+
+    private final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+    private CaffeineLookupCache cache;
+
+    @BeforeEach
+    void setUp() {
+        final CaffeineLookupCache.Config config = CaffeineLookupCache.Config.builder()
+                .type(CaffeineLookupCache.NAME)
+                .maxSize(100)
+                .expireAfterAccess(60)
+                .expireAfterAccessUnit(TimeUnit.SECONDS)
+                .expireAfterWrite(0)
+                .build();
+        cache = new CaffeineLookupCache("id", "name", config, 1, new MetricRegistry(), scheduler, tempDir);
+    }
+
+    @Test
+    void purgesMatchingKeysOfThePrefix() {
+        final LookupCacheKey number = LookupCacheKey.createFromJSON("adapter", 2L);
+        final LookupCacheKey string = LookupCacheKey.createFromJSON("adapter", "2");
+        final LookupCacheKey other = LookupCacheKey.createFromJSON("adapter", "3");
+        final LookupCacheKey otherAdapter = LookupCacheKey.createFromJSON("other-adapter", "2");
+        ImmutableList.of(number, string, other, otherAdapter).forEach(key -> cache.get(key, () -> LookupResult.single("value")));
+
+        cache.purge(LookupCacheKey.createFromJSON("adapter", null), key -> "2".equals(String.valueOf(key)));
+
+        assertThat(cache.getIfPresent(number).isEmpty()).isTrue();
+        assertThat(cache.getIfPresent(string).isEmpty()).isTrue();
+        assertThat(cache.getIfPresent(other).singleValue()).isEqualTo("value");
+        assertThat(cache.getIfPresent(otherAdapter).singleValue()).isEqualTo("value");
+    }
+
+    @Test
+    void getAllLoadsMissingKeysWithSingleCall() {
+        final LookupCacheKey cached = LookupCacheKey.createFromJSON("adapter", "cached");
+        cache.get(cached, () -> LookupResult.single("from-get"));
+
+        final List<Collection<LookupCacheKey>> loaderCalls = new ArrayList<>();
+        final LookupCacheKey a = LookupCacheKey.createFromJSON("adapter", "a");
+        final LookupCacheKey b = LookupCacheKey.createFromJSON("adapter", "b");
+
+        final Map<LookupCacheKey, LookupResult> results = cache.getAll(ImmutableList.of(a, cached, b), keys -> {
+            loaderCalls.add(ImmutableList.copyOf(keys));
+            return keys.stream().collect(Collectors.toMap(key -> key, key -> LookupResult.single("loaded-" + key.key())));
+        });
+
+        assertThat(loaderCalls).hasSize(1);
+        assertThat(loaderCalls.get(0)).containsExactlyInAnyOrder(a, b);
+        assertThat(results.keySet()).containsExactly(a, cached, b);
+        assertThat(results.get(a).singleValue()).isEqualTo("loaded-a");
+        assertThat(results.get(cached).singleValue()).isEqualTo("from-get");
+        assertThat(results.get(b).singleValue()).isEqualTo("loaded-b");
+
+        // loaded results are cached
+        assertThat(cache.getIfPresent(a).singleValue()).isEqualTo("loaded-a");
+    }
+
+    @Test
+    void getAllReturnsErrorsForKeysMissingFromLoaderResult() {
+        final LookupCacheKey a = LookupCacheKey.createFromJSON("adapter", "a");
+        final LookupCacheKey b = LookupCacheKey.createFromJSON("adapter", "b");
+
+        final Map<LookupCacheKey, LookupResult> results = cache.getAll(ImmutableList.of(a, b),
+                keys -> Collections.singletonMap(a, LookupResult.single("a")));
+
+        assertThat(results.get(a).singleValue()).isEqualTo("a");
+        assertThat(results.get(b).hasError()).isTrue();
+    }
+
+    @Test
+    void getAllReturnsErrorsIfLoaderFails() {
+        final LookupCacheKey a = LookupCacheKey.createFromJSON("adapter", "a");
+
+        final Map<LookupCacheKey, LookupResult> results = cache.getAll(ImmutableList.of(a), keys -> {
+            throw new IllegalStateException("boom");
+        });
+
+        assertThat(results.get(a).hasError()).isTrue();
+    }
+
+    @Test
+    void refreshAfterWriteReturnsCachedValueAndReloadsInBackground() {
+        final AtomicLong time = new AtomicLong();
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final CaffeineLookupCache refreshingCache = new CaffeineLookupCache("id", "name", configBuilder()
+                .refreshAfterWrite(10)
+                .refreshAfterWriteUnit(TimeUnit.SECONDS)
+                .build(), metricRegistry, time::get, scheduler, tempDir);
+        final LookupCacheKey key = LookupCacheKey.createFromJSON("adapter", "key");
+        final AtomicInteger loads = new AtomicInteger();
+
+        assertThat(refreshingCache.get(key, () -> LookupResult.single("value-" + loads.incrementAndGet())).singleValue())
+                .isEqualTo("value-1");
+
+        time.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        assertThat(refreshingCache.get(key, () -> LookupResult.single("value-" + loads.incrementAndGet())).singleValue())
+                .isEqualTo("value-1");
+
+        await().atMost(5, TimeUnit.SECONDS)
+                .untilAsserted(() -> assertThat(refreshingCache.getIfPresent(key).singleValue()).isEqualTo("value-2"));
+        assertThat(metricRegistry.timer("org.graylog2.lookup.caches.id.reloadTime").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void failedReloadKeepsCachedValue() {
+        final AtomicLong time = new AtomicLong();
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final CaffeineLookupCache refreshingCache = new CaffeineLookupCache("id", "name", configBuilder()
+                .refreshAfterWrite(10)
+                .refreshAfterWriteUnit(TimeUnit.SECONDS)
+                .build(), metricRegistry, time::get, scheduler, tempDir);
+        final LookupCacheKey key = LookupCacheKey.createFromJSON("adapter", "key");
+
+        refreshingCache.get(key, () -> LookupResult.single("value"));
+
+        time.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        assertThat(refreshingCache.get(key, () -> {
+            throw new IllegalStateException("boom");
+        }).singleValue()).isEqualTo("value");
+
+        await().atMost(5, TimeUnit.SECONDS)
+                .until(() -> metricRegistry.meter("org.graylog2.lookup.caches.id.reloadFailures").getCount() == 1);
+        assertThat(refreshingCache.getIfPresent(key).singleValue()).isEqualTo("value");
+    }
+
+    @Test
+    void maxStalenessServesExpiredEntriesWhileReloading() {
+        final AtomicLong time = new AtomicLong();
+        final CaffeineLookupCache staleCache = new CaffeineLookupCache("id", "name", configBuilder()
+                .expireAfterAccess(0)
+                .expireAfterWrite(10)
+                .expireAfterWriteUnit(TimeUnit.SECONDS)
+                .maxStaleness(20)
+                .maxStalenessUnit(TimeUnit.SECONDS)
+                .build(), new MetricRegistry(), time::get, scheduler, tempDir);
+        final LookupCacheKey key = LookupCacheKey.createFromJSON("adapter", "key");
+        final AtomicInteger loads = new AtomicInteger();
+
+        staleCache.get(key, () -> LookupResult.single("value-" + loads.incrementAndGet()));
+
+        // expired, but still within the max staleness window
+        time.addAndGet(TimeUnit.SECONDS.toNanos(15));
+        assertThat(staleCache.get(key, () -> LookupResult.single("value-" + loads.incrementAndGet())).singleValue())
+                .isEqualTo("value-1");
+        await().atMost(5, TimeUnit.SECONDS)
+                .untilAsserted(() -> assertThat(staleCache.getIfPresent(key).singleValue()).isEqualTo("value-2"));
+
+        // older than expiration plus max staleness, loaded synchronously
+        time.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        assertThat(staleCache.get(key, () -> LookupResult.single("value-" + loads.incrementAndGet())).singleValue())
+                .isEqualTo("value-3");
+    }
+
+    @Test
+    void snapshotIsRestoredOnStart() throws Exception {
+        final AtomicLong time = new AtomicLong();
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final CaffeineLookupCache.Config config = configBuilder()
+                .expireAfterAccess(0)
+                .expireAfterWrite(60)
+                .expireAfterWriteUnit(TimeUnit.SECONDS)
+                .snapshotInterval(5)
+                .snapshotIntervalUnit(TimeUnit.MINUTES)
+                .build();
+        final CaffeineLookupCache first = new CaffeineLookupCache("id", "name", config, metricRegistry, time::get, scheduler, tempDir);
+        first.doStart();
+        verify(scheduler).scheduleWithFixedDelay(any(Runnable.class), eq(TimeUnit.MINUTES.toNanos(5)), eq(TimeUnit.MINUTES.toNanos(5)), eq(TimeUnit.NANOSECONDS));
+
+        final LookupCacheKey string = LookupCacheKey.createFromJSON("adapter", "string");
+        final LookupCacheKey number = LookupCacheKey.createFromJSON("adapter", 42L);
+        final LookupCacheKey shortTTL = LookupCacheKey.createFromJSON("adapter", "short-ttl");
+        final LookupCacheKey error = LookupCacheKey.createFromJSON("adapter", "error");
+        final LookupResult multi = LookupResult.multi("value", ImmutableMap.of("value", "value", "list", ImmutableList.of(1, 2.5d, true)));
+        first.get(string, () -> multi);
+        first.get(number, () -> LookupResult.single(23));
+        first.get(shortTTL, () -> LookupResult.withoutTTL().single("short").cacheTTL(1).build());
+        first.get(error, LookupResult::withError);
+        time.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        first.doStop();
+        assertThat(tempDir.resolve("id.snapshot")).exists();
+        assertThat(metricRegistry.getGauges().get("org.graylog2.lookup.caches.id.snapshotEntries").getValue()).isEqualTo(2L);
+
+        final CaffeineLookupCache second = new CaffeineLookupCache("id", "name", config, metricRegistry, time::get, scheduler, tempDir);
+        second.doStart();
+
+        assertThat(second.entryCount()).isEqualTo(2);
+        assertThat(second.getIfPresent(string)).isEqualTo(multi);
+        assertThat(second.getIfPresent(number).singleValue()).isEqualTo(23);
+        assertThat(second.getIfPresent(error).isEmpty()).isTrue();
+        assertThat(metricRegistry.timer("org.graylog2.lookup.caches.id.snapshotLoadTime").getCount()).isEqualTo(1);
+
+        // the remaining time to live is restored
+        time.addAndGet(TimeUnit.SECONDS.toNanos(51));
+        assertThat(second.getIfPresent(string).isEmpty()).isTrue();
+    }
+
+    private static CaffeineLookupCache.Config.Builder configBuilder() {
+        return CaffeineLookupCache.Config.builder()
+                .type(CaffeineLookupCache.NAME)
+                .maxSize(100)
+                .expireAfterAccess(60)
+                .expireAfterAccessUnit(TimeUnit.SECONDS)
+                .expireAfterWrite(0);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.caches;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.lookup.LookupCacheKey;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NullCacheTest {
+    private final LookupCacheKey a = LookupCacheKey.createFromJSON("adapter", "a");
+    private final LookupCacheKey b = LookupCacheKey.createFromJSON("adapter", "b");
+    private NullCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new NullCache("id", "name", NullCache.Config.builder().type(NullCache.NAME).build(), new MetricRegistry());
+    }
+
+    @Test
+    void getAllReturnsEmptyResultsForKeysTheLoaderDidNotReturn() {
+        final Map<LookupCacheKey, LookupResult> results = cache.getAll(ImmutableList.of(a, b),
+                keys -> ImmutableMap.of(a, LookupResult.single("value")));
+
+        assertThat(results).containsOnlyKeys(a, b);
+        assertThat(results.get(a).singleValue()).isEqualTo("value");
+        assertThat(results.get(b).isEmpty()).isTrue();
+        assertThat(results.get(b).hasError()).isFalse();
+    }
+
+    @Test
+    void getAllReturnsEmptyResultsIfTheLoaderFails() {
+        final Map<LookupCacheKey, LookupResult> results = cache.getAll(ImmutableList.of(a, b), keys -> {
+            throw new IllegalStateException("boom");
+        });
+
+        // like get(), a failing data adapter does not turn into errors
+        assertThat(results.values()).allSatisfy(result -> {
+            assertThat(result.isEmpty()).isTrue();
+            assertThat(result.hasError()).isFalse();
+        });
+    }
+}
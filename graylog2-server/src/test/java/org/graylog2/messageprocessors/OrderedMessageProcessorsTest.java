@@ -87,6 +87,21 @@ public class OrderedMessageProcessorsTest {
         assertFalse("Iterator exhausted", it3.hasNext());
     }
 
+    @Test
+    public void processorsMissingFromTheStoredOrderAreLast() throws Exception {
+        final Set<MessageProcessor> processors = Sets.newHashSet(new A(), new B(), new C());
+        when(clusterConfigService.get(MessageProcessorsConfig.class)).thenReturn(
+                MessageProcessorsConfig.create(Lists.newArrayList(C.class.getCanonicalName())));
+
+        final Iterator<MessageProcessor> iterator = new OrderedMessageProcessors(processors,
+                                                                                 clusterConfigService,
+                                                                                 mock(EventBus.class)).iterator();
+        assertEquals("C is first", C.class, iterator.next().getClass());
+        assertEquals("A is second", A.class, iterator.next().getClass());
+        assertEquals("B is last", B.class, iterator.next().getClass());
+        assertFalse("Iterator exhausted", iterator.hasNext());
+    }
+
     private static class A implements MessageProcessor {
         @Override
         public Messages process(Messages messages) {
@@ -100,4 +115,11 @@ public class OrderedMessageProcessorsTest {
             return null;
         }
     }
+
+    private static class C implements MessageProcessor {
+        @Override
+        public Messages process(Messages messages) {
+            return null;
+        }
+    }
 }
\ No newline at end of file
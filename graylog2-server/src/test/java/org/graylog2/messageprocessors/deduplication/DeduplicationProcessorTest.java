@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.messageprocessors.deduplication;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.cluster.ClusterConfigChangedEvent;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Messages;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.shared.messageq.MessageQueueAcknowledger;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DeduplicationProcessorTest {
+    private static final DateTime TIMESTAMP = new DateTime(2021, 3, 1, 12, 0, DateTimeZone.UTC);
+
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private ClusterConfigService clusterConfigService;
+    @Mock
+    private ScheduledExecutorService scheduler;
+    @Mock
+    private MessageQueueAcknowledger acknowledger;
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final EventBus eventBus = new EventBus();
+
+    @Test
+    public void dropsDuplicates() {
+        final DeduplicationProcessor processor = processor(DeduplicationConfig.defaultConfig().toBuilder()
+                .enabled(true)
+                .build());
+
+        final Message original = new Message("hello", "host-a", TIMESTAMP);
+        final Message duplicate = new Message("hello", "host-a", TIMESTAMP);
+        final Message otherSource = new Message("hello", "host-b", TIMESTAMP);
+        processor.process(messages(original, duplicate, otherSource));
+
+        assertThat(original.getFilterOut()).isFalse();
+        assertThat(duplicate.getFilterOut()).isTrue();
+        assertThat(otherSource.getFilterOut()).isFalse();
+        verify(acknowledger).acknowledge(duplicate);
+        assertThat(metricRegistry.meter(MetricRegistry.name(MessageDeduplicator.class, "duplicateMessages")).getCount()).isEqualTo(1L);
+        assertThat(metricRegistry.meter(MetricRegistry.name(MessageDeduplicator.class, "checkedMessages")).getCount()).isEqualTo(3L);
+    }
+
+    @Test
+    public void tagsDuplicatesOfConfiguredFields() {
+        final DeduplicationProcessor processor = processor(DeduplicationConfig.defaultConfig().toBuilder()
+                .enabled(true)
+                .fields(ImmutableList.of(Message.FIELD_MESSAGE))
+                .action(DeduplicationConfig.Action.TAG)
+                .tagField("duplicate")
+                .build());
+
+        final Message original = new Message("hello", "host-a", TIMESTAMP);
+        final Message duplicate = new Message("hello", "host-b", TIMESTAMP.plusSeconds(1));
+        processor.process(messages(original, duplicate));
+
+        assertThat(original.hasField("duplicate")).isFalse();
+        assertThat(duplicate.getField("duplicate")).isEqualTo(true);
+        assertThat(duplicate.getFilterOut()).isFalse();
+        verify(acknowledger, never()).acknowledge(any(Message.class));
+    }
+
+    @Test
+    public void passesEverythingWhenDisabled() {
+        final DeduplicationProcessor processor = processor(DeduplicationConfig.defaultConfig());
+
+        final Message original = new Message("hello", "host-a", TIMESTAMP);
+        final Message duplicate = new Message("hello", "host-a", TIMESTAMP);
+        processor.process(messages(original, duplicate));
+
+        assertThat(duplicate.getFilterOut()).isFalse();
+    }
+
+    @Test
+    public void keepsPreviousFilterWhenReloadFails() {
+        final DeduplicationProcessor processor = processor(DeduplicationConfig.defaultConfig().toBuilder()
+                .enabled(true)
+                .build());
+        processor.process(messages(new Message("hello", "host-a", TIMESTAMP)));
+
+        when(clusterConfigService.getOrDefault(eq(DeduplicationConfig.class), any())).thenReturn(
+                DeduplicationConfig.defaultConfig().toBuilder().enabled(true).falsePositiveRate(0.0d).build());
+        eventBus.post(ClusterConfigChangedEvent.create(TIMESTAMP, "node", DeduplicationConfig.class.getCanonicalName()));
+        final ArgumentCaptor<Runnable> reload = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(reload.capture(), eq(0L), eq(TimeUnit.SECONDS));
+        reload.getValue().run();
+
+        final Message duplicate = new Message("hello", "host-a", TIMESTAMP);
+        processor.process(messages(duplicate));
+        assertThat(duplicate.getFilterOut()).isTrue();
+    }
+
+    @Test
+    public void rejectsInvalidConfigs() {
+        assertThatThrownBy(() -> DeduplicationConfig.create(true, null, 0L, null, null, null, null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("window_seconds");
+        assertThatThrownBy(() -> DeduplicationConfig.create(true, null, null, -1L, null, null, null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("expected_messages");
+        assertThatThrownBy(() -> DeduplicationConfig.create(true, null, null, null, 0.0d, null, null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("false_positive_rate");
+        assertThatThrownBy(() -> DeduplicationConfig.create(true, null, null, null, 1.0d, null, null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("false_positive_rate");
+    }
+
+    private DeduplicationProcessor processor(DeduplicationConfig config) {
+        when(clusterConfigService.getOrDefault(eq(DeduplicationConfig.class), any())).thenReturn(config);
+        final MessageDeduplicator deduplicator = new MessageDeduplicator(clusterConfigService, scheduler, eventBus,
+                metricRegistry, System::nanoTime);
+        return new DeduplicationProcessor(deduplicator, acknowledger);
+    }
+
+    private static Messages messages(Message... messages) {
+        return ImmutableList.copyOf(messages)::iterator;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.messageprocessors.deduplication;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimeBucketedBloomFilterTest {
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(60);
+
+    private final AtomicLong clock = new AtomicLong(0L);
+
+    @Test
+    public void remembersHashesForTheWindow() {
+        final TimeBucketedBloomFilter filter = new TimeBucketedBloomFilter(WINDOW, 1000, 0.001, clock::get);
+
+        assertThat(filter.put(42L)).isTrue();
+        assertThat(filter.put(42L)).isFalse();
+        assertThat(filter.put(23L)).isTrue();
+
+        clock.set(WINDOW - 1);
+        assertThat(filter.put(23L)).isFalse();
+        assertThat(filter.approximateElementCount()).isGreaterThanOrEqualTo(2L);
+    }
+
+    @Test
+    public void forgetsHashesAfterTheWindow() {
+        final TimeBucketedBloomFilter filter = new TimeBucketedBloomFilter(WINDOW, 1000, 0.001, clock::get);
+
+        assertThat(filter.put(42L)).isTrue();
+        clock.set(WINDOW + WINDOW / (TimeBucketedBloomFilter.BUCKETS - 1));
+        assertThat(filter.put(42L)).isTrue();
+
+        // after a long pause all buckets are replaced at once
+        clock.addAndGet(100 * WINDOW);
+        assertThat(filter.put(42L)).isTrue();
+        assertThat(filter.approximateElementCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void estimatesFalsePositiveRate() {
+        final TimeBucketedBloomFilter filter = new TimeBucketedBloomFilter(WINDOW, 400, 0.01, clock::get);
+        assertThat(filter.expectedFalsePositiveRate()).isZero();
+
+        for (long i = 0; i < 100; i++) {
+            filter.put(i * 7919L);
+        }
+        assertThat(filter.expectedFalsePositiveRate()).isGreaterThan(0.0d).isLessThan(0.05d);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.migrations;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter;
+import org.graylog2.messageprocessors.MessageFilterChainProcessor;
+import org.graylog2.messageprocessors.MessageProcessorsConfig;
+import org.graylog2.messageprocessors.deduplication.DeduplicationProcessor;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.plugin.messageprocessors.MessageProcessor;
+import org.graylog2.rollups.RollupProcessor;
+import org.graylog2.streams.StreamSamplingProcessor;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class V20210301120000_PlaceRoutedMessageProcessorsTest {
+    private static final String FILTER_CHAIN = MessageFilterChainProcessor.class.getCanonicalName();
+    private static final String PIPELINES = PipelineInterpreter.class.getCanonicalName();
+    private static final String DEDUPLICATION = DeduplicationProcessor.class.getCanonicalName();
+    private static final String SAMPLING = StreamSamplingProcessor.class.getCanonicalName();
+    private static final String ROLLUPS = RollupProcessor.class.getCanonicalName();
+    private static final String OTHER = "org.example.OtherProcessor";
+
+    private ClusterConfigService clusterConfigService;
+    private V20210301120000_PlaceRoutedMessageProcessors migration;
+
+    @Before
+    public void setUp() {
+        clusterConfigService = mock(ClusterConfigService.class);
+        migration = new V20210301120000_PlaceRoutedMessageProcessors(clusterConfigService,
+                descriptors(FILTER_CHAIN, PIPELINES, DEDUPLICATION, SAMPLING, ROLLUPS, OTHER));
+    }
+
+    @Test
+    public void placesProcessorsAfterTheRoutingInStoredOrder() {
+        storedOrder(MessageProcessorsConfig.create(ImmutableList.of(PIPELINES, FILTER_CHAIN, OTHER), ImmutableSet.of(OTHER)));
+
+        migration.upgrade();
+
+        final MessageProcessorsConfig written = writtenConfig();
+        assertThat(written.processorOrder()).containsExactly(PIPELINES, FILTER_CHAIN, DEDUPLICATION, SAMPLING, ROLLUPS, OTHER);
+        assertThat(written.disabledProcessors()).containsExactly(OTHER);
+    }
+
+    @Test
+    public void placesProcessorsAfterTheRoutingInClassNameOrder() {
+        storedOrder(MessageProcessorsConfig.defaultConfig());
+
+        migration.upgrade();
+
+        assertThat(writtenConfig().processorOrder()).containsExactly(OTHER, PIPELINES, FILTER_CHAIN, DEDUPLICATION, SAMPLING, ROLLUPS);
+    }
+
+    @Test
+    public void keepsProcessorsPlacedByTheUser() {
+        storedOrder(MessageProcessorsConfig.create(ImmutableList.of(SAMPLING, ROLLUPS, DEDUPLICATION, FILTER_CHAIN, PIPELINES, OTHER)));
+
+        migration.upgrade();
+
+        verify(clusterConfigService, never()).write(any());
+    }
+
+    @Test
+    public void placesRollupsAfterTheStoredSampling() {
+        storedOrder(MessageProcessorsConfig.create(ImmutableList.of(FILTER_CHAIN, PIPELINES, SAMPLING, OTHER)));
+
+        migration.upgrade();
+
+        assertThat(writtenConfig().processorOrder()).containsExactly(FILTER_CHAIN, PIPELINES, DEDUPLICATION, SAMPLING, ROLLUPS, OTHER);
+    }
+
+    private void storedOrder(MessageProcessorsConfig config) {
+        when(clusterConfigService.getOrDefault(eq(MessageProcessorsConfig.class), any())).thenReturn(config);
+    }
+
+    private MessageProcessorsConfig writtenConfig() {
+        final ArgumentCaptor<MessageProcessorsConfig> captor = ArgumentCaptor.forClass(MessageProcessorsConfig.class);
+        verify(clusterConfigService).write(captor.capture());
+        return captor.getValue();
+    }
+
+    private static Set<MessageProcessor.Descriptor> descriptors(String... classNames) {
+        return Stream.of(classNames)
+                .map(className -> new MessageProcessor.Descriptor() {
+                    @Override
+                    public String name() {
+                        return className;
+                    }
+
+                    @Override
+                    public String className() {
+                        return className;
+                    }
+                })
+                .collect(Collectors.toSet());
+    }
+}
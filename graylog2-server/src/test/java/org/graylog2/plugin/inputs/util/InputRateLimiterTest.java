@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin.inputs.util;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class InputRateLimiterTest {
+    private final AtomicLong clock = new AtomicLong(0L);
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Test
+    public void dropsMessagesOfSendersOverTheirLimit() throws Exception {
+        final InputRateLimiter limiter = new InputRateLimiter(InputRateLimiter.Policy.DROP, 0, 2, 10, metricRegistry, clock::get);
+        final InetAddress noisy = InetAddress.getByName("10.0.0.1");
+        final InetAddress quiet = InetAddress.getByName("10.0.0.2");
+
+        assertThat(limiter.permit(noisy)).isTrue();
+        assertThat(limiter.permit(noisy)).isTrue();
+        assertThat(limiter.permit(noisy)).isFalse();
+        assertThat(limiter.permit(quiet)).isTrue();
+
+        assertThat(metricRegistry.counter("rateLimit.dropped").getCount()).isEqualTo(1L);
+        assertThat(metricRegistry.meter("rateLimit.source.limited").getCount()).isEqualTo(1L);
+        assertThat(metricRegistry.getMetrics()).doesNotContainKey("rateLimit.source.10.0.0.1.limited");
+        assertThat(limiter.topLimitedSources(10)).containsExactly(entry("10.0.0.1", 1L));
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertThat(limiter.permit(noisy)).isTrue();
+    }
+
+    @Test
+    public void doesNotTakeSourceTokenIfTheInputIsOverItsLimit() throws Exception {
+        final InputRateLimiter limiter = new InputRateLimiter(InputRateLimiter.Policy.DROP, 2, 1, 10, metricRegistry, clock::get);
+        final InetAddress first = InetAddress.getByName("10.0.0.1");
+        final InetAddress second = InetAddress.getByName("10.0.0.2");
+        final InetAddress third = InetAddress.getByName("10.0.0.3");
+
+        assertThat(limiter.permit(first)).isTrue();
+        assertThat(limiter.permit(second)).isTrue();
+        assertThat(limiter.permit(third)).isFalse();
+
+        // the input has a token again before the third sender would have one, it must not have used up its own
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(limiter.permit(third)).isTrue();
+
+        assertThat(metricRegistry.meter("rateLimit.limited").getCount()).isEqualTo(1L);
+        assertThat(metricRegistry.meter("rateLimit.source.limited").getCount()).isZero();
+        assertThat(limiter.topLimitedSources(10)).isEmpty();
+    }
+
+    @Test
+    public void samplesMessagesOverTheInputLimit() {
+        final InputRateLimiter limiter = new InputRateLimiter(InputRateLimiter.Policy.SAMPLE, 1, 0, 3, metricRegistry, clock::get);
+
+        assertThat(limiter.permit(null)).isTrue();
+        int kept = 0;
+        for (int i = 0; i < 9; i++) {
+            if (limiter.permit(null)) {
+                kept++;
+            }
+        }
+
+        assertThat(kept).isEqualTo(3);
+        assertThat(metricRegistry.meter("rateLimit.limited").getCount()).isEqualTo(9L);
+        assertThat(metricRegistry.counter("rateLimit.dropped").getCount()).isEqualTo(6L);
+    }
+
+    @Test
+    public void reportsDelayForBackpressure() throws Exception {
+        final InputRateLimiter limiter = new InputRateLimiter(InputRateLimiter.Policy.BACKPRESSURE, 0, 1, 10, metricRegistry, clock::get);
+        final InetAddress sender = InetAddress.getByName("10.0.0.1");
+
+        assertThat(limiter.acquire(sender)).isZero();
+        assertThat(limiter.nanosUntilAvailable(sender)).isEqualTo(TimeUnit.SECONDS.toNanos(1));
+        assertThat(limiter.acquire(sender)).isEqualTo(TimeUnit.SECONDS.toNanos(1));
+        assertThat(limiter.nanosUntilAvailable(InetAddress.getByName("10.0.0.2"))).isZero();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin.inputs.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TokenBucketTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void allowsBurstAndRefillsAtRate() {
+        final TokenBucket bucket = new TokenBucket(10, 10, 0L);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(bucket.tryAcquire(0L)).isTrue();
+        }
+        assertThat(bucket.tryAcquire(0L)).isFalse();
+        assertThat(bucket.nanosUntilAvailable(0L)).isEqualTo(SECOND / 10);
+
+        assertThat(bucket.tryAcquire(SECOND / 10)).isTrue();
+        assertThat(bucket.tryAcquire(SECOND / 10)).isFalse();
+
+        // unused time does not accumulate beyond the burst
+        assertThat(bucket.nanosUntilAvailable(100 * SECOND)).isZero();
+        for (int i = 0; i < 10; i++) {
+            assertThat(bucket.tryAcquire(100 * SECOND)).isTrue();
+        }
+        assertThat(bucket.tryAcquire(100 * SECOND)).isFalse();
+    }
+
+    @Test
+    public void acquireGoesIntoDebt() {
+        final TokenBucket bucket = new TokenBucket(1, 1, 0L);
+
+        assertThat(bucket.acquire(0L)).isZero();
+        assertThat(bucket.acquire(0L)).isEqualTo(SECOND);
+        assertThat(bucket.acquire(0L)).isEqualTo(2 * SECOND);
+        assertThat(bucket.tryAcquire(2 * SECOND)).isFalse();
+        assertThat(bucket.tryAcquire(3 * SECOND)).isTrue();
+    }
+
+    @Test
+    public void releaseReturnsToken() {
+        final TokenBucket bucket = new TokenBucket(1, 2, 0L);
+
+        assertThat(bucket.tryAcquire(0L)).isTrue();
+        assertThat(bucket.tryAcquire(0L)).isTrue();
+        assertThat(bucket.tryAcquire(0L)).isFalse();
+
+        bucket.release();
+        assertThat(bucket.tryAcquire(0L)).isTrue();
+        assertThat(bucket.tryAcquire(0L)).isFalse();
+    }
+
+    @Test
+    public void worksWithNegativeClockValues() {
+        final long start = Long.MIN_VALUE + SECOND;
+        final TokenBucket bucket = new TokenBucket(1, 1, start);
+
+        assertThat(bucket.tryAcquire(start)).isTrue();
+        assertThat(bucket.tryAcquire(start)).isFalse();
+        assertThat(bucket.tryAcquire(start + SECOND)).isTrue();
+    }
+}
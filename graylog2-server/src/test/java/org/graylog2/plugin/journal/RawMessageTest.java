@@ -16,6 +16,8 @@
  */
 package org.graylog2.plugin.journal;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.system.NodeId;
 import org.junit.Test;
@@ -27,6 +29,7 @@ import java.nio.charset.StandardCharsets;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class RawMessageTest {
     @Test
@@ -44,4 +47,49 @@ public class RawMessageTest {
         assertArrayEquals("testmessage".getBytes(StandardCharsets.UTF_8), decodedMsg.getPayload());
         assertEquals("raw", decodedMsg.getCodecName());
     }
+
+    @Test
+    public void bufferBackedPayloadIsReleasedWithMessage() throws IOException {
+        final ByteBuf buffer = PooledByteBufAllocator.DEFAULT.directBuffer(16);
+        buffer.writeBytes("testmessage".getBytes(StandardCharsets.UTF_8));
+
+        final RawMessage rawMessage = new RawMessage(buffer, null);
+        rawMessage.addSourceNode("inputid", new NodeId(File.createTempFile("node", "test").getAbsolutePath()));
+        rawMessage.setCodecName("raw");
+        rawMessage.setCodecConfig(Configuration.EMPTY_CONFIGURATION);
+
+        assertEquals(11, rawMessage.getPayloadSize());
+        assertEquals("testmessage", rawMessage.getPayloadAsString(StandardCharsets.UTF_8));
+        assertEquals("the payload must not be copied", 1, buffer.refCnt());
+
+        final byte[] encoded = rawMessage.encode();
+        assertTrue(rawMessage.release());
+        assertEquals(0, buffer.refCnt());
+        assertEquals(0, rawMessage.getPayloadSize());
+
+        final RawMessage decodedMsg = RawMessage.decode(encoded, 1);
+        assertNotNull(decodedMsg);
+        assertArrayEquals("testmessage".getBytes(StandardCharsets.UTF_8), decodedMsg.getPayload());
+    }
+
+    @Test
+    public void oversizedBufferIsCopied() {
+        final ByteBuf buffer = PooledByteBufAllocator.DEFAULT.directBuffer(4096);
+        buffer.writeBytes("testmessage".getBytes(StandardCharsets.UTF_8));
+
+        final RawMessage rawMessage = new RawMessage(buffer.retainedSlice(), null);
+        assertEquals("the slice has been copied and released", 1, buffer.refCnt());
+        buffer.release();
+
+        assertArrayEquals("testmessage".getBytes(StandardCharsets.UTF_8), rawMessage.getPayload());
+        assertTrue(rawMessage.release());
+    }
+
+    @Test
+    public void releasingArrayBackedMessageKeepsPayload() {
+        final RawMessage rawMessage = new RawMessage("testmessage".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(rawMessage.release());
+        assertEquals("testmessage", rawMessage.getPayloadAsString(StandardCharsets.UTF_8));
+    }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.rollups;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RollupCoverageTest {
+    private static final DateTime NOW = new DateTime(2021, 3, 1, 12, 10, 30, DateTimeZone.UTC);
+    private static final RollupConfig CONFIG = RollupConfig.defaultConfig().toBuilder()
+            .enabled(true)
+            .streamId("rollups")
+            .build();
+
+    @Test
+    public void coversFromLatestStartUntilEarliestWrittenMinute() {
+        assertThat(RollupCoverage.of(ImmutableList.of(
+                running("a", NOW.minusDays(2), NOW.withTime(12, 9, 0, 0)),
+                running("b", NOW.minusDays(1), NOW.withTime(12, 8, 0, 0)),
+                status("c", CONFIG, NOW.minusDays(3), NOW.minusDays(1), false, NOW.minusDays(1))), CONFIG, NOW))
+                .contains(RollupCoverage.create(NOW.minusDays(1), NOW.withTime(12, 8, 0, 0)));
+    }
+
+    @Test
+    public void startsAfterNodesWhichStoppedWithoutWritingTheirCounters() {
+        final DateTime lastSeen = NOW.withTime(11, 0, 0, 0);
+
+        assertThat(RollupCoverage.of(ImmutableList.of(
+                running("a", NOW.minusDays(2), NOW.withTime(12, 9, 0, 0)),
+                status("b", CONFIG, NOW.minusDays(2), lastSeen, true, lastSeen)), CONFIG, NOW))
+                .contains(RollupCoverage.create(lastSeen.plus(RollupCoverage.STALE_AFTER), NOW.withTime(12, 9, 0, 0)));
+    }
+
+    @Test
+    public void isEmptyWhileNodesCountDifferently() {
+        final RollupConfig otherConfig = CONFIG.toBuilder().dimensions(ImmutableList.of("user")).build();
+
+        assertThat(RollupCoverage.of(ImmutableList.of(
+                running("a", NOW.minusDays(2), NOW.withTime(12, 9, 0, 0)),
+                status("b", otherConfig, NOW.minusDays(2), NOW.withTime(12, 9, 0, 0), true, NOW)), CONFIG, NOW))
+                .isEmpty();
+        assertThat(RollupCoverage.of(ImmutableList.of(), CONFIG, NOW)).isEmpty();
+        // just started, nothing has been written since
+        assertThat(RollupCoverage.of(ImmutableList.of(running("a", NOW.withTime(12, 11, 0, 0), NOW.withTime(12, 9, 0, 0))), CONFIG, NOW))
+                .isEmpty();
+    }
+
+    @Test
+    public void containsRangesOfCompleteMinutes() {
+        final RollupCoverage coverage = RollupCoverage.create(NOW.withTime(10, 0, 0, 0), NOW.withTime(12, 0, 0, 0));
+
+        assertThat(coverage.contains(AbsoluteRange.create(NOW.withTime(10, 0, 0, 0), NOW.withTime(12, 0, 0, 0)))).isTrue();
+        assertThat(coverage.contains(AbsoluteRange.create(NOW.withTime(10, 30, 0, 0), NOW.withTime(11, 59, 30, 0)))).isTrue();
+        assertThat(coverage.contains(AbsoluteRange.create(NOW.withTime(9, 59, 30, 0), NOW.withTime(11, 0, 0, 0)))).isFalse();
+        assertThat(coverage.contains(AbsoluteRange.create(NOW.withTime(11, 0, 0, 0), NOW.withTime(12, 0, 1, 0)))).isFalse();
+    }
+
+    private static RollupStatusDto running(String nodeId, DateTime coveredSince, DateTime flushedUntil) {
+        return status(nodeId, CONFIG, coveredSince, flushedUntil, true, NOW);
+    }
+
+    private static RollupStatusDto status(String nodeId, RollupConfig config, DateTime coveredSince, DateTime flushedUntil,
+                                          boolean running, DateTime updatedAt) {
+        return RollupStatusDto.of(nodeId, config, coveredSince, flushedUntil, running, updatedAt);
+    }
+}
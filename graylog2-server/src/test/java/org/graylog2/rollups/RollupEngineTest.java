@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.rollups;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.messages.Messages;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.streams.StreamService;
+import org.graylog2.system.shutdown.GracefulShutdownService;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RollupEngineTest {
+    private static final DateTime NOW = new DateTime(2021, 3, 1, 12, 10, 30, DateTimeZone.UTC);
+
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private ClusterConfigService clusterConfigService;
+    @Mock
+    private StreamService streamService;
+    @Mock
+    private RollupStatusService statusService;
+    @Mock
+    private Messages messages;
+    @Mock
+    private ScheduledExecutorService scheduler;
+    @Mock
+    private GracefulShutdownService gracefulShutdownService;
+    @Mock
+    private IndexSet rollupIndexSet;
+    @Captor
+    private ArgumentCaptor<List<Map.Entry<IndexSet, Message>>> documentsCaptor;
+
+    private final Stream streamA = stream("stream-a");
+    private final Stream streamB = stream("stream-b");
+    private final Stream rollupStream = stream("rollups");
+    private final RollupConfig config = RollupConfig.defaultConfig().toBuilder()
+            .enabled(true)
+            .streamId("rollups")
+            .numericFields(ImmutableList.of("took_ms"))
+            .build();
+    private RollupEngine engine;
+
+    @Before
+    public void setUp() throws Exception {
+        when(rollupStream.getIndexSet()).thenReturn(rollupIndexSet);
+        when(rollupStream.getIndexSetId()).thenReturn("rollup-index-set");
+        when(streamService.load("rollups")).thenReturn(rollupStream);
+        when(streamService.loadAllWithIndexSet("rollup-index-set")).thenReturn(ImmutableList.of(rollupStream));
+        when(clusterConfigService.getOrDefault(eq(RollupConfig.class), any(RollupConfig.class))).thenReturn(config);
+        engine = newEngine();
+    }
+
+    private RollupEngine newEngine() {
+        return new RollupEngine(clusterConfigService, streamService, statusService, messages, scheduler, new EventBus(),
+                gracefulShutdownService, new MetricRegistry(), NOW::getMillis);
+    }
+
+    @Test
+    public void flushesCompleteMinutesOfAllThreads() {
+        final RollupProcessor first = new RollupProcessor(engine);
+        final RollupProcessor second = new RollupProcessor(engine);
+
+        first.process(messages(
+                message("host-a", NOW.withTime(12, 5, 10, 0), 10, streamA),
+                message("host-a", NOW.withTime(12, 5, 50, 0), 30, streamA, streamB),
+                // still open, kept for the next flush
+                message("host-a", NOW.withTime(12, 9, 0, 0), 20, streamA)));
+        second.process(messages(
+                message("host-a", NOW.withTime(12, 5, 20, 0), 5, streamA),
+                message("host-b", NOW.withTime(12, 5, 30, 0), null, streamA)));
+
+        engine.flush();
+
+        verify(messages).bulkIndex(documentsCaptor.capture(), eq(true));
+        final List<Message> documents = documentsCaptor.getValue().stream()
+                .peek(entry -> assertThat(entry.getKey()).isSameAs(rollupIndexSet))
+                .map(Map.Entry::getValue)
+                .sorted(Comparator.comparing(m -> m.getField(RollupEngine.FIELD_STREAM) + "/" + m.getSource()))
+                .collect(Collectors.toList());
+        assertThat(documents).hasSize(3);
+
+        final Message hostA = documents.get(0);
+        assertThat(hostA.getTimestamp()).isEqualTo(NOW.withTime(12, 5, 0, 0));
+        assertThat(hostA.getStreamIds()).containsExactlyInAnyOrder("rollups", "stream-a");
+        assertThat(hostA.getField(RollupEngine.FIELD_STREAM)).isEqualTo("stream-a");
+        assertThat(hostA.getField(RollupEngine.FIELD_COUNT)).isEqualTo(3L);
+        assertThat(hostA.getField(RollupEngine.sumField("took_ms"))).isEqualTo(45.0d);
+        assertThat(hostA.getField(RollupEngine.minField("took_ms"))).isEqualTo(5.0d);
+        assertThat(hostA.getField(RollupEngine.maxField("took_ms"))).isEqualTo(30.0d);
+
+        final Message hostB = documents.get(1);
+        assertThat(hostB.getSource()).isEqualTo("host-b");
+        assertThat(hostB.getField(RollupEngine.FIELD_COUNT)).isEqualTo(1L);
+        assertThat(hostB.hasField(RollupEngine.sumField("took_ms"))).isFalse();
+
+        final Message otherStream = documents.get(2);
+        assertThat(otherStream.getField(RollupEngine.FIELD_STREAM)).isEqualTo("stream-b");
+        assertThat(otherStream.getField(RollupEngine.FIELD_COUNT)).isEqualTo(1L);
+    }
+
+    @Test
+    public void keepsOpenMinutesPending() {
+        new RollupProcessor(engine).process(messages(message("host-a", NOW.withTime(12, 9, 0, 0), null, streamA)));
+
+        engine.flush();
+        engine.flush();
+
+        verify(messages, never()).bulkIndex(anyList(), eq(true));
+    }
+
+    @Test
+    public void ignoresFilteredOutMessages() {
+        final Message filteredOut = message("host-a", NOW.withTime(12, 5, 0, 0), null, streamA);
+        filteredOut.setFilterOut(true);
+        final RollupProcessor processor = new RollupProcessor(engine);
+        processor.process(messages(filteredOut, message("host-a", NOW.withTime(12, 5, 0, 0), null, streamA)));
+
+        engine.flush();
+
+        verify(messages, times(1)).bulkIndex(documentsCaptor.capture(), eq(true));
+        assertThat(documentsCaptor.getValue()).hasSize(1);
+        assertThat(documentsCaptor.getValue().get(0).getValue().getField(RollupEngine.FIELD_COUNT)).isEqualTo(1L);
+    }
+
+    @Test
+    public void coversMinutesFromStartUntilTheLastWrittenOne() {
+        verify(gracefulShutdownService).register(engine);
+        verify(statusService).save(config, NOW.withTime(12, 11, 0, 0), NOW, true, NOW);
+
+        engine.flush();
+
+        verify(statusService).save(config, NOW.withTime(12, 11, 0, 0), NOW.withTime(12, 9, 0, 0), true, NOW);
+    }
+
+    @Test
+    public void resumesCoverageAfterGracefulShutdown() {
+        final DateTime coveredSince = NOW.minusDays(1).withTime(0, 0, 0, 0);
+        when(statusService.get()).thenReturn(Optional.of(status(config, coveredSince, NOW.minusMinutes(5), false)));
+        engine = newEngine();
+
+        engine.flush();
+
+        verify(statusService).save(config, coveredSince, NOW.withTime(12, 9, 0, 0), true, NOW);
+    }
+
+    @Test
+    public void restartsCoverageAfterUncleanShutdownOrConfigChange() {
+        final DateTime coveredSince = NOW.minusDays(1).withTime(0, 0, 0, 0);
+        when(statusService.get()).thenReturn(Optional.of(status(config, coveredSince, NOW.minusMinutes(5), true)));
+        newEngine().flush();
+        when(statusService.get()).thenReturn(Optional.of(status(config.toBuilder().dimensions(ImmutableList.of("user")).build(),
+                coveredSince, NOW.minusMinutes(5), false)));
+        newEngine().flush();
+
+        verify(statusService, never()).save(any(RollupConfig.class), eq(coveredSince), any(DateTime.class), anyBoolean(), any(DateTime.class));
+    }
+
+    @Test
+    public void writesOpenMinutesOnGracefulShutdown() {
+        new RollupProcessor(engine).process(messages(message("host-a", NOW.withTime(12, 10, 0, 0), null, streamA)));
+
+        engine.doGracefulShutdown();
+        engine.flush();
+
+        verify(messages, times(1)).bulkIndex(documentsCaptor.capture(), eq(true));
+        assertThat(documentsCaptor.getValue()).hasSize(1);
+        verify(statusService).save(config, NOW.withTime(12, 11, 0, 0), NOW, false, NOW);
+    }
+
+    @Test
+    public void startsCoverageAfterMinutesWhichFailedToIndex() {
+        when(statusService.get()).thenReturn(Optional.of(status(config, NOW.minusDays(1), NOW.minusMinutes(5), false)));
+        engine = newEngine();
+        when(messages.bulkIndex(anyList(), eq(true))).thenAnswer(invocation -> {
+            final List<Map.Entry<IndexSet, Message>> documents = invocation.getArgument(0);
+            return documents.stream()
+                    .map(Map.Entry::getValue)
+                    .filter(message -> message.getTimestamp().equals(NOW.withTime(12, 5, 0, 0)))
+                    .map(Message::getId)
+                    .collect(Collectors.toList());
+        });
+        new RollupProcessor(engine).process(messages(
+                message("host-a", NOW.withTime(12, 4, 0, 0), null, streamA),
+                message("host-a", NOW.withTime(12, 5, 0, 0), null, streamA),
+                message("host-a", NOW.withTime(12, 7, 0, 0), null, streamA)));
+
+        engine.flush();
+
+        verify(statusService).save(config, NOW.withTime(12, 6, 0, 0), NOW.withTime(12, 9, 0, 0), true, NOW);
+    }
+
+    @Test
+    public void discardsRollupsIfTheIndexSetIsShared() {
+        when(streamService.loadAllWithIndexSet("rollup-index-set")).thenReturn(ImmutableList.of(rollupStream, streamA));
+        when(statusService.get()).thenReturn(Optional.of(status(config, NOW.minusDays(1), NOW.minusMinutes(5), false)));
+        engine = newEngine();
+        new RollupProcessor(engine).process(messages(message("host-a", NOW.withTime(12, 5, 0, 0), null, streamA)));
+
+        engine.flush();
+
+        verify(messages, never()).bulkIndex(anyList(), eq(true));
+        verify(statusService).save(config, NOW.withTime(12, 6, 0, 0), NOW.withTime(12, 9, 0, 0), true, NOW);
+    }
+
+    private static RollupStatusDto status(RollupConfig config, DateTime coveredSince, DateTime flushedUntil, boolean running) {
+        return RollupStatusDto.of("node", config, coveredSince, flushedUntil, running, flushedUntil);
+    }
+
+    private static Message message(String source, DateTime timestamp, Integer tookMs, Stream... streams) {
+        final Message message = new Message("hello", source, timestamp);
+        if (tookMs != null) {
+            message.addField("took_ms", tookMs);
+        }
+        message.addStreams(ImmutableList.copyOf(streams));
+        return message;
+    }
+
+    private static org.graylog2.plugin.Messages messages(Message... messages) {
+        return ImmutableList.copyOf(messages)::iterator;
+    }
+
+    private static Stream stream(String id) {
+        final Stream stream = mock(Stream.class);
+        when(stream.getId()).thenReturn(id);
+        return stream;
+    }
+}
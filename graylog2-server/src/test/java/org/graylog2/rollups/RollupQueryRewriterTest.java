@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.rollups;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
+import org.graylog.plugins.views.search.filter.OrFilter;
+import org.graylog.plugins.views.search.filter.QueryStringFilter;
+import org.graylog.plugins.views.search.filter.StreamFilter;
+import org.graylog.plugins.views.search.searchtypes.pivot.BucketSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.Pivot;
+import org.graylog.plugins.views.search.searchtypes.pivot.SeriesSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Time;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.TimeUnitInterval;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Values;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Average;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Max;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Sum;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RollupQueryRewriterTest {
+    private static final DateTime TO = new DateTime(2021, 3, 1, 12, 0, DateTimeZone.UTC);
+    private static final RollupConfig CONFIG = RollupConfig.defaultConfig().toBuilder()
+            .enabled(true)
+            .answerQueries(true)
+            .streamId("rollups")
+            .numericFields(ImmutableList.of("took_ms"))
+            .build();
+    private static final RollupCoverage COVERAGE = RollupCoverage.create(TO.minusDays(7), TO);
+
+    private final RollupQueryRewriter rewriter = new RollupQueryRewriter(() -> CONFIG, () -> Optional.of(COVERAGE));
+
+    @Test
+    public void answersCountsPerSourceOverTimeFromRollups() {
+        final Pivot pivot = pivot(
+                ImmutableList.of(Time.builder().field("timestamp").interval(minutes(5)).build()),
+                ImmutableList.of(Values.builder().field("source").limit(10).build()),
+                ImmutableList.of(Count.builder().build(), Max.builder().field("took_ms").build()));
+
+        final Pivot rewritten = (Pivot) rewrite(query(pivot, 24, StreamFilter.ofId("stream-a")));
+
+        assertThat(rewritten.id()).isEqualTo(pivot.id());
+        assertThat(rewritten.streams()).containsExactly("rollups");
+        assertThat(rewritten.query()).contains(ElasticsearchQueryString.of("rollup_stream:(\"stream-a\")"));
+        assertThat(rewritten.rowGroups()).isEqualTo(pivot.rowGroups());
+        assertThat(rewritten.columnGroups()).isEqualTo(pivot.columnGroups());
+        assertThat(rewritten.series()).containsExactly(
+                Sum.builder().id("count()").field(RollupEngine.FIELD_COUNT).build(),
+                Max.builder().id("max(took_ms)").field("rollup_max_took_ms").build());
+    }
+
+    @Test
+    public void groupsByStreamOverSeveralStreams() {
+        final Pivot pivot = pivot(
+                ImmutableList.of(Values.builder().field("streams").limit(10).build()),
+                ImmutableList.of(),
+                ImmutableList.of(Count.builder().build()));
+
+        final Pivot rewritten = (Pivot) rewrite(query(pivot, 24, OrFilter.or(StreamFilter.ofId("stream-b"), StreamFilter.ofId("stream-a"))));
+
+        assertThat(rewritten.rowGroups()).containsExactly(Values.builder().field(RollupEngine.FIELD_STREAM).limit(10).build());
+        assertThat(rewritten.query()).contains(ElasticsearchQueryString.of("rollup_stream:(\"stream-a\" OR \"stream-b\")"));
+    }
+
+    @Test
+    public void leavesPivotsWhichNeedTheMessages() {
+        final List<BucketSpec> byTime = ImmutableList.of(Time.builder().field("timestamp").interval(minutes(5)).build());
+        final List<SeriesSpec> count = ImmutableList.of(Count.builder().build());
+
+        // a series which can't be derived from the rollups
+        assertNotRewritten(query(pivot(byTime, ImmutableList.of(), ImmutableList.of(Average.builder().field("took_ms").build())), 24, StreamFilter.ofId("stream-a")));
+        // a grouping by a field which isn't a dimension
+        assertNotRewritten(query(pivot(ImmutableList.of(Values.builder().field("user").limit(10).build()), ImmutableList.of(), count), 24, StreamFilter.ofId("stream-a")));
+        // buckets shorter than a minute
+        assertNotRewritten(query(pivot(ImmutableList.of(Time.builder().field("timestamp").interval(TimeUnitInterval.Builder.builder().timeunit("30s").build()).build()), ImmutableList.of(), count), 24, StreamFilter.ofId("stream-a")));
+        // a time range which is too short
+        assertNotRewritten(query(pivot(byTime, ImmutableList.of(), count), 0, StreamFilter.ofId("stream-a")));
+        // several streams without a grouping by stream
+        assertNotRewritten(query(pivot(byTime, ImmutableList.of(), count), 24, OrFilter.or(StreamFilter.ofId("stream-a"), StreamFilter.ofId("stream-b"))));
+        // a filter which isn't a stream
+        assertNotRewritten(query(pivot(byTime, ImmutableList.of(), count), 24, QueryStringFilter.builder().query("source:foo").build()));
+        // a query string
+        final Query withQueryString = query(pivot(byTime, ImmutableList.of(), count), 24, StreamFilter.ofId("stream-a")).toBuilder()
+                .query(ElasticsearchQueryString.of("source:foo"))
+                .build();
+        assertNotRewritten(withQueryString);
+    }
+
+    @Test
+    public void leavesQueriesAloneIfNotEnabled() {
+        final RollupQueryRewriter rewriter = new RollupQueryRewriter(() -> CONFIG.toBuilder().answerQueries(false).build(),
+                () -> Optional.of(COVERAGE));
+        final Query query = query(pivot(ImmutableList.of(), ImmutableList.of(), ImmutableList.of(Count.builder().build())), 24, StreamFilter.ofId("stream-a"));
+
+        assertThat(rewriter.rewrite(query)).isSameAs(query);
+    }
+
+    @Test
+    public void leavesTimeRangesOutsideOfTheCoverage() {
+        final Pivot pivot = pivot(ImmutableList.of(), ImmutableList.of(), ImmutableList.of(Count.builder().build()));
+        final Query query = query(pivot, 24, StreamFilter.ofId("stream-a"));
+
+        // the most recent minutes haven't been written yet
+        assertNotRewritten(query.toBuilder().timerange(AbsoluteRange.create(TO.minusHours(24), TO.plusSeconds(30))).build());
+        // rollups were started later
+        assertNotRewritten(query.toBuilder().timerange(AbsoluteRange.create(TO.minusDays(8), TO)).build());
+        // no complete rollups at all
+        assertThat(new RollupQueryRewriter(() -> CONFIG, Optional::empty).rewrite(query)).isSameAs(query);
+    }
+
+    private void assertNotRewritten(Query query) {
+        assertThat(rewriter.rewrite(query)).isSameAs(query);
+    }
+
+    private SearchType rewrite(Query query) {
+        final Query rewritten = rewriter.rewrite(query);
+        assertThat(rewritten).isNotSameAs(query);
+        return rewritten.searchTypes().iterator().next();
+    }
+
+    private static Query query(Pivot pivot, int hours, org.graylog.plugins.views.search.Filter filter) {
+        return Query.builder()
+                .id("query")
+                .timerange(AbsoluteRange.create(TO.minusHours(hours).minusMinutes(1), TO))
+                .filter(filter)
+                .searchTypes(ImmutableSet.of(pivot))
+                .build();
+    }
+
+    private static Pivot pivot(List<BucketSpec> rowGroups, List<BucketSpec> columnGroups, List<SeriesSpec> series) {
+        return Pivot.builder()
+                .id("pivot")
+                .rowGroups(rowGroups)
+                .columnGroups(columnGroups)
+                .series(series)
+                .rollup(true)
+                .build();
+    }
+
+    private static TimeUnitInterval minutes(int minutes) {
+        return TimeUnitInterval.Builder.builder().timeunit(minutes + "m").build();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import org.graylog2.plugin.BaseConfiguration;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.system.processing.ProcessingStatusRecorder;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class InputBufferImplTest {
+    @Test
+    public void runsCallbackAfterAllDirectlyProcessedMessagesOfTheBatch() throws Exception {
+        final RawMessage slow = new RawMessage("slow".getBytes(StandardCharsets.UTF_8));
+        final RawMessage fast = new RawMessage("fast".getBytes(StandardCharsets.UTF_8));
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch releaseSlow = new CountDownLatch(1);
+        final CountDownLatch fastInserted = new CountDownLatch(1);
+        final ProcessBuffer processBuffer = mock(ProcessBuffer.class);
+        doAnswer(invocation -> {
+            if (invocation.getArgument(0) == slow) {
+                slowStarted.countDown();
+                releaseSlow.await();
+            } else {
+                fastInserted.countDown();
+            }
+            return null;
+        }).when(processBuffer).insertBlocking(any(RawMessage.class));
+
+        final BaseConfiguration configuration = mock(BaseConfiguration.class);
+        when(configuration.getInputBufferRingSize()).thenReturn(16);
+        when(configuration.getInputBufferWaitStrategy()).thenReturn(new BlockingWaitStrategy());
+        when(configuration.getInputbufferProcessors()).thenReturn(2);
+        when(configuration.isMessageJournalEnabled()).thenReturn(false);
+        final InputBufferImpl inputBuffer = new InputBufferImpl(new MetricRegistry(), configuration,
+                () -> new DirectMessageHandler(processBuffer, mock(ProcessingStatusRecorder.class)), () -> null, () -> null);
+
+        final CountDownLatch written = new CountDownLatch(1);
+        inputBuffer.insert(ImmutableList.of(slow, fast), written::countDown);
+
+        assertThat(slowStarted.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(fastInserted.await(10, TimeUnit.SECONDS)).isTrue();
+        // the last message of the batch has been processed before the first one
+        assertThat(written.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+        releaseSlow.countDown();
+        assertThat(written.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+}
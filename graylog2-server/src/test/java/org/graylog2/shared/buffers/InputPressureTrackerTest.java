@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.plugin.ThrottleState;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class InputPressureTrackerTest {
+    private static final Map<String, Double> WEIGHTS = ImmutableMap.of("heavy", 1.0, "light", 1.0, "other", 1.0);
+
+    private final AtomicLong clock = new AtomicLong(0L);
+    private EventBus eventBus;
+    private InputPressureTracker tracker;
+
+    @Before
+    public void setUp() {
+        eventBus = mock(EventBus.class);
+        tracker = new InputPressureTracker(true, eventBus, new MetricRegistry(), clock::get);
+    }
+
+    @Test
+    public void selectsHeaviestInputsFirst() {
+        final Map<String, Long> contributions = ImmutableMap.of("heavy", 9_000L, "light", 1_000L, "other", 2_000L);
+
+        assertThat(InputPressureTracker.selectThrottled(contributions, WEIGHTS, WEIGHTS.keySet()))
+                .containsExactly("heavy");
+        // the heavy input may send twice as much as the others, but still exceeds its share
+        assertThat(InputPressureTracker.selectThrottled(contributions, ImmutableMap.of("heavy", 2.0, "light", 1.0, "other", 1.0), WEIGHTS.keySet()))
+                .containsExactly("heavy");
+        // the heaviest input cannot be throttled, so the next one backs off
+        assertThat(InputPressureTracker.selectThrottled(contributions, WEIGHTS, ImmutableSet.of("light", "other")))
+                .containsExactly("other");
+    }
+
+    @Test
+    public void selectsAllInputsAboveTheirShare() {
+        final Map<String, Long> contributions = ImmutableMap.of("heavy", 5_000L, "light", 100L, "other", 4_000L);
+
+        assertThat(InputPressureTracker.selectThrottled(contributions, WEIGHTS, WEIGHTS.keySet()))
+                .containsExactlyInAnyOrder("heavy", "other");
+    }
+
+    @Test
+    public void throttlesNothingWhileProcessingKeepsUp() {
+        tracker.recordWritten(ImmutableMap.of("heavy", 10_000));
+
+        final ThrottleState state = new ThrottleState();
+        state.uncommittedJournalEntries = 10_000;
+        state.appendEventsPerSec = 10_000;
+        state.readEventsPerSec = 10_000;
+        state.processBufferCapacity = 100;
+        state.journalSizeLimit = 100;
+        tracker.update(state, WEIGHTS, WEIGHTS.keySet());
+
+        assertThat(state.throttledInputs).isEmpty();
+    }
+
+    @Test
+    public void throttlesHeaviestInputWhenProcessingFallsBehind() {
+        tracker.recordWritten(ImmutableMap.of("heavy", 15_000, "light", 1_000));
+
+        final ThrottleState state = new ThrottleState();
+        state.uncommittedJournalEntries = 16_000;
+        state.appendEventsPerSec = 16_000;
+        state.readEventsPerSec = 1_000;
+        state.processBufferCapacity = 100;
+        state.journalSizeLimit = 100;
+        tracker.update(state, WEIGHTS, WEIGHTS.keySet());
+
+        assertThat(state.throttledInputs).containsExactly("heavy");
+
+        // once the messages have been processed, the input is released again
+        for (int i = 0; i < 16_000; i++) {
+            tracker.recordProcessed(i < 15_000 ? "heavy" : "light");
+        }
+        final ThrottleState nextState = new ThrottleState();
+        nextState.journalSizeLimit = 100;
+        tracker.update(nextState, WEIGHTS, WEIGHTS.keySet());
+
+        assertThat(nextState.throttledInputs).isEmpty();
+    }
+
+    @Test
+    public void throttlesOnJournalWritesBeforeTheNextUpdate() {
+        final ThrottleState state = new ThrottleState();
+        state.journalSizeLimit = 100;
+        tracker.update(state, WEIGHTS, WEIGHTS.keySet());
+
+        tracker.recordWritten(ImmutableMap.of("heavy", 5_000, "light", 1_000));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+        tracker.recordWritten(ImmutableMap.of("heavy", 1_000));
+        verify(eventBus, never()).post(any());
+
+        tracker.recordWritten(ImmutableMap.of("heavy", 20_000, "light", 1_000));
+
+        final ArgumentCaptor<ThrottleState> captor = ArgumentCaptor.forClass(ThrottleState.class);
+        verify(eventBus).post(captor.capture());
+        assertThat(captor.getValue().throttledInputs).containsExactly("heavy");
+    }
+
+    @Test
+    public void ignoresWritesWhenDisabled() {
+        final InputPressureTracker disabled = new InputPressureTracker(false, eventBus, new MetricRegistry(), clock::get);
+        final ThrottleState state = new ThrottleState();
+        disabled.update(state, WEIGHTS, WEIGHTS.keySet());
+        disabled.recordWritten(ImmutableMap.of("heavy", 200_000));
+
+        assertThat(state.throttledInputs).isNull();
+        verify(eventBus, never()).post(any());
+    }
+}
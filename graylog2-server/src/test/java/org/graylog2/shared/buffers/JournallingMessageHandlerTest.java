@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers;
+
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.shared.messageq.MessageQueueWriter;
+import org.graylog2.system.processing.ProcessingStatusRecorder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class JournallingMessageHandlerTest {
+    private final List<List<String>> appends = new ArrayList<>();
+    private JournallingMessageHandler handler;
+
+    @Before
+    public void setUp() throws Exception {
+        final MessageQueueWriter messageQueueWriter = mock(MessageQueueWriter.class);
+        doAnswer(invocation -> {
+            final List<RawMessageEvent> entries = invocation.getArgument(0);
+            appends.add(entries.stream()
+                    .map(entry -> new String(entry.getEncodedRawMessage(), StandardCharsets.UTF_8))
+                    .collect(Collectors.toList()));
+            return null;
+        }).when(messageQueueWriter).write(anyList());
+        handler = new JournallingMessageHandler(new MetricRegistry(), messageQueueWriter, mock(ProcessingStatusRecorder.class), mock(InputPressureTracker.class));
+    }
+
+    @Test
+    public void writesSingleEventsAtEndOfBatch() throws Exception {
+        handler.onEvent(event("a", false), 0, false);
+        handler.onEvent(event("b", false), 1, true);
+
+        assertThat(appends).containsExactly(asList("a", "b"));
+    }
+
+    @Test
+    public void writesRangesWithOneAppend() throws Exception {
+        final RawMessageEvent first = event("b", true);
+        handler.onEvent(event("a", false), 0, false);
+        handler.onEvent(first, 1, false);
+        handler.onEvent(event("c", true), 2, true);
+
+        // the completed event is written, the incomplete range is moved out of the ring buffer slots
+        assertThat(appends).containsExactly(asList("a"));
+        assertThat(first.getEncodedRawMessage()).isNull();
+
+        handler.onEvent(event("d", false), 3, true);
+
+        assertThat(appends).containsExactly(asList("a"), asList("b", "c", "d"));
+    }
+
+    @Test
+    public void runsWriteCallbackAfterWritingItsRange() throws Exception {
+        final AtomicInteger callbacks = new AtomicInteger();
+        final RawMessageEvent first = event("a", true);
+        final RawMessageEvent last = event("b", false);
+        last.setWriteCallback(() -> {
+            assertThat(appends).containsExactly(asList("a", "b"));
+            callbacks.incrementAndGet();
+        });
+
+        handler.onEvent(first, 0, true);
+        assertThat(callbacks).hasValue(0);
+
+        handler.onEvent(last, 1, true);
+        assertThat(callbacks).hasValue(1);
+    }
+
+    private static RawMessageEvent event(String payload, boolean moreInBatch) {
+        final RawMessageEvent event = new RawMessageEvent();
+        event.setEncodedRawMessage(payload.getBytes(StandardCharsets.UTF_8));
+        event.setMessageIdBytes(new byte[16]);
+        event.setMoreInBatch(moreInBatch);
+        return event;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.RawMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+
+public class RawMessageEncoderHandlerTest {
+    private RawMessageEncoderHandler handler;
+
+    @Before
+    public void setUp() {
+        final InputPressureTracker inputPressureTracker = new InputPressureTracker(false, mock(EventBus.class), new MetricRegistry(), System::nanoTime);
+        handler = new RawMessageEncoderHandler(new MetricRegistry(), inputPressureTracker);
+    }
+
+    @Test
+    public void releasesRawMessageOnceEncoded() throws Exception {
+        final RawMessage rawMessage = new RawMessage("hello".getBytes(StandardCharsets.UTF_8));
+        rawMessage.setCodecName("raw");
+        rawMessage.setCodecConfig(Configuration.EMPTY_CONFIGURATION);
+        final RawMessageEvent event = new RawMessageEvent();
+        event.setRawMessage(rawMessage);
+
+        handler.onEvent(event);
+
+        assertThat(event.getEncodedRawMessage()).isNotEmpty();
+        assertThat(event.getRawMessage()).isNull();
+        assertThat(rawMessage.refCnt()).isZero();
+    }
+
+    @Test
+    public void releasesRawMessageIfEncodingFails() {
+        final RawMessage rawMessage = spy(new RawMessage("hello".getBytes(StandardCharsets.UTF_8)));
+        doThrow(new IllegalStateException("boom")).when(rawMessage).encode();
+        final RawMessageEvent event = new RawMessageEvent();
+        event.setRawMessage(rawMessage);
+
+        assertThatThrownBy(() -> handler.onEvent(event)).isInstanceOf(IllegalStateException.class);
+
+        assertThat(event.getRawMessage()).isNull();
+        assertThat(rawMessage.refCnt()).isZero();
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.plugin.streams.Stream;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StreamSamplerTest {
+    private static final DateTime TIMESTAMP = new DateTime(2021, 3, 1, 12, 0, DateTimeZone.UTC);
+
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private ClusterConfigService clusterConfigService;
+    @Mock
+    private ScheduledExecutorService scheduler;
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final Stream sampled = stream("sampled");
+    private final Stream unsampled = stream("unsampled");
+    private long nanos = 0L;
+    private final Clock clock = new Clock() {
+        @Override
+        public long getTick() {
+            return nanos;
+        }
+    };
+
+    @Test
+    public void keepsStreamsWithoutSampling() {
+        final StreamSampler sampler = sampler(StreamSamplingConfig.defaultConfig());
+        final Message message = message("host-a", sampled, unsampled);
+
+        sampler.sample(message);
+
+        assertThat(message.getStreams()).containsExactlyInAnyOrder(sampled, unsampled);
+        assertThat(message.hasField("sampling_weight_sampled")).isFalse();
+    }
+
+    @Test
+    public void keepsOneInNMessages() {
+        final StreamSampler sampler = sampler(config(StreamSamplingConfig.Sampling.create(4, null, null)));
+
+        int kept = 0;
+        for (int i = 0; i < 4000; i++) {
+            final Message message = message("host-a", sampled, unsampled);
+            sampler.sample(message);
+            if (message.getStreams().contains(sampled)) {
+                kept++;
+                assertThat(message.getField("sampling_weight_sampled")).isEqualTo(4L);
+            } else {
+                assertThat(message.getStreams()).containsExactly(unsampled);
+                assertThat(message.hasField("sampling_weight_sampled")).isFalse();
+            }
+            assertThat(message.hasField("sampling_weight_unsampled")).isFalse();
+        }
+
+        assertThat(kept).isBetween(850, 1150);
+        assertThat(metricRegistry.meter(MetricRegistry.name(StreamSampler.class, "sampledOutMessages")).getCount())
+                .isEqualTo(4000L - kept);
+    }
+
+    @Test
+    public void decidesByHashField() {
+        final StreamSampler sampler = sampler(config(StreamSamplingConfig.Sampling.create(8, null, "source")));
+
+        for (int i = 0; i < 100; i++) {
+            final String source = "host-" + i;
+            final Message first = message(source, sampled);
+            sampler.sample(first);
+            final Message second = message(source, sampled);
+            sampler.sample(second);
+            assertThat(second.getStreams()).isEqualTo(first.getStreams());
+        }
+    }
+
+    @Test
+    public void adaptsToTargetRate() {
+        final StreamSampler sampler = sampler(config(StreamSamplingConfig.Sampling.create(null, 10.0d, null)));
+
+        // 100 messages per second for five minutes
+        int kept = 0;
+        for (int second = 0; second < 300; second++) {
+            for (int i = 0; i < 100; i++) {
+                final Message message = message("host-a", sampled);
+                sampler.sample(message);
+                if (!message.getStreams().isEmpty() && second >= 240) {
+                    kept++;
+                }
+            }
+            nanos += TimeUnit.SECONDS.toNanos(1);
+        }
+
+        // about 10 per second in the last minute
+        assertThat(kept).isBetween(450, 750);
+    }
+
+    @Test
+    public void weighsMessagesPerSampledStream() {
+        final Stream other = stream("other");
+        final StreamSampler sampler = sampler(StreamSamplingConfig.create(ImmutableMap.of(
+                "sampled", StreamSamplingConfig.Sampling.create(2, null, "source"),
+                "other", StreamSamplingConfig.Sampling.create(3, null, "source")), null));
+
+        for (int i = 0; i < 100; i++) {
+            final Message message = message("host-" + i, sampled, other);
+            sampler.sample(message);
+
+            assertThat(message.hasField("sampling_weight_sampled")).isEqualTo(message.getStreams().contains(sampled));
+            assertThat(message.hasField("sampling_weight_other")).isEqualTo(message.getStreams().contains(other));
+            if (message.getStreams().contains(other)) {
+                assertThat(message.getField("sampling_weight_other")).isEqualTo(3L);
+            }
+        }
+    }
+
+    @Test
+    public void processorSamplesAfterRouting() {
+        final StreamSampler sampler = sampler(config(StreamSamplingConfig.Sampling.create(1000, null, null)));
+        final StreamSamplingProcessor processor = new StreamSamplingProcessor(sampler);
+        final List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            messages.add(message("host-a", sampled, unsampled));
+        }
+        final Message filteredOut = message("host-a", sampled);
+        filteredOut.setFilterOut(true);
+        messages.add(filteredOut);
+
+        processor.process(messages::iterator);
+
+        assertThat(messages.stream().filter(message -> message.getStreams().contains(sampled)).count()).isLessThanOrEqualTo(2L);
+        assertThat(messages.subList(0, 10)).allSatisfy(message -> assertThat(message.getStreams()).contains(unsampled));
+        assertThat(filteredOut.getStreams()).containsExactly(sampled);
+    }
+
+    private StreamSampler sampler(StreamSamplingConfig config) {
+        when(clusterConfigService.getOrDefault(eq(StreamSamplingConfig.class), any(StreamSamplingConfig.class))).thenReturn(config);
+        return new StreamSampler(clusterConfigService, scheduler, new EventBus(), metricRegistry, clock);
+    }
+
+    private static StreamSamplingConfig config(StreamSamplingConfig.Sampling sampling) {
+        return StreamSamplingConfig.create(ImmutableMap.of("sampled", sampling), null);
+    }
+
+    private static Message message(String source, Stream... streams) {
+        final Message message = new Message("hello", source, TIMESTAMP);
+        message.addStreams(ImmutableList.copyOf(streams));
+        return message;
+    }
+
+    private static Stream stream(String id) {
+        final Stream stream = mock(Stream.class);
+        when(stream.getId()).thenReturn(id);
+        return stream;
+    }
+}
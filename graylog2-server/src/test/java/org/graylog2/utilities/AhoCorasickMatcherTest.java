@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AhoCorasickMatcherTest {
+    @Test
+    public void findsAllOccurringPatterns() {
+        final AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("he", "she", "his", "hers", "xyz"));
+
+        assertThat(matcher.find("ushers").stream().toArray()).containsExactly(0, 1, 3);
+        assertThat(matcher.find("this").stream().toArray()).containsExactly(2);
+        assertThat(matcher.find("nothing").stream().toArray()).isEmpty();
+        assertThat(matcher.find("").stream().toArray()).isEmpty();
+    }
+
+    @Test
+    public void findsPatternsThroughFailureLinks() {
+        final AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("abcd", "bc", "c", "bcx"));
+
+        assertThat(matcher.find("abcx").stream().toArray()).containsExactly(1, 2, 3);
+        assertThat(matcher.find("aabcd").stream().toArray()).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    public void handlesDuplicateAndOverlappingPatterns() {
+        final AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("aa", "aa", "aaa"));
+
+        assertThat(matcher.find("aaaa").stream().toArray()).containsExactly(0, 1, 2);
+        assertThat(matcher.find("a").stream().toArray()).isEmpty();
+    }
+
+    @Test
+    public void rejectsEmptyPatterns() {
+        assertThatThrownBy(() -> new AhoCorasickMatcher(Collections.singletonList("")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
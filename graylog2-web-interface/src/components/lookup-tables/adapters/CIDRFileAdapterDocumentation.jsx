@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+/* eslint-disable react/no-unescaped-entities */
+import React from 'react';
+
+import { Alert } from 'components/bootstrap';
+
+class CIDRFileAdapterDocumentation extends React.Component {
+  render() {
+    const csvFile = `"network","zone"
+"10.0.0.0/8","internal"
+"10.1.0.0/16","servers"
+"192.168.1.10-192.168.1.20","printers"
+"2001:db8::/32","lab"
+"172.16.0.1","gateway"`;
+
+    return (
+      <div>
+        <p>The CIDR data adapter looks up IP addresses in a CSV file of networks.</p>
+        <p>
+          If an address is part of more than one network, the value of the most specific network is returned. For the
+          example below, <code>10.1.2.3</code> results in <code>servers</code> and <code>10.2.3.4</code> in <code>internal</code>.
+        </p>
+
+        <Alert style={{ marginBottom: 10 }} bsStyle="info">
+          <h4 style={{ marginBottom: 10 }}>CSV file requirements:</h4>
+          <ul className="no-padding">
+            <li>The first line in the CSV file needs to be a list of field/column names</li>
+            <li>The network column contains IPv4 or IPv6 networks in CIDR notation, address ranges (<code>start-end</code>) or single addresses</li>
+            <li>Lines with invalid networks are skipped</li>
+            <li>The file uses <strong>utf-8</strong> encoding</li>
+            <li>The file is readable by <strong>every</strong> Graylog server node</li>
+          </ul>
+        </Alert>
+
+        <hr />
+
+        <h3 style={{ marginBottom: 10 }}>Example</h3>
+
+        <h5 style={{ marginBottom: 10 }}>Configuration</h5>
+        <p style={{ marginBottom: 10, padding: 0 }}>
+          Separator: <code>,</code><br />
+          Quote character: <code>"</code><br />
+          Network column: <code>network</code><br />
+          Value column: <code>zone</code>
+        </p>
+
+        <h5 style={{ marginBottom: 10 }}>CSV File</h5>
+        <pre>{csvFile}</pre>
+      </div>
+    );
+  }
+}
+
+export default CIDRFileAdapterDocumentation;
@@ -169,6 +169,15 @@ const DnsAdapterDocumentation = () => {
         If enabled, the TTL for this adapter&apos;s cache will be overridden with the specified value.
       </p>
 
+      <h5 style={styleMarginBottom}>Asynchronous Resolution</h5>
+
+      <p style={styleMarginBottom}>
+        If enabled, message processing never waits for the DNS server. A key without a known answer returns an
+        empty result right away while the DNS query runs in the background, concurrent lookups of the same key share
+        a single query. The answer is used as soon as it arrives. Names which don&apos;t exist are cached as long
+        as the SOA record of their zone allows.
+      </p>
+
     </div>
   );
 };
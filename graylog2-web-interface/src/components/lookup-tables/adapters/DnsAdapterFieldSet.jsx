@@ -26,6 +26,7 @@ class DnsAdapterFieldSet extends React.Component {
     config: PropTypes.shape({
       request_timeout: PropTypes.number.isRequired,
       server_ips: PropTypes.string,
+      async_resolution: PropTypes.bool,
     }).isRequired,
     updateConfig: PropTypes.func.isRequired,
     handleFormEvent: PropTypes.func.isRequired,
@@ -129,6 +130,14 @@ class DnsAdapterFieldSet extends React.Component {
                        enabled={config.cache_ttl_override_enabled}
                        labelClassName="col-sm-3"
                        wrapperClassName="col-sm-9" />
+        <Input type="checkbox"
+               id="async_resolution"
+               name="async_resolution"
+               label="Asynchronous resolution"
+               checked={config.async_resolution}
+               onChange={handleFormEvent}
+               help="Enable to never wait for the DNS server. Unknown keys return an empty result until the answer arrives."
+               wrapperClassName="col-md-offset-3 col-md-9" />
       </fieldset>
     );
   }
@@ -46,6 +46,9 @@ const DnsAdapterSummary = ({ dataAdapter }) => {
       <dd>
         {!config.cache_ttl_override_enabled ? 'n/a' : <TimeUnit value={config.cache_ttl_override} unit={config.cache_ttl_override_unit} />}
       </dd>
+
+      <dt>Asynchronous Resolution</dt>
+      <dd>{config.async_resolution ? 'yes' : 'no'}</dd>
     </dl>
   );
 };
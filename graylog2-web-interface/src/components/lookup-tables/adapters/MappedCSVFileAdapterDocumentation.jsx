@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+import React from 'react';
+
+import { Alert } from 'components/bootstrap';
+
+import CSVFileAdapterDocumentation from './CSVFileAdapterDocumentation';
+
+const MappedCSVFileAdapterDocumentation = () => (
+  <div>
+    <p>
+      The memory-mapped CSV data adapter is meant for large CSV files with millions of entries. It compiles the CSV file
+      into an index file in the Graylog data directory and serves lookups from that file instead of keeping all entries
+      in the Java heap.
+    </p>
+
+    <Alert style={{ marginBottom: 10 }} bsStyle="info">
+      <h4 style={{ marginBottom: 10 }}>Index file</h4>
+      <ul className="no-padding">
+        <li>Every Graylog server node needs enough free disk space in its data directory for the index</li>
+        <li>When the CSV file changes, a new index is built in the background and replaces the current one once it is complete</li>
+        <li>If a key is contained more than once, the last entry wins</li>
+      </ul>
+    </Alert>
+
+    <CSVFileAdapterDocumentation />
+  </div>
+);
+
+export default MappedCSVFileAdapterDocumentation;
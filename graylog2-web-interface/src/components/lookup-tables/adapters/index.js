@@ -17,6 +17,9 @@
 import { PluginManifest, PluginStore } from 'graylog-web-plugin/plugin';
 
 import {} from 'components/maps/adapter';
+import CIDRFileAdapterFieldSet from './CIDRFileAdapterFieldSet';
+import CIDRFileAdapterSummary from './CIDRFileAdapterSummary';
+import CIDRFileAdapterDocumentation from './CIDRFileAdapterDocumentation';
 import CSVFileAdapterFieldSet from './CSVFileAdapterFieldSet';
 import CSVFileAdapterSummary from './CSVFileAdapterSummary';
 import CSVFileAdapterDocumentation from './CSVFileAdapterDocumentation';
@@ -29,9 +32,17 @@ import DSVHTTPAdapterDocumentation from './DSVHTTPAdapterDocumentation';
 import HTTPJSONPathAdapterFieldSet from './HTTPJSONPathAdapterFieldSet';
 import HTTPJSONPathAdapterSummary from './HTTPJSONPathAdapterSummary';
 import HTTPJSONPathAdapterDocumentation from './HTTPJSONPathAdapterDocumentation';
+import MappedCSVFileAdapterDocumentation from './MappedCSVFileAdapterDocumentation';
 
 PluginStore.register(new PluginManifest({}, {
   lookupTableAdapters: [
+    {
+      type: 'cidr_csvfile',
+      displayName: 'CIDR Ranges from CSV File',
+      formComponent: CIDRFileAdapterFieldSet,
+      summaryComponent: CIDRFileAdapterSummary,
+      documentationComponent: CIDRFileAdapterDocumentation,
+    },
     {
       type: 'csvfile',
       displayName: 'CSV File',
@@ -60,5 +71,12 @@ PluginStore.register(new PluginManifest({}, {
       summaryComponent: HTTPJSONPathAdapterSummary,
       documentationComponent: HTTPJSONPathAdapterDocumentation,
     },
+    {
+      type: 'mapped_csvfile',
+      displayName: 'CSV File (memory-mapped)',
+      formComponent: CSVFileAdapterFieldSet,
+      summaryComponent: CSVFileAdapterSummary,
+      documentationComponent: MappedCSVFileAdapterDocumentation,
+    },
   ],
 }));
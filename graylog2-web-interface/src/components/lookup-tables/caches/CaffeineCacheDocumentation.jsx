@@ -52,6 +52,29 @@ class CaffeineCacheDocumentation extends React.Component {
           regularly changing data, such as configuration state of external systems.
         </p>
 
+        <h3 style={{ marginBottom: 10 }}>Background refresh</h3>
+
+        <h5 style={{ marginBottom: 10 }}>Refresh after write</h5>
+        <p style={{ marginBottom: 10, padding: 0 }}>
+          The cache will reload entries from the data adapter in the background after a fixed time since they have
+          been loaded. Lookups keep using the cached value until the reload has finished, so they never wait for
+          the data adapter for entries that are already cached. Failed reloads keep the cached value.
+        </p>
+
+        <h5 style={{ marginBottom: 10 }}>Max staleness</h5>
+        <p style={{ marginBottom: 10, padding: 0 }}>
+          The cache will keep expired entries for this additional time. Lookups of such an entry still return the
+          expired value and trigger a reload in the background. Entries older than that are loaded again synchronously.
+        </p>
+
+        <h3 style={{ marginBottom: 10 }}>Snapshots</h3>
+        <p style={{ marginBottom: 10, padding: 0 }}>
+          The cache can save its most used entries to the data directory of the Graylog server in a fixed interval and
+          when it is stopped. When the cache starts again, for example after a restart of the server, it loads the
+          entries with their remaining expiration time, so the data adapter isn't flooded with requests for the same
+          keys. Entries with errors are not saved.
+        </p>
+
       </div>
     );
   }
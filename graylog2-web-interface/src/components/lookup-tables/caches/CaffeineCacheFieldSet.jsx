@@ -48,6 +48,18 @@ class CaffeineCacheFieldSet extends React.Component {
     this._update(value, unit, enabled, 'expire_after_write');
   };
 
+  updateRefreshAfterWrite = (value, unit, enabled) => {
+    this._update(value, unit, enabled, 'refresh_after_write');
+  };
+
+  updateMaxStaleness = (value, unit, enabled) => {
+    this._update(value, unit, enabled, 'max_staleness');
+  };
+
+  updateSnapshotInterval = (value, unit, enabled) => {
+    this._update(value, unit, enabled, 'snapshot_interval');
+  };
+
   render() {
     const { config } = this.props;
 
@@ -80,6 +92,39 @@ class CaffeineCacheFieldSet extends React.Component {
                        defaultEnabled={config.expire_after_write > 0}
                        labelClassName="col-sm-3"
                        wrapperClassName="col-sm-9" />
+        <TimeUnitInput label="Refresh after write"
+                       help="If enabled, entries are reloaded in the background after the specified time from when they were loaded. The cached value is used until the reload has finished."
+                       update={this.updateRefreshAfterWrite}
+                       value={config.refresh_after_write}
+                       unit={config.refresh_after_write_unit || 'SECONDS'}
+                       defaultEnabled={config.refresh_after_write > 0}
+                       labelClassName="col-sm-3"
+                       wrapperClassName="col-sm-9" />
+        <TimeUnitInput label="Max staleness"
+                       help="If enabled, expired entries are kept for the specified time and used while they are reloaded in the background."
+                       update={this.updateMaxStaleness}
+                       value={config.max_staleness}
+                       unit={config.max_staleness_unit || 'SECONDS'}
+                       defaultEnabled={config.max_staleness > 0}
+                       labelClassName="col-sm-3"
+                       wrapperClassName="col-sm-9" />
+        <TimeUnitInput label="Snapshot interval"
+                       help="If enabled, the most used entries are saved to the data directory in this interval and when the cache is stopped. They are loaded again when the cache starts."
+                       update={this.updateSnapshotInterval}
+                       value={config.snapshot_interval}
+                       unit={config.snapshot_interval_unit || 'MINUTES'}
+                       defaultEnabled={config.snapshot_interval > 0}
+                       labelClassName="col-sm-3"
+                       wrapperClassName="col-sm-9" />
+        <Input type="text"
+               id="snapshot_max_entries"
+               name="snapshot_max_entries"
+               label="Snapshot entries"
+               onChange={this.props.handleFormEvent}
+               help="The maximum number of entries in a snapshot. Use 0 to save up to the maximum number of entries of the cache."
+               value={config.snapshot_max_entries}
+               labelClassName="col-sm-3"
+               wrapperClassName="col-sm-9" />
       </fieldset>
     );
   }
@@ -35,6 +35,12 @@ class CaffeineCacheSummary extends React.Component {
         <dd><TimeUnit value={config.expire_after_access} unit={config.expire_after_access_unit} /></dd>
         <dt>Expire after write</dt>
         <dd><TimeUnit value={config.expire_after_write} unit={config.expire_after_write_unit} /></dd>
+        <dt>Refresh after write</dt>
+        <dd><TimeUnit value={config.refresh_after_write} unit={config.refresh_after_write_unit} /></dd>
+        <dt>Max staleness</dt>
+        <dd><TimeUnit value={config.max_staleness} unit={config.max_staleness_unit} /></dd>
+        <dt>Snapshot interval</dt>
+        <dd><TimeUnit value={config.snapshot_interval} unit={config.snapshot_interval_unit} /></dd>
       </dl>
     );
   }
@@ -37,6 +37,8 @@ const GeoIpResolverConfig = createReactClass({
         enabled: false,
         db_type: 'MAXMIND_CITY',
         db_path: '/etc/graylog/server/GeoLite2-City.mmdb',
+        fields: [],
+        cache_size: 10000,
         run_before_extractors: false,
       },
     };
@@ -76,6 +78,12 @@ const GeoIpResolverConfig = createReactClass({
     };
   },
 
+  _onFieldsUpdate(e) {
+    const fields = e.target.value.split(',').map((field) => field.trim()).filter((field) => field.length > 0);
+
+    this._updateConfigField('fields', fields);
+  },
+
   _openModal() {
     this.geoIpConfigModal.open();
   },
@@ -129,6 +137,10 @@ const GeoIpResolverConfig = createReactClass({
           <dd>{this._activeDatabaseType(config.db_type)}</dd>
           <dt>Database path:</dt>
           <dd>{config.db_path}</dd>
+          <dt>Fields:</dt>
+          <dd>{config.fields && config.fields.length > 0 ? config.fields.join(', ') : 'All fields'}</dd>
+          <dt>Cache size:</dt>
+          <dd>{config.cache_size > 0 ? config.cache_size : 'Disabled'}</dd>
         </dl>
 
         <IfPermitted permissions="clusterconfigentry:edit">
@@ -165,6 +177,21 @@ const GeoIpResolverConfig = createReactClass({
                    name="db_path"
                    value={config.db_path}
                    onChange={this._onUpdate('db_path')} />
+            <Input id="geolocation-fields"
+                   type="text"
+                   label="Fields to resolve"
+                   help="Comma-separated list of message fields containing IP addresses. Leave empty to check all fields, which is considerably slower for messages with many fields."
+                   name="fields"
+                   defaultValue={(config.fields || []).join(', ')}
+                   onChange={this._onFieldsUpdate} />
+            <Input id="geolocation-cache-size"
+                   type="number"
+                   min="0"
+                   label="Cache size"
+                   help="Number of IP addresses for which the geo-location information is cached. Set to 0 to disable the cache."
+                   name="cache_size"
+                   value={config.cache_size}
+                   onChange={this._onUpdate('cache_size')} />
           </fieldset>
         </BootstrapModalForm>
       </div>